@@ -0,0 +1,14 @@
+package se.exuvo.aurora.benchmark
+
+import org.openjdk.jmh.annotations.Param
+import se.exuvo.aurora.galactic.Galaxy
+
+open class CoastingMunitionsBenchmark : StarSystemTickBenchmark() {
+
+	@Param("10000")
+	@JvmField var munitions = 0
+
+	override fun createGalaxy(): Galaxy = Scenarios.createGalaxy(1) { system ->
+		Scenarios.addCoastingMunitions(system, munitions)
+	}
+}
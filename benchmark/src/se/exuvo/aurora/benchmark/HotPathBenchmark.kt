@@ -0,0 +1,114 @@
+package se.exuvo.aurora.benchmark
+
+import com.artemis.Aspect
+import com.artemis.utils.IntBag
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.annotations.Warmup
+import se.exuvo.aurora.galactic.Galaxy
+import se.exuvo.aurora.starsystems.StarSystem
+import se.exuvo.aurora.starsystems.components.MovementValues
+import se.exuvo.aurora.starsystems.components.ShipComponent
+import se.exuvo.aurora.starsystems.systems.SpatialPartitioningSystem
+import se.exuvo.aurora.starsystems.systems.WeaponSystem
+import se.exuvo.aurora.utils.forEachFast
+import java.util.concurrent.TimeUnit
+
+/**
+ * Single calls into the hot paths of a system tick, measured in the sensor ships scenario
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+open class HotPathBenchmark {
+
+	@Param("500")
+	@JvmField var ships = 0
+
+	lateinit var galaxy: Galaxy
+	lateinit var system: StarSystem
+	lateinit var weaponSystem: WeaponSystem
+	lateinit var shooterMovement: MovementValues
+	lateinit var targetMovement: MovementValues
+
+	private val queryRange = (0.5 * Scenarios.AU_IN_M).toLong()
+	private val proximityResult = IntBag()
+
+	@Setup(Level.Trial)
+	fun setup() {
+		galaxy = Scenarios.createGalaxy(1) { system ->
+			Scenarios.addSensorShips(system, ships)
+		}
+
+		for (i in 1..10) {
+			galaxy.tick(1)
+		}
+
+		system = galaxy.systems[0]
+		weaponSystem = system.world.getSystem(WeaponSystem::class.java)
+
+		val shipIDs = system.world.aspectSubscriptionManager.get(Aspect.all(ShipComponent::class.java)).entities
+		shooterMovement = system.timedMovementMapper.get(shipIDs[0]).get(system.time).value
+		targetMovement = system.timedMovementMapper.get(shipIDs[1]).get(system.time).value
+	}
+
+	@TearDown(Level.Trial)
+	fun tearDown() {
+		Scenarios.dispose()
+	}
+
+	@Benchmark
+	fun interceptionPosition1() = weaponSystem.getInterceptionPosition1(shooterMovement, targetMovement, 50_000.0)
+
+	@Benchmark
+	fun interceptionPosition2() = weaponSystem.getInterceptionPosition2(shooterMovement, targetMovement, 0.0, 100.0)
+
+	@Benchmark
+	fun interceptionPosition3() = weaponSystem.getInterceptionPosition3(shooterMovement, targetMovement, 0.0, 50.0, 150.0, 1_000_000.0)
+
+	@Benchmark
+	fun interceptionPosition4() = weaponSystem.getInterceptionPosition4(shooterMovement, targetMovement, 0.0, 100.0, 600.0)
+
+	@Benchmark
+	fun interceptionPosition5() = weaponSystem.getInterceptionPosition5(shooterMovement, targetMovement, 0.0, 50.0, 150.0, 600.0)
+
+	@Benchmark
+	fun quadtreeQuery(): Int {
+		return SpatialPartitioningSystem.query(system.spatialPartitioningSystem.tree, -queryRange, -queryRange, queryRange, queryRange).size()
+	}
+
+	@Benchmark
+	fun proximityWithin(): Int {
+		return system.proximitySystem.getWithin(targetMovement.position.x, targetMovement.position.y, queryRange, proximityResult).size()
+	}
+
+	@Benchmark
+	fun proximityNearest(): Int {
+		return system.proximitySystem.getNearest(targetMovement.position.x, targetMovement.position.y, 8, proximityResult).size()
+	}
+
+	/**
+	 * Copies the movement of every entity to the working shadow
+	 */
+	@Benchmark
+	fun shadowUpdate() {
+		system.allSubscription.entities.forEachFast { entityID ->
+			system.changed(entityID, system.timedMovementMapper)
+		}
+
+		system.workingShadow.update()
+	}
+}
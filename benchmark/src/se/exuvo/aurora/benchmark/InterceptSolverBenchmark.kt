@@ -0,0 +1,202 @@
+package se.exuvo.aurora.benchmark
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OperationsPerInvocation
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import se.exuvo.aurora.utils.InterceptResult
+import se.exuvo.aurora.utils.InterceptSolver
+import se.exuvo.aurora.utils.Units
+import se.exuvo.aurora.utils.Vector2L
+import java.util.Random
+import java.util.concurrent.TimeUnit
+
+/**
+ * InterceptSolver on random shooter and target movement from 10 km to 1e6 km apart.
+ * Setup verifies every solver kind against a brute force search of the distance equation and fails the trial on any mismatch
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+open class InterceptSolverBenchmark {
+	companion object {
+		const val SIZE = 256
+		const val REFERENCE_SAMPLES = 200_000
+	}
+
+	private val shooterPositions = Array(SIZE) { Vector2L() }
+	private val shooterVelocities = Array(SIZE) { Vector2L() }
+	private val targetPositions = Array(SIZE) { Vector2L() }
+	private val targetVelocities = Array(SIZE) { Vector2L() }
+	private val targetAccelerations = Array(SIZE) { Vector2L() }
+
+	// Projectile in m/s, m/s², s
+	private val speeds = DoubleArray(SIZE)
+	private val startAccelerations = DoubleArray(SIZE)
+	private val endAccelerations = DoubleArray(SIZE)
+	private val accelerationTimes = DoubleArray(SIZE)
+
+	private val solver = InterceptSolver()
+	private val result = InterceptResult()
+
+	@Setup(Level.Trial)
+	fun setup() {
+		val random = Random(1)
+
+		for (i in 0 until SIZE) {
+			val range = Math.pow(10.0, 4 + random.nextDouble() * 5)
+			val angle = random.nextDouble() * 2 * Math.PI
+
+			shooterPositions[i].set(((random.nextDouble() * 2 - 1) * 1e12).toLong(), ((random.nextDouble() * 2 - 1) * 1e12).toLong())
+			shooterVelocities[i].set(((random.nextDouble() * 2 - 1) * 1e6).toLong(), ((random.nextDouble() * 2 - 1) * 1e6).toLong())
+			targetPositions[i].set(shooterPositions[i].x + (Math.cos(angle) * range).toLong(), shooterPositions[i].y + (Math.sin(angle) * range).toLong())
+			targetVelocities[i].set(((random.nextDouble() * 2 - 1) * 1e6).toLong(), ((random.nextDouble() * 2 - 1) * 1e6).toLong())
+
+			if (random.nextBoolean()) {
+				targetAccelerations[i].set(((random.nextDouble() * 2 - 1) * 2000).toLong(), ((random.nextDouble() * 2 - 1) * 2000).toLong())
+			}
+
+			speeds[i] = random.nextDouble() * 2000
+			startAccelerations[i] = random.nextDouble() * 500
+			endAccelerations[i] = startAccelerations[i] * (1 + random.nextDouble() * 3)
+			accelerationTimes[i] = 10 + random.nextDouble() * 2000
+		}
+
+		for (i in 0 until SIZE) {
+			val speed = speeds[i]
+			val startAcceleration = startAccelerations[i]
+			val endAcceleration = endAccelerations[i]
+			val accelerationTime = accelerationTimes[i]
+			val infinite = Double.POSITIVE_INFINITY
+
+			solver.set(shooterPositions[i], shooterVelocities[i], targetPositions[i], targetVelocities[i], targetAccelerations[i])
+
+			verify(i, "coastLight", solver.solveCoast(Units.C * 1000, result), Units.C * 1000, 0.0, 0.0, infinite)
+			verify(i, "coast", solver.solveCoast(speed * 10, result), speed * 10, 0.0, 0.0, infinite)
+			verify(i, "accelerating", solver.solveAccelerating(speed, startAcceleration, result), speed, startAcceleration, startAcceleration, infinite)
+			verify(i, "boost", solver.solveBoost(speed, startAcceleration, endAcceleration, accelerationTime, result), speed, startAcceleration, endAcceleration, accelerationTime, false)
+			verify(i, "boostCoastConstant", solver.solveBoostCoast(speed, startAcceleration, startAcceleration, accelerationTime, result), speed, startAcceleration, startAcceleration, accelerationTime)
+			verify(i, "boostCoastVarying", solver.solveBoostCoast(speed, startAcceleration, endAcceleration, accelerationTime, result), speed, startAcceleration, endAcceleration, accelerationTime)
+		}
+	}
+
+	private fun verify(i: Int, kind: String, found: Boolean, launchSpeed: Double, startAcceleration: Double, endAcceleration: Double, accelerationTime: Double, coast: Boolean = true) {
+		val maxTime = if (coast) InterceptSolver.MAX_TIME else Math.min(accelerationTime, InterceptSolver.MAX_TIME)
+		val expected = Reference(i, launchSpeed, startAcceleration, endAcceleration, accelerationTime).solve(maxTime)
+
+		val mismatch = if (expected < 0) found else !found || Math.abs(result.timeToIntercept - expected) > 1 + 1e-6 * expected
+
+		if (mismatch) {
+			throw IllegalStateException("$kind intercept $i expected ${if (expected < 0) "none" else "$expected s"}, got ${if (found) "${result.timeToIntercept} s" else "none"}")
+		}
+	}
+
+	/**
+	 * Earliest time where the target is within the distance flown, from a fine geometric grid and bisection
+	 */
+	private inner class Reference(i: Int, val launchSpeed: Double, val startAcceleration: Double, endAcceleration: Double, val accelerationTime: Double) {
+		val px = (targetPositions[i].x - shooterPositions[i].x).toDouble()
+		val py = (targetPositions[i].y - shooterPositions[i].y).toDouble()
+		val vx = (targetVelocities[i].x - shooterVelocities[i].x) / 100.0
+		val vy = (targetVelocities[i].y - shooterVelocities[i].y) / 100.0
+		val ax = targetAccelerations[i].x / 100.0
+		val ay = targetAccelerations[i].y / 100.0
+		val jerk = if (accelerationTime == Double.POSITIVE_INFINITY) 0.0 else (endAcceleration - startAcceleration) / accelerationTime
+
+		fun flown(t: Double) = launchSpeed * t + 0.5 * startAcceleration * t * t + jerk * t * t * t / 6
+
+		fun g(t: Double): Double {
+			val rx = px + vx * t + 0.5 * ax * t * t
+			val ry = py + vy * t + 0.5 * ay * t * t
+
+			val distance = if (t <= accelerationTime) {
+				flown(t)
+			} else {
+				val end = accelerationTime
+				flown(end) + (launchSpeed + startAcceleration * end + 0.5 * jerk * end * end) * (t - end)
+			}
+
+			return Math.sqrt(rx * rx + ry * ry) - distance
+		}
+
+		fun solve(maxTime: Double): Double {
+			if (g(0.0) <= 0) {
+				return 0.0
+			}
+
+			var previous = 0.0
+
+			for (s in 1..REFERENCE_SAMPLES) {
+				val t = maxTime * Math.pow(10.0, -12.0 * (REFERENCE_SAMPLES - s) / REFERENCE_SAMPLES)
+
+				if (g(t) <= 0) {
+					var low = previous
+					var high = t
+
+					for (k in 0 until 200) {
+						val middle = 0.5 * (low + high)
+
+						if (g(middle) > 0) {
+							low = middle
+						} else {
+							high = middle
+						}
+					}
+
+					return high
+				}
+
+				previous = t
+			}
+
+			return -1.0
+		}
+	}
+
+	private inline fun solveAll(solve: (i: Int) -> Boolean): Long {
+		var sum = 0L
+		for (i in 0 until SIZE) {
+			solver.set(shooterPositions[i], shooterVelocities[i], targetPositions[i], targetVelocities[i], targetAccelerations[i])
+
+			if (solve(i)) {
+				sum += result.timeToIntercept
+			}
+		}
+		return sum
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	fun coast() = solveAll { i -> solver.solveCoast(speeds[i] * 10, result) }
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	fun coastLight() = solveAll { solver.solveCoast(Units.C * 1000, result) }
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	fun accelerating() = solveAll { i -> solver.solveAccelerating(speeds[i], startAccelerations[i], result) }
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	fun boost() = solveAll { i -> solver.solveBoost(speeds[i], startAccelerations[i], endAccelerations[i], accelerationTimes[i], result) }
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	fun boostCoastConstant() = solveAll { i -> solver.solveBoostCoast(speeds[i], startAccelerations[i], startAccelerations[i], accelerationTimes[i], result) }
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	fun boostCoastVarying() = solveAll { i -> solver.solveBoostCoast(speeds[i], startAccelerations[i], endAccelerations[i], accelerationTimes[i], result) }
+}
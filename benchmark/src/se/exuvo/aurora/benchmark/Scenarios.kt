@@ -0,0 +1,134 @@
+package se.exuvo.aurora.benchmark
+
+import com.artemis.utils.Bag
+import com.badlogic.gdx.math.RandomXS128
+import se.exuvo.aurora.HeadlessServer
+import se.exuvo.aurora.galactic.Battery
+import se.exuvo.aurora.galactic.ElectricalThruster
+import se.exuvo.aurora.galactic.Empire
+import se.exuvo.aurora.galactic.FissionReactor
+import se.exuvo.aurora.galactic.Galaxy
+import se.exuvo.aurora.galactic.NuclearContainerPart
+import se.exuvo.aurora.galactic.PassiveSensor
+import se.exuvo.aurora.galactic.Player
+import se.exuvo.aurora.galactic.Resource
+import se.exuvo.aurora.galactic.ShipHull
+import se.exuvo.aurora.starsystems.StarSystem
+import se.exuvo.aurora.starsystems.components.Spectrum
+import se.exuvo.aurora.utils.GameServices
+import se.exuvo.aurora.utils.Units
+import se.exuvo.aurora.utils.Vector2L
+import se.exuvo.aurora.utils.forEachFast
+import se.exuvo.settings.Settings
+
+/**
+ * Scripted star system setups built without AuroraGame, a window or a GL context
+ */
+object Scenarios {
+
+	val AU_IN_M = Units.AU * 1000
+
+	private var loaded = false
+
+	/**
+	 * Creates a galaxy of systemCount empty star systems, populates each one and prepares the galaxy for manual ticking
+	 */
+	fun createGalaxy(systemCount: Int, populate: (StarSystem) -> Unit): Galaxy {
+		if (!loaded) {
+			Settings.load("Aurora")
+			loaded = true
+		}
+
+		HeadlessServer.init()
+
+		val empires = mutableListOf(Empire("player1"), Empire("player2"))
+		Player.current.empire = empires[0]
+
+		val galaxy = Galaxy(empires, 0)
+
+		val systems = Bag(StarSystem::class.java)
+
+		for (i in 0 until systemCount) {
+			systems.add(StarSystem("s$i", Vector2L(i * 100L, 0)))
+		}
+
+		systems.forEachFast { system ->
+			populate(system)
+			system.shadow.update()
+		}
+
+		galaxy.prepare(systems)
+
+		return galaxy
+	}
+
+	fun dispose() {
+		GameServices.dispose()
+	}
+
+	/**
+	 * Unpowered objects spread over a 4 AU square moving in random directions at up to 10 km/s
+	 */
+	fun addCoastingMunitions(system: StarSystem, count: Int, random: RandomXS128 = RandomXS128(1)) {
+		for (i in 0 until count) {
+			val entityID = system.createEntity(Empire.GAIA)
+			system.renderMapper.create(entityID)
+			system.nameMapper.create(entityID).set(name = "Munition $i")
+			system.hpMapper.create(entityID).set(1)
+			system.timedMovementMapper.create(entityID).apply {
+				previous.value.position.set(randomPosition(random, 2 * AU_IN_M), randomPosition(random, 2 * AU_IN_M))
+				previous.value.velocity.set(random.nextLong(1_000_000L) - 500_000L, random.nextLong(1_000_000L) - 500_000L)
+			}
+		}
+	}
+
+	/**
+	 * Ships with passive sensors and visible emissions spread over a 4 AU square, alternating between the first two empires
+	 */
+	fun addSensorShips(system: StarSystem, count: Int, random: RandomXS128 = RandomXS128(2)) {
+		val hull = createSensorShipHull()
+		val empires = system.galaxy.empires
+
+		for (i in 0 until count) {
+			val entityID = system.createShip(hull, null, empires[i % 2])
+			system.nameMapper.get(entityID).set(name = "Ship $i")
+			system.emissionsMapper.get(entityID).set(mapOf(Spectrum.Electromagnetic to 1e10, Spectrum.Thermal to 1e10))
+			system.timedMovementMapper.get(entityID).previous.value.position.set(randomPosition(random, 2 * AU_IN_M), randomPosition(random, 2 * AU_IN_M))
+		}
+	}
+
+	fun createSensorShipHull(): ShipHull {
+		val sensor1 = PassiveSensor(300000, Spectrum.Electromagnetic, 1e-7, 14, Units.AU * 0.3, 20, 0.97, 1)
+		sensor1.name = "EM 1e-4"
+
+		val sensor2 = PassiveSensor(800000, Spectrum.Thermal, 1e-8, 8, Units.AU * 1, 0, 0.9, 5)
+		sensor2.name = "TH 1e-10"
+
+		val reactor = FissionReactor(5 * Units.MEGA)
+		reactor.name = "Nuclear Reactor"
+
+		val nuclearStorage = NuclearContainerPart(10000)
+		nuclearStorage.name = "Nuclear Cargo"
+
+		val battery = Battery(200 * Units.KILO, 500 * Units.KILO, 80, 100 * Units.GIGA)
+		battery.name = "Battery"
+
+		val ionThruster = ElectricalThruster(2000 * 982, 1 * Units.MEGA)
+		ionThruster.name = "Ion Thruster"
+
+		val hull = ShipHull()
+		hull.name = "Benchmark"
+		hull.addPart(sensor1)
+		hull.addPart(sensor2)
+		hull.addPart(reactor)
+		hull.addPart(nuclearStorage)
+		hull.addPart(battery)
+		hull.addPart(ionThruster)
+		hull.preferredCargo[Resource.NUCLEAR_FISSION] = 100
+		hull.finalize()
+
+		return hull
+	}
+
+	private fun randomPosition(random: RandomXS128, max: Double): Long = ((random.nextDouble() * 2 - 1) * max).toLong()
+}
@@ -0,0 +1,14 @@
+package se.exuvo.aurora.benchmark
+
+import org.openjdk.jmh.annotations.Param
+import se.exuvo.aurora.galactic.Galaxy
+
+open class SensorShipsBenchmark : StarSystemTickBenchmark() {
+
+	@Param("500")
+	@JvmField var ships = 0
+
+	override fun createGalaxy(): Galaxy = Scenarios.createGalaxy(1) { system ->
+		Scenarios.addSensorShips(system, ships)
+	}
+}
@@ -0,0 +1,76 @@
+package se.exuvo.aurora.benchmark
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.annotations.Warmup
+import se.exuvo.aurora.galactic.Galaxy
+import java.util.concurrent.TimeUnit
+
+/**
+ * Tick throughput of a scenario, scores are in ticks per second
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+abstract class StarSystemTickBenchmark {
+
+	lateinit var galaxy: Galaxy
+	private var nextSystem = 0
+
+	abstract fun createGalaxy(): Galaxy
+
+	@Setup(Level.Trial)
+	fun setup() {
+		galaxy = createGalaxy()
+
+		// Let spatial partitioning and sensors settle
+		for (i in 1..10) {
+			galaxy.tick(1)
+		}
+	}
+
+	@TearDown(Level.Trial)
+	fun tearDown() {
+		Scenarios.dispose()
+	}
+
+	/**
+	 * Updates one star system per operation on the benchmark thread, round robin.
+	 * Scores and gc.alloc.rate.norm are per system tick
+	 */
+	@Benchmark
+	fun systemTick() {
+		val systems = galaxy.systems
+
+		if (nextSystem == 0) {
+			galaxy.time++
+		}
+
+		val system = systems[nextSystem]
+		system.update(1)
+
+		system.promoteShadow()
+
+		nextSystem = (nextSystem + 1) % systems.size()
+	}
+
+	/**
+	 * Full galaxy tick with all systems updated on the galaxy pool
+	 */
+	@Benchmark
+	fun galaxyTick() {
+		galaxy.tick(1)
+	}
+}
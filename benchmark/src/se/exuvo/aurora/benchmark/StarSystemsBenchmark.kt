@@ -0,0 +1,24 @@
+package se.exuvo.aurora.benchmark
+
+import org.openjdk.jmh.annotations.Param
+import se.exuvo.aurora.galactic.Galaxy
+
+/**
+ * Many lightly populated systems, galaxyTick shows how well the galaxy pool spreads them over cores
+ */
+open class StarSystemsBenchmark : StarSystemTickBenchmark() {
+
+	@Param("100")
+	@JvmField var systems = 0
+
+	@Param("10")
+	@JvmField var shipsPerSystem = 0
+
+	@Param("100")
+	@JvmField var munitionsPerSystem = 0
+
+	override fun createGalaxy(): Galaxy = Scenarios.createGalaxy(systems) { system ->
+		Scenarios.addSensorShips(system, shipsPerSystem)
+		Scenarios.addCoastingMunitions(system, munitionsPerSystem)
+	}
+}
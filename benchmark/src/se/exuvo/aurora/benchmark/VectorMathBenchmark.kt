@@ -0,0 +1,172 @@
+package se.exuvo.aurora.benchmark
+
+import org.apache.commons.math3.util.FastMath
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OperationsPerInvocation
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import se.exuvo.aurora.utils.BigInt
+import se.exuvo.aurora.utils.Int128
+import java.util.Random
+import java.util.concurrent.TimeUnit
+
+/**
+ * 128-bit vector products of Vector2L, the ThreadLocal BigInt path Vector2L used before against Int128.
+ * Components span solar system distances in meters
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+open class VectorMathBenchmark {
+	companion object {
+		const val SIZE = 1024
+
+		private val tmpBigIntX = ThreadLocal.withInitial { BigInt(0L) }
+		private val tmpBigIntY = ThreadLocal.withInitial { BigInt(0L) }
+
+		fun dotBigInt(x1: Long, y1: Long, x2: Long, y2: Long): BigInt {
+			val x = tmpBigIntX.get()
+			val y = tmpBigIntY.get()
+			x.assign(x1)
+			y.assign(y1)
+			x.mul(x2)
+			y.mul(y2)
+			x.add(y)
+			return x
+		}
+
+		fun crsBigInt(x1: Long, y1: Long, x2: Long, y2: Long): BigInt {
+			val x = tmpBigIntX.get()
+			val y = tmpBigIntY.get()
+			x.assign(x1)
+			y.assign(y1)
+			x.mul(y2)
+			y.mul(x2)
+			x.sub(y)
+			return x
+		}
+	}
+
+	private val xs = LongArray(SIZE)
+	private val ys = LongArray(SIZE)
+
+	@Setup(Level.Trial)
+	fun setup() {
+		val random = Random(1)
+		val range = (100 * Scenarios.AU_IN_M).toLong()
+
+		for (i in 0 until SIZE) {
+			xs[i] = ((random.nextDouble() * 2 - 1) * range).toLong()
+			ys[i] = ((random.nextDouble() * 2 - 1) * range).toLong()
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	fun dotBigInt(): Double {
+		var sum = 0.0
+		for (i in 0 until SIZE) {
+			val j = (i + 1) and (SIZE - 1)
+			sum += dotBigInt(xs[i], ys[i], xs[j], ys[j]).toDouble()
+		}
+		return sum
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	fun dotInt128(): Double {
+		var sum = 0.0
+		for (i in 0 until SIZE) {
+			val j = (i + 1) and (SIZE - 1)
+			sum += Int128.mulAddToDouble(xs[i], xs[j], ys[i], ys[j])
+		}
+		return sum
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	fun dotSignumBigInt(): Int {
+		var sum = 0
+		for (i in 0 until SIZE) {
+			val j = (i + 1) and (SIZE - 1)
+			sum += dotBigInt(xs[i], ys[i], xs[j], ys[j]).compareTo(BigInt.ZERO)
+		}
+		return sum
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	fun dotSignumInt128(): Int {
+		var sum = 0
+		for (i in 0 until SIZE) {
+			val j = (i + 1) and (SIZE - 1)
+			sum += Int128.mulAddSignum(xs[i], xs[j], ys[i], ys[j])
+		}
+		return sum
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	fun crsBigInt(): Double {
+		var sum = 0.0
+		for (i in 0 until SIZE) {
+			val j = (i + 1) and (SIZE - 1)
+			sum += crsBigInt(xs[i], ys[i], xs[j], ys[j]).toDouble()
+		}
+		return sum
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	fun crsInt128(): Double {
+		var sum = 0.0
+		for (i in 0 until SIZE) {
+			val j = (i + 1) and (SIZE - 1)
+			sum += Int128.mulSubToDouble(xs[i], ys[j], ys[i], xs[j])
+		}
+		return sum
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	fun lengthHypot(): Double {
+		var sum = 0.0
+		for (i in 0 until SIZE) {
+			sum += FastMath.hypot(xs[i].toDouble(), ys[i].toDouble())
+		}
+		return sum
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	fun lengthSqrt(): Double {
+		var sum = 0.0
+		for (i in 0 until SIZE) {
+			val x = xs[i].toDouble()
+			val y = ys[i].toDouble()
+			sum += Math.sqrt(x * x + y * y)
+		}
+		return sum
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	fun lengthExact(): Long {
+		var sum = 0L
+		for (i in 0 until SIZE) {
+			sum += Int128.length(xs[i], ys[i])
+		}
+		return sum
+	}
+}
@@ -37,6 +37,13 @@ object Assets : Disposable {
 	lateinit var textures: TextureAtlas
 	val shaders = HashMap<String, ShaderProgram>()
 	
+	/**
+	 * For running the simulation without a GL context, all texture lookups return null
+	 */
+	fun headlessLoad() {
+		textures = TextureAtlas()
+	}
+	
 	fun earlyLoad() {
 		manager.registerFreeTypeFontLoaders()
 		
@@ -52,6 +52,9 @@ interface AuroraGame : ApplicationListener {
 	companion object {
 		lateinit var currentWindow: AuroraGame
 		val storage = Storage()
+		
+		// No windows or GL context, simulation only
+		var headless = false
 	}
 }
 
@@ -68,6 +68,11 @@ public class DesktopLauncher {
 		Configurator.setLevel("se.exuvo", level);
 		log.info("Changed log level to " + level);
 		
+		if (Settings.getBol("Server/headless", false)) {
+			HeadlessServer.INSTANCE.run();
+			return;
+		}
+		
 		//https://github.com/LWJGL/lwjgl3-wiki/wiki/2.5.-Troubleshooting
 //		Configuration.DEBUG.set(true);
 //		Configuration.DEBUG_STREAM.set(IoBuilder.forLogger(glLog).setLevel(Level.INFO).buildPrintStream());
@@ -158,9 +163,13 @@ public class DesktopLauncher {
 	private static final void arguments(JSAP jsap) {
 		Switch fscreen = new Switch("Window/fullscreen").setShortFlag('f').setLongFlag("fullscreen");
 		fscreen.setHelp("Run in fullscreen.");
+		
+		Switch server = new Switch("Server/headless").setShortFlag('s').setLongFlag("server");
+		server.setHelp("Run the simulation without a window.");
 
 		try {
 			jsap.registerParameter(fscreen);
+			jsap.registerParameter(server);
 		} catch (JSAPException e) {
 			System.out.println("JSAP: Failed to register parameters due to: " + e);
 		}
@@ -0,0 +1,82 @@
+package se.exuvo.aurora
+
+import com.artemis.utils.Bag
+import org.apache.logging.log4j.LogManager
+import se.exuvo.aurora.galactic.Empire
+import se.exuvo.aurora.galactic.Galaxy
+import se.exuvo.aurora.galactic.Player
+import se.exuvo.aurora.history.History
+import se.exuvo.aurora.savegame.SaveGame
+import se.exuvo.aurora.savegame.SaveGameLoader
+import se.exuvo.aurora.starsystems.StarSystem
+import se.exuvo.aurora.starsystems.systems.GroupSystem
+import se.exuvo.aurora.utils.GameServices
+import se.exuvo.aurora.utils.Units
+import se.exuvo.aurora.utils.Vector2L
+import se.exuvo.settings.Settings
+import se.unlogic.standardutils.threads.ThreadUtils
+import java.util.concurrent.locks.ReentrantReadWriteLock
+
+/**
+ * Runs the galaxy simulation without any window, GL context or asset loading
+ */
+object HeadlessServer {
+	val log = LogManager.getLogger(HeadlessServer::class.java)
+
+	/**
+	 * Creates the services that AuroraGameMainWindow normally sets up
+	 */
+	fun init() {
+		AuroraGame.headless = true
+		Assets.headlessLoad()
+
+		GameServices + GroupSystem(ReentrantReadWriteLock())
+		GameServices + History()
+	}
+
+	fun run() {
+		val startTime = System.nanoTime()
+		init()
+
+		// Game seconds per real second
+		Player.current.requestedSpeed = Units.NANO_SECOND / Settings.getInt("Server/speed", 60000)
+
+		val savedGalaxy = if (Settings.getBol("Server/load", false)) SaveGameLoader(SaveGame.getDirectory()).load() else null
+		val galaxy: Galaxy
+
+		if (savedGalaxy != null) {
+			galaxy = savedGalaxy
+			Player.current.empire = galaxy.empires[0]
+			galaxy.start()
+
+		} else {
+			val empires = mutableListOf(Empire("player1"), Empire("player2"))
+			Player.current.empire = empires[0]
+
+			galaxy = Galaxy(empires, 0)
+
+			val systems = Bag(StarSystem::class.java)
+			systems.add(StarSystem("Sun", Vector2L(0, 0)))
+
+			galaxy.init(systems)
+		}
+
+		log.info("Headless server started in ${Units.nanoToString(System.nanoTime() - startTime)}")
+
+		Runtime.getRuntime().addShutdownHook(Thread({
+			log.info("Shutting down at day ${galaxy.day}")
+			galaxy.dispose()
+			GameServices.dispose()
+			Settings.save()
+		}, "Shutdown"))
+
+		val statusInterval = Settings.getInt("Server/statusInterval", 60) * 1000L
+		val historyWriter = GameServices[History::class].writer
+
+		while (!galaxy.shutdown) {
+			ThreadUtils.sleep(statusInterval)
+			log.info("Day ${galaxy.day}, time ${galaxy.time}, tick size ${galaxy.tickSize}, speed limited ${galaxy.speedLimited}" +
+				", history queued ${historyWriter.getQueued()} written ${historyWriter.written.get()} stalls ${historyWriter.stalls.get()}")
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package se.exuvo.aurora.galactic
+
+import org.apache.logging.log4j.LogManager
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+/**
+ * Unbounded lock-free queue with any number of producers and a single consumer.
+ * Commands are stored in linked fixed size ring segments, producers claim slots with one atomic increment
+ * and only allocate when a segment is full.
+ */
+class CommandQueue {
+	companion object {
+		const val SEGMENT_SIZE = 256
+	}
+
+	private val tail = AtomicReference(Segment())
+	private var head = tail.get() // Consumer only
+	private var headIndex = 0 // Consumer only
+
+	fun add(command: Command) {
+		while (true) {
+			val segment = tail.get()
+			val index = segment.claimed.getAndIncrement()
+
+			if (index < SEGMENT_SIZE) {
+				segment.slots.lazySet(index, command)
+				return
+			}
+
+			// Full, link a new segment unless another producer already did
+			var next = segment.next.get()
+
+			if (next == null) {
+				segment.next.compareAndSet(null, Segment())
+				next = segment.next.get()
+			}
+
+			tail.compareAndSet(segment, next)
+		}
+	}
+
+	/**
+	 * Returns null when empty or if the next command is claimed but not yet written, consumer thread only
+	 */
+	fun poll(): Command? {
+		var segment = head
+
+		if (headIndex == SEGMENT_SIZE) {
+			segment = segment.next.get() ?: return null
+			head = segment
+			headIndex = 0
+		}
+
+		val command = segment.slots.get(headIndex) ?: return null
+		headIndex++
+
+		return command
+	}
+
+	private class Segment {
+		val slots = AtomicReferenceArray<Command>(SEGMENT_SIZE)
+		val claimed = AtomicInteger()
+		val next = AtomicReference<Segment?>()
+	}
+}
+
+/**
+ * Routes commands to the queue of the star system they target so that each system validates and applies its own commands in its update
+ */
+class CommandBus {
+	companion object {
+		@JvmField val log = LogManager.getLogger(CommandBus::class.java)
+	}
+	
+	val submitted = AtomicLong()
+
+	fun add(command: Command) {
+		if (command.isEmpty()) {
+			log.warn("Empty command $command")
+			return
+		}
+		
+		command.submitTime = System.nanoTime()
+		command.getSystem().commandQueue.add(command)
+		submitted.incrementAndGet()
+	}
+}
@@ -4,20 +4,28 @@ import com.artemis.utils.Bag
 import se.exuvo.aurora.starsystems.StarSystem
 import se.exuvo.aurora.starsystems.components.ApproachType
 import se.exuvo.aurora.starsystems.components.EntityReference
+import se.exuvo.aurora.starsystems.components.EntityUUID
 import se.exuvo.aurora.starsystems.systems.MovementSystem
 import se.exuvo.aurora.starsystems.systems.TargetingSystem
 import se.exuvo.aurora.utils.Vector2L
 import se.exuvo.aurora.utils.forEachFast
 
 abstract class Command {
-	abstract fun isValid(): Boolean
+	var submitTime = 0L
+	
+	/**
+	 * Resolves entity references against system on its own thread, false if the entities are not there
+	 */
+	abstract fun isValid(system: StarSystem): Boolean
 	abstract fun apply()
 	abstract fun getSystem(): StarSystem
+	abstract fun getEntityUUID(): EntityUUID
+	open fun isEmpty() = false
 }
 
 abstract class EntityCommand(var entityRef: EntityReference): Command() {
-	override fun isValid(): Boolean {
-		val entityRef2 = entityRef.system.galaxy.resolveEntityReference(entityRef)
+	override fun isValid(system: StarSystem): Boolean {
+		val entityRef2 = system.resolveEntityReference(entityRef)
 		
 		if (entityRef2 != null) {
 			entityRef = entityRef2
@@ -28,40 +36,32 @@ abstract class EntityCommand(var entityRef: EntityReference): Command() {
 	}
 	
 	override fun getSystem() = entityRef.system
+	override fun getEntityUUID() = entityRef.entityUUID
 }
 
 abstract class EntitiesCommand(var entitiesRef: Bag<EntityReference>): Command() {
-	override fun isValid(): Boolean {
-		var size = entitiesRef.size
-		var i = 0
-		
-		while (i < size) {
-			val entityRef2 = entitiesRef[i].system.galaxy.resolveEntityReference(entitiesRef[i])
-			
-			if (entityRef2 != null) {
-				entitiesRef[i] = entityRef2
-				i++
-			} else {
-				entitiesRef.remove(i)
-				size--
-			}
+	override fun isValid(system: StarSystem): Boolean {
+		if (entitiesRef.isEmpty) {
+			return false
 		}
 		
-		return size > 0
+		return system.resolveEntityReferences(entitiesRef) > 0
 	}
 	
 	override fun getSystem() = entitiesRef[0].system
+	override fun getEntityUUID() = entitiesRef[0].entityUUID
+	override fun isEmpty() = entitiesRef.isEmpty
 }
 
 abstract class EntityTargetEntityCommand(entityRef: EntityReference, var targetRef: EntityReference): EntityCommand(entityRef) {
-	override fun isValid(): Boolean {
-		if (!super.isValid()) {
+	override fun isValid(system: StarSystem): Boolean {
+		if (!super.isValid(system)) {
 			return false
 		}
 		
-		val entityRef2 = targetRef.system.galaxy.resolveEntityReference(targetRef)
+		val entityRef2 = system.resolveEntityReference(targetRef)
 		
-		if (entityRef2 != null && getSystem() == entityRef2.system) {
+		if (entityRef2 != null) {
 			targetRef = entityRef2
 			return true
 		}
@@ -71,14 +71,14 @@ abstract class EntityTargetEntityCommand(entityRef: EntityReference, var targetR
 }
 
 abstract class EntitiesTargetEntityCommand(entitiesRef: Bag<EntityReference>, var targetRef: EntityReference): EntitiesCommand(entitiesRef) {
-	override fun isValid(): Boolean {
-		if (!super.isValid()) {
+	override fun isValid(system: StarSystem): Boolean {
+		if (!super.isValid(system)) {
 			return false
 		}
 
-		val entityRef2 = targetRef.system.galaxy.resolveEntityReference(targetRef)
+		val entityRef2 = system.resolveEntityReference(targetRef)
 
-		if (entityRef2 != null && getSystem() == entityRef2.system) {
+		if (entityRef2 != null) {
 			targetRef = entityRef2
 			return true
 		}
@@ -88,8 +88,8 @@ abstract class EntitiesTargetEntityCommand(entitiesRef: Bag<EntityReference>, va
 }
 
 abstract class ShipyardCommand(planetRef: EntityReference): EntityCommand(planetRef) {
-	override fun isValid(): Boolean {
-		if (!super.isValid()) {
+	override fun isValid(system: StarSystem): Boolean {
+		if (!super.isValid(system)) {
 			return false
 		}
 		
@@ -12,15 +12,13 @@ import com.badlogic.gdx.graphics.Color
 import se.exuvo.aurora.starsystems.StarSystem
 import se.exuvo.aurora.starsystems.components.ShipOrder
 import uk.co.omegaprime.btreemap.LongObjectBTreeMap
-import java.util.concurrent.ArrayBlockingQueue
 
-class Empire(var name: String) {
+class Empire(var name: String, val id: Int = empireIDGenerator.getAndIncrement()) {
 companion object {
 		val empireIDGenerator = AtomicInteger()
 		val GAIA = Empire("Gaia")
 	}
 
-	val id = empireIDGenerator.getAndIncrement()
 	val log = LogManager.getLogger(this.javaClass)
 	val lock = ReentrantReadWriteLock()
 
@@ -33,7 +31,7 @@ companion object {
 	val practicalTheory = HashMap<PracticalTheory, Int>()
 	val shipHulls = ArrayList<ShipHull>()
 	val hullClasses = ArrayList<ShipHullClass>()
-	val commandQueue = ArrayBlockingQueue<Command>(128) // For local player and ai
+	val commandQueue = CommandBus() // For local player and ai
 	val color = Color.RED //TODO allow picks from https://gamedev.stackexchange.com/questions/46463/how-can-i-find-an-optimum-set-of-colors-for-10-players
 	
 	init {
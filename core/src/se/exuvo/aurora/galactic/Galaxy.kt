@@ -12,6 +12,7 @@ import net.mostlyoriginal.api.event.common.EventSystem
 import org.apache.commons.math3.util.FastMath
 import org.apache.logging.log4j.LogManager
 import se.exuvo.aurora.galactic.systems.GalacticRenderSystem
+import se.exuvo.aurora.savegame.Autosave
 import se.exuvo.aurora.starsystems.StarSystem
 import se.exuvo.aurora.starsystems.components.ChangingWorldComponent
 import se.exuvo.aurora.starsystems.components.EntityReference
@@ -25,21 +26,34 @@ import se.exuvo.aurora.utils.exponentialAverage
 import se.exuvo.aurora.utils.forEachFast
 import se.exuvo.settings.Settings
 import se.unlogic.standardutils.threads.ThreadUtils
-import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.CountedCompleter
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.ForkJoinWorkerThread
+import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.locks.ReentrantLock
 import kotlin.concurrent.withLock
 
-class Galaxy(val empires: MutableList<Empire>, var time: Long = 0) : Runnable, EntitySubscription.SubscriptionListener, Disposable {
+class Galaxy(val empires: MutableList<Empire>, @Volatile var time: Long = 0) : Runnable, EntitySubscription.SubscriptionListener, Disposable {
 	companion object {
 		@JvmField val log = LogManager.getLogger(Galaxy::class.java)
 	}
 
 	lateinit var systems: Bag<StarSystem>
+	
+	// Indexed by id, independent of the order of systems
+	private val empiresByID = Bag<Empire>()
+	private val systemsBySID = Bag<StarSystem>()
+	private val systemsByGalacticEntityID = Bag<StarSystem>()
 	private var thread: Thread? = null
-	private val threads = Bag<Thread>(Settings.getInt("Galaxy/threads", Runtime.getRuntime().availableProcessors()))
-	val threadsCondition = Object()
-	val takenWorkCounter = AtomicInteger()
-	val completedWorkCounter = AtomicInteger()
+	private var autosave: Autosave? = null
+	val pool = GalaxyPool(Settings.getInt("Galaxy/threads", Runtime.getRuntime().availableProcessors()))
+	private val updateTasks = Bag<SystemUpdateTask>()
+	private val tickTask = TickTask()
+	private val pipelinedUpdates = Bag<PipelinedSystemUpdate>()
+	
+	// Systems run independently up to galaxy time instead of waiting for each other every tick
+	val pipelined = Settings.getBol("Galaxy/pipelined", false)
+	private val pipelinedMaxLag = Settings.getInt("Galaxy/pipelinedMaxLag", 10)
 	private var sleeping = false
 	var shutdown = false
 
@@ -67,6 +81,10 @@ class Galaxy(val empires: MutableList<Empire>, var time: Long = 0) : Runnable, E
 		empires.add(Empire.GAIA)
 		players.add(Player.current)
 		
+		empires.forEachFast { empire ->
+			empiresByID.set(empire.id, empire)
+		}
+		
 		val worldBuilder = WorldConfigurationBuilder()
 //		worldBuilder.dependsOn(ProfilerPlugin::class.java)
 		worldBuilder.with(EventSystem())
@@ -83,31 +101,43 @@ class Galaxy(val empires: MutableList<Empire>, var time: Long = 0) : Runnable, E
 	}
 	
 	fun init(systems: Bag<StarSystem>) {
+		systems.forEachFast { system ->
+			system.init()
+		}
+		
+		prepare(systems)
+		start()
+	}
+	
+	/**
+	 * Sets up ticking of already populated systems without starting the galaxy thread
+	 */
+	fun prepare(systems: Bag<StarSystem>) {
 		this.systems = systems
 		
 		systems.forEachFast { system ->
-			system.init()
+			systemsBySID.set(system.sid, system)
+			systemsByGalacticEntityID.set(system.galacticEntityID, system)
 		}
 		
 		updateSpeed()
 		
-		GalaxyWorker.galaxy = this
-		takenWorkCounter.set(systems.size())
-		completedWorkCounter.set(systems.size())
-		
-		for(i in 0 until threads.getCapacity()) {
-			val thread = Thread(GalaxyWorker, "Galaxy worker ${1 + i}")
-			thread.setDaemon(true);
-			thread.priority = Thread.NORM_PRIORITY + 1
-			threads.add(thread)
-			thread.start();
+		systems.forEachFast { system ->
+			updateTasks.add(SystemUpdateTask(system))
+			pipelinedUpdates.add(PipelinedSystemUpdate(system))
 		}
-		
+	}
+	
+	fun start() {
 		val thread = Thread(this, "Galaxy");
 		thread.setDaemon(true);
 		thread.start();
 
 		this.thread = thread
+		
+		if (Autosave.isEnabled()) {
+			autosave = Autosave(this)
+		}
 	}
 	
 	override fun run() {
@@ -142,118 +172,19 @@ class Galaxy(val empires: MutableList<Empire>, var time: Long = 0) : Runnable, E
 						
 						val tickSpeed = speed * tickSize
 						
+						if (pipelined && isPipelineFull()) {
+							speedLimited = true
+							accumulator = FastMath.min(accumulator, speed * 10L)
+							lastSleep = now
+							ThreadUtils.sleep(1)
+							continue
+						}
+						
 						accumulator -= tickSpeed
 
 //						println("tickSize $tickSize, speed $speed, diff ${now - lastProcess}, accumulator $accumulator")
 
-						time += tickSize;
-						updateDay()
-						
-						val profilerEvents = workingShadow.profilerEvents
-						profilerEvents.clear()
-						
-						val systemUpdateStart = System.nanoTime()
-						
-						profilerEvents.start("commands")
-						empires.forEachFast { empire ->
-							while(true) {
-								val command = empire.commandQueue.poll() ?: break
-								
-								try {
-									if (command.isValid()) {
-										command.getSystem().commandQueue.add(command)
-									} else {
-										log.warn("Invalid command $command")
-									}
-								} catch (e: Exception) {
-									log.error("Exception validating command $command", e)
-								}
-							}
-						}
-						profilerEvents.end()
-						
-						completedWorkCounter.set(0)
-						takenWorkCounter.set(0)
-						
-						profilerEvents.start("run threads")
-						synchronized(threadsCondition) {
-							threadsCondition.notifyAll()
-						}
-//						threads.forEachFast { thread ->
-//							thread.interrupt()
-//						}
-						
-						workingShadow.added.clear()
-						workingShadow.changed.clear()
-						workingShadow.deleted.clear()
-						
-						profilerEvents.start("process")
-						world.setDelta(tickSize.toFloat())
-						world.process()
-						profilerEvents.end()
-						
-						profilerEvents.start("shadow update")
-						workingShadow.update()
-						profilerEvents.end()
-						
-						this.thread!!.priority = Thread.NORM_PRIORITY - 1
-						while (completedWorkCounter.getOpaque() < systems.size() && !shutdown) {
-							Thread.yield()
-//							try {
-//								Thread.sleep(10)
-//							} catch (e: InterruptedException) {
-//								if (completedWorkCounter.get() == systems.size() || shutdown) {
-//									break
-//								}
-//							}
-						}
-						profilerEvents.end()
-						this.thread!!.priority = Thread.NORM_PRIORITY
-						
-						profilerEvents.start("shadows lock")
-						shadowLock.withLock {
-							profilerEvents.start("promote shadows")
-							systems.forEachFast { system ->
-								val oldShadowWorld = system.shadow
-								
-								system.shadow = system.workingShadow
-								system.workingShadow = oldShadowWorld
-							}
-							
-							val oldShadowWorld = shadow
-							
-							shadow = workingShadow
-							workingShadow = oldShadowWorld
-							profilerEvents.end()
-						}
-						profilerEvents.end()
-						
-						val systemUpdateDuration = (System.nanoTime() - systemUpdateStart)
-						speedLimited = systemUpdateDuration > speed
-						
-						if (speedLimited) {
-//							log.warn("Galaxy update took ${Units.nanoToString(systemUpdateDuration)} which is more than the requested speed delay ${Units.nanoToString(speed)}")
-//							println("Galaxy update took ${Units.nanoToString(systemUpdateDuration)} which is more than the requested speed delay ${Units.nanoToString(speed)}")
-						}
-
-//						for (system in systems) {
-//							print("${system.sid} ${Units.nanoToString(system.updateTime)}, ")
-//						}
-//						println()
-						
-						// If one system took a noticeable larger time to process than others, schedule it earlier
-						profilerEvents.start("system sort")
-						systems.sort(object : Comparator<StarSystem> {
-							val s = tickSpeed / 10
-							override fun compare(o1: StarSystem, o2: StarSystem): Int {
-								val diff = o1.updateTime - o2.updateTime
-								
-								if (diff > s) return -1
-								if (diff < -s) return 1
-								return 0
-							}
-						})
-						profilerEvents.end()
+						tick(tickSize)
 						
 						lastProcess = now;
 					}
@@ -292,64 +223,226 @@ class Galaxy(val empires: MutableList<Empire>, var time: Long = 0) : Runnable, E
 		}
 	}
 	
-	object GalaxyWorker : Runnable {
-		@JvmStatic
-		val log = LogManager.getLogger(GalaxyWorker::class.java)
+	/**
+	 * Advances galaxy time by tickSize seconds and updates all systems.
+	 * Called from the galaxy thread, or directly when the thread was never started
+	 */
+	fun tick(tickSize: Int) {
+		this.tickSize = tickSize
+		time += tickSize
+		updateDay()
+		
+		val profilerEvents = workingShadow.profilerEvents
+		profilerEvents.clear()
+		
+		val systemUpdateStart = System.nanoTime()
+		
+		if (pipelined) {
+			runSystemsPipelined(profilerEvents)
+		} else {
+			runSystemsTick(profilerEvents)
+		}
+		
+		val systemUpdateDuration = (System.nanoTime() - systemUpdateStart)
+		speedLimited = systemUpdateDuration > speed
+		
+		if (speedLimited) {
+//			log.warn("Galaxy update took ${Units.nanoToString(systemUpdateDuration)} which is more than the requested speed delay ${Units.nanoToString(speed)}")
+//			println("Galaxy update took ${Units.nanoToString(systemUpdateDuration)} which is more than the requested speed delay ${Units.nanoToString(speed)}")
+		}
+
+//		for (system in systems) {
+//			print("${system.sid} ${Units.nanoToString(system.updateTime)}, ")
+//		}
+//		println()
+		
+		// If one system took a noticeable larger time to process than others, schedule it earlier
+		profilerEvents.start("system sort")
+		if (!pipelined) {
+			updateTasks.sort(object : Comparator<SystemUpdateTask> {
+				val s = speed * tickSize / 10
+				override fun compare(o1: SystemUpdateTask, o2: SystemUpdateTask): Int {
+					val diff = o1.system.updateTime - o2.system.updateTime
+					
+					if (diff > s) return -1
+					if (diff < -s) return 1
+					return 0
+				}
+			})
+		}
+		profilerEvents.end()
+	}
+	
+	private fun runSystemsTick(profilerEvents: ProfilerWindow.ProfilerBag) {
+		profilerEvents.start("run threads")
+		tickTask.reinitialize()
+		tickTask.setPendingCount(updateTasks.size() - 1)
+		
+		// Heaviest first, idle workers steal the rest
+		updateTasks.forEachFast { task ->
+			task.reinitialize()
+			pool.execute(task)
+		}
+		
+		workingShadow.added.clear()
+		workingShadow.changed.clear()
+		workingShadow.deleted.clear()
+		
+		profilerEvents.start("process")
+		world.setDelta(tickSize.toFloat())
+		world.process()
+		profilerEvents.end()
+		
+		profilerEvents.start("shadow update")
+		workingShadow.update()
+		profilerEvents.end()
+		
+		profilerEvents.start("help")
+		while (pool.runSubmission()) {}
+		profilerEvents.end()
+		
+		profilerEvents.start("wait")
+		if (updateTasks.size() > 0) {
+			tickTask.quietlyJoin()
+		}
+		profilerEvents.end()
+		profilerEvents.end()
 		
-		@JvmStatic
-		lateinit var galaxy: Galaxy
+		profilerEvents.start("shadows lock")
+		shadowLock.withLock {
+			profilerEvents.start("promote shadows")
+			systems.forEachFast { system ->
+				system.promoteShadow()
+			}
+			
+			val oldShadowWorld = shadow
+			
+			shadow = workingShadow
+			workingShadow = oldShadowWorld
+			profilerEvents.end()
+		}
+		profilerEvents.end()
+	}
+	
+	private fun runSystemsPipelined(profilerEvents: ProfilerWindow.ProfilerBag) {
+		
+		profilerEvents.start("run systems")
+		pipelinedUpdates.forEachFast { update ->
+			update.schedule()
+		}
+		profilerEvents.end()
+		
+		workingShadow.added.clear()
+		workingShadow.changed.clear()
+		workingShadow.deleted.clear()
+		
+		profilerEvents.start("process")
+		world.setDelta(tickSize.toFloat())
+		world.process()
+		profilerEvents.end()
+		
+		profilerEvents.start("shadow update")
+		workingShadow.update()
+		profilerEvents.end()
+		
+		profilerEvents.start("shadows lock")
+		shadowLock.withLock {
+			val oldShadowWorld = shadow
+			
+			shadow = workingShadow
+			workingShadow = oldShadowWorld
+		}
+		profilerEvents.end()
+	}
+	
+	private fun isPipelineFull(): Boolean {
+		val minTime = time - pipelinedMaxLag * tickSize
+		
+		systems.forEachFast { system ->
+			if (system.time < minTime) {
+				return true
+			}
+		}
+		
+		return false
+	}
+	
+	private fun updateSystem(system: StarSystem, deltaGameTime: Int): Boolean {
+		try {
+			val systemUpdateStart = System.nanoTime()
+			system.update(deltaGameTime)
+			system.updateTime = (System.nanoTime() - systemUpdateStart)
  
+			system.updateTimeAverage = exponentialAverage(system.updateTime.toDouble(), system.updateTimeAverage, FastMath.min(100.0, (Units.NANO_SECOND / FastMath.abs(speed)).toDouble()))
+			return true
+			
+		} catch (t: Throwable) {
+			log.error("Exception in system update for $system tick $time", t)
+			speed = 0
+			return false
+		}
+	}
+	
+	class GalaxyPool(parallelism: Int) : ForkJoinPool(parallelism, GalaxyWorkerFactory, null, true) {
+		
+		/**
+		 * Runs one queued external submission on the calling thread, returns false if there was none
+		 */
+		fun runSubmission(): Boolean {
+			val task = pollSubmission() ?: return false
+			task.quietlyInvoke()
+			return true
+		}
+	}
+	
+	object GalaxyWorkerFactory : ForkJoinPool.ForkJoinWorkerThreadFactory {
+		override fun newThread(pool: ForkJoinPool): ForkJoinWorkerThread {
+			val thread = object : ForkJoinWorkerThread(pool) {}
+			thread.name = "Galaxy worker ${1 + thread.poolIndex}"
+			thread.priority = Thread.NORM_PRIORITY + 1
+			return thread
+		}
+	}
+	
+	// Completed when all system updates of a tick are done, never executed itself
+	private class TickTask : CountedCompleter<Void>() {
+		override fun compute() {}
+	}
+	
+	private inner class SystemUpdateTask(val system: StarSystem) : CountedCompleter<Void>(tickTask) {
+		
+		override fun compute() {
+			updateSystem(system, tickSize)
+			tryComplete()
+		}
+	}
+	
+	// Catches its system up to galaxy time and promotes the shadow after every update
+	private inner class PipelinedSystemUpdate(val system: StarSystem) : Runnable {
+		private val running = AtomicBoolean()
+		
+		fun schedule() {
+			if (system.time < time && running.compareAndSet(false, true)) {
+				pool.execute(this)
+			}
+		}
+		
 		override fun run() {
-			try {
-				while(!galaxy.shutdown) {
-					synchronized(galaxy.threadsCondition) {
-						if (galaxy.takenWorkCounter.get() >= galaxy.systems.size()) {
-//							println("sleep ${Thread.currentThread().name}")
-							galaxy.threadsCondition.wait()
-//							Thread.yield()
-//							try {
-//								Thread.sleep(Long.MAX_VALUE)
-//							} catch(e: InterruptedException) {}
-//							println("wake ${Thread.currentThread().name}")
-						}
-					}
-					
-					if (galaxy.shutdown) {
-						return
+			do {
+				while (system.time < time && !shutdown) {
+					if (!updateSystem(system, (time - system.time).toInt())) {
+						break
 					}
 					
-					var systemIndex = galaxy.takenWorkCounter.getAndIncrement()
-					
-//					println("index ${Thread.currentThread().name} = $systemIndex")
-					
-					while (systemIndex < galaxy.systems.size()) {
-						
-						val system = galaxy.systems[systemIndex]
-						
-						try {
-							val systemUpdateStart = System.nanoTime()
-							system.update(galaxy.tickSize)
-							system.updateTime = (System.nanoTime() - systemUpdateStart)
-			 
-							system.updateTimeAverage = exponentialAverage(system.updateTime.toDouble(), system.updateTimeAverage, FastMath.min(100.0, (Units.NANO_SECOND / FastMath.abs(galaxy.speed)).toDouble()))
-							
-						} catch (t: Throwable) {
-							log.error("Exception in system update for $system tick ${galaxy.time}", t)
-							galaxy.speed = 0
-							
-						} finally {
-							if (galaxy.completedWorkCounter.incrementAndGet() == galaxy.systems.size()) {
-//								galaxy.thread!!.interrupt()
-								break
-							}
-						}
-						
-						systemIndex = galaxy.takenWorkCounter.getAndIncrement()
+					shadowLock.withLock {
+						system.promoteShadow()
 					}
 				}
-			} catch(t: Throwable) {
-				log.error("", t);
-			}
+				
+				running.set(false)
+				
+				// Galaxy time may have advanced after the last check but before we were marked as idle
+			} while (system.time < time && speed != 0L && !shutdown && running.compareAndSet(false, true))
 		}
 	}
 	
@@ -379,8 +472,23 @@ class Galaxy(val empires: MutableList<Empire>, var time: Long = 0) : Runnable, E
 		changed(entityID, componentMapper.type.index)
 	}
 	
+	fun changed(entityID: Int, componentMapper1: ComponentMapper<*>, componentMapper2: ComponentMapper<*>) {
+		workingShadow.changed.unsafeSet(entityID)
+		workingShadow.changedComponents[componentMapper1.type.index].unsafeSet(entityID)
+		workingShadow.changedComponents[componentMapper2.type.index].unsafeSet(entityID)
+	}
+	
+	fun changed(entityID: Int, componentMapper1: ComponentMapper<*>, componentMapper2: ComponentMapper<*>, componentMapper3: ComponentMapper<*>) {
+		changed(entityID, componentMapper1, componentMapper2)
+		workingShadow.changedComponents[componentMapper3.type.index].unsafeSet(entityID)
+	}
+	
 	fun changed(entityID: Int, vararg componentMappers: ComponentMapper<*>) {
-		changed(entityID, *IntArray(componentMappers.size, { index -> componentMappers[index].type.index } ))
+		workingShadow.changed.unsafeSet(entityID)
+		
+		for (componentMapper in componentMappers) {
+			workingShadow.changedComponents[componentMapper.type.index].unsafeSet(entityID)
+		}
 	}
 	
 	override fun removed(entityIDs: IntBag) {
@@ -404,31 +512,42 @@ class Galaxy(val empires: MutableList<Empire>, var time: Long = 0) : Runnable, E
 		}
 	}
 
+	/**
+	 * Empires must be added through here to be found by id
+	 */
+	fun addEmpire(empire: Empire) {
+		empires.add(empire)
+		empiresByID.set(empire.id, empire)
+	}
+	
 	fun getEmpire(id: Int): Empire {
-		empires.forEachFast{ empire ->
-			if (empire.id == id) {
-				return empire;
-			}
-		}
-		throw IllegalArgumentException("$id")
+		return empiresByID.safeGet(id) ?: throw IllegalArgumentException("$id")
 	}
 	
 	fun getStarSystemBySID(sid: Int): StarSystem {
-		systems.forEachFast{ system ->
-			if (system.sid == sid) {
-				return system;
-			}
-		}
-		throw IllegalArgumentException("$sid")
+		return systemsBySID.safeGet(sid) ?: throw IllegalArgumentException("$sid")
 	}
 	
 	fun getStarSystemByGalacticEntityID(id: Int): StarSystem {
-		systems.forEachFast{ system ->
-			if (system.galacticEntityID == id) {
-				return system;
-			}
+		return systemsByGalacticEntityID.safeGet(id) ?: throw IllegalArgumentException("$id")
+	}
+	
+	/**
+	 * Adds the empire of each id to result
+	 */
+	fun getEmpires(ids: IntBag, result: Bag<Empire>) {
+		ids.forEachFast { id ->
+			result.add(getEmpire(id))
+		}
+	}
+	
+	/**
+	 * Adds the star system of each sid to result
+	 */
+	fun getStarSystemsBySID(sids: IntBag, result: Bag<StarSystem>) {
+		sids.forEachFast { sid ->
+			result.add(getStarSystemBySID(sid))
 		}
-		throw IllegalArgumentException("$id")
 	}
 	
 	fun resolveEntityReference(entityReference: EntityReference): EntityReference? {
@@ -440,16 +559,47 @@ class Galaxy(val empires: MutableList<Empire>, var time: Long = 0) : Runnable, E
 		return getEntityReferenceByUUID(entityReference.entityUUID, entityReference)
 	}
 	
+	/**
+	 * Resolves every reference in place and removes those that no longer exist, returns the remaining count
+	 */
+	fun resolveEntityReferences(entityReferences: Bag<EntityReference>): Int {
+		var size = entityReferences.size()
+		var i = 0
+		
+		while (i < size) {
+			val entityReference = resolveEntityReference(entityReferences[i])
+			
+			if (entityReference != null) {
+				entityReferences[i] = entityReference
+				i++
+			} else {
+				entityReferences.remove(i)
+				size--
+			}
+		}
+		
+		return size
+	}
+	
 	fun getEntityReferenceByUUID(entityUUID: EntityUUID, oldEntityReference: EntityReference? = null): EntityReference? {
 		
-		systems.forEachFast{ system ->
-			val entityID = system.getEntityByUUID(entityUUID)
+		// Entities usually stay in the system they were created in
+		val originSystem = systemsBySID.safeGet(entityUUID.starSystemID)
+		
+		if (originSystem != null) {
+			val entityID = originSystem.getEntityByUUID(entityUUID)
 			
 			if (entityID != null) {
-				if (oldEntityReference != null) {
-					return system.updateEntityReference(entityID, oldEntityReference)
-				} else {
-					return system.getEntityReference(entityID)
+				return updateEntityReference(originSystem, entityID, oldEntityReference)
+			}
+		}
+		
+		systems.forEachFast{ system ->
+			if (system != originSystem) {
+				val entityID = system.getEntityByUUID(entityUUID)
+				
+				if (entityID != null) {
+					return updateEntityReference(system, entityID, oldEntityReference)
 				}
 			}
 		}
@@ -457,6 +607,30 @@ class Galaxy(val empires: MutableList<Empire>, var time: Long = 0) : Runnable, E
 		return null
 	}
 	
+	/**
+	 * System whose shadow has entityUUID, other than exclude. Safe from star system threads
+	 */
+	fun getEntitySystem(entityUUID: EntityUUID, exclude: StarSystem? = null): StarSystem? {
+		
+		shadowLock.withLock {
+			systems.forEachFast { system ->
+				if (system != exclude && system.shadow.getEntityByUUID(entityUUID) != null) {
+					return system
+				}
+			}
+		}
+		
+		return null
+	}
+	
+	private fun updateEntityReference(system: StarSystem, entityID: Int, oldEntityReference: EntityReference?): EntityReference {
+		if (oldEntityReference != null) {
+			return system.updateEntityReference(entityID, oldEntityReference)
+		} else {
+			return system.getEntityReference(entityID)
+		}
+	}
+	
 	// If traveling non-instant move entity when at midpoint between systems
 	fun moveEntity(entityID: Int, sourceSystem: StarSystem, targetSystem: StarSystem,  targetPosition: MovementValues) {
 		val sourceWorld = sourceSystem.world
@@ -475,11 +649,10 @@ class Galaxy(val empires: MutableList<Empire>, var time: Long = 0) : Runnable, E
 	
 	override fun dispose() {
 		shutdown = true
-		synchronized(threadsCondition) {
-			threadsCondition.notifyAll()
-		}
+		pool.shutdown()
 		
 		thread?.join()
+		autosave?.dispose()
 		
 		systems.forEachFast { system ->
 			system.dispose()
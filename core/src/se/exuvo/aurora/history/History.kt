@@ -6,10 +6,8 @@ import com.badlogic.gdx.utils.Disposable
 import org.apache.logging.log4j.LogManager
 import org.sqlite.SQLiteConfig
 import org.sqlite.javax.SQLiteConnectionPoolDataSource
-import se.exuvo.aurora.galactic.Galaxy
 import se.exuvo.aurora.starsystems.components.EntityUUID
 import se.exuvo.aurora.starsystems.components.UUIDComponent
-import se.exuvo.aurora.utils.GameServices
 import se.unlogic.standardutils.dao.AnnotatedDAO
 import se.unlogic.standardutils.dao.SimpleAnnotatedDAOFactory
 import se.unlogic.standardutils.dao.annotations.DAOManaged
@@ -31,6 +29,8 @@ import org.sqlite.SQLiteConfig.LockingMode
 import org.sqlite.SQLiteConfig.SynchronousMode
 import se.unlogic.standardutils.threads.ThreadUtils
 import se.unlogic.standardutils.io.FileUtils
+import se.exuvo.settings.Settings
+import java.io.File
 
 class History : Disposable {
 
@@ -41,12 +41,12 @@ class History : Disposable {
 	val connectionPool: MiniConnectionPoolManager
 
 	val historyEntityEventDAO: AnnotatedDAO<HistoryEntityEvent>
+	val store: HistoryStore
+	val writer: HistoryWriter
 
 	// Only seems to affects reads and not linearly
 	private val executorService = ThreadPoolExecutor(5, 5, 10L, TimeUnit.SECONDS, LinkedBlockingQueue<Runnable>())
 
-	private val galaxy by lazy (LazyThreadSafetyMode.NONE) { GameServices[Galaxy::class] }
-
 	init {
 		log.info("Opening history DB")
 		Class.forName("org.sqlite.JDBC");
@@ -82,6 +82,8 @@ class History : Disposable {
 		}
 
 		historyEntityEventDAO = daoFactory.getDAO(HistoryEntityEvent::class.java)
+		store = HistoryStore(File(Settings.getStr("History/directory", "history")))
+		writer = HistoryWriter(connectionPool, store)
 		
 //		val uuid = EntityUUID(1,2,3)
 //		log.info("Write test..")
@@ -149,6 +151,8 @@ class History : Disposable {
 	}
 	
 	override fun dispose() {
+		writer.dispose()
+		store.dispose()
 		executorService.shutdown()
 		
 		var tasks = 0L
@@ -169,8 +173,6 @@ class History : Disposable {
 		log.info("Closed history DB")
 	}
 
-	//TODO Group multiple inserts and updates in single transaction improves speed
-	
 	private fun execute(f: () -> Unit) {
 		executorService.execute(object : Runnable {
 			override fun run() {
@@ -179,22 +181,16 @@ class History : Disposable {
 		})
 	}
 
-	fun entityCreated(entityID: Int, world: World) {
-		val time = galaxy.time
+	fun entityCreated(entityID: Int, world: World, time: Long) {
 		val uuid = ComponentMapper.getFor(UUIDComponent::class.java, world).get(entityID).uuid
 		
-//		execute({
-//			historyEntityEventDAO.add(HistoryEntityEvent(time, uuid, EntityEvent.CREATE))
-//		})
+		writer.add(time, uuid, EntityEvent.CREATE)
 	}
 
-	fun entityDestroyed(entityID: Int, world: World) {
-		val time = galaxy.time
+	fun entityDestroyed(entityID: Int, world: World, time: Long) {
 		val uuid = ComponentMapper.getFor(UUIDComponent::class.java, world).get(entityID).uuid
 		
-//		execute({
-//			historyEntityEventDAO.add(HistoryEntityEvent(time, uuid, EntityEvent.DESTROY))
-//		})
+		writer.add(time, uuid, EntityEvent.DESTROY)
 	}
 }
 
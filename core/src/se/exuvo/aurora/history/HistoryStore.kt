@@ -0,0 +1,468 @@
+package se.exuvo.aurora.history
+
+import com.artemis.utils.Bag
+import com.badlogic.gdx.utils.Disposable
+import org.apache.logging.log4j.LogManager
+import se.exuvo.aurora.starsystems.StarSystem
+import se.exuvo.aurora.starsystems.components.EntityUUID
+import se.exuvo.aurora.utils.forEachFast
+import java.io.BufferedOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.util.TreeMap
+
+/**
+ * Append only history storage partitioned by game day.
+ * Each segment file holds events of one day grouped per star system. Inside a system the events are sorted by entity and time
+ * and stored as delta and varint encoded columns with a checkpoint every [CHECKPOINT_INTERVAL] events,
+ * so entity lookups binary search the checkpoints and system reads only decode the requested systems.
+ * A day gets additional segments if events for it arrive after it was sealed.
+ * Appending and sealing is done by a single writer thread, queries only see sealed segments and may run on any thread
+ */
+class HistoryStore(val directory: File) : Disposable {
+	companion object {
+		@JvmField val log = LogManager.getLogger(HistoryStore::class.java)
+
+		const val MAGIC = 0x41485354 // AHST
+		const val VERSION = 1
+		const val CHECKPOINT_INTERVAL = 128
+
+		const val HEADER_SIZE = 16 // magic, version, day, system count
+		const val SYSTEM_ENTRY_SIZE = 20 // starSystemID, event count, checkpoint count, block offset
+		const val BLOCK_HEADER_SIZE = 12 // time, empire and ship column lengths
+		const val CHECKPOINT_SIZE = 24 // entityUID, event index, time, empire and ship column offsets
+
+		private val FILE_PATTERN = Regex("day-(\\d+)-(\\d+)\\.hist")
+		private val ENTITY_EVENTS = EntityEvent.values()
+	}
+
+	fun interface EventConsumer {
+		fun accept(time: Long, starSystemID: Int, empireID: Int, entityUID: Long, event: EntityEvent)
+	}
+
+	// Writer thread only
+	private val openDays = TreeMap<Int, DayBuilder>()
+	private var newestDay = Int.MIN_VALUE
+
+	private val segments = TreeMap<Int, Bag<Segment>>() // Guarded by itself
+
+	init {
+		directory.mkdirs()
+
+		directory.listFiles()?.forEach { file ->
+			val match = FILE_PATTERN.matchEntire(file.name)
+
+			if (match != null) {
+				addSegment(match.groupValues[1].toInt(), file)
+			}
+		}
+	}
+
+	fun append(time: Long, starSystemID: Int, empireID: Int, entityUID: Long, event: Int) {
+		val day = (time / StarSystem.DAY).toInt()
+
+		var builder = openDays[day]
+
+		if (builder == null) {
+			builder = DayBuilder(day)
+			openDays[day] = builder
+		}
+
+		builder.add(time, starSystemID, empireID, entityUID, event)
+
+		// Keep the previous day open for systems lagging behind
+		if (day > newestDay) {
+			newestDay = day
+
+			while (openDays.firstKey() < newestDay - 1) {
+				seal(openDays.pollFirstEntry().value)
+			}
+		}
+	}
+
+	/**
+	 * Seals all open days, making them visible to queries
+	 */
+	fun flush() {
+		while (openDays.isNotEmpty()) {
+			seal(openDays.pollFirstEntry().value)
+		}
+	}
+
+	fun getEntityEvents(uuid: EntityUUID, consumer: EventConsumer) {
+		getSegments(Int.MIN_VALUE, Int.MAX_VALUE).forEachFast { segment ->
+			segment.readEntity(uuid.starSystemID, uuid.empireID, uuid.entityUID, consumer)
+		}
+	}
+
+	/**
+	 * Events in star system between fromDay and toDay inclusive, in entity and time order per segment
+	 */
+	fun getSystemEvents(starSystemID: Int, fromDay: Int, toDay: Int, consumer: EventConsumer) {
+		getSegments(fromDay, toDay).forEachFast { segment ->
+			segment.readSystem(starSystemID, consumer)
+		}
+	}
+
+	private fun getSegments(fromDay: Int, toDay: Int): Bag<Segment> {
+		val result = Bag<Segment>()
+
+		synchronized(segments) {
+			segments.subMap(fromDay, true, toDay, true).values.forEach { daySegments ->
+				result.addAll(daySegments)
+			}
+		}
+
+		return result
+	}
+
+	private fun addSegment(day: Int, file: File) {
+		synchronized(segments) {
+			var daySegments = segments[day]
+
+			if (daySegments == null) {
+				daySegments = Bag()
+				segments[day] = daySegments
+			}
+
+			daySegments.add(Segment(file))
+		}
+	}
+
+	private fun seal(builder: DayBuilder) {
+		if (builder.size == 0) {
+			return
+		}
+
+		var index = 0
+		var file: File
+
+		do {
+			file = File(directory, "day-${builder.day}-${index++}.hist")
+		} while (file.exists())
+
+		val tempFile = File(directory, file.name + ".tmp")
+
+		try {
+			DataOutputStream(BufferedOutputStream(FileOutputStream(tempFile), 64 * 1024)).use { output ->
+				builder.write(output)
+			}
+
+			if (!tempFile.renameTo(file)) {
+				throw IOException("Failed to rename $tempFile to $file")
+			}
+
+			addSegment(builder.day, file)
+
+		} catch (e: IOException) {
+			log.error("Error writing history segment $file", e)
+		}
+	}
+
+	override fun dispose() {
+		flush()
+
+		synchronized(segments) {
+			segments.clear()
+		}
+	}
+
+	private class DayBuilder(val day: Int) {
+		var size = 0
+		var times = LongArray(1024)
+		var starSystemIDs = IntArray(1024)
+		var empireIDs = IntArray(1024)
+		var entityUIDs = LongArray(1024)
+		var events = ByteArray(1024)
+
+		fun add(time: Long, starSystemID: Int, empireID: Int, entityUID: Long, event: Int) {
+			if (size == times.size) {
+				val newSize = 2 * size
+				times = times.copyOf(newSize)
+				starSystemIDs = starSystemIDs.copyOf(newSize)
+				empireIDs = empireIDs.copyOf(newSize)
+				entityUIDs = entityUIDs.copyOf(newSize)
+				events = events.copyOf(newSize)
+			}
+
+			times[size] = time
+			starSystemIDs[size] = starSystemID
+			empireIDs[size] = empireID
+			entityUIDs[size] = entityUID
+			events[size] = event.toByte()
+			size++
+		}
+
+		fun write(output: DataOutputStream) {
+			val order = (0 until size).sortedWith(Comparator { a, b ->
+				var c = starSystemIDs[a].compareTo(starSystemIDs[b])
+				if (c == 0) c = entityUIDs[a].compareTo(entityUIDs[b])
+				if (c == 0) c = times[a].compareTo(times[b])
+				c
+			}).toIntArray()
+
+			// Split into per system ranges of order
+			val systemStarts = ArrayList<Int>()
+
+			for (i in 0 until size) {
+				if (i == 0 || starSystemIDs[order[i]] != starSystemIDs[order[i - 1]]) {
+					systemStarts.add(i)
+				}
+			}
+
+			systemStarts.add(size)
+
+			val systemCount = systemStarts.size - 1
+			val blocks = Array(systemCount) { s -> encodeBlock(order, systemStarts[s], systemStarts[s + 1]) }
+
+			output.writeInt(MAGIC)
+			output.writeInt(VERSION)
+			output.writeInt(day)
+			output.writeInt(systemCount)
+
+			var blockOffset = (HEADER_SIZE + systemCount * SYSTEM_ENTRY_SIZE).toLong()
+
+			for (s in 0 until systemCount) {
+				output.writeInt(starSystemIDs[order[systemStarts[s]]])
+				output.writeInt(systemStarts[s + 1] - systemStarts[s])
+				output.writeInt(blocks[s].checkpointCount)
+				output.writeLong(blockOffset)
+				blockOffset += blocks[s].size()
+			}
+
+			blocks.forEach { block ->
+				block.writeTo(output)
+			}
+		}
+
+		private fun encodeBlock(order: IntArray, from: Int, to: Int): EncodedBlock {
+			val block = EncodedBlock()
+			var previousTime = 0L
+			var previousUID = 0L
+
+			for (i in from until to) {
+				val e = order[i]
+
+				if ((i - from) % CHECKPOINT_INTERVAL == 0) {
+					block.checkpoints.writeLong(entityUIDs[e])
+					block.checkpoints.writeInt(i - from)
+					block.checkpoints.writeInt(block.timeColumn.size())
+					block.checkpoints.writeInt(block.empireColumn.size())
+					block.checkpoints.writeInt(block.shipColumn.size())
+					block.checkpointCount++
+
+					previousTime = 0L
+					previousUID = entityUIDs[e]
+				}
+
+				writeVarLong(block.timeColumn, zigZag(times[e] - previousTime))
+				writeVarLong(block.empireColumn, zigZag(empireIDs[e].toLong()))
+				writeVarLong(block.shipColumn, zigZag(entityUIDs[e] - previousUID))
+				block.eventColumn.write(events[e].toInt())
+
+				previousTime = times[e]
+				previousUID = entityUIDs[e]
+			}
+
+			return block
+		}
+	}
+
+	private class EncodedBlock {
+		var checkpointCount = 0
+		val checkpointBytes = ExposedByteArrayOutputStream()
+		val checkpoints = DataOutputStream(checkpointBytes)
+		val timeColumn = ExposedByteArrayOutputStream()
+		val empireColumn = ExposedByteArrayOutputStream()
+		val shipColumn = ExposedByteArrayOutputStream()
+		val eventColumn = ExposedByteArrayOutputStream()
+
+		fun size() = BLOCK_HEADER_SIZE + checkpoints.size() + timeColumn.size() + empireColumn.size() + shipColumn.size() + eventColumn.size()
+
+		fun writeTo(output: DataOutputStream) {
+			output.writeInt(timeColumn.size())
+			output.writeInt(empireColumn.size())
+			output.writeInt(shipColumn.size())
+			output.write(checkpointBytes.buffer(), 0, checkpointBytes.size())
+			output.write(timeColumn.buffer(), 0, timeColumn.size())
+			output.write(empireColumn.buffer(), 0, empireColumn.size())
+			output.write(shipColumn.buffer(), 0, shipColumn.size())
+			output.write(eventColumn.buffer(), 0, eventColumn.size())
+		}
+	}
+
+	private class ExposedByteArrayOutputStream : java.io.ByteArrayOutputStream(256) {
+		fun buffer(): ByteArray = buf
+	}
+
+	private class Segment(val file: File) {
+		private val buffer: MappedByteBuffer by lazy(LazyThreadSafetyMode.SYNCHRONIZED) {
+			RandomAccessFile(file, "r").use { raf ->
+				raf.channel.map(FileChannel.MapMode.READ_ONLY, 0, raf.length())
+			}
+		}
+
+		private val systemCount by lazy(LazyThreadSafetyMode.SYNCHRONIZED) {
+			if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+				throw IOException("Invalid history segment $file")
+			}
+
+			buffer.getInt(12)
+		}
+
+		private fun findSystem(starSystemID: Int): Int {
+			var low = 0
+			var high = systemCount - 1
+
+			while (low <= high) {
+				val mid = (low + high) ushr 1
+				val id = buffer.getInt(HEADER_SIZE + mid * SYSTEM_ENTRY_SIZE)
+
+				when {
+					id < starSystemID -> low = mid + 1
+					id > starSystemID -> high = mid - 1
+					else -> return HEADER_SIZE + mid * SYSTEM_ENTRY_SIZE
+				}
+			}
+
+			return -1
+		}
+
+		fun readSystem(starSystemID: Int, consumer: EventConsumer) {
+			val entry = findSystem(starSystemID)
+
+			if (entry != -1) {
+				BlockReader(buffer, entry).read(0, Long.MIN_VALUE, starSystemID, -1, consumer)
+			}
+		}
+
+		fun readEntity(starSystemID: Int, empireID: Int, entityUID: Long, consumer: EventConsumer) {
+			val entry = findSystem(starSystemID)
+
+			if (entry != -1) {
+				val reader = BlockReader(buffer, entry)
+				reader.read(reader.findCheckpoint(entityUID), entityUID, starSystemID, empireID, consumer)
+			}
+		}
+	}
+
+	private class BlockReader(val buffer: MappedByteBuffer, entry: Int) {
+		val eventCount = buffer.getInt(entry + 4)
+		val checkpointCount = buffer.getInt(entry + 8)
+		val blockOffset = buffer.getLong(entry + 12).toInt()
+		val checkpointsOffset = blockOffset + BLOCK_HEADER_SIZE
+		val timeColumn = checkpointsOffset + checkpointCount * CHECKPOINT_SIZE
+		val empireColumn = timeColumn + buffer.getInt(blockOffset)
+		val shipColumn = empireColumn + buffer.getInt(blockOffset + 4)
+		val eventColumn = shipColumn + buffer.getInt(blockOffset + 8)
+
+		// Last checkpoint that can contain entityUID
+		fun findCheckpoint(entityUID: Long): Int {
+			var low = 0
+			var high = checkpointCount - 1
+			var result = 0
+
+			while (low <= high) {
+				val mid = (low + high) ushr 1
+
+				if (buffer.getLong(checkpointsOffset + mid * CHECKPOINT_SIZE) < entityUID) {
+					result = mid
+					low = mid + 1
+				} else {
+					high = mid - 1
+				}
+			}
+
+			return result
+		}
+
+		/**
+		 * Decodes from checkpoint, if onlyEntityUID is not Long.MIN_VALUE stops after that entity has been passed
+		 */
+		fun read(checkpoint: Int, onlyEntityUID: Long, starSystemID: Int, onlyEmpireID: Int, consumer: EventConsumer) {
+			if (checkpointCount == 0) {
+				return
+			}
+
+			val position = IntArray(3)
+			var index = 0
+			var previousTime = 0L
+			var previousUID = 0L
+
+			for (c in checkpoint until checkpointCount) {
+				val checkpointOffset = checkpointsOffset + c * CHECKPOINT_SIZE
+				previousUID = buffer.getLong(checkpointOffset)
+				index = buffer.getInt(checkpointOffset + 8)
+				position[0] = timeColumn + buffer.getInt(checkpointOffset + 12)
+				position[1] = empireColumn + buffer.getInt(checkpointOffset + 16)
+				position[2] = shipColumn + buffer.getInt(checkpointOffset + 20)
+				previousTime = 0L
+
+				val end = if (c + 1 < checkpointCount) buffer.getInt(checkpointOffset + CHECKPOINT_SIZE + 8) else eventCount
+
+				while (index < end) {
+					val time = previousTime + unZigZag(readVarLong(buffer, position, 0))
+					val empireID = unZigZag(readVarLong(buffer, position, 1)).toInt()
+					val entityUID = previousUID + unZigZag(readVarLong(buffer, position, 2))
+					val event = buffer.get(eventColumn + index).toInt()
+
+					previousTime = time
+					previousUID = entityUID
+					index++
+
+					if (onlyEntityUID != Long.MIN_VALUE) {
+						if (entityUID > onlyEntityUID) {
+							return
+						}
+
+						if (entityUID != onlyEntityUID || (onlyEmpireID != -1 && empireID != onlyEmpireID)) {
+							continue
+						}
+					}
+
+					consumer.accept(time, starSystemID, empireID, entityUID, ENTITY_EVENTS[event])
+				}
+			}
+		}
+	}
+}
+
+private fun zigZag(value: Long): Long = (value shl 1) xor (value shr 63)
+
+private fun unZigZag(value: Long): Long = (value ushr 1) xor -(value and 1)
+
+private fun writeVarLong(output: java.io.ByteArrayOutputStream, value: Long) {
+	var v = value
+
+	while (v and 0x7FL.inv() != 0L) {
+		output.write(((v and 0x7F) or 0x80).toInt())
+		v = v ushr 7
+	}
+
+	output.write(v.toInt())
+}
+
+private fun readVarLong(buffer: MappedByteBuffer, positions: IntArray, column: Int): Long {
+	var position = positions[column]
+	var result = 0L
+	var shift = 0
+
+	while (true) {
+		val b = buffer.get(position++).toInt()
+		result = result or ((b and 0x7F).toLong() shl shift)
+
+		if (b and 0x80 == 0) {
+			break
+		}
+
+		shift += 7
+	}
+
+	positions[column] = position
+	return result
+}
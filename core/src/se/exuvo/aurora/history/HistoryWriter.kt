@@ -0,0 +1,237 @@
+package se.exuvo.aurora.history
+
+import org.apache.logging.log4j.LogManager
+import se.exuvo.aurora.starsystems.components.EntityUUID
+import se.exuvo.settings.Settings
+import se.unlogic.standardutils.db.DBUtils
+import java.sql.Connection
+import java.sql.PreparedStatement
+import java.sql.SQLException
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * Collects history events from any thread into per thread buffers without locking
+ * and writes them on a single thread to the history store, and optionally to SQLite in large transactions using a reused batched insert.
+ * A producer whose buffer is full waits for the writer, counted in [stalls], and drops the event if the writer does not catch up in time or has died, counted in [dropped]
+ */
+class HistoryWriter(private val connectionPool: MiniConnectionPoolManager, private val store: HistoryStore) : Runnable {
+	companion object {
+		@JvmField val log = LogManager.getLogger(HistoryWriter::class.java)
+
+		const val INSERT_ENTITY_EVENT = "INSERT INTO entities (time, starSystemID, empireID, shipID, eventType) VALUES (?, ?, ?, ?, ?)"
+
+		private val ENTITY_EVENTS = EntityEvent.values()
+	}
+
+	private val bufferSize = Integer.highestOneBit(Settings.getInt("History/bufferSize", 16 * 1024))
+	private val maxBatchSize = Settings.getInt("History/batchSize", 10_000)
+	private val idleDelay = Settings.getInt("History/writeDelay", 10) * 1_000_000L
+	private val writeSQLite = Settings.getBol("History/sqlite", false)
+	private val maxStall = Settings.getInt("History/maxStall", 1000) * 1_000_000L
+
+	private val buffers = CopyOnWriteArrayList<EventBuffer>()
+	private val threadBuffer = ThreadLocal.withInitial {
+		val buffer = EventBuffer(bufferSize)
+		buffers.add(buffer)
+		buffer
+	}
+
+	private val thread = Thread(this, "History writer")
+	@Volatile private var shutdown = false
+	@Volatile private var failed = false
+
+	val written = AtomicLong()
+	val stalls = AtomicLong()
+	val dropped = AtomicLong()
+	val transactions = AtomicLong()
+	@Volatile var lastTransactionTime = 0L
+
+	init {
+		thread.isDaemon = true
+		thread.start()
+	}
+
+	fun add(time: Long, uuid: EntityUUID, event: EntityEvent) {
+		val buffer = threadBuffer.get()
+
+		if (!buffer.offer(time, uuid.starSystemID, uuid.empireID, uuid.entityUID, event.ordinal)) {
+			stalls.incrementAndGet()
+
+			val deadline = System.nanoTime() + maxStall
+
+			do {
+				if (failed || shutdown || System.nanoTime() - deadline > 0) {
+					dropped.incrementAndGet()
+					return
+				}
+
+				LockSupport.unpark(thread)
+				Thread.yield()
+			} while (!buffer.offer(time, uuid.starSystemID, uuid.empireID, uuid.entityUID, event.ordinal))
+		}
+	}
+
+	/**
+	 * Events added but not yet written
+	 */
+	fun getQueued(): Long {
+		var queued = 0L
+
+		for (buffer in buffers) {
+			queued += buffer.size()
+		}
+
+		return queued
+	}
+
+	override fun run() {
+		var connection: Connection? = null
+		var statement: PreparedStatement? = null
+
+		try {
+			if (writeSQLite) {
+				connection = connectionPool.getConnection()
+				connection.autoCommit = false
+				statement = connection.prepareStatement(INSERT_ENTITY_EVENT)
+			}
+
+			while (true) {
+				val stopping = shutdown
+				var batchSize = 0
+
+				try {
+					for (buffer in buffers) {
+						batchSize += buffer.drain(maxBatchSize - batchSize) { time, starSystemID, empireID, entityUID, event ->
+							store.append(time, starSystemID, empireID, entityUID, event)
+
+							statement?.run {
+								setLong(1, time)
+								setInt(2, starSystemID)
+								setInt(3, empireID)
+								setLong(4, entityUID)
+								setString(5, ENTITY_EVENTS[event].name)
+								addBatch()
+							}
+						}
+					}
+
+					if (batchSize > 0) {
+						val start = System.nanoTime()
+
+						if (writeSQLite) {
+							statement!!.executeBatch()
+							connection!!.commit()
+						}
+
+						lastTransactionTime = System.nanoTime() - start
+
+						written.addAndGet(batchSize.toLong())
+						transactions.incrementAndGet()
+					}
+
+				} catch (e: Exception) {
+					log.error("Error writing history, dropping batch", e)
+					dropped.addAndGet(maxOf(batchSize, 1).toLong())
+
+					try {
+						statement?.clearBatch()
+						connection?.rollback()
+
+					} catch (e2: SQLException) {
+						log.error("Error rolling back history batch", e2)
+					}
+
+					continue
+				}
+
+				if (batchSize > 0) {
+					continue
+
+				} else if (stopping) {
+					store.flush()
+					break
+
+				} else {
+					LockSupport.parkNanos(idleDelay)
+				}
+			}
+
+		} catch (e: Throwable) {
+			log.error("History writer failed, dropping all further events", e)
+			failed = true
+
+		} finally {
+			DBUtils.closePreparedStatement(statement)
+			DBUtils.closeConnection(connection)
+		}
+	}
+
+	/**
+	 * Writes all remaining events and stops the writer thread
+	 */
+	fun dispose() {
+		shutdown = true
+		LockSupport.unpark(thread)
+		thread.join()
+
+		log.info("Wrote ${written.get()} history events in ${transactions.get()} transactions, producers stalled ${stalls.get()} times, dropped ${dropped.get()} events")
+	}
+
+	// Single producer, single consumer ring buffer
+	private class EventBuffer(capacity: Int) {
+		private val mask = capacity - 1
+		private val times = LongArray(capacity)
+		private val starSystemIDs = IntArray(capacity)
+		private val empireIDs = IntArray(capacity)
+		private val entityUIDs = LongArray(capacity)
+		private val events = ByteArray(capacity)
+
+		@Volatile private var head = 0L // Next write, only modified by producer
+		@Volatile private var tail = 0L // Next read, only modified by consumer
+
+		fun size() = head - tail
+
+		fun offer(time: Long, starSystemID: Int, empireID: Int, entityUID: Long, event: Int): Boolean {
+			val head = head
+
+			if (head - tail > mask) {
+				return false
+			}
+
+			val index = (head and mask.toLong()).toInt()
+			times[index] = time
+			starSystemIDs[index] = starSystemID
+			empireIDs[index] = empireID
+			entityUIDs[index] = entityUID
+			events[index] = event.toByte()
+
+			this.head = head + 1
+			return true
+		}
+
+		inline fun drain(max: Int, consumer: (time: Long, starSystemID: Int, empireID: Int, entityUID: Long, event: Int) -> Unit): Int {
+			val head = head
+			var tail = tail
+			var count = 0
+
+			try {
+				while (tail < head && count < max) {
+					val index = (tail and mask.toLong()).toInt()
+
+					// Skip the event even if consumer throws
+					tail++
+					count++
+
+					consumer(times[index], starSystemIDs[index], empireIDs[index], entityUIDs[index], events[index].toInt())
+				}
+
+			} finally {
+				this.tail = tail
+			}
+
+			return count
+		}
+	}
+}
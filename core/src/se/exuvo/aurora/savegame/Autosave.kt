@@ -0,0 +1,81 @@
+package se.exuvo.aurora.savegame
+
+import org.apache.logging.log4j.LogManager
+import se.exuvo.aurora.galactic.Galaxy
+import se.exuvo.settings.Settings
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * Periodically saves a running galaxy on its own thread.
+ * Saves are incremental snapshots except every [fullInterval] saves where a new chain is started with a full snapshot,
+ * after which all chains older than the previous one are deleted
+ */
+class Autosave(val galaxy: Galaxy) : Runnable {
+	companion object {
+		@JvmField val log = LogManager.getLogger(Autosave::class.java)
+
+		fun isEnabled() = Settings.getInt("Galaxy/autosaveInterval", 600) > 0
+	}
+
+	private val directory = SaveGame.getDirectory()
+	private val interval = Settings.getInt("Galaxy/autosaveInterval", 600) * 1_000_000_000L
+	private val fullInterval = Settings.getInt("Galaxy/autosaveFullInterval", 10)
+
+	private val thread = Thread(this, "Autosave")
+	@Volatile private var shutdown = false
+	private var writer: SaveGameWriter? = null
+
+	init {
+		thread.isDaemon = true
+		thread.priority = Thread.MIN_PRIORITY
+		thread.start()
+	}
+
+	override fun run() {
+		while (!shutdown) {
+			LockSupport.parkNanos(interval)
+
+			if (!shutdown) {
+				save()
+			}
+		}
+	}
+
+	private fun save() {
+		try {
+			val writer = writer
+
+			if (writer == null || writer.increment >= fullInterval) {
+				val newWriter = SaveGameWriter(galaxy, directory)
+				newWriter.writeFull()
+				this.writer = newWriter
+
+				if (writer != null) {
+					SaveGame.getBases(directory).forEach { base ->
+						if (base < writer.base) {
+							SaveGame.deleteChain(directory, base)
+						}
+					}
+				}
+
+			} else {
+				writer.writeIncremental()
+			}
+
+		} catch (e: Exception) {
+			log.error("Error saving galaxy", e)
+			writer = null // Definitions may have been assigned without being written
+		}
+	}
+
+	/**
+	 * Stops the autosave thread and saves once more, must be called after the galaxy has stopped ticking
+	 */
+	fun dispose() {
+		shutdown = true
+		LockSupport.unpark(thread)
+		thread.join()
+
+		save()
+	}
+}
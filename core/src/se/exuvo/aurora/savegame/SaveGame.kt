@@ -0,0 +1,199 @@
+package se.exuvo.aurora.savegame
+
+import com.artemis.utils.Bag
+import com.esotericsoftware.kryo.Kryo
+import com.esotericsoftware.kryo.Serializer
+import com.esotericsoftware.kryo.factories.SerializerFactory
+import com.esotericsoftware.kryo.io.Input
+import com.esotericsoftware.kryo.io.Output
+import com.esotericsoftware.kryo.serializers.FieldSerializer
+import org.objenesis.strategy.StdInstantiatorStrategy
+import se.exuvo.aurora.galactic.Empire
+import se.exuvo.aurora.galactic.MunitionHull
+import se.exuvo.aurora.galactic.Part
+import se.exuvo.aurora.galactic.ShipHull
+import se.exuvo.aurora.starsystems.StarSystem
+import se.exuvo.settings.Settings
+import java.io.File
+import java.util.IdentityHashMap
+
+/**
+ * Binary savegame format written by [SaveGameWriter] and read by [SaveGameLoader].
+ *
+ * A savegame is a chain of one full snapshot followed by incremental snapshots that only contain entities changed since the previous file of the chain.
+ * Each file has a header, a galaxy section with empires and star systems, one block per star system and a trailer
+ * with the component class table and the definitions first referenced by that file.
+ * Components are stored per entity as length prefixed records so that loading can skip records replaced by later files
+ */
+object SaveGame {
+	const val MAGIC = 0x41555253 // AURS
+	const val VERSION = 2
+
+	const val FULL: Byte = 0
+	const val INCREMENTAL: Byte = 1
+
+	const val TRAILER_OFFSET_POSITION = 25 // magic, version, kind, base, increment, time
+	const val HEADER_SIZE = TRAILER_OFFSET_POSITION + 8
+
+	private val FULL_PATTERN = Regex("save-(\\d+)\\.full")
+
+	fun getDirectory() = File(Settings.getStr("Galaxy/saveDirectory", "saves"))
+
+	fun getFullFile(directory: File, base: Int) = File(directory, "save-$base.full")
+
+	fun getIncrementalFile(directory: File, base: Int, increment: Int) = File(directory, "save-$base-$increment.inc")
+
+	/**
+	 * Bases of all full snapshots in directory, ascending
+	 */
+	fun getBases(directory: File): List<Int> {
+		val bases = ArrayList<Int>()
+
+		directory.listFiles()?.forEach { file ->
+			val match = FULL_PATTERN.matchEntire(file.name)
+
+			if (match != null) {
+				bases.add(match.groupValues[1].toInt())
+			}
+		}
+
+		bases.sort()
+		return bases
+	}
+
+	/**
+	 * Full snapshot of base followed by its unbroken sequence of incremental snapshots
+	 */
+	fun getChain(directory: File, base: Int): List<File> {
+		val files = ArrayList<File>()
+		files.add(getFullFile(directory, base))
+
+		var increment = 1
+		var file = getIncrementalFile(directory, base, increment)
+
+		while (file.exists()) {
+			files.add(file)
+			file = getIncrementalFile(directory, base, ++increment)
+		}
+
+		return files
+	}
+
+	fun deleteChain(directory: File, base: Int) {
+		getChain(directory, base).asReversed().forEach { file ->
+			file.delete()
+		}
+	}
+
+	/**
+	 * Serialization state shared by all files of one chain.
+	 * Ship hulls, parts and munitions are shared between entities and empires so they are written once per chain in a file trailer and otherwise referenced by id
+	 */
+	class Session {
+		val kryo = Kryo()
+
+		val definitions = Bag<Any>()
+		val definitionIDs = IdentityHashMap<Any, Int>()
+		val pendingDefinitions = Bag<Any>() // First referenced by the file being written
+
+		val empires = Bag<Empire>()
+		val systems = Bag<StarSystem>()
+
+		private val bodySerializers = HashMap<Class<*>, DefinitionBodySerializer>()
+		private var readingDefinition = -1
+
+		init {
+			kryo.setReferences(true)
+			kryo.setRegistrationRequired(false)
+			kryo.setInstantiatorStrategy(Kryo.DefaultInstantiatorStrategy(StdInstantiatorStrategy()))
+
+			kryo.addDefaultSerializer(StarSystem::class.java, StarSystemSerializer())
+			kryo.addDefaultSerializer(Empire::class.java, EmpireSerializer())
+
+			val definitionFactory = object : SerializerFactory {
+				override fun makeSerializer(kryo: Kryo, type: Class<*>): Serializer<*> = DefinitionSerializer()
+			}
+
+			kryo.addDefaultSerializer(ShipHull::class.java, definitionFactory)
+			kryo.addDefaultSerializer(Part::class.java, definitionFactory)
+			kryo.addDefaultSerializer(MunitionHull::class.java, definitionFactory)
+		}
+
+		fun getDefinitionID(definition: Any): Int {
+			var id = definitionIDs[definition]
+
+			if (id == null) {
+				id = definitions.size()
+				definitions.add(definition)
+				definitionIDs[definition] = id
+				pendingDefinitions.add(definition)
+			}
+
+			return id
+		}
+
+		fun writeDefinitionBody(output: Output, definition: Any) {
+			kryo.writeObject(output, definition, getBodySerializer(definition.javaClass))
+		}
+
+		/**
+		 * Definitions must be instantiated with [instantiateDefinition] before any body is read as bodies may reference each other
+		 */
+		fun readDefinitionBody(input: Input, id: Int) {
+			val definition = definitions[id]
+			readingDefinition = id
+			kryo.readObject(input, definition.javaClass, getBodySerializer(definition.javaClass))
+			readingDefinition = -1
+		}
+
+		fun instantiateDefinition(id: Int, type: Class<*>) {
+			if (definitions.safeGet(id) == null) {
+				val definition: Any = kryo.newInstance(type as Class<Any>)
+				definitions.set(id, definition)
+				definitionIDs[definition] = id
+			}
+		}
+
+		private fun getBodySerializer(type: Class<*>): DefinitionBodySerializer {
+			return bodySerializers.getOrPut(type, { DefinitionBodySerializer(type) })
+		}
+
+		private inner class DefinitionSerializer : Serializer<Any>() {
+			override fun write(kryo: Kryo, output: Output, definition: Any) {
+				output.writeVarInt(getDefinitionID(definition), true)
+			}
+
+			override fun read(kryo: Kryo, input: Input, type: Class<Any>): Any {
+				val id = input.readVarInt(true)
+				return definitions.safeGet(id) ?: throw IllegalStateException("Missing definition $id")
+			}
+		}
+
+		// Fills the already instantiated definition instead of creating a new one
+		private inner class DefinitionBodySerializer(type: Class<*>) : FieldSerializer<Any>(kryo, type) {
+			override fun create(kryo: Kryo, input: Input, type: Class<Any>): Any = definitions[readingDefinition]
+		}
+
+		private inner class StarSystemSerializer : Serializer<StarSystem>() {
+			override fun write(kryo: Kryo, output: Output, system: StarSystem) {
+				output.writeVarInt(system.sid, true)
+			}
+
+			override fun read(kryo: Kryo, input: Input, type: Class<StarSystem>): StarSystem {
+				val sid = input.readVarInt(true)
+				return systems.safeGet(sid) ?: throw IllegalStateException("Missing star system $sid")
+			}
+		}
+
+		private inner class EmpireSerializer : Serializer<Empire>() {
+			override fun write(kryo: Kryo, output: Output, empire: Empire) {
+				output.writeVarInt(empire.id, true)
+			}
+
+			override fun read(kryo: Kryo, input: Input, type: Class<Empire>): Empire {
+				val id = input.readVarInt(true)
+				return empires.safeGet(id) ?: throw IllegalStateException("Missing empire $id")
+			}
+		}
+	}
+}
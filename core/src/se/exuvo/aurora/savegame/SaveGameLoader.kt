@@ -0,0 +1,308 @@
+package se.exuvo.aurora.savegame
+
+import com.artemis.Component
+import com.artemis.utils.Bag
+import com.artemis.utils.IntBag
+import com.esotericsoftware.kryo.io.ByteBufferInput
+import org.apache.logging.log4j.LogManager
+import se.exuvo.aurora.galactic.BeamWeapon
+import se.exuvo.aurora.galactic.Empire
+import se.exuvo.aurora.galactic.Galaxy
+import se.exuvo.aurora.galactic.Part
+import se.exuvo.aurora.galactic.ShipHull
+import se.exuvo.aurora.galactic.SimpleMunitionHull
+import se.exuvo.aurora.starsystems.StarSystem
+import se.exuvo.aurora.starsystems.components.CloneableComponent
+import se.exuvo.aurora.starsystems.components.ShipOrder
+import se.exuvo.aurora.starsystems.systems.Salvos
+import se.exuvo.aurora.utils.Units
+import se.exuvo.aurora.utils.Vector2L
+import se.exuvo.aurora.utils.forEachFast
+import uk.co.omegaprime.btreemap.LongObjectBTreeMap
+import java.io.File
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+
+/**
+ * Loads the newest savegame chain of a directory by memory mapping every file of the chain.
+ * Entity records are only indexed while scanning the files, so an entity rewritten by later incremental snapshots is deserialized once.
+ * Requires the same services as a new galaxy, the returned galaxy is prepared but not started
+ */
+class SaveGameLoader(val directory: File) {
+	companion object {
+		@JvmField val log = LogManager.getLogger(SaveGameLoader::class.java)
+	}
+
+	private val session = SaveGame.Session()
+	private val kryo = session.kryo
+
+	fun load(): Galaxy? {
+		val base = SaveGame.getBases(directory).lastOrNull() ?: return null
+		val start = System.nanoTime()
+
+		val files = SaveGame.getChain(directory, base).mapIndexed { index, file ->
+			SaveFile(file, if (index == 0) SaveGame.FULL else SaveGame.INCREMENTAL)
+		}
+
+		files.forEach { file ->
+			file.readTrailer()
+		}
+
+		val newest = files.last()
+		val input = newest.input
+		input.setPosition(SaveGame.HEADER_SIZE + 4)
+
+		val empires = ArrayList<Empire>()
+		session.empires.set(Empire.GAIA.id, Empire.GAIA)
+
+		repeat(input.readVarInt(true)) {
+			val id = input.readVarInt(true)
+			val empire = Empire(input.readString(), id)
+			empire.funds = input.readLong()
+
+			repeat(input.readVarInt(true)) {
+				empire.shipHulls.add(kryo.readObject(input, ShipHull::class.java))
+			}
+
+			repeat(input.readVarInt(true)) {
+				empire.parts.add(kryo.readObject(input, Part::class.java))
+			}
+
+			session.empires.set(empire.id, empire)
+			empires.add(empire)
+			Empire.empireIDGenerator.accumulateAndGet(empire.id + 1, { a, b -> maxOf(a, b) })
+		}
+
+		val galaxy = Galaxy(empires, newest.time)
+		val systems = Bag(StarSystem::class.java)
+		val indexes = Bag<SystemIndex>()
+
+		repeat(input.readVarInt(true)) {
+			val sid = input.readVarInt(true)
+			val system = StarSystem(input.readString(), Vector2L(input.readLong(), input.readLong()), sid)
+
+			session.systems.set(sid, system)
+			indexes.set(sid, SystemIndex())
+			systems.add(system)
+			StarSystem.starSystemIDGenerator.accumulateAndGet(sid + 1, { a, b -> maxOf(a, b) })
+		}
+
+		files.forEach { file ->
+			file.index(indexes)
+		}
+
+		var entities = 0
+
+		systems.forEachFast { system ->
+			entities += restoreSystem(system, indexes[system.sid])
+		}
+
+		galaxy.prepare(systems)
+
+		log.info("Loaded $entities entities from ${files.size} files of save $base in ${Units.nanoToString(System.nanoTime() - start)}")
+		return galaxy
+	}
+
+	private fun restoreSystem(system: StarSystem, index: SystemIndex): Int {
+		val world = system.world
+		val files = index.entityFiles
+		var entities = 0
+
+		system.time = index.time
+		system.entityUIDGenerator = index.entityUIDGenerator
+
+		for (entityID in 0 until files.size()) {
+			val file = files[entityID] ?: continue
+			val input = file.input
+
+			input.setPosition(index.entityPositions[entityID])
+			world.createSpecific(entityID)
+
+			repeat(input.readVarInt(true)) {
+				val type = file.classes[input.readVarInt(true)] as Class<Component>
+				val component = kryo.readObject(input, type) as CloneableComponent<*>
+
+				component.copy2(world.getMapper(type).create(entityID))
+			}
+
+			entities++
+		}
+
+		val shipsFile = index.shipsFile
+
+		if (shipsFile != null) {
+			val input = shipsFile.input
+			input.setPosition(index.shipsPosition)
+
+			repeat(input.readVarInt(true)) {
+				val empire = session.empires[input.readVarInt(true)]
+				val ships = LongObjectBTreeMap.create<IntBag>()!!
+
+				repeat(input.readVarInt(true)) {
+					val mass = input.readLong()
+					val size = input.readVarInt(true)
+					val shipIDs = IntBag(maxOf(size, 64))
+
+					repeat(size) {
+						shipIDs.add(input.readVarInt(true))
+					}
+
+					ships[mass] = shipIDs
+				}
+
+				system.empireShips[empire] = ships
+			}
+
+			system.empireShipsVersion++
+
+			repeat(input.readVarInt(true)) {
+				val empire = session.empires[input.readVarInt(true)]
+				val size = input.readVarInt(true)
+				val orders = Bag<ShipOrder>(maxOf(size, 64))
+
+				repeat(size) {
+					orders.add(kryo.readClassAndObject(input) as ShipOrder)
+				}
+
+				system.empireOrders[empire] = orders
+			}
+
+			val salvos = Salvos()
+			val launchPosition = Vector2L()
+			val interceptPosition = Vector2L()
+			val velocity = Vector2L()
+
+			repeat(input.readVarInt(true)) {
+				val kind = input.readByte()
+				val count = input.readVarInt(true)
+				val owner = session.empires[input.readVarInt(true)]
+				val targetID = input.readVarInt(true)
+				val launchTime = input.readLong()
+				val arrivalTime = input.readLong()
+				launchPosition.set(input.readLong(), input.readLong())
+				interceptPosition.set(input.readLong(), input.readLong())
+				velocity.set(input.readLong(), input.readLong())
+
+				val slot = salvos.allocate()
+				salvos.set(slot, kind, owner, targetID, launchTime, arrivalTime, launchPosition, interceptPosition, velocity)
+				salvos.counts[slot] = count
+
+				if (kind == Salvos.LASER) {
+					salvos.damages[slot] = input.readLong()
+					salvos.beamAreas[slot] = input.readLong()
+					salvos.weapons[slot] = kryo.readObject(input, BeamWeapon::class.java)
+
+				} else {
+					salvos.hulls[slot] = kryo.readObject(input, SimpleMunitionHull::class.java)
+				}
+			}
+
+			system.salvoSystem.restore(salvos)
+		}
+
+		system.shadow.update()
+
+		return entities
+	}
+
+	private class SystemIndex {
+		var time = 0L
+		var entityUIDGenerator = 1L
+		var shipsFile: SaveFile? = null
+		var shipsPosition = 0
+		val entityFiles = Bag<SaveFile?>()
+		val entityPositions = IntBag()
+	}
+
+	private inner class SaveFile(val file: File, expectedKind: Byte) {
+		val input: ByteBufferInput
+		val time: Long
+		private val trailerOffset: Int
+		lateinit var classes: Array<Class<*>>
+
+		init {
+			val buffer = FileChannel.open(file.toPath(), StandardOpenOption.READ).use { channel ->
+				channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+			}
+
+			input = ByteBufferInput(buffer)
+
+			if (input.readInt() != SaveGame.MAGIC) {
+				throw IllegalStateException("$file is not a savegame")
+			}
+
+			val version = input.readInt()
+
+			if (version != SaveGame.VERSION) {
+				throw IllegalStateException("$file has unsupported version $version, expected ${SaveGame.VERSION}")
+			}
+
+			val kind = input.readByte()
+
+			if (kind != expectedKind) {
+				throw IllegalStateException("$file has kind $kind, expected $expectedKind")
+			}
+
+			input.readInt() // Base
+			input.readInt() // Increment
+			time = input.readLong()
+			trailerOffset = input.readLong().toInt()
+		}
+
+		/**
+		 * Reads the class table and all definitions first referenced by this file
+		 */
+		fun readTrailer() {
+			input.setPosition(trailerOffset)
+
+			classes = Array(input.readVarInt(true), { Class.forName(input.readString()) })
+
+			val definitionIDs = IntArray(input.readVarInt(true))
+
+			for (i in 0 until definitionIDs.size) {
+				definitionIDs[i] = input.readVarInt(true)
+				session.instantiateDefinition(definitionIDs[i], Class.forName(input.readString()))
+			}
+
+			definitionIDs.forEach { id ->
+				session.readDefinitionBody(input, id)
+			}
+		}
+
+		/**
+		 * Records the position of the newest ships, orders and entity records of every star system in this file
+		 */
+		fun index(indexes: Bag<SystemIndex>) {
+			input.setPosition(SaveGame.HEADER_SIZE)
+
+			val galaxyLength = input.readInt()
+			input.setPosition(input.position() + galaxyLength)
+
+			repeat(input.readVarInt(true)) {
+				val sid = input.readVarInt(true)
+				val index = indexes.safeGet(sid) ?: throw IllegalStateException("Star system $sid in $file is missing from the newest save")
+
+				index.time = input.readLong()
+				index.entityUIDGenerator = input.readLong()
+
+				val shipsLength = input.readInt()
+				index.shipsFile = this
+				index.shipsPosition = input.position()
+				input.setPosition(input.position() + shipsLength)
+
+				repeat(input.readVarInt(true)) {
+					index.entityFiles.set(input.readVarInt(true), null)
+				}
+
+				repeat(input.readVarInt(true)) {
+					val entityID = input.readVarInt(true)
+					val length = input.readInt()
+
+					index.entityFiles.set(entityID, this)
+					index.entityPositions.set(entityID, input.position())
+					input.setPosition(input.position() + length)
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,339 @@
+package se.exuvo.aurora.savegame
+
+import com.artemis.Component
+import com.artemis.utils.Bag
+import com.artemis.utils.BitVector
+import com.artemis.utils.IntBag
+import com.esotericsoftware.kryo.io.Output
+import org.apache.logging.log4j.LogManager
+import se.exuvo.aurora.galactic.Empire
+import se.exuvo.aurora.galactic.Galaxy
+import se.exuvo.aurora.starsystems.StarSystem
+import se.exuvo.aurora.starsystems.systems.Salvos
+import se.exuvo.aurora.utils.Units
+import se.exuvo.aurora.utils.forEachFast
+import java.io.File
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+import java.util.IdentityHashMap
+import kotlin.concurrent.read
+import kotlin.concurrent.withLock
+
+/**
+ * Writes savegame snapshots of a running galaxy from the star system shadows.
+ * The shadow lock is held while one star system is serialized to memory and never during file writes, so the galaxy keeps ticking.
+ * Star systems are saved at the time of their own shadow which may differ between systems
+ */
+class SaveGameWriter(val galaxy: Galaxy, val directory: File) {
+	companion object {
+		@JvmField val log = LogManager.getLogger(SaveGameWriter::class.java)
+	}
+
+	private val session = SaveGame.Session()
+	private val kryo = session.kryo
+	private val output = Output(64 * 1024, -1)
+	private val recordOutput = Output(4 * 1024, -1)
+
+	private val classIndices = IdentityHashMap<Class<*>, Int>()
+	private val classes = ArrayList<Class<*>>()
+	private val entityIDs = IntBag()
+	private val deletedIDs = BitVector()
+	private val components = Bag<Component>()
+
+	val base: Int
+	var increment = -1
+		private set
+
+	init {
+		directory.mkdirs()
+		base = (SaveGame.getBases(directory).lastOrNull() ?: -1) + 1
+	}
+
+	/**
+	 * Writes every entity, must be called once before [writeIncremental]
+	 */
+	fun writeFull(): File {
+		if (increment != -1) {
+			throw IllegalStateException("Full snapshot already written for base $base")
+		}
+
+		increment = 0
+		return write(SaveGame.FULL, SaveGame.getFullFile(directory, base))
+	}
+
+	/**
+	 * Writes entities changed or deleted since the previous snapshot
+	 */
+	fun writeIncremental(): File {
+		if (increment == -1) {
+			throw IllegalStateException("No full snapshot written for base $base")
+		}
+
+		increment++
+		return write(SaveGame.INCREMENTAL, SaveGame.getIncrementalFile(directory, base, increment))
+	}
+
+	private fun write(kind: Byte, file: File): File {
+		val start = System.nanoTime()
+		val tempFile = File(directory, file.name + ".tmp")
+		var entities = 0
+
+		classIndices.clear()
+		classes.clear()
+		session.pendingDefinitions.clear()
+
+		FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING).use { channel ->
+			output.clear()
+			output.writeInt(SaveGame.MAGIC)
+			output.writeInt(SaveGame.VERSION)
+			output.writeByte(kind)
+			output.writeInt(base)
+			output.writeInt(increment)
+			output.writeLong(galaxy.time)
+			output.writeLong(0) // Trailer offset
+			writeGalaxy()
+			flush(channel)
+
+			val systems = galaxy.systems
+			output.writeVarInt(systems.size(), true)
+
+			systems.forEachFast { system ->
+				galaxy.shadowLock.withLock {
+					entities += writeSystem(system, kind == SaveGame.FULL)
+				}
+
+				flush(channel)
+			}
+
+			val trailerOffset = channel.position()
+			writeTrailer()
+			flush(channel)
+
+			val offsetBuffer = ByteBuffer.allocate(8)
+			offsetBuffer.putLong(0, trailerOffset)
+			channel.write(offsetBuffer, SaveGame.TRAILER_OFFSET_POSITION.toLong())
+			channel.force(false)
+		}
+
+		if (!tempFile.renameTo(file)) {
+			throw IOException("Failed to rename $tempFile to $file")
+		}
+
+		log.info("Saved $entities entities to $file in ${Units.nanoToString(System.nanoTime() - start)}")
+		return file
+	}
+
+	private fun flush(channel: FileChannel) {
+		val buffer = ByteBuffer.wrap(output.buffer, 0, output.position())
+
+		while (buffer.hasRemaining()) {
+			channel.write(buffer)
+		}
+
+		output.clear()
+	}
+
+	// Length prefixed so that loading can skip it in all but the newest file
+	private fun writeGalaxy() {
+		recordOutput.clear()
+
+		val empires = galaxy.empires.filter { empire -> empire != Empire.GAIA }
+		recordOutput.writeVarInt(empires.size, true)
+
+		empires.forEach { empire ->
+			empire.lock.read {
+				recordOutput.writeVarInt(empire.id, true)
+				recordOutput.writeString(empire.name)
+				recordOutput.writeLong(empire.funds)
+
+				recordOutput.writeVarInt(empire.shipHulls.size, true)
+				empire.shipHulls.forEach { hull ->
+					kryo.writeObject(recordOutput, hull)
+				}
+
+				recordOutput.writeVarInt(empire.parts.size, true)
+				empire.parts.forEach { part ->
+					kryo.writeObject(recordOutput, part)
+				}
+			}
+		}
+
+		val systems = galaxy.systems
+		recordOutput.writeVarInt(systems.size(), true)
+
+		systems.forEachFast { system ->
+			recordOutput.writeVarInt(system.sid, true)
+			recordOutput.writeString(system.initialName)
+			recordOutput.writeLong(system.initialPosition.x)
+			recordOutput.writeLong(system.initialPosition.y)
+		}
+
+		output.writeInt(recordOutput.position())
+		output.writeBytes(recordOutput.buffer, 0, recordOutput.position())
+	}
+
+	// Requires shadow lock
+	private fun writeSystem(system: StarSystem, full: Boolean): Int {
+		val shadow = system.shadow
+		val entityManager = shadow.world.entityManager
+
+		output.writeVarInt(system.sid, true)
+		output.writeLong(shadow.time)
+		output.writeLong(system.entityUIDGenerator)
+
+		writeShipsAndOrders(system)
+
+		if (full) {
+			output.writeVarInt(0, true)
+
+			entityIDs.setSize(0)
+			entityIDs.addAll(shadow.allSubscription.entities)
+
+		} else {
+			deletedIDs.set(system.unsavedDeleted)
+			deletedIDs.andNot(system.unsavedChanges) // Reused entity ids are written as changed
+
+			deletedIDs.toIntBag(entityIDs)
+			output.writeVarInt(entityIDs.size(), true)
+
+			entityIDs.forEachFast { entityID ->
+				output.writeVarInt(entityID, true)
+			}
+
+			system.unsavedChanges.toIntBag(entityIDs)
+		}
+
+		output.writeVarInt(entityIDs.size(), true)
+
+		entityIDs.forEachFast { entityID ->
+			if (!entityManager.isActive(entityID)) {
+				throw IllegalStateException("entity id $entityID does not exist in shadow of $system")
+			}
+
+			components.clear()
+			shadow.world.componentManager.getComponentsFor(entityID, components)
+
+			recordOutput.clear()
+			recordOutput.writeVarInt(components.size(), true)
+
+			components.forEachFast { component ->
+				recordOutput.writeVarInt(getClassIndex(component.javaClass), true)
+				kryo.writeObject(recordOutput, component)
+			}
+
+			output.writeVarInt(entityID, true)
+			output.writeInt(recordOutput.position())
+			output.writeBytes(recordOutput.buffer, 0, recordOutput.position())
+		}
+
+		system.unsavedChanges.clear()
+		system.unsavedDeleted.clear()
+
+		return entityIDs.size()
+	}
+
+	// Length prefixed so that loading can skip it in all but the newest file, salvos in flight are not entities and are stored here too
+	private fun writeShipsAndOrders(system: StarSystem) {
+		val shadow = system.shadow
+		recordOutput.clear()
+
+		recordOutput.writeVarInt(shadow.empireShips.size, true)
+
+		shadow.empireShips.forEach { (empire, ships) ->
+			recordOutput.writeVarInt(empire.id, true)
+			recordOutput.writeVarInt(ships.size, true)
+
+			ships.forEach { (mass, shipIDs) ->
+				recordOutput.writeLong(mass)
+				recordOutput.writeVarInt(shipIDs.size(), true)
+
+				shipIDs.forEachFast { entityID ->
+					recordOutput.writeVarInt(entityID, true)
+				}
+			}
+		}
+
+		recordOutput.writeVarInt(shadow.empireOrders.size, true)
+
+		shadow.empireOrders.forEach { (empire, orders) ->
+			recordOutput.writeVarInt(empire.id, true)
+			recordOutput.writeVarInt(orders.size(), true)
+
+			orders.forEachFast { order ->
+				kryo.writeClassAndObject(recordOutput, order)
+			}
+		}
+
+		val salvos = shadow.salvos
+		recordOutput.writeVarInt(salvos.alive, true)
+
+		for (slot in 0 until salvos.size) {
+			if (salvos.isAlive(slot)) {
+				val kind = salvos.kinds[slot]
+				recordOutput.writeByte(kind)
+				recordOutput.writeVarInt(salvos.counts[slot], true)
+				recordOutput.writeVarInt(salvos.owners[slot]!!.id, true)
+				recordOutput.writeVarInt(salvos.targetIDs[slot], true)
+				recordOutput.writeLong(salvos.launchTimes[slot])
+				recordOutput.writeLong(salvos.arrivalTimes[slot])
+				recordOutput.writeLong(salvos.launchXs[slot])
+				recordOutput.writeLong(salvos.launchYs[slot])
+				recordOutput.writeLong(salvos.interceptXs[slot])
+				recordOutput.writeLong(salvos.interceptYs[slot])
+				recordOutput.writeLong(salvos.velocityXs[slot])
+				recordOutput.writeLong(salvos.velocityYs[slot])
+
+				if (kind == Salvos.LASER) {
+					recordOutput.writeLong(salvos.damages[slot])
+					recordOutput.writeLong(salvos.beamAreas[slot])
+					kryo.writeObject(recordOutput, salvos.weapons[slot]!!)
+
+				} else {
+					kryo.writeObject(recordOutput, salvos.hulls[slot]!!)
+				}
+			}
+		}
+
+		output.writeInt(recordOutput.position())
+		output.writeBytes(recordOutput.buffer, 0, recordOutput.position())
+	}
+
+	private fun getClassIndex(type: Class<*>): Int {
+		var index = classIndices[type]
+
+		if (index == null) {
+			index = classes.size
+			classes.add(type)
+			classIndices[type] = index
+		}
+
+		return index
+	}
+
+	private fun writeTrailer() {
+		output.writeVarInt(classes.size, true)
+
+		classes.forEach { type ->
+			output.writeString(type.name)
+		}
+
+		// Bodies may reference further definitions which are then appended to pending
+		recordOutput.clear()
+
+		var index = 0
+		while (index < session.pendingDefinitions.size()) {
+			session.writeDefinitionBody(recordOutput, session.pendingDefinitions[index++])
+		}
+
+		output.writeVarInt(session.pendingDefinitions.size(), true)
+
+		session.pendingDefinitions.forEachFast { definition ->
+			output.writeVarInt(session.definitionIDs[definition]!!, true)
+			output.writeString(definition.javaClass.name)
+		}
+
+		output.writeBytes(recordOutput.buffer, 0, recordOutput.position())
+	}
+}
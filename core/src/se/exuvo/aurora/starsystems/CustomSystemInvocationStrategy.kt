@@ -1,5 +1,6 @@
 package se.exuvo.aurora.starsystems
 
+import com.artemis.ComponentMapper
 import com.artemis.SystemInvocationStrategy
 import com.artemis.utils.Bag
 import com.artemis.WorldConfigurationBuilder.Priority
@@ -43,6 +44,11 @@ open class CustomSystemInvocationStrategy(val starSystem: StarSystem) : SystemIn
 		systems.forEachFast { i, system ->
 			if (!disabled.unsafeGet(i)) {
 				system.process()
+				
+				if (system is ParallelSystem) {
+					system.processDeferred()
+				}
+				
 				updateEntityStates()
 			}
 		}
@@ -63,4 +69,28 @@ interface PreSystem {
 interface PostSystem {
 	fun postProcessSystem()
 	fun getPostProcessPriority() = Priority.NORMAL
-}
\ No newline at end of file
+}
+
+interface ScheduledSystem {
+	/**
+	 * Earliest system time at which this system has work to do, Long.MAX_VALUE if nothing is scheduled.
+	 * Systems that need to run every second return the current time + 1.
+	 */
+	fun getNextEventTime(): Long
+}
+
+/**
+ * Systems that ParallelSystemInvocationStrategy may process concurrently with other parallel systems,
+ * as long as neither writes a component the other reads or writes.
+ * process() must only use the declared components, mark changes with StarSystem.changed and not create or delete entities,
+ * add or remove components, dispatch events, use the profiler or the star system random.
+ */
+interface ParallelSystem {
+	fun getReadMappers(): Array<ComponentMapper<*>>
+	fun getWriteMappers(): Array<ComponentMapper<*>>
+	
+	/**
+	 * Runs on the invoking thread after process(), applies entity and component changes deferred from process()
+	 */
+	fun processDeferred() {}
+}
@@ -6,32 +6,47 @@ import com.artemis.Aspect.Builder
 import com.artemis.systems.IteratingSystem
 import com.artemis.Aspect
 import com.artemis.BaseSystem
+import com.artemis.annotations.Wire
+import se.exuvo.aurora.starsystems.ScheduledSystem
+import se.exuvo.aurora.starsystems.StarSystem
 
 //TODO add preProcessEntity
 
-abstract class DailyIteratingSystem(aspect: Aspect.Builder) : IteratingSystem(aspect) {
+abstract class DailyIteratingSystem(aspect: Aspect.Builder) : IteratingSystem(aspect), ScheduledSystem {
 
 	val galaxy = GameServices[Galaxy::class]
 	var lastDay: Int = -1
+	
+	@Wire
+	lateinit private var starSystem: StarSystem
 
 	override fun checkProcessing(): Boolean {
-		if (galaxy.day > lastDay) {
-			lastDay = galaxy.day
+		if (starSystem.day > lastDay) {
+			lastDay = starSystem.day
 			return true
 		}
 		
 		return false
 	}
+	
+	override fun getNextEventTime(): Long = (lastDay + 1) * StarSystem.DAY
 }
 
-abstract class DailySystem() : BaseSystem() {
+abstract class DailySystem() : BaseSystem(), ScheduledSystem {
 
 	val galaxy = GameServices[Galaxy::class]
-	var lastDay: Int = galaxy.day - 1
+	var lastDay: Int = -1
+	
+	@Wire
+	lateinit private var starSystem: StarSystem
+
+	override fun initialize() {
+		lastDay = starSystem.day - 1
+	}
 
 	override fun checkProcessing(): Boolean {
-		if (galaxy.day > lastDay) {
-			lastDay = galaxy.day
+		if (starSystem.day > lastDay) {
+			lastDay = starSystem.day
 			return true
 		}
 		
@@ -39,18 +54,27 @@ abstract class DailySystem() : BaseSystem() {
 	}
 	
 	fun runOnNextUpdate() {
-		lastDay = galaxy.day - 1
+		lastDay = starSystem.day - 1
 	}
+	
+	override fun getNextEventTime(): Long = (lastDay + 1) * StarSystem.DAY
 }
 
-abstract class GalaxyTimeIntervalIteratingSystem(aspect: Aspect.Builder, val interval: Long) : IteratingSystem(aspect) {
+abstract class GalaxyTimeIntervalIteratingSystem(aspect: Aspect.Builder, val interval: Long) : IteratingSystem(aspect), ScheduledSystem {
 
 	val galaxy = GameServices[Galaxy::class]
-	var lastTime: Long = galaxy.time - interval - 1
+	var lastTime: Long = 0
+	
+	@Wire
+	lateinit private var starSystem: StarSystem
+
+	override fun initialize() {
+		lastTime = starSystem.time - interval - 1
+	}
 
 	override fun checkProcessing(): Boolean {
-		if (galaxy.time - lastTime >= interval) {
-			lastTime = galaxy.time
+		if (starSystem.time - lastTime >= interval) {
+			lastTime = starSystem.time
 			return true
 		}
 		
@@ -58,18 +82,27 @@ abstract class GalaxyTimeIntervalIteratingSystem(aspect: Aspect.Builder, val int
 	}
 
 	fun runOnNextUpdate() {
-		lastTime = galaxy.time - interval - 1
+		lastTime = starSystem.time - interval - 1
 	}
+	
+	override fun getNextEventTime(): Long = lastTime + interval
 }
 
-abstract class GalaxyTimeIntervalSystem(val interval: Long) : BaseSystem() {
+abstract class GalaxyTimeIntervalSystem(val interval: Long) : BaseSystem(), ScheduledSystem {
 
 	val galaxy = GameServices[Galaxy::class]
-	var lastTime: Long = galaxy.time - interval - 1
+	var lastTime: Long = 0
+	
+	@Wire
+	lateinit private var starSystem: StarSystem
+
+	override fun initialize() {
+		lastTime = starSystem.time - interval - 1
+	}
 
 	override fun checkProcessing(): Boolean {
-		if (galaxy.time - lastTime >= interval) {
-			lastTime = galaxy.time
+		if (starSystem.time - lastTime >= interval) {
+			lastTime = starSystem.time
 			return true
 		}
 		
@@ -77,6 +110,8 @@ abstract class GalaxyTimeIntervalSystem(val interval: Long) : BaseSystem() {
 	}
 	
 	fun runOnNextUpdate() {
-		lastTime = galaxy.time - interval - 1
+		lastTime = starSystem.time - interval - 1
 	}
-}
\ No newline at end of file
+	
+	override fun getNextEventTime(): Long = lastTime + interval
+}
@@ -0,0 +1,200 @@
+package se.exuvo.aurora.starsystems
+
+import com.artemis.utils.BitVector
+import com.artemis.utils.IntBag
+import java.util.concurrent.ForkJoinTask
+import java.util.concurrent.RecursiveAction
+import org.apache.logging.log4j.LogManager
+import se.exuvo.aurora.utils.forEachFast
+
+/**
+ * Processes consecutive ParallelSystems whose declared components do not conflict as one stage on the galaxy pool.
+ * Other systems are stages of their own and run as in CustomSystemInvocationStrategy.
+ * Registration order is kept between conflicting systems, entity states are updated after each stage.
+ */
+class ParallelSystemInvocationStrategy(starSystem: StarSystem) : CustomSystemInvocationStrategy(starSystem) {
+	companion object {
+		@JvmField val log = LogManager.getLogger(ParallelSystemInvocationStrategy::class.java)
+	}
+
+	// Stage i is systems[stageStarts[i], stageStarts[i + 1])
+	lateinit var stageStarts: IntArray
+
+	// Component type indexes written by each stage
+	lateinit var stageWrites: Array<IntArray>
+
+	private lateinit var tasks: Array<SystemTask?>
+
+	override fun initialize() {
+		super.initialize()
+
+		val starts = IntBag()
+		val writes = ArrayList<IntArray>()
+
+		val stageReads = BitVector()
+		val stageWritten = BitVector()
+		val reads = BitVector()
+		val written = BitVector()
+		var stageParallel = false
+
+		tasks = arrayOfNulls(systems.size())
+
+		systems.forEachFast { i, system ->
+
+			reads.clear()
+			written.clear()
+
+			if (system is ParallelSystem) {
+				system.getReadMappers().forEach { mapper -> reads.set(mapper.type.index) }
+				system.getWriteMappers().forEach { mapper -> written.set(mapper.type.index) }
+			}
+
+			val joinsStage = system is ParallelSystem && stageParallel
+				&& !written.intersects(stageReads) && !written.intersects(stageWritten) && !reads.intersects(stageWritten)
+
+			if (!joinsStage) {
+				if (starts.size() > 0) {
+					writes.add(toIndexes(stageWritten))
+				}
+
+				starts.add(i)
+				stageReads.clear()
+				stageWritten.clear()
+				stageParallel = system is ParallelSystem
+			}
+
+			stageReads.or(reads)
+			stageWritten.or(written)
+
+			if (system is ParallelSystem) {
+				tasks[i] = SystemTask(i)
+			}
+		}
+
+		writes.add(toIndexes(stageWritten))
+		starts.add(systems.size())
+
+		stageStarts = IntArray(starts.size()) { starts[it] }
+		stageWrites = writes.toTypedArray()
+
+		for (stage in 0 until stageWrites.size) {
+			val start = stageStarts[stage]
+			val end = stageStarts[stage + 1]
+
+			if (end - start > 1) {
+				log.debug("Parallel stage ${(start until end).joinToString { systems[it]::class.simpleName!! }}")
+			}
+		}
+	}
+
+	override fun process() {
+
+		updateEntityStates()
+
+		preSystems.forEachFast { i, system ->
+			if (!disabled.unsafeGet(i)) {
+				system.preProcessSystem()
+			}
+		}
+
+		for (stage in 0 until stageWrites.size) {
+			val start = stageStarts[stage]
+			val end = stageStarts[stage + 1]
+
+			if (end - start == 1) {
+
+				val system = systems[start]
+
+				if (!disabled.unsafeGet(start)) {
+					system.process()
+
+					if (system is ParallelSystem) {
+						system.processDeferred()
+					}
+
+					updateEntityStates()
+				}
+
+			} else {
+				processStage(stage, start, end)
+			}
+		}
+
+		postSystems.forEachFast { i, system ->
+			if (!disabled.unsafeGet(i)) {
+				system.postProcessSystem()
+			}
+		}
+	}
+
+	private fun processStage(stage: Int, start: Int, end: Int) {
+
+		val pool = starSystem.galaxy.pool
+		val workingShadow = starSystem.workingShadow
+
+		starSystem.concurrentChanges = true
+
+		try {
+			for (i in start + 1 until end) {
+				val task = tasks[i]!!
+				task.reinitialize()
+
+				if (ForkJoinTask.inForkJoinPool()) {
+					task.fork()
+				} else {
+					pool.execute(task)
+				}
+			}
+
+			processSystem(start)
+
+		} finally {
+			for (i in start + 1 until end) {
+				tasks[i]!!.quietlyJoin()
+			}
+
+			starSystem.concurrentChanges = false
+		}
+
+		for (i in start + 1 until end) {
+			tasks[i]!!.join() // Rethrows
+		}
+
+		stageWrites[stage].forEach { componentIndex ->
+			workingShadow.changed.or(workingShadow.changedComponents[componentIndex])
+		}
+
+		for (i in start until end) {
+			if (!disabled.unsafeGet(i)) {
+				(systems[i] as ParallelSystem).processDeferred()
+			}
+		}
+
+		updateEntityStates()
+	}
+
+	private fun toIndexes(bits: BitVector): IntArray {
+		val indexes = IntArray(bits.cardinality())
+		var bit = bits.nextSetBit(0)
+		var i = 0
+		
+		while (bit != -1) {
+			indexes[i++] = bit
+			bit = bits.nextSetBit(bit + 1)
+		}
+		
+		return indexes
+	}
+
+	private fun processSystem(index: Int) {
+		if (!disabled.unsafeGet(index)) {
+			systems[index].process()
+		}
+	}
+
+	private inner class SystemTask(val index: Int) : RecursiveAction() {
+		override fun compute() {
+			processSystem(index)
+		}
+	}
+}
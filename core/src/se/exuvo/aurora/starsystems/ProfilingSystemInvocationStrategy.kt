@@ -2,49 +2,69 @@ package se.exuvo.aurora.starsystems
 
 import se.exuvo.aurora.starsystems.CustomSystemInvocationStrategy
 import se.exuvo.aurora.starsystems.StarSystem
+import se.exuvo.aurora.ui.ProfilerWindow
 import se.exuvo.aurora.utils.forEachFast
 
 class ProfilingSystemInvocationStrategy(starSystem: StarSystem) : CustomSystemInvocationStrategy(starSystem) {
+	companion object {
+		val UPDATE_ENTITY_STATES = ProfilerWindow.registerEvent("updateEntityStates")
+		val PRE_SYSTEMS = ProfilerWindow.registerEvent("preSystems")
+		val SYSTEMS = ProfilerWindow.registerEvent("systems")
+		val POST_SYSTEMS = ProfilerWindow.registerEvent("postSystems")
+	}
+	
+	lateinit var preSystemEvents: IntArray
+	lateinit var systemEvents: IntArray
+	lateinit var postSystemEvents: IntArray
 
 	override fun initialize() {
 		super.initialize()
+		
+		preSystemEvents = IntArray(preSystems.size(), { i -> ProfilerWindow.registerEvent(preSystems[i]::class.simpleName!!) })
+		systemEvents = IntArray(systems.size(), { i -> ProfilerWindow.registerEvent(systems[i]::class.simpleName!!) })
+		postSystemEvents = IntArray(postSystems.size(), { i -> ProfilerWindow.registerEvent(postSystems[i]::class.simpleName!!) })
 	}
 
 	override fun process() {
 		
 		val profilerEvents = starSystem.workingShadow.profilerEvents
 		
-		profilerEvents.start("updateEntityStates")
+		profilerEvents.start(UPDATE_ENTITY_STATES)
 		updateEntityStates()
 		profilerEvents.end()
 
-		profilerEvents.start("preSystems")
+		profilerEvents.start(PRE_SYSTEMS)
 		preSystems.forEachFast { i, system ->
 			if (!disabled.unsafeGet(i)) {
-				profilerEvents.start("${system::class.simpleName}")
+				profilerEvents.start(preSystemEvents[i])
 				system.preProcessSystem()
 				profilerEvents.end()
 			}
 		}
 		profilerEvents.end()
 
-		profilerEvents.start("systems")
+		profilerEvents.start(SYSTEMS)
 		systems.forEachFast { i, system ->
 			if (!disabled.unsafeGet(i)) {
-				profilerEvents.start("${system::class.simpleName}")
+				profilerEvents.start(systemEvents[i])
 				system.process()
+				
+				if (system is ParallelSystem) {
+					system.processDeferred()
+				}
+				
 				profilerEvents.end()
-				profilerEvents.start("updateEntityStates")
+				profilerEvents.start(UPDATE_ENTITY_STATES)
 				updateEntityStates()
 				profilerEvents.end()
 			}
 		}
 		profilerEvents.end()
 
-		profilerEvents.start("postSystems")
+		profilerEvents.start(POST_SYSTEMS)
 		postSystems.forEachFast { i, system ->
 			if (!disabled.unsafeGet(i)) {
-				profilerEvents.start("${system::class.simpleName}")
+				profilerEvents.start(postSystemEvents[i])
 				system.postProcessSystem()
 				profilerEvents.end()
 			}
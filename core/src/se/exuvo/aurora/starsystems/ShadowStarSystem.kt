@@ -1,5 +1,6 @@
 package se.exuvo.aurora.starsystems
 
+import com.artemis.Aspect
 import com.artemis.ComponentMapper
 import com.artemis.ComponentType
 import com.artemis.EntitySubscription
@@ -12,6 +13,7 @@ import com.badlogic.gdx.utils.Disposable
 import se.exuvo.aurora.empires.components.ActiveTargetingComputersComponent
 import se.exuvo.aurora.empires.components.ColonyComponent
 import se.exuvo.aurora.empires.components.IdleTargetingComputersComponent
+import se.exuvo.aurora.AuroraGame
 import se.exuvo.aurora.galactic.Empire
 import se.exuvo.aurora.starsystems.components.ArmorComponent
 import se.exuvo.aurora.starsystems.components.CargoComponent
@@ -40,19 +42,28 @@ import se.exuvo.aurora.starsystems.components.SunComponent
 import se.exuvo.aurora.starsystems.components.TimedMovementComponent
 import se.exuvo.aurora.starsystems.components.TintComponent
 import se.exuvo.aurora.starsystems.components.UUIDComponent
+import se.exuvo.aurora.starsystems.systems.MovementStore
 import se.exuvo.aurora.starsystems.systems.RenderSystem
+import se.exuvo.aurora.starsystems.systems.Salvos
 import se.exuvo.aurora.starsystems.systems.SpatialPartitioningPlanetoidsSystem
 import se.exuvo.aurora.starsystems.systems.SpatialPartitioningSystem
 import se.exuvo.aurora.ui.ProfilerWindow
+import se.exuvo.aurora.utils.LongIntMap
 import se.exuvo.aurora.utils.forEachFast
+import se.exuvo.settings.Settings
 import se.exuvo.aurora.utils.quadtree.QuadtreeAABB
+import se.exuvo.aurora.utils.quadtree.QuadtreeLog
 import se.exuvo.aurora.utils.quadtree.QuadtreePoint
 import uk.co.omegaprime.btreemap.LongObjectBTreeMap
 import java.lang.IllegalStateException
 import kotlin.reflect.full.isSuperclassOf
 
 // World with no systems only entities
-class ShadowStarSystem(val system: StarSystem) : Disposable {
+class ShadowStarSystem(val system: StarSystem) : EntitySubscription.SubscriptionListener, Disposable {
+	companion object {
+		val ENTITY_EVENT = ProfilerWindow.registerEvent("entity")
+	}
+	
 	
 	val world: World
 	val added = BitVector()
@@ -68,12 +79,17 @@ class ShadowStarSystem(val system: StarSystem) : Disposable {
 	var day = 0
 	
 	val empireShips = LinkedHashMap<Empire, LongObjectBTreeMap<IntBag>>()
+	private var empireShipsVersion = -1
 	val empireOrders = LinkedHashMap<Empire, Bag<ShipOrder>>()
+	val salvos = Salvos()
+	val movementStore = MovementStore()
 	
 	val profilerEvents = ProfilerWindow.ProfilerBag()
+	private val copyEvents = IntArray(changedComponents.size, { index -> ProfilerWindow.registerEvent("copy ${system.world.componentManager.componentTypes[index].type.simpleName}") })
 	
-	var quadtreeShipsChanged = true
-	var quadtreePlanetoidsChanged = true
+	// Modifications made to the system quadtrees while this shadow was the working shadow
+	val quadtreeShipsLog = QuadtreeLog(Settings.getInt("Shadow/quadtreeLogSize", 64 * 1024))
+	val quadtreePlanetoidsLog = QuadtreeLog(Settings.getInt("Shadow/quadtreeLogSize", 64 * 1024))
 	val quadtreeShips = QuadtreePoint(SpatialPartitioningSystem.MAX, SpatialPartitioningSystem.MAX, SpatialPartitioningSystem.MAX_ELEMENTS, SpatialPartitioningSystem.DEPTH)
 	val quadtreePlanetoids = QuadtreeAABB(SpatialPartitioningPlanetoidsSystem.MAX, SpatialPartitioningPlanetoidsSystem.MAX, SpatialPartitioningPlanetoidsSystem.MAX_ELEMENTS, SpatialPartitioningPlanetoidsSystem.DEPTH)
 	
@@ -104,8 +120,9 @@ class ShadowStarSystem(val system: StarSystem) : Disposable {
 	lateinit var hpMapper: ComponentMapper<HPComponent>
 	lateinit var cargoMapper: ComponentMapper<CargoComponent>
 	
-//	val allSubscription: EntitySubscription
+	val allSubscription: EntitySubscription
 	val uuidSubscription: EntitySubscription
+	val uuidIndex = LongIntMap() // EntityUUID.key to entityID
 	
 	private val mappersByTypeIndex = Bag<ComponentMapper<*>>(system.world.componentManager.componentTypes.size())
 	
@@ -115,7 +132,10 @@ class ShadowStarSystem(val system: StarSystem) : Disposable {
 	
 	init {
 		val worldBuilder = WorldConfigurationBuilder()
-		worldBuilder.with(RenderSystem())
+		
+		if (!AuroraGame.headless) {
+			worldBuilder.with(RenderSystem())
+		}
 		
 		val worldConfig = worldBuilder.build()
 		worldConfig.register(system)
@@ -130,8 +150,9 @@ class ShadowStarSystem(val system: StarSystem) : Disposable {
 			}
 		}
 		
-//		allSubscription = world.getAspectSubscriptionManager().get(Aspect.all())
+		allSubscription = world.getAspectSubscriptionManager().get(Aspect.all())
 		uuidSubscription = world.getAspectSubscriptionManager().get(StarSystem.UUID_ASPECT)
+		uuidSubscription.addSubscriptionListener(this)
 		
 		system.world.entityManager.registerEntityStore(added)
 		system.world.entityManager.registerEntityStore(changed)
@@ -191,7 +212,7 @@ class ShadowStarSystem(val system: StarSystem) : Disposable {
 //		println("changed $tmpBag")
 		profilerEvents.start("changed")
 		tmpBag.forEachFast { entityID ->
-			profilerEvents.start("$entityID")
+			profilerEvents.start(ENTITY_EVENT, entityID)
 			if (!em.isActive(entityID)) {
 				throw IllegalStateException("entity id $entityID does not exist")
 			}
@@ -207,7 +228,7 @@ class ShadowStarSystem(val system: StarSystem) : Disposable {
 					val shadowMapper = mappersByTypeIndex[typeIndex]
 					
 					if (shadowMapper != null) {
-						profilerEvents.start("copy ${systemMapper.type.type.simpleName}")
+						profilerEvents.start(copyEvents[systemMapper.type.index])
 						var systemComponent = systemMapper.get(entityID) as CloneableComponent<*>
 						val shadowComponent = shadowMapper.create(entityID)
 						systemComponent.copy2(shadowComponent)
@@ -234,7 +255,7 @@ class ShadowStarSystem(val system: StarSystem) : Disposable {
 		tmpBV.toIntBag(tmpBag)
 //		println("added $tmpBag")
 		tmpBag.forEachFast { entityID ->
-			profilerEvents.start("$entityID")
+			profilerEvents.start(ENTITY_EVENT, entityID)
 			
 			world.createSpecific(entityID)
 			
@@ -244,7 +265,7 @@ class ShadowStarSystem(val system: StarSystem) : Disposable {
 				val shadowMapper = mappersByTypeIndex[systemMapper.type.index]
 				
 				if (shadowMapper != null) {
-					profilerEvents.start("copy ${systemMapper.type.type.simpleName}")
+					profilerEvents.start(copyEvents[systemMapper.type.index])
 					var systemComponent = systemMapper.get(entityID) as CloneableComponent<*>
 					val shadowComponent = shadowMapper.create(entityID)
 					systemComponent.copy2(shadowComponent)
@@ -259,42 +280,12 @@ class ShadowStarSystem(val system: StarSystem) : Disposable {
 		world.process()
 		profilerEvents.end()
 		
-		profilerEvents.start("empireShips")
-		val empireShipsIterator = empireShips.iterator()
-		while (empireShipsIterator.hasNext()) {
-			val (empire, shadowShips) = empireShipsIterator.next()
-			val ships = system.empireShips[empire]
-			
-			if (ships == null) {
-				empireShipsIterator.remove()
-				
-			} else if (ships.hashCode() != shadowShips.hashCode()) {
-				shadowShips.clear()
-				
-				ships.forEach { (mass, shipIDs) ->
-					val shadowShipIDs = IntBag(ships.size)
-					shadowShipIDs.addAll(shipIDs)
-					shadowShips[mass] = shadowShipIDs
-				}
-			}
-		}
-		
-		if (empireShips.size != system.empireShips.size) {
-			system.empireShips.forEach { (empire, ships) ->
-				if (empireShips[empire] == null) {
-					val shadowShips = LongObjectBTreeMap.create<IntBag>()!!
-					
-					ships.forEach { (mass, shipIDs) ->
-						val shadowShipIDs = IntBag(maxOf(ships.size, 64))
-						shadowShipIDs.addAll(shipIDs)
-						shadowShips[mass] = shadowShipIDs
-					}
-					
-					empireShips[empire] = shadowShips
-				}
-			}
+		if (empireShipsVersion != system.empireShipsVersion) {
+			profilerEvents.start("empireShips")
+			updateEmpireShips()
+			empireShipsVersion = system.empireShipsVersion
+			profilerEvents.end()
 		}
-		profilerEvents.end()
 		
 		profilerEvents.start("shadowOrders")
 		val empireOrdersIterator = empireOrders.iterator()
@@ -321,16 +312,78 @@ class ShadowStarSystem(val system: StarSystem) : Disposable {
 		}
 		profilerEvents.end()
 		
-		if (quadtreeShipsChanged || system.shadow.quadtreeShipsChanged) {
+		profilerEvents.start("salvos")
+		salvos.set(system.salvoSystem.salvos)
+		profilerEvents.end()
+		
+		profilerEvents.start("movementStore")
+		movementStore.set(system.movementSystem.store)
+		profilerEvents.end()
+		
+		// Our trees are as of two updates ago, replay what the other shadow got last update and then ours
+		val otherShipsLog = system.shadow.quadtreeShipsLog
+		
+		if (quadtreeShipsLog.isOverflow() || otherShipsLog.isOverflow()) {
 			profilerEvents.start("copy quadtree ships")
 			quadtreeShips.copy(system.spatialPartitioningSystem.tree)
 			profilerEvents.end()
+			
+		} else if (quadtreeShipsLog.isChanged() || otherShipsLog.isChanged()) {
+			profilerEvents.start("replay quadtree ships")
+			otherShipsLog.replay(quadtreeShips)
+			quadtreeShipsLog.replay(quadtreeShips)
+			profilerEvents.end()
 		}
 		
-		if (quadtreePlanetoidsChanged || system.shadow.quadtreePlanetoidsChanged) {
+		val otherPlanetoidsLog = system.shadow.quadtreePlanetoidsLog
+		
+		if (quadtreePlanetoidsLog.isOverflow() || otherPlanetoidsLog.isOverflow()) {
 			profilerEvents.start("copy quadtree planetoids")
 			quadtreePlanetoids.copy(system.spatialPartitioningPlanetoidsSystem.tree)
 			profilerEvents.end()
+			
+		} else if (quadtreePlanetoidsLog.isChanged() || otherPlanetoidsLog.isChanged()) {
+			profilerEvents.start("replay quadtree planetoids")
+			otherPlanetoidsLog.replay(quadtreePlanetoids)
+			quadtreePlanetoidsLog.replay(quadtreePlanetoids)
+			profilerEvents.end()
+		}
+	}
+	
+	private fun updateEmpireShips() {
+		val empireShipsIterator = empireShips.iterator()
+		while (empireShipsIterator.hasNext()) {
+			val (empire, shadowShips) = empireShipsIterator.next()
+			val ships = system.empireShips[empire]
+			
+			if (ships == null) {
+				empireShipsIterator.remove()
+				
+			} else {
+				shadowShips.clear()
+				
+				ships.forEach { (mass, shipIDs) ->
+					val shadowShipIDs = IntBag(ships.size)
+					shadowShipIDs.addAll(shipIDs)
+					shadowShips[mass] = shadowShipIDs
+				}
+			}
+		}
+		
+		if (empireShips.size != system.empireShips.size) {
+			system.empireShips.forEach { (empire, ships) ->
+				if (empireShips[empire] == null) {
+					val shadowShips = LongObjectBTreeMap.create<IntBag>()!!
+					
+					ships.forEach { (mass, shipIDs) ->
+						val shadowShipIDs = IntBag(maxOf(ships.size, 64))
+						shadowShipIDs.addAll(shipIDs)
+						shadowShips[mass] = shadowShipIDs
+					}
+					
+					empireShips[empire] = shadowShips
+				}
+			}
 		}
 	}
 	
@@ -383,15 +436,25 @@ class ShadowStarSystem(val system: StarSystem) : Disposable {
 	
 	fun getEntityByUUID(entityUUID: EntityUUID): Int? {
 		
-		uuidSubscription.getEntities().forEachFast { entityID ->
-			val uuid = uuidMapper.get(entityID).uuid
+		val entityID = uuidIndex.get(entityUUID.key, -1)
+		
+		return if (entityID != -1) entityID else null
+	}
+	
+	override fun inserted(entityIDs: IntBag) {
+		entityIDs.forEachFast { entityID ->
+			uuidIndex.put(uuidMapper.get(entityID).uuid.key, entityID)
+		}
+	}
+	
+	override fun removed(entityIDs: IntBag) {
+		entityIDs.forEachFast { entityID ->
+			val key = uuidMapper.get(entityID).uuid.key
 			
-			if (uuid.hashCode() == entityUUID.hashCode()) {
-				return entityID
+			if (uuidIndex.get(key, -1) == entityID) {
+				uuidIndex.remove(key, -1)
 			}
 		}
-		
-		return null
 	}
 	
 	override fun dispose() {
@@ -1,6 +1,7 @@
 package se.exuvo.aurora.starsystems
 
 import com.artemis.Aspect
+import com.artemis.BaseSystem
 import com.artemis.ComponentMapper
 import com.artemis.CustomComponentManager
 import com.artemis.EntitySubscription
@@ -8,6 +9,7 @@ import com.artemis.SystemInvocationStrategy
 import com.artemis.World
 import com.artemis.WorldConfigurationBuilder
 import com.artemis.utils.Bag
+import com.artemis.utils.BitVector
 import com.artemis.utils.IntBag
 import com.badlogic.gdx.graphics.Color
 import com.badlogic.gdx.math.RandomXS128
@@ -15,7 +17,6 @@ import com.badlogic.gdx.utils.Disposable
 import net.mostlyoriginal.api.event.common.EventSystem
 import net.mostlyoriginal.api.event.common.SubscribeAnnotationFinder
 import org.apache.logging.log4j.LogManager
-import se.exuvo.aurora.Assets
 import se.exuvo.aurora.galactic.AmmoContainerPart
 import se.exuvo.aurora.galactic.Battery
 import se.exuvo.aurora.galactic.BeamWavelength
@@ -58,15 +59,19 @@ import se.exuvo.aurora.starsystems.systems.MovementSystem
 import se.exuvo.aurora.starsystems.systems.OrbitSystem
 import se.exuvo.aurora.starsystems.systems.PassiveSensorSystem
 import se.exuvo.aurora.starsystems.systems.PowerSystem
+import se.exuvo.aurora.starsystems.systems.ProximitySystem
+import se.exuvo.aurora.starsystems.systems.SalvoSystem
 import se.exuvo.aurora.starsystems.systems.ShipSystem
 import se.exuvo.aurora.starsystems.systems.SolarIrradianceSystem
 import se.exuvo.aurora.starsystems.systems.TimedLifeSystem
 import se.exuvo.aurora.starsystems.systems.WeaponSystem
 import se.exuvo.aurora.utils.GameServices
+import se.exuvo.aurora.utils.LongIntMap
 import se.exuvo.aurora.utils.Units
 import se.exuvo.aurora.utils.Vector2L
 import se.exuvo.aurora.utils.forEachFast
 import se.exuvo.aurora.utils.plusAssign
+import se.exuvo.settings.Settings
 import java.util.concurrent.atomic.AtomicInteger
 import se.exuvo.aurora.galactic.ShipHull
 import se.exuvo.aurora.empires.components.ColonyComponent
@@ -87,7 +92,7 @@ import se.exuvo.aurora.galactic.AdvancedMunitionHull
 import se.exuvo.aurora.galactic.DamagePattern
 import se.exuvo.aurora.galactic.Shield
 import se.exuvo.aurora.starsystems.systems.MovementPredictedSystem
-import se.exuvo.aurora.galactic.Command
+import se.exuvo.aurora.galactic.CommandQueue
 import se.exuvo.aurora.galactic.ContainerPart
 import se.exuvo.aurora.galactic.Warhead
 import se.exuvo.aurora.starsystems.components.ArmorComponent
@@ -109,9 +114,8 @@ import se.exuvo.aurora.starsystems.systems.SpatialPartitioningSystem
 import se.exuvo.aurora.starsystems.systems.SpatialPartitioningPlanetoidsSystem
 import se.exuvo.aurora.starsystems.systems.TargetingSystem
 import uk.co.omegaprime.btreemap.LongObjectBTreeMap
-import java.util.concurrent.ArrayBlockingQueue
 
-class StarSystem(val initialName: String, val initialPosition: Vector2L) : EntitySubscription.SubscriptionListener, Disposable {
+class StarSystem(val initialName: String, val initialPosition: Vector2L, val sid: Int = starSystemIDGenerator.getAndIncrement()) : EntitySubscription.SubscriptionListener, Disposable {
 	companion object {
 		@JvmStatic
 		val starSystemIDGenerator = AtomicInteger()
@@ -124,16 +128,25 @@ class StarSystem(val initialName: String, val initialPosition: Vector2L) : Entit
 		
 		@JvmStatic
 		val log = LogManager.getLogger(StarSystem::class.java)
+		
+		@JvmField val PARALLEL_SYSTEMS = Settings.getBol("Systems/parallel", false)
+		
+		const val DAY: Long = 24L * 60L * 60L
 	}
 	
 	var updateTime = 0L
 	var updateTimeAverage = 0.0
+	var processCount = 0
 
-	private var entityUIDGenerator = 1L
+	var entityUIDGenerator = 1L
 	val galaxy = GameServices[Galaxy::class]
 	private val history = GameServices[History::class]
-	val sid = starSystemIDGenerator.getAndIncrement()
 	val galacticEntityID: Int = galaxy.world.create()
+	
+	// Time this system has been processed up to, only differs from galaxy.time during update
+	@Volatile var time: Long = galaxy.time
+	val day: Int
+		get() = (time / DAY).toInt()
 
 	val world: World
 	var nextInvocationStrategy: SystemInvocationStrategy? = null
@@ -141,16 +154,29 @@ class StarSystem(val initialName: String, val initialPosition: Vector2L) : Entit
 	val pools = PoolsCollection()
 	
 	val empireShips = LinkedHashMap<Empire, LongObjectBTreeMap<IntBag>>()
+	var empireShipsVersion = 0
 	val empireOrders = LinkedHashMap<Empire, Bag<ShipOrder>>()
 	
 	val allSubscription: EntitySubscription
 	val uuidSubscription: EntitySubscription
+	val uuidIndex = LongIntMap() // EntityUUID.key to entityID
 	val combatSubscription: EntitySubscription
 	
-	var commandQueue = ArrayBlockingQueue<Command>(128)
+	val commandQueue = CommandQueue()
+	var commandCount = 0 // Applied last update
+	var commandLatency = 0L // Average nanoseconds from submission to apply last update
 	var workingShadow: ShadowStarSystem
 	var shadow: ShadowStarSystem // Always safe to use from other StarSystems, requires shadow lock to use from UI
 	var skipClearShadowChanged = false
+	
+	// Set while parallel systems are processing, workingShadow.changed is then rebuilt from changedComponents afterwards
+	var concurrentChanges = false
+	
+	// Entities changed or deleted in promoted shadows since the last savegame snapshot, requires shadow lock
+	val unsavedChanges = BitVector()
+	val unsavedDeleted = BitVector()
+	
+	private val scheduledSystems = Bag<ScheduledSystem>()
 
 	lateinit var solarSystemMapper: ComponentMapper<StarSystemComponent>
 	lateinit var uuidMapper: ComponentMapper<UUIDComponent>
@@ -178,14 +204,17 @@ class StarSystem(val initialName: String, val initialPosition: Vector2L) : Entit
 	lateinit var changingWorldMapper: ComponentMapper<ChangingWorldComponent>
 	lateinit var asteroidMapper: ComponentMapper<AsteroidComponent>
 	
+	lateinit var movementSystem: MovementSystem
 	lateinit var spatialPartitioningSystem: SpatialPartitioningSystem
 	lateinit var spatialPartitioningPlanetoidsSystem: SpatialPartitioningPlanetoidsSystem
+	lateinit var proximitySystem: ProximitySystem
+	lateinit var salvoSystem: SalvoSystem
 
 	init {
 		galaxy.world.getMapper(GalacticPositionComponent::class.java).create(galacticEntityID).set(initialPosition)
 		galaxy.world.getMapper(RenderComponent::class.java).create(galacticEntityID)
 		galaxy.world.getMapper(NameComponent::class.java).create(galacticEntityID).set(initialName)
-		galaxy.world.getMapper(StrategicIconComponent::class.java).create(galacticEntityID).set(Assets.textures.findRegion("galactic/system"), null)
+		galaxy.world.getMapper(StrategicIconComponent::class.java).create(galacticEntityID).set("galactic/system")
 
 		val worldBuilder = WorldConfigurationBuilder()
 //		worldBuilder.dependsOn(ProfilerPlugin::class.java)
@@ -204,9 +233,11 @@ class StarSystem(val initialName: String, val initialPosition: Vector2L) : Entit
 		worldBuilder.with(WeaponSystem())
 		worldBuilder.with(PowerSystem())
 		worldBuilder.with(TimedLifeSystem())
+		worldBuilder.with(SalvoSystem())
 		worldBuilder.with(SpatialPartitioningSystem())
 		worldBuilder.with(SpatialPartitioningPlanetoidsSystem())
-		worldBuilder.register(CustomSystemInvocationStrategy(this))
+		worldBuilder.with(ProximitySystem())
+		worldBuilder.register(createInvocationStrategy())
 		
 		val worldConfig = worldBuilder.build()
 		worldConfig.setComponentManager(CustomComponentManager(worldConfig.expectedEntityCount() , this))
@@ -221,6 +252,12 @@ class StarSystem(val initialName: String, val initialPosition: Vector2L) : Entit
 		uuidSubscription = world.getAspectSubscriptionManager().get(UUID_ASPECT)
 		combatSubscription = world.getAspectSubscriptionManager().get(COMBAT_ASPECT)
 		
+		world.getSystems().forEachFast { system ->
+			if (system is ScheduledSystem) {
+				scheduledSystems.add(system)
+			}
+		}
+		
 		workingShadow = ShadowStarSystem(this)
 		shadow  = ShadowStarSystem(this)
 	}
@@ -378,7 +415,7 @@ class StarSystem(val initialName: String, val initialPosition: Vector2L) : Entit
 		nameMapper.create(entity1).set(name = "Sun")
 		sunMapper.create(entity1).set(solarConstant = 1361)
 		tintMapper.create(entity1).set(Color.YELLOW)
-		strategicIconMapper.create(entity1).set(Assets.textures.findRegion("strategic/sun"), null)
+		strategicIconMapper.create(entity1).set("strategic/sun")
 
 		val entity2 = createEntity(empire1)
 		ownerMapper.create(entity2).set(empire1)
@@ -389,7 +426,7 @@ class StarSystem(val initialName: String, val initialPosition: Vector2L) : Entit
 		massMapper.create(entity2).set(mass = 5.972e24)
 		orbitMapper.create(entity2).set(parent = entity1, a_semiMajorAxis = 1f, e_eccentricity = 0f, w_argumentOfPeriapsis = -45f, M_meanAnomaly = 0f)
 		tintMapper.create(entity2).set(Color.GREEN)
-//		strategicIconMapper.create(entity2).set(Assets.textures.findRegion("strategic/world"), null)
+//		strategicIconMapper.create(entity2).set("strategic/world")
 		strategicIconMapper.create(entity2).set(StrategicIcon(StrategicIconBase.COLONY, StrategicIconCenter.THREE))
 		emissionsMapper.create(entity2).set(mapOf(Spectrum.Electromagnetic to 1e10, Spectrum.Thermal to 1e10))
 		colonyMapper.create(entity2).set(random.nextLong(1000000), 1L, 1L, 1L).apply {
@@ -426,7 +463,7 @@ class StarSystem(val initialName: String, val initialPosition: Vector2L) : Entit
 		nameMapper.create(entity3).set(name = "Moon")
 		orbitMapper.create(entity3).set(parent = entity2, a_semiMajorAxis = (384400.0 / Units.AU).toFloat(), e_eccentricity = 0.2f, w_argumentOfPeriapsis = 0f, M_meanAnomaly = 30f)
 		tintMapper.create(entity3).set(Color.GRAY)
-		strategicIconMapper.create(entity3).set(Assets.textures.findRegion("strategic/moon"), null)
+		strategicIconMapper.create(entity3).set("strategic/moon")
 		emissionsMapper.create(entity3).set(mapOf(Spectrum.Electromagnetic to 5e9, Spectrum.Thermal to 5e9))
 
 		val entity4 = createEntity(empire1)
@@ -441,7 +478,7 @@ class StarSystem(val initialName: String, val initialPosition: Vector2L) : Entit
 		strategicIconMapper.create(entity4).set(StrategicIcon(StrategicIconBase.HUGE, StrategicIconCenter.HEALING_CIRCLE))
 		emissionsMapper.create(entity4).set(mapOf(Spectrum.Electromagnetic to 1e10, Spectrum.Thermal to 1e10))
 		
-		val shipComponent = shipMapper.create(entity4).set(shipHull, galaxy.time)
+		val shipComponent = shipMapper.create(entity4).set(shipHull, time)
 		val partStates = partStatesMapper.create(entity4).set(shipHull)
 		partsHPMapper.create(entity4).set(shipHull)
 		armorMapper.create(entity4).set(shipHull)
@@ -519,7 +556,7 @@ class StarSystem(val initialName: String, val initialPosition: Vector2L) : Entit
 			solarIrradianceMapper.create(shipEntity)
 		}
 
-		val shipComponent = shipMapper.create(shipEntity).set(hull, galaxy.time)
+		val shipComponent = shipMapper.create(shipEntity).set(hull, time)
 		val partStates = partStatesMapper.create(shipEntity).set(hull)
 		partsHPMapper.create(shipEntity).set(hull)
 		armorMapper.create(shipEntity).set(hull)
@@ -535,9 +572,9 @@ class StarSystem(val initialName: String, val initialPosition: Vector2L) : Entit
 			val colony = colonyMapper.get(colonyEntity)!!
 			val colonyCargo = cargoMapper.get(colonyEntity)
 			val colonyMovement = timedMovementMapper.get(colonyEntity)
-			val colonyPos = colonyMovement.get(galaxy.time)
+			val colonyPos = colonyMovement.get(time)
 			
-			shipMovement.set(colonyPos.value.position, shipMovement.previous.value.velocity, Vector2L.Zero, galaxy.time)
+			shipMovement.set(colonyPos.value.position, shipMovement.previous.value.velocity, Vector2L.Zero, time)
 			
 			if (cargo != null) {
 				hull.preferredCargo.forEach{ (resource, amount) ->
@@ -586,6 +623,7 @@ class StarSystem(val initialName: String, val initialPosition: Vector2L) : Entit
 		}
 		
 		ships.add(entityID)
+		empireShipsVersion++
 	}
 	
 	fun unregisterShip(entityID: Int, ship: ShipComponent = shipMapper.get(entityID)) {
@@ -608,6 +646,8 @@ class StarSystem(val initialName: String, val initialPosition: Vector2L) : Entit
 		
 		if (!ships.removeValue(entityID)) {
 			log.error("Attempt to remove ship $entityID from empire $empire but it is not registered in this system $this")
+		} else {
+			empireShipsVersion++
 		}
 	}
 	
@@ -616,13 +656,13 @@ class StarSystem(val initialName: String, val initialPosition: Vector2L) : Entit
 		solarSystemMapper.create(entityID).set(this)
 		uuidMapper.create(entityID).set(EntityUUID(sid, empire.id, getNewEntityID()))
 
-		history.entityCreated(entityID, world)
+		history.entityCreated(entityID, world, time)
 		
 		return entityID
 	}
 	
 	fun destroyEntity(entityID: Int) {
-		history.entityDestroyed(entityID, world)
+		history.entityDestroyed(entityID, world, time)
 		world.delete(entityID)
 	}
 	
@@ -647,23 +687,78 @@ class StarSystem(val initialName: String, val initialPosition: Vector2L) : Entit
 		return entityReference.entityUUID.hashCode() == uuid.hashCode()
 	}
 
-	fun getEntityByUUID(entityUUID: EntityUUID): Int? {
+	/**
+	 * Resolves against this system only, own thread only
+	 */
+	fun resolveEntityReference(entityReference: EntityReference): EntityReference? {
+		
+		if (isEntityReferenceValid(entityReference)) {
+			return entityReference
+		}
+		
+		val entityID = getEntityByUUID(entityReference.entityUUID) ?: return null
 		
-		uuidSubscription.getEntities().forEachFast { entityID ->
-			val uuid = uuidMapper.get(entityID).uuid
+		return updateEntityReference(entityID, entityReference)
+	}
+	
+	/**
+	 * Resolves every reference in place against this system and removes those not here, returns the remaining count.
+	 * Leaves entityReferences unchanged if none are here. Own thread only
+	 */
+	fun resolveEntityReferences(entityReferences: Bag<EntityReference>): Int {
+		var resolved = 0
+		
+		entityReferences.forEachFast { entityReference ->
+			if (isEntityReferenceValid(entityReference) || getEntityByUUID(entityReference.entityUUID) != null) {
+				resolved++
+			}
+		}
+		
+		if (resolved == 0) {
+			return 0
+		}
+		
+		var size = entityReferences.size()
+		var i = 0
+		
+		while (i < size) {
+			val entityReference = resolveEntityReference(entityReferences[i])
 			
-			if (uuid.hashCode() == entityUUID.hashCode()) {
-				return entityID
+			if (entityReference != null) {
+				entityReferences[i] = entityReference
+				i++
+			} else {
+				entityReferences.remove(i)
+				size--
 			}
 		}
 		
-		return null
+		return size
+	}
+
+	fun getEntityByUUID(entityUUID: EntityUUID): Int? {
+		
+		val entityID = uuidIndex.get(entityUUID.key, -1)
+		
+		return if (entityID != -1) entityID else null
 	}
 
 	override fun inserted(entityIDs: IntBag) {
 		entityIDs.forEachFast { entityID ->
 			workingShadow.added.unsafeSet(entityID)
 			solarSystemMapper.create(entityID).set(this)
+			
+			val uuid = uuidMapper.get(entityID)
+			
+			if (uuid != null) {
+				uuidIndex.put(uuid.uuid.key, entityID)
+			}
+		}
+	}
+	
+	private fun markChanged(entityID: Int) {
+		if (!concurrentChanges) {
+			workingShadow.changed.unsafeSet(entityID)
 		}
 	}
 	
@@ -671,12 +766,12 @@ class StarSystem(val initialName: String, val initialPosition: Vector2L) : Entit
 	 * Mark that component contents have changed
 	 */
 	fun changed(entityID: Int, componentIndex: Int) {
-		workingShadow.changed.unsafeSet(entityID)
+		markChanged(entityID)
 		workingShadow.changedComponents[componentIndex].unsafeSet(entityID)
 	}
 	
 	fun changed(entityID: Int, vararg componentIndexes: Int) {
-		workingShadow.changed.unsafeSet(entityID)
+		markChanged(entityID)
 		
 		for (index in componentIndexes) {
 			workingShadow.changedComponents[index].unsafeSet(entityID)
@@ -687,13 +782,55 @@ class StarSystem(val initialName: String, val initialPosition: Vector2L) : Entit
 		changed(entityID, componentMapper.type.index)
 	}
 	
+	fun changed(entityID: Int, componentMapper1: ComponentMapper<*>, componentMapper2: ComponentMapper<*>) {
+		markChanged(entityID)
+		workingShadow.changedComponents[componentMapper1.type.index].unsafeSet(entityID)
+		workingShadow.changedComponents[componentMapper2.type.index].unsafeSet(entityID)
+	}
+	
+	fun changed(entityID: Int, componentMapper1: ComponentMapper<*>, componentMapper2: ComponentMapper<*>, componentMapper3: ComponentMapper<*>) {
+		changed(entityID, componentMapper1, componentMapper2)
+		workingShadow.changedComponents[componentMapper3.type.index].unsafeSet(entityID)
+	}
+	
 	fun changed(entityID: Int, vararg componentMappers: ComponentMapper<*>) {
-		changed(entityID, *IntArray(componentMappers.size, { index -> componentMappers[index].type.index } ))
+		markChanged(entityID)
+		
+		for (componentMapper in componentMappers) {
+			workingShadow.changedComponents[componentMapper.type.index].unsafeSet(entityID)
+		}
+	}
+	
+	/**
+	 * Marks entityIDs[0, size) as changed
+	 */
+	fun changed(entityIDs: IntArray, size: Int, componentMapper: ComponentMapper<*>) {
+		val changed = workingShadow.changed
+		val changedComponent = workingShadow.changedComponents[componentMapper.type.index]
+		
+		val concurrent = concurrentChanges
+		
+		for (i in 0 until size) {
+			val entityID = entityIDs[i]
+			
+			if (!concurrent) {
+				changed.unsafeSet(entityID)
+			}
+			
+			changedComponent.unsafeSet(entityID)
+		}
 	}
 	
 	override fun removed(entityIDs: IntBag) {
 		entityIDs.forEachFast { entityID ->
 			workingShadow.deleted.unsafeSet(entityID)
+			
+			// Components are still readable in removed
+			val uuid = uuidMapper.get(entityID)
+			
+			if (uuid != null && uuidIndex.get(uuid.uuid.key, -1) == entityID) {
+				uuidIndex.remove(uuid.uuid.key, -1)
+			}
 		}
 	}
 	
@@ -716,20 +853,41 @@ class StarSystem(val initialName: String, val initialPosition: Vector2L) : Entit
 			}
 		}
 		
-		workingShadow.quadtreeShipsChanged = false;
-		workingShadow.quadtreePlanetoidsChanged = false;
+		workingShadow.quadtreeShipsLog.clear()
+		workingShadow.quadtreePlanetoidsLog.clear()
 		profilerEvents.end()
 		
 		profilerEvents.start("commands")
+		val commandsStart = System.nanoTime()
+		var commandLatencySum = 0L
+		commandCount = 0
+		
 		while(true) {
 			val command = commandQueue.poll() ?: break
 			
 			try {
-				command.apply()
+				if (command.isValid(this)) {
+					command.apply()
+					commandLatencySum += commandsStart - command.submitTime
+					commandCount++
+					
+				} else {
+					// Entity moved since the command was submitted
+					val entitySystem = galaxy.getEntitySystem(command.getEntityUUID(), this)
+					
+					if (entitySystem != null) {
+						entitySystem.commandQueue.add(command)
+						
+					} else {
+						log.warn("Invalid command $command")
+					}
+				}
 			} catch (e: Exception) {
 				log.error("Exception running command $command", e)
 			}
 		}
+		
+		commandLatency = if (commandCount > 0) commandLatencySum / commandCount else 0L
 		profilerEvents.end()
 		
 		profilerEvents.start("processing")
@@ -740,37 +898,26 @@ class StarSystem(val initialName: String, val initialPosition: Vector2L) : Entit
 			nextInvocationStrategy = null
 		}
 		
-		if (deltaGameTime <= 100 || combatSubscription.entityCount > 0) {
-			
-			world.setDelta(1f)
-			
-			for (i in 0 until deltaGameTime) {
-				profilerEvents.start("process 1")
-				world.process()
-				profilerEvents.end()
-			}
-			
-		} else {
-			
-			val delta = 1 + deltaGameTime / 100
-			world.setDelta(delta.toFloat())
-			
-			for (i in 0 until deltaGameTime / delta) {
-				profilerEvents.start("process $delta")
-				world.process()
-				profilerEvents.end()
-			}
+		// Jump directly to the next time any system has work scheduled with at most 1% of error, in combat step every second
+		val endTime = time + deltaGameTime
+		val minStep = 1L + deltaGameTime / 100
+		
+		processCount = 0
+		
+		while (time < endTime) {
+			val step = if (combatSubscription.entityCount > 0) 1L else maxOf(minStep, getNextEventTime() - time).coerceAtMost(endTime - time)
 			
-			world.setDelta(1f)
+			time += step
+			world.setDelta(step.toFloat())
 			
-			for (i in 0 until deltaGameTime - delta * (deltaGameTime / delta)) {
-				profilerEvents.start("process 1")
-				world.process()
-				profilerEvents.end()
-			}
+			profilerEvents.start("process")
+			world.process()
+			profilerEvents.end()
 			
-//			println("processing deltaGameTime $deltaGameTime = $delta x ${deltaGameTime / delta} + ${deltaGameTime - delta * (deltaGameTime / delta)}")
+			processCount++
 		}
+		
+//		println("processing deltaGameTime $deltaGameTime in $processCount steps")
 		profilerEvents.end()
 		
 		profilerEvents.start("shadow update")
@@ -778,6 +925,38 @@ class StarSystem(val initialName: String, val initialPosition: Vector2L) : Entit
 		profilerEvents.end()
 	}
 
+	fun createInvocationStrategy(): SystemInvocationStrategy {
+		return if (PARALLEL_SYSTEMS) ParallelSystemInvocationStrategy(this) else CustomSystemInvocationStrategy(this)
+	}
+	
+	fun getNextEventTime(): Long {
+		var nextEventTime = Long.MAX_VALUE
+		
+		scheduledSystems.forEachFast { system ->
+			if ((system as BaseSystem).isEnabled()) {
+				nextEventTime = minOf(nextEventTime, system.getNextEventTime())
+			}
+		}
+		
+		return nextEventTime
+	}
+	
+	/**
+	 * Makes the working shadow readable by everyone else, requires shadow lock
+	 */
+	fun promoteShadow() {
+		val oldShadow = shadow
+		
+		workingShadow.time = time
+		shadow = workingShadow
+		workingShadow = oldShadow
+		
+		unsavedChanges.or(shadow.added)
+		unsavedChanges.or(shadow.changed)
+		unsavedChanges.andNot(shadow.deleted)
+		unsavedDeleted.or(shadow.deleted)
+	}
+	
 	private fun getNewEntityID(): Long {
 		return entityUIDGenerator++
 	}
@@ -3,7 +3,6 @@ package se.exuvo.aurora.starsystems
 import com.artemis.Aspect
 import com.artemis.ComponentMapper
 import org.apache.logging.log4j.LogManager
-import se.exuvo.aurora.Assets
 import se.exuvo.aurora.galactic.Empire
 import se.exuvo.aurora.galactic.Galaxy
 import se.exuvo.aurora.starsystems.components.CircleComponent
@@ -172,7 +171,7 @@ class StarSystemGeneration(val system: StarSystem) {
 		circleMapper.create(entity).apply { radius = starRadius }
 		massMapper.create(entity).apply { mass = starMass }
 		nameMapper.create(entity).apply { name = starName }
-		strategicIconMapper.create(entity).set(Assets.textures.findRegion("strategic/sun"), null)
+		strategicIconMapper.create(entity).set("strategic/sun")
 		// Always gives the same value
 //		val luminosity = Math.random() * 10000.0 * 3.839e26 // https://en.wikipedia.org/wiki/Solar_luminosity, https://en.wikipedia.org/wiki/List_of_most_luminous_stars
 //		val sunComponent = SunComponent((luminosity / (4 * Math.PI * starRadius.toDouble() * starRadius.toDouble())).toInt()) // Our sun is 1361 W/m2
@@ -267,7 +266,7 @@ class StarSystemGeneration(val system: StarSystem) {
 		nameMapper.create(entity).apply { name = planetName }
 		massMapper.create(entity).apply { mass = planetMass }
 		orbitMapper.create(entity).apply { parent = planetParent; a_semiMajorAxis = semiMajorAxis; e_eccentricity = eccentricity; w_argumentOfPeriapsis = argumentOfPeriapsis; M_meanAnomaly = meanAnomaly }
-		strategicIconMapper.create(entity).set(Assets.textures.findRegion("strategic/world"), null)
+		strategicIconMapper.create(entity).set("strategic/world")
 
 		return entity
 	}
@@ -281,7 +280,7 @@ class StarSystemGeneration(val system: StarSystem) {
 		nameMapper.create(entity).apply { name = moonName }
 		massMapper.create(entity).apply { mass = moonMass }
 		orbitMapper.create(entity).apply { parent = moonParent; a_semiMajorAxis = semiMajorAxis; e_eccentricity = eccentricity; w_argumentOfPeriapsis = argumentOfPeriapsis; M_meanAnomaly = meanAnomaly }
-		strategicIconMapper.create(entity).set(Assets.textures.findRegion("strategic/moon"), null)
+		strategicIconMapper.create(entity).set("strategic/moon")
 
 		return entity
 	}
@@ -22,7 +22,7 @@ class ShieldComponent() : PooledComponent(), CloneableComponent<ShieldComponent>
 		var shieldHP = 0L
 		
 		hull.shields.forEachFast { partRef ->
-			shieldHP += partStates[partRef][ChargedPartState::class].charge
+			shieldHP += partStates[partRef].charged.charge
 		}
 		
 		return shieldHP
@@ -24,6 +24,10 @@ class UUIDComponent() : PooledComponent(), CloneableComponent<UUIDComponent> {
 data class EntityUUID(val starSystemID: Int, val empireID: Int, val entityUID: Long) {
 	
 	override fun toString(): String = "$starSystemID:$empireID:$entityUID"
+	
+	// Unique as entityUIDs are unique within their origin star system, assumes entityUID stays below 2^48
+	val key: Long
+		get() = (starSystemID.toLong() shl 48) or entityUID
 
 	private val hashcode: Int by lazy (LazyThreadSafetyMode.NONE) {
 		var hash = 1
@@ -16,8 +16,6 @@ import se.exuvo.aurora.galactic.PoweringPart
 import se.exuvo.aurora.galactic.ShipHull
 import se.exuvo.aurora.galactic.TargetingComputer
 import java.util.*
-import kotlin.collections.HashMap
-import kotlin.reflect.KClass
 
 class PartStatesComponent() : PooledComponent(), CloneableComponent<PartStatesComponent> {
 	var hullHashcode = 0
@@ -136,110 +134,20 @@ class PartStatesComponent() : PooledComponent(), CloneableComponent<PartStatesCo
 		if (tc.hullHashcode != hullHashcode) {
 			tc.hullHashcode = hullHashcode
 			tc.partEnabled = BooleanArray(partEnabled.size, { partEnabled[it] })
-			tc.partStates = Array<PartStates>(partStates.size, { partIndex ->
-				val states = partStates[partIndex]
-				val tcStates = PartStates()
-				
-				for (partState in states.states.values) {
-					when (partState) {
-						is PoweringPartState -> tcStates.put(PoweringPartState(partState))
-						is PoweredPartState -> tcStates.put(PoweredPartState(partState))
-						is ChargedPartState -> tcStates.put(ChargedPartState(partState))
-						is PassiveSensorState -> tcStates.put(PassiveSensorState(partState))
-						is AmmunitionPartState -> tcStates.put(AmmunitionPartState(partState))
-						is FueledPartState -> tcStates.put(FueledPartState(partState))
-						is TargetingComputerState -> tcStates.put(TargetingComputerState(this, partState))
-						is WeaponPartState -> tcStates.put(WeaponPartState(partState))
-					}
-				}
-				
-				tcStates
-			})
+			tc.partStates = Array<PartStates>(partStates.size, { partIndex -> partStates[partIndex].clone(tc) })
 			
 		} else {
-			partEnabled.forEachIndexed { index, enabled ->
-				tc.partEnabled[index] = enabled
-			}
-			partStates.forEachIndexed { index, partStates ->
-				val tcPartState = tc.partStates[index]
-				partStates.states.forEach { (type, state) ->
-					when(type) {
-						FueledPartState::class -> {
-							state as FueledPartState
-							val tcState = tcPartState[type] as FueledPartState
-							tcState.fuelEnergyRemaining = state.fuelEnergyRemaining
-							tcState.totalFuelEnergyRemaining = state.totalFuelEnergyRemaining
-						}
-						PoweringPartState::class -> {
-							state as PoweringPartState
-							val tcState = tcPartState[type] as PoweringPartState
-							tcState.availiablePower = state.availiablePower
-							tcState.producedPower = state.producedPower
-						}
-						PoweredPartState::class -> {
-							state as PoweredPartState
-							val tcState = tcPartState[type] as PoweredPartState
-							tcState.requestedPower = state.requestedPower
-							tcState.givenPower = state.givenPower
-						}
-						PassiveSensorState::class -> {
-							state as PassiveSensorState
-							val tcState = tcPartState[type] as PassiveSensorState
-							tcState.lastScan = state.lastScan
-						}
-						ChargedPartState::class -> {
-							state as ChargedPartState
-							val tcState = tcPartState[type] as ChargedPartState
-							tcState.charge = state.charge
-							tcState.expectedFullAt = state.expectedFullAt
-						}
-						AmmunitionPartState::class -> {
-							state as AmmunitionPartState
-							val tcState = tcPartState[type] as AmmunitionPartState
-							tcState.type = state.type
-							tcState.amount = state.amount
-							tcState.reloadedAt = state.reloadedAt
-						}
-						TargetingComputerState::class -> {
-							state as TargetingComputerState
-							val tcState = tcPartState[type] as TargetingComputerState
-							tcState.target = state.target
-							tcState.lockCompletionAt = state.lockCompletionAt
-							
-							if (tcState.linkedWeapons.hashCode() != state.linkedWeapons.hashCode()) {
-								tcState.linkedWeapons.clear()
-								tcState.linkedWeapons.addAll(state.linkedWeapons)
-							}
-							
-							if (tcState.disabledWeapons.hashCode() != state.disabledWeapons.hashCode()) {
-								tcState.disabledWeapons.clear()
-								tcState.disabledWeapons.addAll(state.disabledWeapons)
-							}
-							
-							if (tcState.reloadingWeapons.hashCode() != state.reloadingWeapons.hashCode()) {
-								tcState.reloadingWeapons.clear()
-								tcState.reloadingWeapons.addAll(state.reloadingWeapons)
-							}
-							
-							if (tcState.chargingWeapons.hashCode() != state.chargingWeapons.hashCode()) {
-								tcState.chargingWeapons.clear()
-								tcState.chargingWeapons.addAll(state.chargingWeapons)
-							}
-							
-							if (tcState.readyWeapons.hashCode() != state.readyWeapons.hashCode()) {
-								tcState.readyWeapons.clear()
-								tcState.readyWeapons.addAll(state.readyWeapons)
-							}
-						}
-						WeaponPartState::class -> {
-							state as WeaponPartState
-							val tcState = tcPartState[type] as WeaponPartState
-							tcState.targetingComputer = state.targetingComputer
-						}
-					}
-				}
+			System.arraycopy(partEnabled, 0, tc.partEnabled, 0, partEnabled.size)
+			
+			for (index in partStates.indices) {
+				partStates[index].copy(tc.partStates[index])
 			}
 		}
+		
+		// Queue comparators read the states of tc, which must all be assigned and copied first
+		for (index in partStates.indices) {
+			partStates[index].copyQueues(tc.partStates[index])
+		}
 	}
 	
 	operator fun get(partRef: PartRef<out Part>) = getPartState(partRef)
@@ -257,19 +165,148 @@ class PartStatesComponent() : PooledComponent(), CloneableComponent<PartStatesCo
 	}
 }
 
-@Suppress("UNCHECKED_CAST")
+/**
+ * One typed slot per kind of part state, null if the part does not have that state
+ */
 class PartStates {
-	val states = HashMap<KClass<*>, Any>() //TODO to fixed array with static index
+	@JvmField var fueledState: FueledPartState? = null
+	@JvmField var poweringState: PoweringPartState? = null
+	@JvmField var poweredState: PoweredPartState? = null
+	@JvmField var passiveSensorState: PassiveSensorState? = null
+	@JvmField var chargedState: ChargedPartState? = null
+	@JvmField var ammunitionState: AmmunitionPartState? = null
+	@JvmField var targetingComputerState: TargetingComputerState? = null
+	@JvmField var weaponState: WeaponPartState? = null
 	
-	operator fun <T : Any> get(serviceClass: KClass<T>) = states[serviceClass] as T
-	fun <T : Any> tryGet(serviceClass: KClass<T>) = states[serviceClass] as? T
+	val fueled: FueledPartState get() = fueledState!!
+	val powering: PoweringPartState get() = poweringState!!
+	val powered: PoweredPartState get() = poweredState!!
+	val passiveSensor: PassiveSensorState get() = passiveSensorState!!
+	val charged: ChargedPartState get() = chargedState!!
+	val ammunition: AmmunitionPartState get() = ammunitionState!!
+	val targetingComputer: TargetingComputerState get() = targetingComputerState!!
+	val weapon: WeaponPartState get() = weaponState!!
 	
 	fun put(state: Any) {
-		states[state::class] = state
+		when (state) {
+			is FueledPartState -> fueledState = state
+			is PoweringPartState -> poweringState = state
+			is PoweredPartState -> poweredState = state
+			is PassiveSensorState -> passiveSensorState = state
+			is ChargedPartState -> chargedState = state
+			is AmmunitionPartState -> ammunitionState = state
+			is TargetingComputerState -> targetingComputerState = state
+			is WeaponPartState -> weaponState = state
+			else -> throw IllegalArgumentException("Unknown part state ${state::class}")
+		}
 	}
 	
-	fun put(state: Any, savedClass: KClass<*>) {
-		states[savedClass] = state
+	fun clone(partStates: PartStatesComponent): PartStates {
+		val clone = PartStates()
+		
+		fueledState?.let { clone.fueledState = FueledPartState(it) }
+		poweringState?.let { clone.poweringState = PoweringPartState(it) }
+		poweredState?.let { clone.poweredState = PoweredPartState(it) }
+		passiveSensorState?.let { clone.passiveSensorState = PassiveSensorState(it) }
+		chargedState?.let { clone.chargedState = ChargedPartState(it) }
+		ammunitionState?.let { clone.ammunitionState = AmmunitionPartState(it) }
+		targetingComputerState?.let { clone.targetingComputerState = TargetingComputerState(partStates, it) }
+		weaponState?.let { clone.weaponState = WeaponPartState(it) }
+		
+		return clone
+	}
+	
+	/**
+	 * Copies state values to tc which must have the same slots
+	 */
+	fun copy(tc: PartStates) {
+		val fueled = fueledState
+		if (fueled != null) {
+			val tcState = tc.fueled
+			tcState.fuelEnergyRemaining = fueled.fuelEnergyRemaining
+			tcState.totalFuelEnergyRemaining = fueled.totalFuelEnergyRemaining
+		}
+		
+		val powering = poweringState
+		if (powering != null) {
+			val tcState = tc.powering
+			tcState.availiablePower = powering.availiablePower
+			tcState.producedPower = powering.producedPower
+		}
+		
+		val powered = poweredState
+		if (powered != null) {
+			val tcState = tc.powered
+			tcState.requestedPower = powered.requestedPower
+			tcState.givenPower = powered.givenPower
+		}
+		
+		val passiveSensor = passiveSensorState
+		if (passiveSensor != null) {
+			tc.passiveSensor.lastScan = passiveSensor.lastScan
+		}
+		
+		val charged = chargedState
+		if (charged != null) {
+			val tcState = tc.charged
+			tcState.charge = charged.charge
+			tcState.expectedFullAt = charged.expectedFullAt
+		}
+		
+		val ammunition = ammunitionState
+		if (ammunition != null) {
+			val tcState = tc.ammunition
+			tcState.type = ammunition.type
+			tcState.amount = ammunition.amount
+			tcState.reloadedAt = ammunition.reloadedAt
+		}
+		
+		val weapon = weaponState
+		if (weapon != null) {
+			tc.weapon.targetingComputer = weapon.targetingComputer
+		}
+		
+		val state = targetingComputerState
+		if (state != null) {
+			val tcState = tc.targetingComputer
+			tcState.target = state.target
+			tcState.lockCompletionAt = state.lockCompletionAt
+			
+			if (tcState.linkedWeapons.hashCode() != state.linkedWeapons.hashCode()) {
+				tcState.linkedWeapons.clear()
+				tcState.linkedWeapons.addAll(state.linkedWeapons)
+			}
+			
+			if (tcState.disabledWeapons.hashCode() != state.disabledWeapons.hashCode()) {
+				tcState.disabledWeapons.clear()
+				tcState.disabledWeapons.addAll(state.disabledWeapons)
+			}
+			
+			if (tcState.readyWeapons.hashCode() != state.readyWeapons.hashCode()) {
+				tcState.readyWeapons.clear()
+				tcState.readyWeapons.addAll(state.readyWeapons)
+			}
+		}
+	}
+	
+	/**
+	 * Copies targeting computer weapon queues to tc, whose component must hold the copied states of all parts
+	 */
+	fun copyQueues(tc: PartStates) {
+		val state = targetingComputerState
+		if (state != null) {
+			val tcState = tc.targetingComputer
+			
+			if (tcState.reloadingWeapons.hashCode() != state.reloadingWeapons.hashCode()) {
+				tcState.reloadingWeapons.clear()
+				tcState.reloadingWeapons.addAll(state.reloadingWeapons)
+			}
+			
+			if (tcState.chargingWeapons.hashCode() != state.chargingWeapons.hashCode()) {
+				tcState.chargingWeapons.clear()
+				tcState.chargingWeapons.addAll(state.chargingWeapons)
+			}
+		}
 	}
 }
 
@@ -340,8 +377,7 @@ data class TargetingComputerState(var target: EntityReference? = null,
 			disabledWeapons = Bag(o.disabledWeapons.size()),
 			readyWeapons = Bag(o.readyWeapons.size())
 	) {
-		reloadingWeapons.addAll(o.reloadingWeapons)
-		chargingWeapons.addAll(o.chargingWeapons)
+		// reloadingWeapons and chargingWeapons are filled by PartStates.copyQueues once all states of partStates exist
 		linkedWeapons.addAll(o.linkedWeapons)
 		disabledWeapons.addAll(o.disabledWeapons)
 		readyWeapons.addAll(o.readyWeapons)
@@ -350,8 +386,8 @@ data class TargetingComputerState(var target: EntityReference? = null,
 
 class AmmunitionReladedAtComparator(val partStates: PartStatesComponent): Comparator<PartRef<Part>> {
 	override fun compare(a: PartRef<Part>, b: PartRef<Part>): Int {
-		val reloadedAtA = partStates.getPartState(a)[AmmunitionPartState::class].reloadedAt
-		val reloadedAtB = partStates.getPartState(b)[AmmunitionPartState::class].reloadedAt
+		val reloadedAtA = partStates.getPartState(a).ammunition.reloadedAt
+		val reloadedAtB = partStates.getPartState(b).ammunition.reloadedAt
 		
 		return reloadedAtA.compareTo(reloadedAtB)
 	}
@@ -359,8 +395,8 @@ class AmmunitionReladedAtComparator(val partStates: PartStatesComponent): Compar
 
 class ChargedExpectedFullAtComparator(val partStates: PartStatesComponent): Comparator<PartRef<Part>> {
 	override fun compare(a: PartRef<Part>, b: PartRef<Part>): Int {
-		val reloadedAtA = partStates.getPartState(a)[ChargedPartState::class].expectedFullAt
-		val reloadedAtB = partStates.getPartState(b)[ChargedPartState::class].expectedFullAt
+		val reloadedAtA = partStates.getPartState(a).charged.expectedFullAt
+		val reloadedAtB = partStates.getPartState(b).charged.expectedFullAt
 		
 		return reloadedAtA.compareTo(reloadedAtB)
 	}
@@ -1,9 +1,11 @@
 package se.exuvo.aurora.starsystems.components
 
 import com.artemis.Component
+import com.artemis.utils.Bag
+import com.artemis.utils.IntBag
 import se.exuvo.aurora.galactic.PassiveSensor
-import se.exuvo.aurora.utils.Vector2L
 import se.exuvo.aurora.galactic.PartRef
+import se.exuvo.aurora.utils.forEachFast
 
 enum class Spectrum(val short: String) {
 	Visible_Light("L"),
@@ -55,28 +57,252 @@ class EmissionsComponent() : Component(), CloneableComponent<EmissionsComponent>
 	}
 }
 
-// Sensor, AngleStep, DistanceStep
 class DetectionComponent() : Component(), CloneableComponent<DetectionComponent> {
-	var detections: Map<PartRef<PassiveSensor>, Map<Int, Map<Int, DetectionHit>>> = emptyMap()
+	// Detections per sensor, sensors without hits are removed
+	val detections = Bag<SensorDetections>(SensorDetections::class.java, 4)
+	private val spareDetections = Bag<SensorDetections>(SensorDetections::class.java, 4)
 	
-	fun set(detections: Map<PartRef<PassiveSensor>, Map<Int, Map<Int, DetectionHit>>>): DetectionComponent {
-		this.detections = detections
-		return this
+	operator fun get(sensor: PartRef<PassiveSensor>): SensorDetections? {
+		detections.forEachFast { sensorDetections ->
+			if (sensorDetections.sensor == sensor) {
+				return sensorDetections
+			}
+		}
+		
+		return null
+	}
+	
+	/**
+	 * Marks all detections as outdated, detections not kept or reset before removeOutdated() are removed
+	 */
+	fun beginUpdate() {
+		detections.forEachFast { sensorDetections ->
+			sensorDetections.outdated = true
+		}
+	}
+	
+	/**
+	 * Keeps the previous detections of sensor
+	 */
+	fun keep(sensor: PartRef<PassiveSensor>) {
+		val sensorDetections = get(sensor)
+		
+		if (sensorDetections != null) {
+			sensorDetections.outdated = false
+		}
+	}
+	
+	/**
+	 * Returns cleared detections for sensor
+	 */
+	fun reset(sensor: PartRef<PassiveSensor>): SensorDetections {
+		var sensorDetections = get(sensor)
+		
+		if (sensorDetections == null) {
+			sensorDetections = if (spareDetections.isEmpty()) SensorDetections() else spareDetections.removeLast()
+			sensorDetections.sensor = sensor
+			detections.add(sensorDetections)
+		}
+		
+		sensorDetections.clear()
+		sensorDetections.outdated = false
+		return sensorDetections
+	}
+	
+	/**
+	 * Removes outdated detections and sensors without hits
+	 */
+	fun removeOutdated() {
+		var i = 0
+		
+		while (i < detections.size()) {
+			val sensorDetections = detections[i]
+			
+			if (sensorDetections.outdated || sensorDetections.size == 0) {
+				spareDetections.add(detections.remove(i))
+			} else {
+				i++
+			}
+		}
 	}
 	
 	override fun copy(tc: DetectionComponent) {
-		if (tc.detections == emptyMap<PartRef<PassiveSensor>, Map<Int, Map<Int, DetectionHit>>>()) {
-			tc.detections = HashMap(detections)
+		while (tc.detections.size() > detections.size()) {
+			tc.spareDetections.add(tc.detections.removeLast())
+		}
+		
+		detections.forEachFast { index, sensorDetections ->
+			if (index == tc.detections.size()) {
+				tc.detections.add(if (tc.spareDetections.isEmpty()) SensorDetections() else tc.spareDetections.removeLast())
+			}
 			
-		} else if (tc.detections.hashCode() != detections.hashCode()) {
-			val list = tc.detections as MutableMap
-			list.clear()
-			list.putAll(detections)
+			sensorDetections.copy(tc.detections[index])
+		}
+	}
+}
+
+/**
+ * Hits of one sensor, keyed by arc and distance step
+ */
+class SensorDetections {
+	companion object {
+		private const val EMPTY = Long.MIN_VALUE
+		
+		@JvmStatic
+		fun key(angleStep: Int, distanceStep: Int) = (angleStep.toLong() shl 32) or (distanceStep.toLong() and 0xFFFFFFFFL)
+	}
+	
+	lateinit var sensor: PartRef<PassiveSensor>
+	var outdated = false
+	
+	var size = 0
+		private set
+	private var hits = arrayOfNulls<DetectionHit>(8)
+	
+	// Open addressing hit index by key
+	private var keys = LongArray(16).also { it.fill(EMPTY) }
+	private var indexes = IntArray(16)
+	
+	operator fun get(index: Int): DetectionHit = hits[index]!!
+	
+	fun clear() {
+		if (size > 0) {
+			keys.fill(EMPTY)
+			size = 0
+		}
+	}
+	
+	fun getOrAdd(angleStep: Int, distanceStep: Int): DetectionHit {
+		val key = key(angleStep, distanceStep)
+		val mask = keys.size - 1
+		var slot = hash(key) and mask
+		
+		while (keys[slot] != EMPTY) {
+			if (keys[slot] == key) {
+				return hits[indexes[slot]]!!
+			}
+			
+			slot = (slot + 1) and mask
+		}
+		
+		if (2 * (size + 1) > keys.size) {
+			grow()
+			return getOrAdd(angleStep, distanceStep)
+		}
+		
+		if (size == hits.size) {
+			hits = hits.copyOf(2 * size)
 		}
+		
+		var hit = hits[size]
+		
+		if (hit == null) {
+			hit = DetectionHit()
+			hits[size] = hit
+		}
+		
+		hit.set(angleStep, distanceStep)
+		keys[slot] = key
+		indexes[slot] = size++
+		
+		return hit
+	}
+	
+	private fun hash(key: Long): Int {
+		val h = key * -7046029254386353131L
+		return (h xor (h ushr 32)).toInt()
+	}
+	
+	private fun grow() {
+		keys = LongArray(2 * keys.size)
+		keys.fill(EMPTY)
+		indexes = IntArray(keys.size)
+		
+		val mask = keys.size - 1
+		
+		for (i in 0 until size) {
+			val hit = hits[i]!!
+			val key = key(hit.angleStep, hit.distanceStep)
+			var slot = hash(key) and mask
+			
+			while (keys[slot] != EMPTY) {
+				slot = (slot + 1) and mask
+			}
+			
+			keys[slot] = key
+			indexes[slot] = i
+		}
+	}
+	
+	// The copy is only read so the key index is not copied
+	fun copy(tc: SensorDetections) {
+		tc.sensor = sensor
+		tc.clear()
+		
+		if (tc.hits.size < size) {
+			tc.hits = tc.hits.copyOf(hits.size)
+		}
+		
+		for (i in 0 until size) {
+			var tcHit = tc.hits[i]
+			
+			if (tcHit == null) {
+				tcHit = DetectionHit()
+				tc.hits[i] = tcHit
+			}
+			
+			hits[i]!!.copy(tcHit)
+		}
+		
+		tc.size = size
 	}
 }
 
-data class DetectionHit(var signalStrength: Double, val entities: MutableList<Int>, val hitPositions: MutableList<Vector2L>)
+class DetectionHit {
+	var angleStep = 0
+		private set
+	var distanceStep = 0
+		private set
+	var signalStrength = 0.0
+	val entities = IntBag(4)
+	
+	// x, y pairs in m, one per entity
+	private var hitPositions = LongArray(8)
+	
+	fun getHitX(index: Int) = hitPositions[2 * index]
+	fun getHitY(index: Int) = hitPositions[2 * index + 1]
+	
+	fun set(angleStep: Int, distanceStep: Int) {
+		this.angleStep = angleStep
+		this.distanceStep = distanceStep
+		signalStrength = 0.0
+		entities.setSize(0)
+	}
+	
+	fun add(entityID: Int, x: Long, y: Long) {
+		val index = entities.size()
+		
+		if (2 * index == hitPositions.size) {
+			hitPositions = hitPositions.copyOf(2 * hitPositions.size)
+		}
+		
+		hitPositions[2 * index] = x
+		hitPositions[2 * index + 1] = y
+		entities.add(entityID)
+	}
+	
+	fun copy(tc: DetectionHit) {
+		tc.set(angleStep, distanceStep)
+		tc.signalStrength = signalStrength
+		
+		if (tc.hitPositions.size < hitPositions.size) {
+			tc.hitPositions = LongArray(hitPositions.size)
+		}
+		
+		System.arraycopy(hitPositions, 0, tc.hitPositions, 0, 2 * entities.size())
+		tc.entities.addAll(entities)
+	}
+}
 
 class GravimetricSensorsComponent() : Component(), CloneableComponent<GravimetricSensorsComponent> {
 	var sensors: List<PartRef<PassiveSensor>> = emptyList()
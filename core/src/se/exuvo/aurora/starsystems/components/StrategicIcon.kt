@@ -5,30 +5,55 @@ import com.badlogic.gdx.graphics.g2d.TextureRegion
 import se.exuvo.aurora.Assets
 
 class StrategicIconComponent() : PooledComponent(), CloneableComponent<StrategicIconComponent> {
-	lateinit var baseTexture: TextureRegion
-	var centerTexture: TextureRegion? = null
+	var basePath: String = StrategicIconBase.NONE.path
+	var centerPath: String? = null
 	
-	fun set(icon: StrategicIcon): StrategicIconComponent {
-		baseTexture = Assets.textures.findRegion(icon.base.path)
-		
-		if (icon.center.path != "") {
-			centerTexture = Assets.textures.findRegion(icon.center.path)
-		} else {
-			centerTexture = null
+	// Bound on first use so that headless simulations never touch the texture atlas
+	@Transient private var boundBaseTexture: TextureRegion? = null
+	@Transient private var boundCenterTexture: TextureRegion? = null
+	
+	val baseTexture: TextureRegion
+		get() {
+			var texture = boundBaseTexture
+			
+			if (texture == null) {
+				texture = Assets.textures.findRegion(basePath)
+				boundBaseTexture = texture
+			}
+			
+			return texture!!
 		}
-		
-		return this
+	
+	val centerTexture: TextureRegion?
+		get() {
+			val path = centerPath ?: return null
+			var texture = boundCenterTexture
+			
+			if (texture == null) {
+				texture = Assets.textures.findRegion(path)
+				boundCenterTexture = texture
+			}
+			
+			return texture
+		}
+	
+	fun set(icon: StrategicIcon): StrategicIconComponent {
+		return set(icon.base.path, if (icon.center.path != "") icon.center.path else null)
 	}
 	
-	fun set(baseTexture: TextureRegion, centerTexture: TextureRegion?): StrategicIconComponent {
-		this.baseTexture = baseTexture
-		this.centerTexture = centerTexture
+	fun set(basePath: String, centerPath: String? = null): StrategicIconComponent {
+		this.basePath = basePath
+		this.centerPath = centerPath
+		boundBaseTexture = null
+		boundCenterTexture = null
 		return this
 	}
 	
 	override fun reset(): Unit {}
 	override fun copy(tc: StrategicIconComponent) {
-		tc.set(baseTexture, centerTexture)
+		if (tc.basePath != basePath || tc.centerPath != centerPath) {
+			tc.set(basePath, centerPath)
+		}
 	}
 }
 
@@ -87,7 +87,7 @@ class GravimetricSensorSystem : GalaxyTimeIntervalSystem((H_SQUARE_SIZE_KM / Uni
 	val waveVelocity = FloatArray(WATER_SIZE * WATER_SIZE)
 //	val waveHeightWrapper = FloatBuffer.wrap(waveHeight)
 
-	var lastProcess: Long = galaxy.time
+	var lastProcess: Long = 0
 	val strideSize: Int
 
 	class GravGlobalData(window: GravWindowData): Disposable {
@@ -231,6 +231,9 @@ class GravimetricSensorSystem : GalaxyTimeIntervalSystem((H_SQUARE_SIZE_KM / Uni
 	override fun dispose() {}
 
 	override fun initialize() {
+		super.initialize()
+		lastProcess = starSystem.time
+
 		sensorsSubscription = world.getAspectSubscriptionManager().get(SHIP_ASPECT)
 		sensorsSubscription.addSubscriptionListener(object : SubscriptionListener {
 			override fun inserted(entities: IntBag) {
@@ -250,7 +253,7 @@ class GravimetricSensorSystem : GalaxyTimeIntervalSystem((H_SQUARE_SIZE_KM / Uni
 
 							sensors.forEachFast{ sensor ->
 								if (partStates.isPartEnabled(sensor)) {
-									val poweredState = partStates.getPartState(sensor)[PoweredPartState::class]
+									val poweredState = partStates.getPartState(sensor).powered
 									poweredState.requestedPower = sensor.part.powerConsumption
 								}
 							}
@@ -283,8 +286,8 @@ class GravimetricSensorSystem : GalaxyTimeIntervalSystem((H_SQUARE_SIZE_KM / Uni
 	override fun processSystem() {
 //		val start = System.nanoTime()
 
-		var deltaGameTime = (galaxy.time - lastProcess).toInt()
-		lastProcess = galaxy.time
+		var deltaGameTime = (starSystem.time - lastProcess).toInt()
+		lastProcess = starSystem.time
 
 		while (deltaGameTime > 0) {
 			var delta = Math.min(deltaGameTime, MAX_INTERVAL)
@@ -0,0 +1,126 @@
+package se.exuvo.aurora.starsystems.systems
+
+import se.exuvo.aurora.utils.InterceptResult
+
+/**
+ * Intercept solutions of one shooter at one system time, shared by all its weapons and targeting computers.
+ * Entries are keyed on target, solver and projectile profile. Results are copied into preallocated slots and must not be modified.
+ */
+class InterceptCache {
+	companion object {
+		const val PROFILE_SIZE = 4
+	}
+
+	private var shooterID = -1
+	private var time = Long.MIN_VALUE
+
+	private var size = 0
+	private var targetIDs = IntArray(8)
+	private var solvers = IntArray(8)
+	private var profiles = DoubleArray(PROFILE_SIZE * 8)
+	private var found = BooleanArray(8)
+	private var results = Array(8) { InterceptResult() }
+
+	var hits = 0
+		private set
+	var misses = 0
+		private set
+
+	/**
+	 * Drops all entries unless they were solved for the same shooter at the same time
+	 */
+	fun begin(shooterID: Int, time: Long) {
+		if (shooterID != this.shooterID || time != this.time) {
+			this.shooterID = shooterID
+			this.time = time
+			clear()
+		}
+	}
+
+	/**
+	 * Movement of entityID is no longer what cached solutions were solved against
+	 */
+	fun invalidate(entityID: Int) {
+		if (entityID == shooterID) {
+			clear()
+			return
+		}
+
+		var i = 0
+
+		while (i < size) {
+			if (targetIDs[i] == entityID) {
+				size--
+				targetIDs[i] = targetIDs[size]
+				solvers[i] = solvers[size]
+				System.arraycopy(profiles, PROFILE_SIZE * size, profiles, PROFILE_SIZE * i, PROFILE_SIZE)
+				found[i] = found[size]
+
+				val result = results[i]
+				results[i] = results[size]
+				results[size] = result
+
+			} else {
+				i++
+			}
+		}
+	}
+
+	/**
+	 * @return index of a cached solution or -1
+	 */
+	fun indexOf(targetID: Int, solver: Int, p1: Double, p2: Double, p3: Double, p4: Double): Int {
+		for (i in 0 until size) {
+			val offset = PROFILE_SIZE * i
+
+			if (targetIDs[i] == targetID && solvers[i] == solver
+					&& profiles[offset] == p1 && profiles[offset + 1] == p2 && profiles[offset + 2] == p3 && profiles[offset + 3] == p4) {
+				hits++
+				return i
+			}
+		}
+
+		return -1
+	}
+
+	fun getResult(index: Int): InterceptResult? = if (found[index]) results[index] else null
+
+	/**
+	 * @param result null if there is no intercept, which is cached as well
+	 */
+	fun put(targetID: Int, solver: Int, p1: Double, p2: Double, p3: Double, p4: Double, result: InterceptResult?) {
+		if (size == targetIDs.size) {
+			targetIDs = targetIDs.copyOf(2 * size)
+			solvers = solvers.copyOf(2 * size)
+			profiles = profiles.copyOf(PROFILE_SIZE * 2 * size)
+			found = found.copyOf(2 * size)
+			val oldResults = results
+			results = Array(2 * size) { if (it < size) oldResults[it] else InterceptResult() }
+		}
+
+		val offset = PROFILE_SIZE * size
+		targetIDs[size] = targetID
+		solvers[size] = solver
+		profiles[offset] = p1
+		profiles[offset + 1] = p2
+		profiles[offset + 2] = p3
+		profiles[offset + 3] = p4
+		found[size] = result != null
+
+		if (result != null) {
+			results[size].set(result)
+		}
+
+		size++
+		misses++
+	}
+
+	fun clear() {
+		size = 0
+	}
+
+	fun resetStats() {
+		hits = 0
+		misses = 0
+	}
+}
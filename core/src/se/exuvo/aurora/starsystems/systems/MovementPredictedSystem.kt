@@ -8,20 +8,20 @@ import se.exuvo.aurora.galactic.Galaxy
 import se.exuvo.aurora.starsystems.components.TimedLifeComponent
 import se.exuvo.aurora.utils.GameServices
 import se.exuvo.aurora.starsystems.StarSystem
+import se.exuvo.aurora.starsystems.ScheduledSystem
 import com.artemis.annotations.Wire
 import com.artemis.BaseEntitySystem
-import java.util.PriorityQueue
 import se.unlogic.standardutils.reflection.ReflectionUtils
 import com.artemis.EntitySubscription
-import com.artemis.utils.BitVector
 import se.exuvo.aurora.starsystems.components.OnPredictedMovementComponent
 import se.exuvo.aurora.starsystems.components.TimedMovementComponent
 import com.artemis.World
 import se.exuvo.aurora.starsystems.components.MoveToEntityComponent
 import se.exuvo.aurora.starsystems.components.MoveToPositionComponent
 import se.exuvo.aurora.starsystems.components.OrbitComponent
+import se.exuvo.aurora.utils.IntTimerHeap
 
-class MovementPredictedSystem : BaseEntitySystem(ASPECT) {
+class MovementPredictedSystem : BaseEntitySystem(ASPECT), ScheduledSystem {
 	companion object {
 		@JvmField val ASPECT = Aspect.all(TimedMovementComponent::class.java, OnPredictedMovementComponent::class.java).exclude(OrbitComponent::class.java)
 		
@@ -38,35 +38,9 @@ class MovementPredictedSystem : BaseEntitySystem(ASPECT) {
 	lateinit private var moveToEntityMapper: ComponentMapper<MoveToEntityComponent>
 	lateinit private var moveToPositionMapper: ComponentMapper<MoveToPositionComponent>
 	
-	private var selfRemovedEntityIDs = BitVector()
-	
 	lateinit var CAN_ACCELERATE_ASPECT: Aspect
 	
-	private var queue = PriorityQueue<Int>(object : Comparator<Int> {
-		override fun compare(a: Int, b: Int): Int {
-			val movA = movementMapper.get(a);
-			val movB = movementMapper.get(b);
-			val nextA = movA.next
-			val nextB = movB.next
-			
-			if (nextA == null && nextB == null) {
-				return 0
-			}
-			
-			if (nextA == null) {
-				return 1
-			}
-			
-			if (nextB == null) {
-				return -1
-			}
-			
-			val timeA = nextA.time
-			val timeB = nextB.time
-			
-			return timeA.compareTo(timeB)
-		}
-	})
+	private val queue = IntTimerHeap()
 	
 	override fun setWorld(world: World) {
 		super.setWorld(world)
@@ -76,27 +50,25 @@ class MovementPredictedSystem : BaseEntitySystem(ASPECT) {
 	
 	override fun inserted(entityID: Int): Unit {
 //		println("inserted $entityID")
-		queue.add(entityID)
-		
-		selfRemovedEntityIDs.ensureCapacity(entityID)
+		queue.schedule(entityID, movementMapper.get(entityID).next?.time ?: Long.MAX_VALUE)
 	}
 	
 	override fun removed(entityID: Int): Unit {
-		if (!selfRemovedEntityIDs.unsafeGet(entityID)) {
-//			println("removed $entityID")
-			queue.remove(entityID)
-			
-		} else {
-			selfRemovedEntityIDs.unsafeClear(entityID)
-		}
+//		println("removed $entityID")
+		// No-op for our own removals as those are already polled
+		queue.remove(entityID)
 	}
 
+	override fun getNextEventTime(): Long {
+		return queue.getNextDeadline()
+	}
+	
 	override fun processSystem() {
 		
 		while(true) {
 			val entityID = queue.peek()
 			
-			if (entityID != null) {
+			if (entityID != -1 && system.time >= queue.getNextDeadline()) {
 				
 				val movement = movementMapper.get(entityID)
 				val next = movement.next
@@ -107,7 +79,10 @@ class MovementPredictedSystem : BaseEntitySystem(ASPECT) {
 				
 //				println("eval $entityID")
 				
-				if (galaxy.time >= next.time) {
+				if (system.time < next.time) { // Predicted again since it was queued
+					queue.schedule(entityID, next.time)
+					
+				} else {
 					
 					queue.poll()
 					
@@ -125,13 +100,7 @@ class MovementPredictedSystem : BaseEntitySystem(ASPECT) {
 					moveToPositionMapper.remove(entityID)
 					predictedMovementMapper.remove(entityID)
 					
-					// We don't want to get notified by our own removals
-					selfRemovedEntityIDs.unsafeSet(entityID)
-					
 					system.changed(entityID, movementMapper)
-					
-				} else {
-					break;
 				}
 				
 			} else {
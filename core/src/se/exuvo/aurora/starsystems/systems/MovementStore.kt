@@ -0,0 +1,152 @@
+package se.exuvo.aurora.starsystems.systems
+
+import com.artemis.utils.BitVector
+import org.apache.commons.math3.util.FastMath
+import se.exuvo.aurora.starsystems.components.TimedMovementComponent
+import se.exuvo.aurora.utils.Vector2L
+import kotlin.math.sign
+
+/**
+ * TimedMovementComponent.previous of each entity packed in primitive arrays indexed by entity ID.
+ * Kept by MovementSystem and current for loaded entities from MovementSystem until the end of each step.
+ * In m, cm/s, cm/s² like MovementValues
+ */
+class MovementStore {
+	var positionX = LongArray(0)
+		private set
+	var positionY = LongArray(0)
+		private set
+	var velocityX = LongArray(0)
+		private set
+	var velocityY = LongArray(0)
+		private set
+	var accelerationX = LongArray(0)
+		private set
+	var accelerationY = LongArray(0)
+		private set
+	var time = LongArray(0)
+		private set
+
+	// Entities with values in the arrays
+	val loaded = BitVector()
+
+	// Loaded entities on predicted movement, their current values must be interpolated by the component
+	val predicted = BitVector()
+
+	val capacity: Int
+		get() = positionX.size
+
+	/**
+	 * If the arrays hold the current movement of entityID
+	 */
+	fun isLinear(entityID: Int): Boolean = loaded.get(entityID) && !predicted.get(entityID)
+
+	fun isMoving(entityID: Int): Boolean = velocityX[entityID] != 0L || velocityY[entityID] != 0L
+
+	fun getSpeed(entityID: Int): Double = FastMath.hypot(velocityX[entityID].toDouble(), velocityY[entityID].toDouble())
+
+	fun getPosition(entityID: Int, position: Vector2L): Vector2L = position.set(positionX[entityID], positionY[entityID])
+
+	fun getVelocity(entityID: Int, velocity: Vector2L): Vector2L = velocity.set(velocityX[entityID], velocityY[entityID])
+
+	fun getXinKM(entityID: Int): Long {
+		val x = positionX[entityID]
+		return (x.sign * 500 + x) / 1000L
+	}
+
+	fun getYinKM(entityID: Int): Long {
+		val y = positionY[entityID]
+		return (y.sign * 500 + y) / 1000L
+	}
+
+	fun load(entityID: Int, movement: TimedMovementComponent) {
+		if (entityID >= capacity) {
+			grow(maxOf(entityID + 1, 2 * capacity, 128))
+		}
+
+		val previous = movement.previous
+		val value = previous.value
+
+		positionX[entityID] = value.position.x
+		positionY[entityID] = value.position.y
+		velocityX[entityID] = value.velocity.x
+		velocityY[entityID] = value.velocity.y
+		accelerationX[entityID] = value.acceleration.x
+		accelerationY[entityID] = value.acceleration.y
+		time[entityID] = previous.time
+
+		loaded.set(entityID)
+
+		if (movement.next != null) {
+			predicted.set(entityID)
+		} else {
+			predicted.clear(entityID)
+		}
+	}
+
+	fun save(entityID: Int, movement: TimedMovementComponent) {
+		val previous = movement.previous
+		val value = previous.value
+
+		value.position.set(positionX[entityID], positionY[entityID])
+		value.velocity.set(velocityX[entityID], velocityY[entityID])
+		value.acceleration.set(accelerationX[entityID], accelerationY[entityID])
+		previous.time = time[entityID]
+	}
+
+	/**
+	 * Moves entityIDs[0, size) along their velocity for deltaGameTime seconds
+	 */
+	fun coast(entityIDs: IntArray, size: Int, deltaGameTime: Long, newTime: Long) {
+		val positionX = positionX
+		val positionY = positionY
+		val velocityX = velocityX
+		val velocityY = velocityY
+		val time = time
+
+		for (i in 0 until size) {
+			val entityID = entityIDs[i]
+
+			positionX[entityID] += (velocityX[entityID] * deltaGameTime) / 100
+			positionY[entityID] += (velocityY[entityID] * deltaGameTime) / 100
+			time[entityID] = newTime
+		}
+	}
+
+	fun remove(entityID: Int) {
+		loaded.clear(entityID)
+		predicted.clear(entityID)
+	}
+
+	/**
+	 * Copies all values from store, used by shadows
+	 */
+	fun set(store: MovementStore) {
+		val length = store.loaded.length()
+
+		if (capacity < length) {
+			grow(store.capacity)
+		}
+
+		System.arraycopy(store.positionX, 0, positionX, 0, length)
+		System.arraycopy(store.positionY, 0, positionY, 0, length)
+		System.arraycopy(store.velocityX, 0, velocityX, 0, length)
+		System.arraycopy(store.velocityY, 0, velocityY, 0, length)
+		System.arraycopy(store.accelerationX, 0, accelerationX, 0, length)
+		System.arraycopy(store.accelerationY, 0, accelerationY, 0, length)
+		System.arraycopy(store.time, 0, time, 0, length)
+
+		loaded.set(store.loaded)
+		predicted.set(store.predicted)
+	}
+
+	private fun grow(newCapacity: Int) {
+		positionX = positionX.copyOf(newCapacity)
+		positionY = positionY.copyOf(newCapacity)
+		velocityX = velocityX.copyOf(newCapacity)
+		velocityY = velocityY.copyOf(newCapacity)
+		accelerationX = accelerationX.copyOf(newCapacity)
+		accelerationY = accelerationY.copyOf(newCapacity)
+		time = time.copyOf(newCapacity)
+	}
+}
@@ -2,7 +2,10 @@ package se.exuvo.aurora.starsystems.systems
 
 import com.artemis.Aspect
 import com.artemis.ComponentMapper
+import com.artemis.EntitySubscription
 import com.artemis.World
+import com.artemis.utils.BitVector
+import com.artemis.utils.IntBag
 import com.artemis.WorldConfigurationBuilder.Priority
 import com.artemis.annotations.Wire
 import com.artemis.systems.IteratingSystem
@@ -23,9 +26,10 @@ import se.exuvo.aurora.utils.forEachFast
 import org.apache.commons.math3.util.FastMath
 import se.exuvo.aurora.starsystems.PreSystem
 import se.exuvo.aurora.starsystems.StarSystem
+import se.exuvo.aurora.starsystems.ScheduledSystem
 import se.exuvo.aurora.starsystems.components.OnPredictedMovementComponent
 
-class MovementSystem : IteratingSystem(FAMILY), PreSystem {
+class MovementSystem : IteratingSystem(FAMILY), PreSystem, ScheduledSystem {
 	companion object {
 		val FAMILY = Aspect.all(TimedMovementComponent::class.java).exclude(OrbitComponent::class.java, OnPredictedMovementComponent::class.java)
 		val CAN_ACCELERATE_FAMILY = Aspect.all(ThrustComponent::class.java, MassComponent::class.java)
@@ -58,6 +62,18 @@ class MovementSystem : IteratingSystem(FAMILY), PreSystem {
 		CAN_ACCELERATE_ASPECT = CAN_ACCELERATE_FAMILY.build(world)
 		DESTINATION_ASPECT = DESTINATION_FAMILY.build(world)
 	}
+	
+	override fun initialize() {
+		world.getAspectSubscriptionManager().get(Aspect.all(TimedMovementComponent::class.java)).addSubscriptionListener(object : EntitySubscription.SubscriptionListener {
+			override fun inserted(entities: IntBag) {}
+			
+			override fun removed(entities: IntBag) {
+				entities.forEachFast { entityID ->
+					store.remove(entityID)
+				}
+			}
+		})
+	}
 
 	fun moveToPosition(entityID: Int, target: Vector2L, approach: ApproachType = ApproachType.BRACHISTOCHRONE) {
 		if (moveToEntityMapper.has(entityID)) {
@@ -72,8 +88,8 @@ class MovementSystem : IteratingSystem(FAMILY), PreSystem {
 
 			if (movement.next != null) {
 				println("Movement: Prediction aborted due to changed target position")
-				val current = movement.get(galaxy.time)
-				movement.set(current.value, galaxy.time)
+				val current = movement.get(system.time)
+				movement.set(current.value, system.time)
 				movement.next = null
 				
 				predictedMovementMapper.remove(entityID)
@@ -116,8 +132,8 @@ class MovementSystem : IteratingSystem(FAMILY), PreSystem {
 		if (movement.next != null) {
 
 			println("Movement: Prediction aborted due to order canceled")
-			val current = movement.get(galaxy.time)
-			movement.set(current.value, galaxy.time)
+			val current = movement.get(system.time)
+			movement.set(current.value, system.time)
 			movement.next = null
 			
 			predictedMovementMapper.remove(entityID)
@@ -125,6 +141,19 @@ class MovementSystem : IteratingSystem(FAMILY), PreSystem {
 	}
 
 	override fun getPreProcessPriority() = Priority.HIGH
+	
+	// Coasting is exact for any delta but thrusting needs to be integrated every second
+	override fun getNextEventTime(): Long {
+		subscription.getEntities().forEachFast { entityID ->
+			if (CAN_ACCELERATE_ASPECT.isInterested(entityID)) {
+				if (DESTINATION_ASPECT.isInterested(entityID) || !movementMapper.get(entityID).previous.value.velocity.isZero()) {
+					return system.time + 1
+				}
+			}
+		}
+		
+		return Long.MAX_VALUE
+	}
 
 	override fun preProcessSystem() {
 		subscription.getEntities().forEachFast { entityID ->
@@ -146,15 +175,135 @@ class MovementSystem : IteratingSystem(FAMILY), PreSystem {
 
 	private val tempPosition = Vector2L()
 	private val tempVelocity = Vector2L()
+	
+	// Movement of all entities, reloaded at the end of each step for those changed this tick
+	val store = MovementStore()
+	
+	// Batches of the current step
+	private val coastingEntities = IntBag()
+	private val coastingBits = BitVector()
+	private val brakingEntities = IntBag()
+	private val destinationEntities = IntBag()
 
-	override fun process(entityID: Int) {
+	override fun processSystem() {
+		val deltaGameTime = world.delta.toLong()
+		
+		coastingEntities.setSize(0)
+		coastingBits.clear()
+		brakingEntities.setSize(0)
+		destinationEntities.setSize(0)
+		
+		subscription.getEntities().forEachFast { entityID ->
+			val movement = movementMapper.get(entityID)
+			
+			if (CAN_ACCELERATE_ASPECT.isInterested(entityID)) {
+				if (DESTINATION_ASPECT.isInterested(entityID)) {
+					destinationEntities.add(entityID)
+					
+				} else if (!movement.previous.value.velocity.isZero()) {
+					brakingEntities.add(entityID)
+				}
+				
+			} else if (movement.next != null) {
+				log.error("Entity $entityID on predicted movement but does not have a OnPredictedMovementComponent")
+				
+			} else if (!movement.previous.value.velocity.isZero()) {
+				coastingEntities.add(entityID)
+				coastingBits.set(entityID)
+				store.load(entityID, movement)
+			}
+		}
+		
+		store.coast(coastingEntities.data, coastingEntities.size(), deltaGameTime, system.time)
+		
+		coastingEntities.forEachFast { entityID ->
+			store.save(entityID, movementMapper.get(entityID))
+		}
+		
+		system.changed(coastingEntities.data, coastingEntities.size(), movementMapper)
+		
+		brakingEntities.forEachFast { entityID ->
+			brake(entityID, deltaGameTime)
+		}
+		
+		system.changed(brakingEntities.data, brakingEntities.size(), movementMapper)
+		system.changed(brakingEntities.data, brakingEntities.size(), thrustMapper)
+		system.changed(brakingEntities.data, brakingEntities.size(), nameMapper)
+		
+		destinationEntities.forEachFast { entityID ->
+			process(entityID)
+		}
+		
+		refreshStore()
+	}
+	
+	// Later systems this step read the store instead of following TimedMovementComponent pointers
+	private fun refreshStore() {
+		val workingShadow = system.workingShadow
+		
+		loadStore(workingShadow.changedComponents[movementMapper.type.index])
+		loadStore(workingShadow.added)
+	}
+	
+	private fun loadStore(entities: BitVector) {
+		var entityID = entities.nextSetBit(0)
+		
+		while (entityID != -1) {
+			val movement = movementMapper.get(entityID)
+			
+			// Coasting entities are already current
+			if (movement != null && !coastingBits.get(entityID)) {
+				store.load(entityID, movement)
+			}
+			
+			entityID = entities.nextSetBit(entityID + 1)
+		}
+	}
+	
+	// Brakes against the direction of travel, stopping in place instead of overshooting
+	private fun brake(entityID: Int, deltaGameTime: Long) {
 		val movement = movementMapper.get(entityID)
+		val thrustComponent = thrustMapper.get(entityID)
 		
-		if (movement.next != null) {
-			log.error("Entity $entityID on predicted movement but does not have a OnPredictedMovementComponent")
-			return
+		val movementValue = movement.previous.value
+		val velocity = movementValue.velocity
+		val acceleration = movementValue.acceleration
+		
+		val currentAcceleration = (100 * thrustComponent.thrust) / massMapper.get(entityID).mass.toLong()
+		val tickAcceleration = currentAcceleration * deltaGameTime
+		val velocityMagnitute = velocity.len()
+		
+		if (velocityMagnitute < tickAcceleration) {
+			
+			velocity.setZero()
+			acceleration.setZero()
+			
+		} else {
+			
+			tempVelocity.set(velocity).scl(-tickAcceleration).div(velocityMagnitute)
+			
+			if (tickAcceleration == currentAcceleration) {
+				acceleration.set(tempVelocity)
+				
+			} else {
+				acceleration.set(velocity).scl(-currentAcceleration).div(velocityMagnitute)
+			}
+			
+			velocity.add(tempVelocity)
+			
+			thrustComponent.thrustAngle = tempVelocity.angle().toFloat()
+			
+			tempVelocity.set(velocity).scl(deltaGameTime)
+			movementValue.position.addDiv(tempVelocity, 100)
+			movement.previous.time = system.time
 		}
 		
+		nameMapper.get(entityID).name = "s " + velocity.len().toLong()
+	}
+
+	// Only entities moving towards a destination, the rest are integrated in batches by processSystem
+	override fun process(entityID: Int) {
+		val movement = movementMapper.get(entityID)
 		val deltaGameTime = world.delta.toLong()
 		
 		val shipMovementValue = movement.previous.value
@@ -163,19 +312,6 @@ class MovementSystem : IteratingSystem(FAMILY), PreSystem {
 		val position = shipMovementValue.position
 		val acceleration = shipMovementValue.acceleration
 
-		if (!CAN_ACCELERATE_ASPECT.isInterested(entityID)) {
-
-			if (velocity.isZero()) {
-				return
-			}
-			
-			tempVelocity.set(velocity).scl(deltaGameTime)
-			position.addDiv(tempVelocity, 100)
-			movement.previous.time = galaxy.time
-			system.changed(entityID, movementMapper)
-			return
-		}
-
 		val mass = massMapper.get(entityID).mass
 		val massL = mass.toLong()
 		val thrustComponent = thrustMapper.get(entityID)
@@ -185,45 +321,6 @@ class MovementSystem : IteratingSystem(FAMILY), PreSystem {
 		val tickAcceleration = currentAcceleration * deltaGameTime
 		val maxTickAcceleration = maxAcceleration * deltaGameTime
 
-		if (!DESTINATION_ASPECT.isInterested(entityID)) {
-
-			if (!velocity.isZero()) {
-				val velocityMagnitute = velocity.len()
-
-				if (velocityMagnitute < tickAcceleration) {
-
-					velocity.setZero()
-					acceleration.setZero()
-					
-				} else {
-
-					// Apply breaking in same direction as travel
-					tempVelocity.set(velocity).scl(-tickAcceleration).div(velocityMagnitute)
-					
-					if (tickAcceleration == currentAcceleration) {
-						acceleration.set(tempVelocity)
-						
-					} else {
-						acceleration.set(velocity).scl(-currentAcceleration).div(velocityMagnitute)
-					}
-					
-					velocity.add(tempVelocity)
-					
-					thrustComponent.thrustAngle = tempVelocity.angle().toFloat()
-					
-					tempVelocity.set(velocity).scl(deltaGameTime)
-					position.addDiv(tempVelocity, 100)
-					movement.previous.time = galaxy.time
-				}
-
-				nameMapper.get(entityID).name = "s " + velocity.len().toLong()
-				
-				system.changed(entityID, movementMapper, thrustMapper, nameMapper)
-			}
-
-			return
-		}
-
 		val moveToPositionComponent = moveToPositionMapper.get(entityID)
 		val moveToEntityComponent = moveToEntityMapper.get(entityID)
 
@@ -233,7 +330,7 @@ class MovementSystem : IteratingSystem(FAMILY), PreSystem {
 
 		if (targetEntityID != null) {
 
-			targetMovement = movementMapper.get(targetEntityID).get(galaxy.time).value
+			targetMovement = movementMapper.get(targetEntityID).get(system.time).value
 			targetPosition = targetMovement.position
 
 		} else {
@@ -377,9 +474,9 @@ class MovementSystem : IteratingSystem(FAMILY), PreSystem {
 					
 					tempVelocity.set(finalVelocity.toLong(), 0).rotate(angleToTarget)
 					
-					movement.previous.time = galaxy.time
+					movement.previous.time = system.time
 					val targetPositionCpy = targetPosition.cpy()
-					movement.setPredictionBallistic(MovementValues(targetPositionCpy, tempVelocity.cpy(), Vector2L(maxAcceleration, 0).rotate(angleToTarget)), targetPositionCpy, maxAcceleration, galaxy.time + FastMath.round(timeToTarget))
+					movement.setPredictionBallistic(MovementValues(targetPositionCpy, tempVelocity.cpy(), Vector2L(maxAcceleration, 0).rotate(angleToTarget)), targetPositionCpy, maxAcceleration, system.time + FastMath.round(timeToTarget))
 					thrustComponent.thrustAngle = angleToTarget.toFloat()
 					
 					predictedMovementMapper.create(entityID)
@@ -409,15 +506,19 @@ class MovementSystem : IteratingSystem(FAMILY), PreSystem {
 						
 						println("Movement: ballistic prediction to target")
 						
-						val (timeToIntercept, aimPosition, interceptPosition, interceptVelocity, relativeInterceptVelocity) = result
+						val timeToIntercept = result.timeToIntercept
+						val aimPosition = result.aimPosition.cpy()
+						val interceptPosition = result.interceptPosition.cpy()
+						val interceptVelocity = result.interceptVelocity.cpy()
+						val relativeInterceptVelocity = result.relativeInterceptVelocity
 						
 						println("timeToIntercept $timeToIntercept, final velocity ${relativeInterceptVelocity.len()}, distance1 $distance, distance2 ${position.cpy().sub(interceptPosition).len()}, acceleration $maxAcceleration")
 						
 						val angleToAimTarget = position.angleTo(aimPosition)
 						val angleRadToAimTarget = position.angleRad(aimPosition)
 						
-						movement.previous.time = galaxy.time
-						movement.setPredictionBallistic(MovementValues(interceptPosition, interceptVelocity, Vector2L(maxAcceleration, 0).rotate(angleRadToAimTarget)), aimPosition, maxAcceleration, galaxy.time + timeToIntercept)
+						movement.previous.time = system.time
+						movement.setPredictionBallistic(MovementValues(interceptPosition, interceptVelocity, Vector2L(maxAcceleration, 0).rotate(angleRadToAimTarget)), aimPosition, maxAcceleration, system.time + timeToIntercept)
 						thrustComponent.thrustAngle = angleToAimTarget.toFloat()
 						
 						predictedMovementMapper.create(entityID)
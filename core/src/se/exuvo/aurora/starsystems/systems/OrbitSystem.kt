@@ -147,7 +147,7 @@ class OrbitSystem : GalaxyTimeIntervalIteratingSystem(FAMILY, 24 * 60 * 60) {
 	val tmpPosition = Vector2L()
 	
 	override fun process(entityID: Int) {
-		val today = galaxy.time
+		val today = system.time
 		val dayLength = 24 * 60 * 60
 		val tomorrow = today + dayLength
 		
@@ -24,6 +24,7 @@ import se.exuvo.aurora.galactic.SolarPanel
 import se.exuvo.aurora.galactic.TargetingComputer
 import se.exuvo.aurora.galactic.WeaponPart
 import se.exuvo.aurora.starsystems.PreSystem
+import se.exuvo.aurora.starsystems.ScheduledSystem
 import se.exuvo.aurora.starsystems.StarSystem
 import se.exuvo.aurora.starsystems.components.AmmunitionPartState
 import se.exuvo.aurora.starsystems.components.CargoComponent
@@ -43,7 +44,7 @@ import se.exuvo.aurora.utils.forEachFast
 import se.exuvo.aurora.utils.printEntity
 import kotlin.math.ceil
 
-class PowerSystem : IteratingSystem(FAMILY), PreSystem {
+class PowerSystem : IteratingSystem(FAMILY), PreSystem, ScheduledSystem {
 	companion object {
 		@JvmField val FAMILY = Aspect.all(ShipComponent::class.java, PowerComponent::class.java)
 		@JvmField val SHIP_FAMILY = Aspect.all(ShipComponent::class.java)
@@ -118,7 +119,7 @@ class PowerSystem : IteratingSystem(FAMILY), PreSystem {
 		
 		if (part is TargetingComputer) {
 			
-			val tcState = partStates[partRef][TargetingComputerState::class]
+			val tcState = partStates[partRef].targetingComputer
 			
 			for (weapon in tcState.linkedWeapons) {
 				
@@ -127,12 +128,12 @@ class PowerSystem : IteratingSystem(FAMILY), PreSystem {
 			
 		} else if (part is WeaponPart) {
 			
-			val weaponState = partStates[partRef][WeaponPartState::class]
+			val weaponState = partStates[partRef].weapon
 			val targetingComputer = weaponState.targetingComputer
 			
 			if (targetingComputer != null) {
 				
-				val tcState = partStates[targetingComputer][TargetingComputerState::class]
+				val tcState = partStates[targetingComputer].targetingComputer
 				
 				tcState.disabledWeapons.remove(partRef)
 				
@@ -142,7 +143,7 @@ class PowerSystem : IteratingSystem(FAMILY), PreSystem {
 				
 				if (part is AmmunitionPart) {
 					
-					val ammoState = partStates[partRef][AmmunitionPartState::class]
+					val ammoState = partStates[partRef].ammunition
 					
 					if (ammoState.amount > 0 && part !is Railgun) {
 						tcState.readyWeapons.add(partRef)
@@ -153,7 +154,7 @@ class PowerSystem : IteratingSystem(FAMILY), PreSystem {
 					if (freeSpace > 0) {
 						
 						if (ammoState.reloadedAt != 0L) {
-							ammoState.reloadedAt += galaxy.time
+							ammoState.reloadedAt += system.time
 						}
 					
 						tcState.reloadingWeapons.add(partRef)
@@ -176,7 +177,7 @@ class PowerSystem : IteratingSystem(FAMILY), PreSystem {
 		
 		if (part is PoweredPart) {
 			
-			val poweredState = partStates[partRef][PoweredPartState::class]
+			val poweredState = partStates[partRef].powered
 			
 			if (poweredState.requestedPower > 0) {
 				poweredState.requestedPower = 0
@@ -187,14 +188,14 @@ class PowerSystem : IteratingSystem(FAMILY), PreSystem {
 		}
 		
 		if (part is ChargedPart) {
-			val chargedState = partStates[partRef][ChargedPartState::class]
+			val chargedState = partStates[partRef].charged
 			chargedState.charge = 0
 			chargedState.expectedFullAt = 0
 		}
 		
 		if (part is TargetingComputer) {
 			
-			val tcState = partStates[partRef][TargetingComputerState::class]
+			val tcState = partStates[partRef].targetingComputer
 			
 			for (weapon in tcState.linkedWeapons) {
 				
@@ -203,12 +204,12 @@ class PowerSystem : IteratingSystem(FAMILY), PreSystem {
 			
 		} else if (part is WeaponPart) {
 			
-			val weaponState = partStates[partRef][WeaponPartState::class]
+			val weaponState = partStates[partRef].weapon
 			val targetingComputer = weaponState.targetingComputer
 			
 			if (targetingComputer != null) {
 				
-				val tcState = partStates[targetingComputer][TargetingComputerState::class]
+				val tcState = partStates[targetingComputer].targetingComputer
 				
 				tcState.readyWeapons.remove(partRef)
 				tcState.disabledWeapons.add(partRef)
@@ -220,10 +221,10 @@ class PowerSystem : IteratingSystem(FAMILY), PreSystem {
 				if (part is AmmunitionPart) {
 					tcState.reloadingWeapons.remove(partRef)
 					
-					val ammoState = partStates[partRef][AmmunitionPartState::class]
+					val ammoState = partStates[partRef].ammunition
 					
 					if (ammoState.reloadedAt != 0L) {
-						ammoState.reloadedAt -= galaxy.time
+						ammoState.reloadedAt -= system.time
 					}
 				}
 			}
@@ -237,6 +238,54 @@ class PowerSystem : IteratingSystem(FAMILY), PreSystem {
 		system.changed(event.entityID, powerMapper, partStatesMapper)
 	}
 
+	override fun getNextEventTime(): Long {
+		val now = system.time
+		var nextEventTime = Long.MAX_VALUE
+		
+		subscription.getEntities().forEachFast { entityID ->
+			val powerComponent = powerMapper.get(entityID)
+			val partStates = partStatesMapper.get(entityID)
+			
+			// Reactor out of fuel, battery empty
+			powerComponent.poweringParts.forEachFast { partRef ->
+				val part = partRef.part
+				val poweringState = partStates[partRef].powering
+				
+				if (poweringState.producedPower > 0) {
+					if (part is Reactor) {
+						val fueledState = partStates[partRef].fueled
+						nextEventTime = minOf(nextEventTime, now + maxOf(1, fueledState.totalFuelEnergyRemaining / poweringState.producedPower))
+						
+					} else if (part is Battery) {
+						val chargedState = partStates[partRef].charged
+						nextEventTime = minOf(nextEventTime, now + maxOf(1, chargedState.charge / poweringState.producedPower))
+					}
+				}
+			}
+			
+			// Capacitor or battery full
+			powerComponent.chargedParts.forEachFast { partRef ->
+				val part = partRef.part as ChargedPart
+				val poweredState = partStates[partRef].powered
+				
+				if (poweredState.givenPower > 0) {
+					val chargedState = partStates[partRef].charged
+					val leftToCharge = part.capacitor - chargedState.charge
+					
+					if (part is Battery) {
+						val chargeRate = maxOf(1, (poweredState.givenPower * part.efficiency) / 100)
+						nextEventTime = minOf(nextEventTime, now + maxOf(1, leftToCharge / chargeRate))
+						
+					} else {
+						nextEventTime = minOf(nextEventTime, now + maxOf(1, (leftToCharge + poweredState.givenPower - 1) / poweredState.givenPower))
+					}
+				}
+			}
+		}
+		
+		return nextEventTime
+	}
+
 	val tmpPowerComponent = PowerComponent()
 	
 	override fun preProcessSystem() {
@@ -254,7 +303,7 @@ class PowerSystem : IteratingSystem(FAMILY), PreSystem {
 			// Pre checks
 			powerComponent.poweringParts.forEachFast{ partRef ->
 				val part = partRef.part
-				val poweringState = partStates[partRef][PoweringPartState::class]
+				val poweringState = partStates[partRef].powering
 
 				if (part is SolarPanel) { // Update solar power
 
@@ -278,7 +327,7 @@ class PowerSystem : IteratingSystem(FAMILY), PreSystem {
 
 				} else if (part is Reactor) {
 
-					val fueledState = partStates[partRef][FueledPartState::class]
+					val fueledState = partStates[partRef].fueled
 
 					val remainingFuel = cargo.getCargoAmount(part.fuel)
 					fueledState.totalFuelEnergyRemaining = fueledState.fuelEnergyRemaining + part.power * part.fuelTime * remainingFuel
@@ -295,8 +344,8 @@ class PowerSystem : IteratingSystem(FAMILY), PreSystem {
 
 				} else if (part is Battery) { // Charge empty or full
 
-					val poweredState = partStates[partRef][PoweredPartState::class]
-					val chargedState = partStates[partRef][ChargedPartState::class]
+					val poweredState = partStates[partRef].powered
+					val chargedState = partStates[partRef].charged
 
 					// Charge empty
 					if (poweringState.producedPower > chargedState.charge) {
@@ -344,7 +393,7 @@ class PowerSystem : IteratingSystem(FAMILY), PreSystem {
 					val part = partRef.part
 
 					if (partStates.isPartEnabled(partRef)) {
-						val poweringState = partStates[partRef][PoweringPartState::class]
+						val poweringState = partStates[partRef].powering
 
 						powerComponent.totalAvailablePower += poweringState.availiablePower
 
@@ -365,8 +414,8 @@ class PowerSystem : IteratingSystem(FAMILY), PreSystem {
 
 					if (aBattery == bBattery) {
 
-						var requestedPowerA = partStates[aRef][PoweredPartState::class].requestedPower
-						var requestedPowerB = partStates[bRef][PoweredPartState::class].requestedPower
+						var requestedPowerA = partStates[aRef].powered.requestedPower
+						var requestedPowerB = partStates[bRef].powered.requestedPower
 
 						if (requestedPowerA == 0L) {
 							requestedPowerA = Long.MAX_VALUE
@@ -391,7 +440,7 @@ class PowerSystem : IteratingSystem(FAMILY), PreSystem {
 				powerComponent.poweredParts.forEach({
 					val partRef = it
 					val part = partRef.part
-					val poweredState = partStates[partRef][PoweredPartState::class]
+					val poweredState = partStates[partRef].powered
 
 					if (partStates.isPartEnabled(partRef)) {
 
@@ -411,7 +460,7 @@ class PowerSystem : IteratingSystem(FAMILY), PreSystem {
 
 						} else {
 
-							val chargedState = partStates[partRef][ChargedPartState::class]
+							val chargedState = partStates[partRef].charged
 							val leftToCharge = part.capacitor - chargedState.charge
 
 							poweredState.requestedPower = minOf((leftToCharge * 100) / part.efficiency, part.powerConsumption)
@@ -439,7 +488,7 @@ class PowerSystem : IteratingSystem(FAMILY), PreSystem {
 				// Supply power
 				powerComponent.poweringParts.forEach({
 					val part = it
-					val poweringState = partStates[part][PoweringPartState::class]
+					val poweringState = partStates[part].powering
 
 					if (partStates.isPartEnabled(part)) {
 
@@ -468,7 +517,7 @@ class PowerSystem : IteratingSystem(FAMILY), PreSystem {
 			powerComponent.poweringParts.forEach({
 				val partRef = it
 				val part = partRef.part
-				val poweringState = partStates[partRef][PoweringPartState::class]
+				val poweringState = partStates[partRef].powering
 
 				if (part is Reactor) {
 
@@ -477,7 +526,7 @@ class PowerSystem : IteratingSystem(FAMILY), PreSystem {
 
 				} else if (part is Battery) {
 
-					val chargedState = partStates[partRef][ChargedPartState::class]
+					val chargedState = partStates[partRef].charged
 
 					if (poweringState.producedPower > 0) {
 						chargedState.charge -= minOf(deltaGameTime * poweringState.producedPower, chargedState.charge)
@@ -489,11 +538,11 @@ class PowerSystem : IteratingSystem(FAMILY), PreSystem {
 			powerComponent.poweredParts.forEach({
 				val partRef = it
 				val part = partRef.part
-				val poweredState = partStates[partRef][PoweredPartState::class]
+				val poweredState = partStates[partRef].powered
 
 				if (part is ChargedPart) {
 
-					val chargedState = partStates[partRef][ChargedPartState::class]
+					val chargedState = partStates[partRef].charged
 
 					if (poweredState.givenPower > 0) {
 
@@ -510,7 +559,7 @@ class PowerSystem : IteratingSystem(FAMILY), PreSystem {
 							}
 							
 						} else {
-							chargedState.charge += chargeToAdd
+							chargedState.charge = minOf(chargedState.charge + chargeToAdd, part.capacitor)
 						}
 					}
 				}
@@ -532,7 +581,7 @@ class PowerSystem : IteratingSystem(FAMILY), PreSystem {
 	{
 		val part = partRef.part
 		if (part is FueledPart) {
-			val fueledState = partStates[partRef][FueledPartState::class]
+			val fueledState = partStates[partRef].fueled
 			var cargoChanged = false
 			
 			var fuelEnergyConsumed = deltaGameTime * energyConsumed
@@ -0,0 +1,389 @@
+package se.exuvo.aurora.starsystems.systems
+
+import com.artemis.BaseEntitySystem
+import com.artemis.ComponentMapper
+import com.artemis.annotations.Wire
+import com.artemis.utils.IntBag
+import net.mostlyoriginal.api.event.common.Subscribe
+import org.apache.logging.log4j.LogManager
+import se.exuvo.aurora.starsystems.StarSystem
+import se.exuvo.aurora.starsystems.components.TimedMovementComponent
+import se.exuvo.aurora.starsystems.events.NonLinearMovementEvent
+import se.exuvo.aurora.utils.Int128
+import se.exuvo.aurora.utils.LongIntMap
+import se.exuvo.aurora.utils.forEachFast
+
+/**
+ * Proximity queries for ships and munitions at the current star system time.
+ * Entities are bucketed by exact position in a uniform spatial hash which is rebuilt on the first query after time has advanced
+ * or entities were added, removed or changed course, so queries always see current positions unlike the lazily updated quadtree.
+ */
+class ProximitySystem : BaseEntitySystem(SpatialPartitioningSystem.ASPECT) {
+	companion object {
+		@JvmField val log = LogManager.getLogger(ProximitySystem::class.java)
+
+		const val CELL_SIZE: Long = 100_000_000 // in m
+
+		private fun cellOf(position: Long): Int = Math.floorDiv(position, CELL_SIZE).toInt()
+		private fun cellKey(cellX: Int, cellY: Int): Long = (cellX.toLong() shl 32) or (cellY.toLong() and 0xFFFFFFFFL)
+	}
+
+	@Wire
+	lateinit private var system: StarSystem
+
+	lateinit private var movementMapper: ComponentMapper<TimedMovementComponent>
+
+	private var builtTime = -1L
+	private var dirty = true
+
+	// Per indexed entity, linked per cell through next
+	private var count = 0
+	private var entityIDs = IntArray(64)
+	private var xs = LongArray(64)
+	private var ys = LongArray(64)
+	private var velocityXs = LongArray(64)
+	private var velocityYs = LongArray(64)
+	private var next = IntArray(64)
+
+	private val cells = LongIntMap(256)
+	private var minCellX = 0
+	private var maxCellX = 0
+	private var minCellY = 0
+	private var maxCellY = 0
+	private var maxSpeed = 0.0 // in cm/s
+
+	private var nearestIDs = IntArray(16)
+	private var nearestDistances = DoubleArray(16)
+	private var nearestCount = 0
+
+	/** Contact times in seconds of the last [getSweepHits] result, in the same order */
+	var sweepTimes = DoubleArray(16)
+		private set
+
+	override fun checkProcessing() = false
+
+	override fun processSystem() {}
+
+	override fun inserted(entityID: Int) {
+		dirty = true
+	}
+
+	override fun removed(entityID: Int) {
+		dirty = true
+	}
+
+	@Subscribe
+	fun nonLinearMovementEvent(event: NonLinearMovementEvent) {
+		dirty = true
+	}
+
+	/**
+	 * Replaces the content of result with all entities within radius of (x, y), in no particular order
+	 */
+	fun getWithin(x: Long, y: Long, radius: Long, result: IntBag): IntBag {
+		build()
+		result.setSize(0)
+
+		val minX = maxOf(cellOf(x - radius), minCellX)
+		val maxX = minOf(cellOf(x + radius), maxCellX)
+		val minY = maxOf(cellOf(y - radius), minCellY)
+		val maxY = minOf(cellOf(y + radius), maxCellY)
+
+		if (minX > maxX || minY > maxY) {
+			return result
+		}
+
+		if ((maxX - minX + 1).toLong() * (maxY - minY + 1) > count) {
+			for (slot in 0 until count) {
+				if (Int128.compareLengthSquared(xs[slot] - x, ys[slot] - y, radius) <= 0) {
+					result.add(entityIDs[slot])
+				}
+			}
+
+			return result
+		}
+
+		for (cellX in minX..maxX) {
+			for (cellY in minY..maxY) {
+				var slot = cells.get(cellKey(cellX, cellY), -1)
+
+				while (slot != -1) {
+					if (Int128.compareLengthSquared(xs[slot] - x, ys[slot] - y, radius) <= 0) {
+						result.add(entityIDs[slot])
+					}
+
+					slot = next[slot]
+				}
+			}
+		}
+
+		return result
+	}
+
+	/**
+	 * Replaces the content of result with the k nearest entities within maxRadius of (x, y) sorted by distance, excluding ignoreEntityID
+	 */
+	fun getNearest(x: Long, y: Long, k: Int, result: IntBag, maxRadius: Long = Long.MAX_VALUE, ignoreEntityID: Int = -1): IntBag {
+		build()
+		result.setSize(0)
+
+		if (k <= 0 || count == 0) {
+			return result
+		}
+
+		if (nearestIDs.size < k) {
+			nearestIDs = IntArray(k)
+			nearestDistances = DoubleArray(k)
+		}
+
+		nearestCount = 0
+
+		val maxRadius2 = maxRadius.toDouble() * maxRadius.toDouble()
+		val centerX = cellOf(x)
+		val centerY = cellOf(y)
+		val lastRing = maxOf(maxOf(centerX.toLong() - minCellX, maxCellX.toLong() - centerX), maxOf(centerY.toLong() - minCellY, maxCellY.toLong() - centerY))
+		var ring = 0L
+
+		while (ring <= lastRing) {
+			// Rings further out than the entity count are cheaper to replace with a scan of everything
+			if ((2 * ring + 1) * (2 * ring + 1) > 4L * count) {
+				nearestCount = 0
+
+				for (slot in 0 until count) {
+					offerNearest(slot, x, y, k, maxRadius2, ignoreEntityID)
+				}
+
+				break
+			}
+
+			if (ring == 0L) {
+				offerNearestCell(centerX, centerY, x, y, k, maxRadius2, ignoreEntityID)
+
+			} else {
+				val r = ring.toInt()
+
+				for (cellX in centerX - r..centerX + r) {
+					offerNearestCell(cellX, centerY - r, x, y, k, maxRadius2, ignoreEntityID)
+					offerNearestCell(cellX, centerY + r, x, y, k, maxRadius2, ignoreEntityID)
+				}
+
+				for (cellY in centerY - r + 1..centerY + r - 1) {
+					offerNearestCell(centerX - r, cellY, x, y, k, maxRadius2, ignoreEntityID)
+					offerNearestCell(centerX + r, cellY, x, y, k, maxRadius2, ignoreEntityID)
+				}
+			}
+
+			// Everything not yet visited is at least ring cells away
+			val visitedDistance = ring.toDouble() * CELL_SIZE
+
+			if (visitedDistance * visitedDistance >= maxRadius2 || (nearestCount == k && nearestDistances[k - 1] <= visitedDistance * visitedDistance)) {
+				break
+			}
+
+			ring++
+		}
+
+		for (i in 0 until nearestCount) {
+			result.add(nearestIDs[i])
+		}
+
+		return result
+	}
+
+	private fun offerNearestCell(cellX: Int, cellY: Int, x: Long, y: Long, k: Int, maxRadius2: Double, ignoreEntityID: Int) {
+		if (cellX < minCellX || cellX > maxCellX || cellY < minCellY || cellY > maxCellY) {
+			return
+		}
+
+		var slot = cells.get(cellKey(cellX, cellY), -1)
+
+		while (slot != -1) {
+			offerNearest(slot, x, y, k, maxRadius2, ignoreEntityID)
+			slot = next[slot]
+		}
+	}
+
+	private fun offerNearest(slot: Int, x: Long, y: Long, k: Int, maxRadius2: Double, ignoreEntityID: Int) {
+		val entityID = entityIDs[slot]
+
+		if (entityID == ignoreEntityID) {
+			return
+		}
+
+		val distance2 = Int128.lengthSquared(xs[slot] - x, ys[slot] - y)
+
+		if (distance2 > maxRadius2 || (nearestCount == k && distance2 >= nearestDistances[k - 1])) {
+			return
+		}
+
+		var i = if (nearestCount < k) nearestCount++ else k - 1
+
+		while (i > 0 && nearestDistances[i - 1] > distance2) {
+			nearestDistances[i] = nearestDistances[i - 1]
+			nearestIDs[i] = nearestIDs[i - 1]
+			i--
+		}
+
+		nearestDistances[i] = distance2
+		nearestIDs[i] = entityID
+	}
+
+	/**
+	 * Replaces the content of result with all entities that come within radius of a munition starting at (x, y) with velocity in cm/s
+	 * during the next duration seconds, ordered by first contact. Entities are assumed to keep their current velocity.
+	 * Contact times are available in [sweepTimes].
+	 */
+	fun getSweepHits(x: Long, y: Long, velocityX: Long, velocityY: Long, duration: Long, radius: Long, result: IntBag, ignoreEntityID: Int = -1): IntBag {
+		build()
+		result.setSize(0)
+
+		if (count == 0) {
+			return result
+		}
+
+		val endX = x + (velocityX.toDouble() * duration / 100).toLong()
+		val endY = y + (velocityY.toDouble() * duration / 100).toLong()
+		val margin = radius + (maxSpeed * duration / 100).toLong()
+
+		val minX = maxOf(cellOf(minOf(x, endX) - margin), minCellX)
+		val maxX = minOf(cellOf(maxOf(x, endX) + margin), maxCellX)
+		val minY = maxOf(cellOf(minOf(y, endY) - margin), minCellY)
+		val maxY = minOf(cellOf(maxOf(y, endY) + margin), maxCellY)
+
+		if (minX > maxX || minY > maxY) {
+			return result
+		}
+
+		if ((maxX - minX + 1).toLong() * (maxY - minY + 1) > count) {
+			for (slot in 0 until count) {
+				sweep(slot, x, y, velocityX, velocityY, duration, radius, result, ignoreEntityID)
+			}
+
+		} else {
+			for (cellX in minX..maxX) {
+				for (cellY in minY..maxY) {
+					var slot = cells.get(cellKey(cellX, cellY), -1)
+
+					while (slot != -1) {
+						sweep(slot, x, y, velocityX, velocityY, duration, radius, result, ignoreEntityID)
+						slot = next[slot]
+					}
+				}
+			}
+		}
+
+		return result
+	}
+
+	// Inserts the entity in time order if |relativePosition + relativeVelocity * t| <= radius for some t in 0..duration
+	private fun sweep(slot: Int, x: Long, y: Long, velocityX: Long, velocityY: Long, duration: Long, radius: Long, result: IntBag, ignoreEntityID: Int) {
+		val entityID = entityIDs[slot]
+
+		if (entityID == ignoreEntityID) {
+			return
+		}
+
+		val dx = (xs[slot] - x).toDouble()
+		val dy = (ys[slot] - y).toDouble()
+		val wx = (velocityXs[slot] - velocityX).toDouble() / 100
+		val wy = (velocityYs[slot] - velocityY).toDouble() / 100
+
+		val c = dx * dx + dy * dy - radius.toDouble() * radius.toDouble()
+		val time: Double
+
+		if (c <= 0) {
+			time = 0.0
+
+		} else {
+			val a = wx * wx + wy * wy
+			val b = 2 * (dx * wx + dy * wy)
+
+			if (a == 0.0 || b >= 0) { // Not approaching
+				return
+			}
+
+			val discriminant = b * b - 4 * a * c
+
+			if (discriminant < 0) {
+				return
+			}
+
+			time = (-b - Math.sqrt(discriminant)) / (2 * a)
+
+			if (time > duration) {
+				return
+			}
+		}
+
+		val size = result.size()
+
+		if (sweepTimes.size <= size) {
+			sweepTimes = sweepTimes.copyOf(2 * sweepTimes.size)
+		}
+
+		var i = size
+		result.add(entityID)
+
+		while (i > 0 && sweepTimes[i - 1] > time) {
+			sweepTimes[i] = sweepTimes[i - 1]
+			result[i] = result[i - 1]
+			i--
+		}
+
+		sweepTimes[i] = time
+		result[i] = entityID
+	}
+
+	private fun build() {
+		if (!dirty && builtTime == system.time) {
+			return
+		}
+
+		val entities = subscription.entities
+		val time = system.time
+
+		if (entityIDs.size < entities.size()) {
+			val size = Integer.highestOneBit(entities.size()) shl 1
+			entityIDs = IntArray(size)
+			xs = LongArray(size)
+			ys = LongArray(size)
+			velocityXs = LongArray(size)
+			velocityYs = LongArray(size)
+			next = IntArray(size)
+		}
+
+		cells.clear()
+		count = 0
+		maxSpeed = 0.0
+		minCellX = Int.MAX_VALUE
+		maxCellX = Int.MIN_VALUE
+		minCellY = Int.MAX_VALUE
+		maxCellY = Int.MIN_VALUE
+
+		entities.forEachFast { entityID ->
+			val movement = movementMapper.get(entityID).get(time).value
+			val slot = count++
+			val cellX = cellOf(movement.position.x)
+			val cellY = cellOf(movement.position.y)
+			val key = cellKey(cellX, cellY)
+
+			entityIDs[slot] = entityID
+			xs[slot] = movement.position.x
+			ys[slot] = movement.position.y
+			velocityXs[slot] = movement.velocity.x
+			velocityYs[slot] = movement.velocity.y
+			maxSpeed = maxOf(maxSpeed, movement.velocity.len())
+
+			next[slot] = cells.get(key, -1)
+			cells.put(key, slot)
+
+			minCellX = minOf(minCellX, cellX)
+			maxCellX = maxOf(maxCellX, cellX)
+			minCellY = minOf(minCellY, cellY)
+			maxCellY = maxOf(maxCellY, cellY)
+		}
+
+		builtTime = time
+		dirty = false
+	}
+}
@@ -285,15 +285,16 @@ class RenderSystem : IteratingSystem(FAMILY) {
 	private fun drawEntities(entityIDs: IntBag) {
 
 		shapeRenderer.begin(ShapeRenderer.ShapeType.Filled)
+		
+		val store = shadowSystem.movementStore
 
 		entityIDs.forEachFast { entityID ->
 
 			if (!strategicIconMapper.has(entityID) || !inStrategicView(entityID)) {
 
-				val movement = movementMapper.get(entityID).get(galaxy.time).value
 				val tintComponent = if (tintMapper.has(entityID)) tintMapper.get(entityID) else null
-				val x = (movement.getXinKM() - cameraOffset.x).toFloat()
-				val y = (movement.getYinKM() - cameraOffset.y).toFloat()
+				val x = (getXinKM(store, entityID) - cameraOffset.x).toFloat()
+				val y = (getYinKM(store, entityID) - cameraOffset.y).toFloat()
 
 				shapeRenderer.color = sRGBtoLinearRGB(Color(tintComponent?.color ?: Color.WHITE))
 
@@ -365,7 +366,7 @@ class RenderSystem : IteratingSystem(FAMILY) {
 					val y = (((movement.position.y.sign * 500 + movement.position.y) / 1000L) - cameraOffset.y).toFloat()
 					
 					tcs.forEachFast{ tc ->
-						val tcState = partStates[tc][TargetingComputerState::class]
+						val tcState = partStates[tc].targetingComputer
 						val tcRange = tc.part.maxRange * 1000
 						
 						tcState.linkedWeapons.forEachFast weaponLoop@{ weapon ->
@@ -387,7 +388,7 @@ class RenderSystem : IteratingSystem(FAMILY) {
 										shapeRenderer.color = sRGBtoLinearRGB(Color.PURPLE)
 									}
 									is Railgun -> {
-										val ammoState = partStates[weapon][AmmunitionPartState::class]
+										val ammoState = partStates[weapon].ammunition
 										val munitionHull = ammoState.type as? SimpleMunitionHull
 										
 										if (munitionHull == null) {
@@ -400,7 +401,7 @@ class RenderSystem : IteratingSystem(FAMILY) {
 										shapeRenderer.color = sRGBtoLinearRGB(Color.ORANGE)
 									}
 									is MissileLauncher -> {
-										val ammoState = partStates[weapon][AmmunitionPartState::class]
+										val ammoState = partStates[weapon].ammunition
 										val advMunitionHull = ammoState.type!! as? AdvancedMunitionHull
 										
 										if (advMunitionHull == null) {
@@ -479,7 +480,7 @@ class RenderSystem : IteratingSystem(FAMILY) {
 
 						fun getRanges(tcs: List<PartRef<TargetingComputer>>) {
 							tcs.forEachFast { tc ->
-								val tcState = partStates[tc][TargetingComputerState::class]
+								val tcState = partStates[tc].targetingComputer
 								val tcRange = tc.part.maxRange * 1000
 
 								tcState.linkedWeapons.forEachFast weaponLoop@{ weapon ->
@@ -500,7 +501,7 @@ class RenderSystem : IteratingSystem(FAMILY) {
 												range = FastMath.min(timeRange, dmg1Range.toLong())
 											}
 											is Railgun -> {
-												val ammoState = partStates[weapon][AmmunitionPartState::class]
+												val ammoState = partStates[weapon].ammunition
 												val munitionHull = ammoState.type as? SimpleMunitionHull
 												
 												if (munitionHull == null) {
@@ -511,7 +512,7 @@ class RenderSystem : IteratingSystem(FAMILY) {
 												range = projectileSpeed * timeToImpact
 											}
 											is MissileLauncher -> {
-												val ammoState = partStates[weapon][AmmunitionPartState::class]
+												val ammoState = partStates[weapon].ammunition
 												val advMunitionHull = ammoState.type!! as? AdvancedMunitionHull
 												
 												if (advMunitionHull == null) {
@@ -756,6 +757,20 @@ class RenderSystem : IteratingSystem(FAMILY) {
 			shapeRenderer.line(x, y, x2, y2)
 		}
 		
+		val salvos = shadowSystem.salvos
+		
+		for (slot in 0 until salvos.size) {
+			if (salvos.kinds[slot] == Salvos.LASER) {
+				
+				val x = (toKM(salvos.getX(slot, galaxy.time)) - cameraOffset.x).toFloat()
+				val y = (toKM(salvos.getY(slot, galaxy.time)) - cameraOffset.y).toFloat()
+				
+				tempF.set(10 * scale, 0f).rotateRad(MathUtils.PI + FastMath.atan2(salvos.velocityYs[slot].toDouble(), salvos.velocityXs[slot].toDouble()).toFloat()).add(x, y)
+				
+				shapeRenderer.line(x, y, tempF.x, tempF.y)
+			}
+		}
+		
 		shapeRenderer.end()
 		
 		shapeRenderer.begin(ShapeRenderer.ShapeType.Point)
@@ -770,6 +785,16 @@ class RenderSystem : IteratingSystem(FAMILY) {
 			shapeRenderer.point(x, y, 0f)
 		}
 		
+		for (slot in 0 until salvos.size) {
+			if (salvos.kinds[slot] == Salvos.RAILGUN) {
+				
+				val x = (toKM(salvos.getX(slot, galaxy.time)) - cameraOffset.x).toFloat()
+				val y = (toKM(salvos.getY(slot, galaxy.time)) - cameraOffset.y).toFloat()
+				
+				shapeRenderer.point(x, y, 0f)
+			}
+		}
+		
 		shapeRenderer.color = sRGBtoLinearRGB(Color.WHITE)
 		
 		missileSubscription.getEntities().forEachFast { entityID ->
@@ -835,8 +860,40 @@ class RenderSystem : IteratingSystem(FAMILY) {
 			}
 		}
 		
+		for (slot in 0 until salvos.size) {
+			if (salvos.isAlive(slot)) {
+				
+				val x = (toKM(salvos.interceptXs[slot]) - cameraOffset.x).toFloat()
+				val y = (toKM(salvos.interceptYs[slot]) - cameraOffset.y).toFloat()
+				
+				val radius = scale * STRATEGIC_ICON_SIZE / 3 + 4 * scale
+				val segments = getCircleSegments(radius, scale)
+
+				shapeRenderer.circle(x, y, radius, segments)
+			}
+		}
+		
 		shapeRenderer.end()
 	}
+	
+	private fun toKM(m: Long): Long = (m.sign * 500 + m) / 1000L
+
+	// Predicted movement is interpolated to galaxy time by the component
+	private fun getXinKM(store: MovementStore, entityID: Int): Long {
+		if (store.isLinear(entityID)) {
+			return store.getXinKM(entityID)
+		}
+		
+		return movementMapper.get(entityID).get(galaxy.time).value.getXinKM()
+	}
+	
+	private fun getYinKM(store: MovementStore, entityID: Int): Long {
+		if (store.isLinear(entityID)) {
+			return store.getYinKM(entityID)
+		}
+		
+		return movementMapper.get(entityID).get(galaxy.time).value.getYinKM()
+	}
 
 	fun inStrategicView(entityID: Int, scale: Float = this.scale): Boolean {
 
@@ -852,6 +909,7 @@ class RenderSystem : IteratingSystem(FAMILY) {
 		
 		val gData = gData()
 		val texture = gData.strategicIconTexture
+		val store = shadowSystem.movementStore
 		
 		spriteBatch.begin()
 
@@ -863,10 +921,9 @@ class RenderSystem : IteratingSystem(FAMILY) {
 				
 				if (baseTexture.texture !== texture) {
 				
-					val movement = movementMapper.get(entityID).get(galaxy.time).value
 					val tintComponent = if (tintMapper.has(entityID)) tintMapper.get(entityID) else null
-					var x = (movement.getXinKM() - cameraOffset.x).toFloat()
-					var y = (movement.getYinKM() - cameraOffset.y).toFloat()
+					var x = (getXinKM(store, entityID) - cameraOffset.x).toFloat()
+					var y = (getYinKM(store, entityID) - cameraOffset.y).toFloat()
 	
 					// https://github.com/libgdx/libgdx/wiki/Spritebatch%2C-Textureregions%2C-and-Sprites
 					spriteBatch.color = sRGBtoLinearRGB(tintComponent?.color ?: Color.WHITE);
@@ -947,9 +1004,8 @@ class RenderSystem : IteratingSystem(FAMILY) {
 				
 				if (baseTex.texture === texture) {
 				
-					val movement = movementMapper.get(entityID).get(galaxy.time).value
-					val x = (movement.getXinKM() - cameraOffset.x).toFloat()
-					val y = (movement.getYinKM() - cameraOffset.y).toFloat()
+					val x = (getXinKM(store, entityID) - cameraOffset.x).toFloat()
+					val y = (getYinKM(store, entityID) - cameraOffset.y).toFloat()
 					
 					//TODO fix rounding errors
 					// centerpoint correct with 7.5 but when ship is stopped size sometimes it becomes too large and fucks it
@@ -1208,7 +1264,7 @@ class RenderSystem : IteratingSystem(FAMILY) {
 				usedTargets.clear()
 
 				tcc.targetingComputers.forEachFast { tc ->
-					val tcState = partStates[tc][TargetingComputerState::class]
+					val tcState = partStates[tc].targetingComputer
 					val target = tcState.target
 
 					if (target != null && starSystem.isEntityReferenceValid(target) && usedTargets.add(target.entityID)) {
@@ -1259,9 +1315,9 @@ class RenderSystem : IteratingSystem(FAMILY) {
 					val x = (movementValues.getXinKM() - cameraOffset.x).toDouble()
 					val y = (movementValues.getYinKM() - cameraOffset.y).toDouble()
 
-					for (sensorEntry in detection.detections.entries) {
+					detection.detections.forEachFast { sensorDetections ->
 
-						val sensor = sensorEntry.key
+						val sensor = sensorDetections.sensor
 						val arcWidth = 360.0 / sensor.part.arcSegments
 
 						if (shapeRenderer.getCurrentType() == ShapeRenderer.ShapeType.Line) {
@@ -1302,23 +1358,16 @@ class RenderSystem : IteratingSystem(FAMILY) {
 							}
 						}
 
-						val angleSteps = sensorEntry.value
-
-						for (angleEntry in angleSteps.entries) {
-
-							val angleStep = angleEntry.key
-							val arcAngle = sensor.part.angleOffset + angleStep * arcWidth
+						for (i in 0 until sensorDetections.size) {
 
-							for (distanceEntry in angleEntry.value) {
+							val hit = sensorDetections[i]
+							val arcAngle = sensor.part.angleOffset + hit.angleStep * arcWidth
 
-								val distanceStep = distanceEntry.key
+							val minRadius = hit.distanceStep * sensor.part.distanceResolution
+							val maxRadius = minRadius + sensor.part.distanceResolution
+							val segments = FastMath.min(100, FastMath.max(3, getCircleSegments(maxRadius.toFloat(), scale) / 4))
 
-								val minRadius = distanceStep * sensor.part.distanceResolution
-								val maxRadius = minRadius + sensor.part.distanceResolution
-								val segments = FastMath.min(100, FastMath.max(3, getCircleSegments(maxRadius.toFloat(), scale) / 4))
-
-								shapeRenderer.scanCircleSector(x, y, maxRadius, minRadius, arcAngle, arcWidth, segments)
-							}
+							shapeRenderer.scanCircleSector(x, y, maxRadius, minRadius, arcAngle, arcWidth, segments)
 						}
 					}
 				}
@@ -1348,18 +1397,20 @@ class RenderSystem : IteratingSystem(FAMILY) {
 				
 				if (detection != null) {
 
-					for (sensorEntry in detection.detections.entries) {
-						for (angleEntry in sensorEntry.value.entries) {
-							for (distanceEntry in angleEntry.value) {
-								for (hitPosition in distanceEntry.value.hitPositions) {
+					detection.detections.forEachFast { sensorDetections ->
+						for (i in 0 until sensorDetections.size) {
+							val hit = sensorDetections[i]
+							
+							for (j in 0 until hit.entities.size()) {
+								val hitX = hit.getHitX(j)
+								val hitY = hit.getHitY(j)
 
-									val x = ((hitPosition.x.sign * 500 + hitPosition.x) / 1000L - cameraOffset.x).toFloat()
-									val y = ((hitPosition.y.sign * 500 + hitPosition.y) / 1000L - cameraOffset.y).toFloat()
+								val x = ((hitX.sign * 500 + hitX) / 1000L - cameraOffset.x).toFloat()
+								val y = ((hitY.sign * 500 + hitY) / 1000L - cameraOffset.y).toFloat()
 
-									val radius = 10 + 3 * scale
-									val segments = getCircleSegments(radius, scale)
-									shapeRenderer.circle(x, y, radius, segments)
-								}
+								val radius = 10 + 3 * scale
+								val segments = getCircleSegments(radius, scale)
+								shapeRenderer.circle(x, y, radius, segments)
 							}
 						}
 					}
@@ -1441,39 +1492,31 @@ class RenderSystem : IteratingSystem(FAMILY) {
 
 			val detection = detectionMapper.get(it)
 
-			for (sensorEntry in detection.detections.entries) {
+			detection.detections.forEachFast { sensorDetections ->
 
-				val sensor = sensorEntry.key
+				val sensor = sensorDetections.sensor
 				val arcWidth = 360.0 / sensor.part.arcSegments
 
-				val angleSteps = sensorEntry.value
-
-				for (angleEntry in angleSteps.entries) {
+				for (i in 0 until sensorDetections.size) {
 
-					val angleStep = angleEntry.key
-					val angle = sensor.part.angleOffset + angleStep * arcWidth + 0.5 * arcWidth
+					val hit = sensorDetections[i]
+					val angle = sensor.part.angleOffset + hit.angleStep * arcWidth + 0.5 * arcWidth
 
-					for (distanceEntry in angleEntry.value) {
-
-						val distanceStep = distanceEntry.key
-						val hit = distanceEntry.value
-
-						val minRadius = distanceStep * sensor.part.distanceResolution
-						val maxRadius = minRadius + sensor.part.distanceResolution
-						val radius = (minRadius + maxRadius) / 2
+					val minRadius = hit.distanceStep * sensor.part.distanceResolution
+					val maxRadius = minRadius + sensor.part.distanceResolution
+					val radius = (minRadius + maxRadius) / 2
 
-						val text = "${sensor.part.spectrum} ${String.format("%.2e", hit.signalStrength)} - ${sensor.part.name}"
+					val text = "${sensor.part.spectrum} ${String.format("%.2e", hit.signalStrength)} - ${sensor.part.name}"
 
-						val angleRad = FastMath.toRadians(angle)
-						val x = (sensorX + radius * FastMath.cos(angleRad)).toFloat()
-						val y = (sensorY + radius * FastMath.sin(angleRad)).toFloat()
+					val angleRad = FastMath.toRadians(angle)
+					val x = (sensorX + radius * FastMath.cos(angleRad)).toFloat()
+					val y = (sensorY + radius * FastMath.sin(angleRad)).toFloat()
 
-						screenPosition.set(x, y, 0f)
-						viewport.camera.project(screenPosition)
+					screenPosition.set(x, y, 0f)
+					viewport.camera.project(screenPosition)
 
-						font.color = sRGBtoLinearRGB(Color.GREEN)
-						font.draw(spriteBatch, text, screenPosition.x - text.length * font.spaceXadvance * .5f, screenPosition.y - textRow * font.lineHeight)
-					}
+					font.color = sRGBtoLinearRGB(Color.GREEN)
+					font.draw(spriteBatch, text, screenPosition.x - text.length * font.spaceXadvance * .5f, screenPosition.y - textRow * font.lineHeight)
 				}
 
 				textRow++
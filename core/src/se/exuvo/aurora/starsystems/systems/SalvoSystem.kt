@@ -0,0 +1,414 @@
+package se.exuvo.aurora.starsystems.systems
+
+import com.artemis.BaseSystem
+import com.artemis.ComponentMapper
+import com.artemis.annotations.Wire
+import com.artemis.utils.IntBag
+import org.apache.logging.log4j.LogManager
+import se.exuvo.aurora.galactic.BeamWeapon
+import se.exuvo.aurora.galactic.DamagePattern
+import se.exuvo.aurora.galactic.Empire
+import se.exuvo.aurora.galactic.SimpleMunitionHull
+import se.exuvo.aurora.starsystems.ScheduledSystem
+import se.exuvo.aurora.starsystems.StarSystem
+import se.exuvo.aurora.starsystems.components.HPComponent
+import se.exuvo.aurora.starsystems.components.LaserShotComponent
+import se.exuvo.aurora.starsystems.components.MovementValues
+import se.exuvo.aurora.starsystems.components.NameComponent
+import se.exuvo.aurora.starsystems.components.OnPredictedMovementComponent
+import se.exuvo.aurora.starsystems.components.RailgunShotComponent
+import se.exuvo.aurora.starsystems.components.RenderComponent
+import se.exuvo.aurora.starsystems.components.TimedLifeComponent
+import se.exuvo.aurora.starsystems.components.TimedMovementComponent
+import se.exuvo.aurora.utils.IntTimerWheel
+import se.exuvo.aurora.utils.Vector2L
+import se.exuvo.aurora.utils.forEachFast
+import java.util.Arrays
+
+/**
+ * Packed table of unguided laser and railgun shots in flight.
+ * Shots fired by the same ship at the same target in the same tick with identical trajectories share one salvo slot with a count.
+ */
+class Salvos {
+	companion object {
+		const val FREE: Byte = 0
+		const val LASER: Byte = 1
+		const val RAILGUN: Byte = 2
+	}
+
+	var capacity = 64
+		private set
+	var size = 0 // Slots in use including freed ones below the highest used slot
+		private set
+	var alive = 0
+		private set
+	var version = 0
+		private set
+
+	var kinds = ByteArray(capacity)
+		private set
+	var counts = IntArray(capacity)
+		private set
+	var targetIDs = IntArray(capacity)
+		private set
+	var launchTimes = LongArray(capacity)
+		private set
+	var arrivalTimes = LongArray(capacity)
+		private set
+	var launchXs = LongArray(capacity) // in m
+		private set
+	var launchYs = LongArray(capacity)
+		private set
+	var interceptXs = LongArray(capacity)
+		private set
+	var interceptYs = LongArray(capacity)
+		private set
+	var velocityXs = LongArray(capacity) // in cm/s
+		private set
+	var velocityYs = LongArray(capacity)
+		private set
+	var damages = LongArray(capacity) // Laser J per 1m² at hit distance
+		private set
+	var beamAreas = LongArray(capacity) // Laser cm²
+		private set
+	var owners = arrayOfNulls<Empire>(capacity)
+		private set
+	var weapons = arrayOfNulls<BeamWeapon>(capacity)
+		private set
+	var hulls = arrayOfNulls<SimpleMunitionHull>(capacity)
+		private set
+
+	private val freeSlots = IntBag()
+
+	fun isAlive(slot: Int) = kinds[slot] != FREE
+
+	fun getX(slot: Int, time: Long): Long = launchXs[slot] + (velocityXs[slot] * (time - launchTimes[slot])) / 100
+	fun getY(slot: Int, time: Long): Long = launchYs[slot] + (velocityYs[slot] * (time - launchTimes[slot])) / 100
+
+	fun allocate(): Int {
+		version++
+		alive++
+
+		if (!freeSlots.isEmpty) {
+			return freeSlots.removeLast()
+		}
+
+		if (size == capacity) {
+			grow(2 * capacity)
+		}
+
+		return size++
+	}
+
+	fun set(slot: Int, kind: Byte, owner: Empire, targetID: Int, launchTime: Long, arrivalTime: Long,
+	        launchPosition: Vector2L, interceptPosition: Vector2L, velocity: Vector2L) {
+		kinds[slot] = kind
+		counts[slot] = 1
+		owners[slot] = owner
+		targetIDs[slot] = targetID
+		launchTimes[slot] = launchTime
+		arrivalTimes[slot] = arrivalTime
+		launchXs[slot] = launchPosition.x
+		launchYs[slot] = launchPosition.y
+		interceptXs[slot] = interceptPosition.x
+		interceptYs[slot] = interceptPosition.y
+		velocityXs[slot] = velocity.x
+		velocityYs[slot] = velocity.y
+		damages[slot] = 0
+		beamAreas[slot] = 0
+		weapons[slot] = null
+		hulls[slot] = null
+	}
+
+	fun addShot(slot: Int) {
+		counts[slot]++
+		version++
+	}
+
+	fun free(slot: Int) {
+		kinds[slot] = FREE
+		owners[slot] = null
+		weapons[slot] = null
+		hulls[slot] = null
+		alive--
+		version++
+
+		if (slot == size - 1) {
+			size--
+		} else {
+			freeSlots.add(slot)
+		}
+	}
+
+	fun clear() {
+		Arrays.fill(kinds, 0, size, FREE)
+		Arrays.fill(owners, 0, size, null)
+		Arrays.fill(weapons, 0, size, null)
+		Arrays.fill(hulls, 0, size, null)
+		freeSlots.setSize(0)
+		size = 0
+		alive = 0
+		version++
+	}
+
+	/**
+	 * Copies all slots of other to this, slot numbers are preserved
+	 */
+	fun set(other: Salvos) {
+		if (version == other.version && size == other.size && alive == other.alive) {
+			return
+		}
+
+		if (capacity < other.capacity) {
+			grow(other.capacity)
+		}
+
+		val size = other.size
+		System.arraycopy(other.kinds, 0, kinds, 0, size)
+		System.arraycopy(other.counts, 0, counts, 0, size)
+		System.arraycopy(other.targetIDs, 0, targetIDs, 0, size)
+		System.arraycopy(other.launchTimes, 0, launchTimes, 0, size)
+		System.arraycopy(other.arrivalTimes, 0, arrivalTimes, 0, size)
+		System.arraycopy(other.launchXs, 0, launchXs, 0, size)
+		System.arraycopy(other.launchYs, 0, launchYs, 0, size)
+		System.arraycopy(other.interceptXs, 0, interceptXs, 0, size)
+		System.arraycopy(other.interceptYs, 0, interceptYs, 0, size)
+		System.arraycopy(other.velocityXs, 0, velocityXs, 0, size)
+		System.arraycopy(other.velocityYs, 0, velocityYs, 0, size)
+		System.arraycopy(other.damages, 0, damages, 0, size)
+		System.arraycopy(other.beamAreas, 0, beamAreas, 0, size)
+		System.arraycopy(other.owners, 0, owners, 0, size)
+		System.arraycopy(other.weapons, 0, weapons, 0, size)
+		System.arraycopy(other.hulls, 0, hulls, 0, size)
+
+		if (this.size > size) {
+			Arrays.fill(kinds, size, this.size, FREE)
+			Arrays.fill(owners, size, this.size, null)
+			Arrays.fill(weapons, size, this.size, null)
+			Arrays.fill(hulls, size, this.size, null)
+		}
+
+		freeSlots.setSize(0)
+		freeSlots.addAll(other.freeSlots)
+		this.size = size
+		alive = other.alive
+		version = other.version
+	}
+
+	private fun grow(newCapacity: Int) {
+		capacity = newCapacity
+		kinds = kinds.copyOf(newCapacity)
+		counts = counts.copyOf(newCapacity)
+		targetIDs = targetIDs.copyOf(newCapacity)
+		launchTimes = launchTimes.copyOf(newCapacity)
+		arrivalTimes = arrivalTimes.copyOf(newCapacity)
+		launchXs = launchXs.copyOf(newCapacity)
+		launchYs = launchYs.copyOf(newCapacity)
+		interceptXs = interceptXs.copyOf(newCapacity)
+		interceptYs = interceptYs.copyOf(newCapacity)
+		velocityXs = velocityXs.copyOf(newCapacity)
+		velocityYs = velocityYs.copyOf(newCapacity)
+		damages = damages.copyOf(newCapacity)
+		beamAreas = beamAreas.copyOf(newCapacity)
+		owners = owners.copyOf(newCapacity)
+		weapons = weapons.copyOf(newCapacity)
+		hulls = hulls.copyOf(newCapacity)
+	}
+}
+
+/**
+ * Flies unguided laser and railgun shots without creating entities for them.
+ * Impacts are resolved in arrival order through [WeaponSystem.munitionImpact], shots only become entities through [materialize].
+ */
+class SalvoSystem : BaseSystem(), ScheduledSystem {
+	companion object {
+		@JvmField val log = LogManager.getLogger(SalvoSystem::class.java)
+	}
+
+	@Wire
+	lateinit private var starSystem: StarSystem
+	lateinit private var weaponSystem: WeaponSystem
+
+	lateinit private var renderMapper: ComponentMapper<RenderComponent>
+	lateinit private var nameMapper: ComponentMapper<NameComponent>
+	lateinit private var laserShotMapper: ComponentMapper<LaserShotComponent>
+	lateinit private var railgunShotMapper: ComponentMapper<RailgunShotComponent>
+	lateinit private var hpMapper: ComponentMapper<HPComponent>
+	lateinit private var movementMapper: ComponentMapper<TimedMovementComponent>
+	lateinit private var timedLifeMapper: ComponentMapper<TimedLifeComponent>
+	lateinit private var predictedMovementMapper: ComponentMapper<OnPredictedMovementComponent>
+
+	val salvos = Salvos()
+
+	private val queue = IntTimerWheel()
+	private val arrived = IntBag()
+	private var lastSlotByTarget = IntArray(64) // Salvo to merge new shots into, -1 if none
+	private val tmpPosition = Vector2L()
+	private val tmpVelocity = Vector2L()
+
+	init {
+		Arrays.fill(lastSlotByTarget, -1)
+	}
+
+	fun addLaser(owner: Empire, weapon: BeamWeapon, targetID: Int, damage: Long, beamArea: Double,
+	             launchPosition: Vector2L, interceptPosition: Vector2L, velocity: Vector2L, arrivalTime: Long) {
+		val beamAreaCm = (1000000 * beamArea).toLong()
+		val last = getLastSlot(targetID)
+
+		if (last != -1 && salvos.kinds[last] == Salvos.LASER && salvos.weapons[last] === weapon && salvos.damages[last] == damage && salvos.beamAreas[last] == beamAreaCm
+				&& isSameTrajectory(last, owner, arrivalTime, launchPosition, velocity)) {
+			salvos.addShot(last)
+			return
+		}
+
+		val slot = add(Salvos.LASER, owner, targetID, launchPosition, interceptPosition, velocity, arrivalTime)
+		salvos.weapons[slot] = weapon
+		salvos.damages[slot] = damage
+		salvos.beamAreas[slot] = beamAreaCm
+	}
+
+	fun addRailgun(owner: Empire, hull: SimpleMunitionHull, targetID: Int,
+	               launchPosition: Vector2L, interceptPosition: Vector2L, velocity: Vector2L, arrivalTime: Long) {
+		val last = getLastSlot(targetID)
+
+		if (last != -1 && salvos.kinds[last] == Salvos.RAILGUN && salvos.hulls[last] === hull && isSameTrajectory(last, owner, arrivalTime, launchPosition, velocity)) {
+			salvos.addShot(last)
+			return
+		}
+
+		val slot = add(Salvos.RAILGUN, owner, targetID, launchPosition, interceptPosition, velocity, arrivalTime)
+		salvos.hulls[slot] = hull
+	}
+
+	private fun getLastSlot(targetID: Int): Int {
+		if (targetID >= lastSlotByTarget.size) {
+			val oldSize = lastSlotByTarget.size
+			lastSlotByTarget = lastSlotByTarget.copyOf(maxOf(2 * oldSize, targetID + 1))
+			Arrays.fill(lastSlotByTarget, oldSize, lastSlotByTarget.size, -1)
+		}
+
+		return lastSlotByTarget[targetID]
+	}
+
+	private fun isSameTrajectory(slot: Int, owner: Empire, arrivalTime: Long, launchPosition: Vector2L, velocity: Vector2L): Boolean {
+		return salvos.launchTimes[slot] == starSystem.time && salvos.arrivalTimes[slot] == arrivalTime && salvos.owners[slot] === owner
+				&& salvos.launchXs[slot] == launchPosition.x && salvos.launchYs[slot] == launchPosition.y
+				&& salvos.velocityXs[slot] == velocity.x && salvos.velocityYs[slot] == velocity.y
+	}
+
+	private fun add(kind: Byte, owner: Empire, targetID: Int, launchPosition: Vector2L, interceptPosition: Vector2L, velocity: Vector2L, arrivalTime: Long): Int {
+		val slot = salvos.allocate()
+		salvos.set(slot, kind, owner, targetID, starSystem.time, arrivalTime, launchPosition, interceptPosition, velocity)
+		lastSlotByTarget[targetID] = slot
+		queue.schedule(slot, arrivalTime)
+		return slot
+	}
+
+	private fun remove(slot: Int) {
+		val targetID = salvos.targetIDs[slot]
+
+		if (lastSlotByTarget[targetID] == slot) {
+			lastSlotByTarget[targetID] = -1
+		}
+
+		queue.remove(slot)
+		salvos.free(slot)
+	}
+
+	/**
+	 * Replaces all salvos in flight, used when loading a savegame
+	 */
+	fun restore(loaded: Salvos) {
+		salvos.set(loaded)
+		queue.clear()
+		Arrays.fill(lastSlotByTarget, -1)
+
+		for (slot in 0 until salvos.size) {
+			if (salvos.isAlive(slot)) {
+				queue.schedule(slot, salvos.arrivalTimes[slot])
+			}
+		}
+	}
+
+	/**
+	 * Replaces a salvo with one entity per shot, for when shots need guidance or to be selectable
+	 */
+	fun materialize(slot: Int, result: IntBag): IntBag {
+		if (!salvos.isAlive(slot)) {
+			throw IllegalArgumentException("Salvo $slot is not in flight")
+		}
+
+		val time = starSystem.time
+		val position = tmpPosition.set(salvos.getX(slot, time), salvos.getY(slot, time))
+		val velocity = tmpVelocity.set(salvos.velocityXs[slot], salvos.velocityYs[slot])
+		val interceptPosition = Vector2L(salvos.interceptXs[slot], salvos.interceptYs[slot])
+		val arrivalTime = salvos.arrivalTimes[slot]
+
+		repeat(salvos.counts[slot]) {
+			val entityID = starSystem.createEntity(salvos.owners[slot]!!)
+			renderMapper.create(entityID)
+
+			if (salvos.kinds[slot] == Salvos.LASER) {
+				nameMapper.create(entityID).set(name = salvos.weapons[slot]!!.name + " laser")
+				val laserShot = laserShotMapper.create(entityID)
+				laserShot.targetEntityID = salvos.targetIDs[slot]
+				laserShot.damage = salvos.damages[slot]
+				laserShot.beamArea = salvos.beamAreas[slot]
+
+			} else {
+				val hull = salvos.hulls[slot]!!
+				nameMapper.create(entityID).set(name = hull.name)
+				railgunShotMapper.create(entityID).set(salvos.targetIDs[slot], hull)
+				hpMapper.create(entityID).set(1)
+			}
+
+			val movement = movementMapper.create(entityID)
+			movement.set(position, velocity, Vector2L.Zero, time)
+			movement.setPredictionCoast(MovementValues(interceptPosition.cpy(), velocity.cpy(), Vector2L()), interceptPosition.cpy(), arrivalTime)
+
+			timedLifeMapper.create(entityID).endTime = arrivalTime
+			predictedMovementMapper.create(entityID)
+
+			result.add(entityID)
+		}
+
+		remove(slot)
+		return result
+	}
+
+	override fun getNextEventTime(): Long {
+		return queue.getNextDeadline()
+	}
+
+	override fun processSystem() {
+		arrived.setSize(0)
+		queue.pollExpired(starSystem.time, arrived)
+
+		val entityManager = world.entityManager
+
+		arrived.forEachFast { slot ->
+			val targetID = salvos.targetIDs[slot]
+
+			if (entityManager.isActive(targetID)) {
+				val position = tmpPosition.set(salvos.interceptXs[slot], salvos.interceptYs[slot])
+				val velocity = tmpVelocity.set(salvos.velocityXs[slot], salvos.velocityYs[slot])
+
+				if (salvos.kinds[slot] == Salvos.LASER) {
+					repeat(salvos.counts[slot]) {
+						weaponSystem.munitionImpact(targetID, position, velocity, DamagePattern.LASER, salvos.damages[slot], 0)
+					}
+
+				} else {
+					val hull = salvos.hulls[slot]!!
+					val damagePattern = if (hull.damage > 0) DamagePattern.EXPLOSIVE else DamagePattern.KINETIC
+
+					repeat(salvos.counts[slot]) {
+						weaponSystem.munitionImpact(targetID, position, velocity, damagePattern, hull.damage, hull.loadedMass)
+					}
+				}
+			}
+
+			remove(slot)
+		}
+	}
+}
@@ -4,33 +4,45 @@ import com.artemis.Aspect
 import com.artemis.ComponentMapper
 import com.artemis.EntitySubscription
 import com.artemis.EntitySubscription.SubscriptionListener
+import com.artemis.utils.Bag
 import com.artemis.utils.IntBag
+import com.badlogic.gdx.math.RandomXS128
 import net.mostlyoriginal.api.event.common.EventSystem
 import org.apache.logging.log4j.LogManager
 import se.exuvo.aurora.galactic.PartRef
 import se.exuvo.aurora.galactic.PassiveSensor
 import se.exuvo.aurora.starsystems.components.DetectionComponent
-import se.exuvo.aurora.starsystems.components.DetectionHit
 import se.exuvo.aurora.starsystems.components.EmissionsComponent
 import se.exuvo.aurora.starsystems.components.EmpireComponent
 import se.exuvo.aurora.starsystems.components.PassiveSensorState
 import se.exuvo.aurora.starsystems.components.PassiveSensorsComponent
 import se.exuvo.aurora.starsystems.components.PoweredPartState
+import se.exuvo.aurora.starsystems.components.SensorDetections
 import se.exuvo.aurora.starsystems.components.ShipComponent
+import se.exuvo.aurora.starsystems.components.SpatialPartitioningComponent
+import se.exuvo.aurora.starsystems.components.SpatialPartitioningPlanetoidsComponent
+import se.exuvo.aurora.starsystems.components.Spectrum
 import se.exuvo.aurora.starsystems.components.TimedMovementComponent
 import se.exuvo.aurora.starsystems.components.UUIDComponent
 import se.exuvo.aurora.utils.Vector2L
 import se.exuvo.aurora.utils.forEachFast
 import org.apache.commons.math3.util.FastMath
 import se.exuvo.aurora.starsystems.StarSystem
+import se.exuvo.aurora.starsystems.ParallelSystem
 import com.artemis.annotations.Wire
 import se.exuvo.aurora.starsystems.components.PartStatesComponent
 
-class PassiveSensorSystem : GalaxyTimeIntervalIteratingSystem(FAMILY, 10) {
+class PassiveSensorSystem : GalaxyTimeIntervalIteratingSystem(FAMILY, 10), ParallelSystem {
 	companion object {
 		@JvmField val FAMILY = Aspect.all(PassiveSensorsComponent::class.java)
 		@JvmField val SHIP_ASPECT = Aspect.all(ShipComponent::class.java)
 		@JvmField val EMISSION_FAMILY = Aspect.all(EmissionsComponent::class.java)
+		
+		// Seconds a position in each spatial partitioning tree may be old.
+		// Moving ships are re-inserted every 10 s but still ships that can accelerate only every 60 s, moving planetoids every 600 s
+		const val SHIPS_PARTITIONING_AGE = SpatialPartitioningSystem.ACCELERATING_UPDATE_INTERVAL
+		const val PLANETOIDS_PARTITIONING_AGE = SpatialPartitioningPlanetoidsSystem.UPDATE_INTERVAL
+		@JvmField val MAX_QUERY_RADIUS = (SpatialPartitioningSystem.SCALE * SpatialPartitioningSystem.MAX.toLong()) / 4
 	}
 
 	val log = LogManager.getLogger(this.javaClass)
@@ -43,6 +55,12 @@ class PassiveSensorSystem : GalaxyTimeIntervalIteratingSystem(FAMILY, 10) {
 	lateinit private var shipMapper: ComponentMapper<ShipComponent>
 	lateinit private var uuidMapper: ComponentMapper<UUIDComponent>
 	lateinit private var partStatesMapper: ComponentMapper<PartStatesComponent>
+	lateinit private var spatialPartitioningMapper: ComponentMapper<SpatialPartitioningComponent>
+	lateinit private var spatialPartitioningPlanetoidsMapper: ComponentMapper<SpatialPartitioningPlanetoidsComponent>
+	
+	lateinit private var movementSystem: MovementSystem
+	lateinit private var spatialPartitioningSystem: SpatialPartitioningSystem
+	lateinit private var spatialPartitioningPlanetoidsSystem: SpatialPartitioningPlanetoidsSystem
 	
 	lateinit private var emissionsSubscription: EntitySubscription
 	lateinit private var events: EventSystem
@@ -53,7 +71,27 @@ class PassiveSensorSystem : GalaxyTimeIntervalIteratingSystem(FAMILY, 10) {
 	var emitters: List<Emitter> = emptyList()
 	var emissionFamilyChanged = true
 	
+	private val emittersByEntityID = Bag<Emitter>()
+	private val unpartitionedEmitters = ArrayList<Emitter>()
+	private val maxEmissions = DoubleArray(Spectrum.values().size)
+	private var shipsPartitioningMargin = 0L
+	private var planetoidsPartitioningMargin = 0L
+	
+	// Detections of entities without a DetectionComponent, copied to a new component if anything was detected
+	private val newDetections = DetectionComponent()
+	
+	// Detection components to add or remove in processDeferred
+	private val addedDetectionIDs = IntBag()
+	private val addedDetections = Bag<DetectionComponent>()
+	private val spareDetections = Bag<DetectionComponent>()
+	private val removedDetectionIDs = IntBag()
+	
+	private val tempOffset = Vector2L()
+	private val random = RandomXS128() // Own as process() may run concurrently with other systems
+	private val tempHitPosition = Vector2L()
+	
 	override fun initialize() {
+		super.initialize()
 		emissionsSubscription = world.getAspectSubscriptionManager().get(EMISSION_FAMILY)
 		emissionsSubscription.addSubscriptionListener(object : SubscriptionListener {
 			override fun inserted(entities: IntBag) {
@@ -82,7 +120,7 @@ class PassiveSensorSystem : GalaxyTimeIntervalIteratingSystem(FAMILY, 10) {
 
 							sensors.forEachFast { sensor ->
 								if (partStates.isPartEnabled(sensor)) {
-									val poweredState = partStates[sensor][PoweredPartState::class]
+									val poweredState = partStates[sensor].powered
 									poweredState.requestedPower = sensor.part.powerConsumption
 									starSystem.changed(entityID, shipMapper)
 								}
@@ -104,6 +142,8 @@ class PassiveSensorSystem : GalaxyTimeIntervalIteratingSystem(FAMILY, 10) {
 
 			val emissionEntities = emissionsSubscription.getEntities()
 
+			emittersByEntityID.clear()
+			
 			if (emissionEntities.size() == 0) {
 
 				emitters = emptyList()
@@ -114,27 +154,76 @@ class PassiveSensorSystem : GalaxyTimeIntervalIteratingSystem(FAMILY, 10) {
 
 				emissionEntities.forEachFast { entityID ->
 					var emissions = emissionsMapper.get(entityID)
-					var position = movementMapper.get(entityID).get(galaxy.time).value.position
+					var position = movementMapper.get(entityID).get(starSystem.time).value.position
 
-					tempEmitters.add(Emitter(entityID, position, emissions))
+					val emitter = Emitter(entityID, position, emissions)
+					tempEmitters.add(emitter)
+					emittersByEntityID.set(entityID, emitter)
 				}
 
 				emitters = tempEmitters
 			}
 		}
+		
+		// Bounds used to limit sensor scans to nearby emitters
+		maxEmissions.fill(0.0)
+		unpartitionedEmitters.clear()
+		var maxShipsSpeed = 0.0
+		var maxPlanetoidsSpeed = 0.0
+		val store = movementSystem.store
+		
+		for (emitter in emitters) {
+			for ((spectrum, emission) in emitter.emissions.emissions) {
+				if (emission > maxEmissions[spectrum.ordinal]) {
+					maxEmissions[spectrum.ordinal] = emission
+				}
+			}
+			
+			if (spatialPartitioningMapper.has(emitter.entityID)) {
+				val speed = getSpeed(store, emitter.entityID)
+				
+				if (speed > maxShipsSpeed) {
+					maxShipsSpeed = speed
+				}
+				
+			} else if (spatialPartitioningPlanetoidsMapper.has(emitter.entityID)) {
+				val speed = getSpeed(store, emitter.entityID)
+				
+				if (speed > maxPlanetoidsSpeed) {
+					maxPlanetoidsSpeed = speed
+				}
+				
+			} else {
+				unpartitionedEmitters.add(emitter)
+			}
+		}
+		
+		// velocity is in cm/s. Partitioning runs after this system so tree entries can also be one step more out of date
+		val deltaGameTime = world.getDelta().toLong()
+		shipsPartitioningMargin = (maxShipsSpeed * (SHIPS_PARTITIONING_AGE + deltaGameTime) / 100).toLong() + 2 * SpatialPartitioningSystem.SCALE
+		planetoidsPartitioningMargin = (maxPlanetoidsSpeed * (PLANETOIDS_PARTITIONING_AGE + deltaGameTime) / 100).toLong() + 2 * SpatialPartitioningPlanetoidsSystem.SCALE
+	}
+
+	private fun getSpeed(store: MovementStore, entityID: Int): Double {
+		if (store.isLinear(entityID)) {
+			return store.getSpeed(entityID)
+		}
+		
+		return movementMapper.get(entityID).get(starSystem.time).value.velocity.len()
 	}
 
 	override fun process(entityID: Int) {
 		
 		val partStates = partStatesMapper.get(entityID)
 		val movement = movementMapper.get(entityID)
-		val sensorPosition = movement.get(galaxy.time).value.position
+		val sensorPosition = movement.get(starSystem.time).value.position
 		val owner = ownerMapper.get(entityID)
 
 		val sensors = sensorsMapper.get(entityID).sensors
-		var detectionComponent = detectionMapper.get(entityID)
-
-		val detections = HashMap<PartRef<PassiveSensor>, HashMap<Int, HashMap<Int, DetectionHit>>>()
+		val existingDetectionComponent = detectionMapper.get(entityID)
+		val detectionComponent = existingDetectionComponent ?: newDetections
+		
+		detectionComponent.beginUpdate()
 
 		for (sensor in sensors) {
 
@@ -142,7 +231,7 @@ class PassiveSensorSystem : GalaxyTimeIntervalIteratingSystem(FAMILY, 10) {
 				continue
 			}
 
-			val poweredState = partStates[sensor][PoweredPartState::class]
+			val poweredState = partStates[sensor].powered
 
 			if (poweredState.givenPower == 0L) {
 				continue
@@ -150,120 +239,172 @@ class PassiveSensorSystem : GalaxyTimeIntervalIteratingSystem(FAMILY, 10) {
 
 			val powerRatio = poweredState.givenPower / poweredState.requestedPower.toDouble()
 
-			val sensorState = partStates[sensor][PassiveSensorState::class]
+			val sensorState = partStates[sensor].passiveSensor
 
-			if (galaxy.time >= sensorState.lastScan + sensor.part.refreshDelay) {
-				sensorState.lastScan = galaxy.time
+			if (starSystem.time >= sensorState.lastScan + sensor.part.refreshDelay) {
+				sensorState.lastScan = starSystem.time
 				starSystem.changed(entityID, partStatesMapper)
 
-				val arcWidth = 360.0 / sensor.part.arcSegments
-
-				for (emitter in emitters) {
-
-					if (emitter.entityID == entityID) {
-						continue
+				val sensorDetections = detectionComponent.reset(sensor)
+				val maxEmission = maxEmissions[sensor.part.spectrum.ordinal]
+				
+				if (maxEmission > 0) {
+					// signalStrength * powerRatio >= sensitivity solved for distance
+					val maxRangeInKM = 2 * FastMath.sqrt(maxEmission * powerRatio / (4 * FastMath.PI * sensor.part.sensitivity))
+					val shipsRange = maxRangeInKM * 1000 + shipsPartitioningMargin
+					val planetoidsRange = maxRangeInKM * 1000 + planetoidsPartitioningMargin
+					
+					if (shipsRange.isNaN() || shipsRange >= MAX_QUERY_RADIUS || planetoidsRange >= MAX_QUERY_RADIUS) {
+						
+						for (emitter in emitters) {
+							detect(entityID, owner, sensor, sensorPosition, powerRatio, emitter, sensorDetections)
+						}
+						
+					} else {
+						
+						val shipsRadius = shipsRange.toLong()
+						
+						SpatialPartitioningSystem.query(spatialPartitioningSystem.tree, sensorPosition.x - shipsRadius, sensorPosition.y - shipsRadius,
+						                                sensorPosition.x + shipsRadius, sensorPosition.y + shipsRadius).forEachFast { emitterID ->
+							val emitter = emittersByEntityID.safeGet(emitterID)
+							
+							if (emitter != null) {
+								detect(entityID, owner, sensor, sensorPosition, powerRatio, emitter, sensorDetections)
+							}
+						}
+						
+						val planetoidsRadius = planetoidsRange.toLong()
+						
+						SpatialPartitioningPlanetoidsSystem.query(spatialPartitioningPlanetoidsSystem.tree, sensorPosition.x - planetoidsRadius, sensorPosition.y - planetoidsRadius,
+						                                          sensorPosition.x + planetoidsRadius, sensorPosition.y + planetoidsRadius).forEachFast { emitterID ->
+							val emitter = emittersByEntityID.safeGet(emitterID)
+							
+							if (emitter != null) {
+								detect(entityID, owner, sensor, sensorPosition, powerRatio, emitter, sensorDetections)
+							}
+						}
+						
+						for (emitter in unpartitionedEmitters) {
+							detect(entityID, owner, sensor, sensorPosition, powerRatio, emitter, sensorDetections)
+						}
 					}
+				}
 
-					if (owner != null && ownerMapper.has(emitter.entityID) && owner.empire == ownerMapper.get(emitter.entityID).empire) {
-						continue
-					}
+			} else {
 
-					var emitterPosition = emitter.position
-					val emission = emitter.emissions.emissions[sensor.part.spectrum];
+				detectionComponent.keep(sensor)
+			}
+		}
+		
+		detectionComponent.removeOutdated()
 
-					if (emission != null) {
+		if (detectionComponent.detections.isEmpty()) {
 
-						val trueDistanceInKM: Double = sensorPosition.dst(emitterPosition) / 1000
+			if (existingDetectionComponent != null) {
+				removedDetectionIDs.add(entityID)
+			}
 
-						// https://en.wikipedia.org/wiki/Inverse-square_law
-						val signalStrength = emission / (4 * FastMath.PI * FastMath.pow(trueDistanceInKM / 2, 2.0))
+		} else {
 
-						if (signalStrength * powerRatio >= sensor.part.sensitivity) {
+			if (existingDetectionComponent == null) {
+				val detections = if (spareDetections.isEmpty()) DetectionComponent() else spareDetections.removeLast()
+				newDetections.copy(detections)
+				addedDetectionIDs.add(entityID)
+				addedDetections.add(detections)
+				
+				newDetections.beginUpdate()
+				newDetections.removeOutdated()
+			}
 
-							if (sensor.part.accuracy != 1.0) {
-								val temp = emitterPosition.cpy().sub(sensorPosition)
-								temp.set(temp.len().toLong(), 0).scl(starSystem.random.nextDouble() * (1 - sensor.part.accuracy))
+			starSystem.changed(entityID, detectionMapper)
+		}
+	}
 
-								if (shipMapper.has(emitter.entityID)) {
-									val hash = 37 * shipMapper.get(emitter.entityID).hull.hashCode() + sensor.hashCode()
-//									println("hash $hash, uuid ${uuidMapper.get(emitter.entity).uuid.dispersedHash}, sensor ${sensor.hashCode()}")
-									temp.rotate((hash % 360).toFloat())
+	override fun processDeferred() {
+		
+		removedDetectionIDs.forEachFast { entityID ->
+			detectionMapper.remove(entityID)
+		}
+		
+		removedDetectionIDs.clear()
+		
+		addedDetections.forEachFast { i, detections ->
+			detections.copy(detectionMapper.create(addedDetectionIDs[i]))
+			detections.beginUpdate()
+			detections.removeOutdated()
+			spareDetections.add(detections)
+		}
+		
+		addedDetectionIDs.clear()
+		addedDetections.clear()
+	}
 
-								} else if (uuidMapper.has(emitter.entityID)) {
-									val hash = 37 * uuidMapper.get(emitter.entityID).uuid.dispersedHash + sensor.hashCode()
-//									println("hash $hash, uuid ${uuidMapper.get(emitter.entity).uuid.dispersedHash}, sensor ${sensor.hashCode()}")
-									temp.rotate((hash % 360).toFloat())
+	override fun getReadMappers() = arrayOf<ComponentMapper<*>>(movementMapper, sensorsMapper, emissionsMapper, ownerMapper, shipMapper, uuidMapper,
+	                                                            spatialPartitioningMapper, spatialPartitioningPlanetoidsMapper)
+	
+	override fun getWriteMappers() = arrayOf<ComponentMapper<*>>(partStatesMapper, detectionMapper)
 
+	private fun detect(entityID: Int, owner: EmpireComponent?, sensor: PartRef<PassiveSensor>, sensorPosition: Vector2L, powerRatio: Double, emitter: Emitter, sensorDetections: SensorDetections) {
+		
+		if (emitter.entityID == entityID) {
+			return
+		}
 
-								} else {
-									temp.rotateRad(2 * FastMath.PI * starSystem.random.nextDouble())
-								}
+		if (owner != null && ownerMapper.has(emitter.entityID) && owner.empire == ownerMapper.get(emitter.entityID).empire) {
+			return
+		}
 
-								emitterPosition = emitterPosition.cpy().add(temp)
-							}
+		val emitterPosition = emitter.position
+		val emission = emitter.emissions.emissions[sensor.part.spectrum];
 
-							val distanceInKM: Double = sensorPosition.dst(emitterPosition) / 1000
-							val targetAngle = sensorPosition.angleTo(emitterPosition)
+		if (emission != null) {
 
-							val arcAngleStep = FastMath.floor((targetAngle - sensor.part.angleOffset) / arcWidth).toInt()
-							val distanceStep = FastMath.floor(distanceInKM / sensor.part.distanceResolution).toInt()
+			val trueDistanceInKM: Double = sensorPosition.dst(emitterPosition) / 1000
 
-							var angleSteps: HashMap<Int, HashMap<Int, DetectionHit>>? = detections[sensor]
+			// https://en.wikipedia.org/wiki/Inverse-square_law
+			val signalStrength = emission / (4 * FastMath.PI * FastMath.pow(trueDistanceInKM / 2, 2.0))
 
-							if (angleSteps == null) {
-								angleSteps = HashMap<Int, HashMap<Int, DetectionHit>>()
-								detections[sensor] = angleSteps
-							}
+			if (signalStrength * powerRatio >= sensor.part.sensitivity) {
 
-							var distanceSteps: HashMap<Int, DetectionHit>? = angleSteps[arcAngleStep]
+				var hitX = emitterPosition.x
+				var hitY = emitterPosition.y
+				
+				if (sensor.part.accuracy != 1.0) {
+					val temp = tempOffset.set(emitterPosition).sub(sensorPosition)
+					temp.set(temp.len().toLong(), 0).scl(random.nextDouble() * (1 - sensor.part.accuracy))
 
-							if (distanceSteps == null) {
-								distanceSteps = HashMap<Int, DetectionHit>()
-								angleSteps[arcAngleStep] = distanceSteps
-							}
+					if (shipMapper.has(emitter.entityID)) {
+						val hash = 37 * shipMapper.get(emitter.entityID).hull.hashCode() + sensor.hashCode()
+//						println("hash $hash, uuid ${uuidMapper.get(emitter.entity).uuid.dispersedHash}, sensor ${sensor.hashCode()}")
+						temp.rotate((hash % 360).toFloat())
 
-							var detectionHit: DetectionHit? = distanceSteps[distanceStep]
+					} else if (uuidMapper.has(emitter.entityID)) {
+						val hash = 37 * uuidMapper.get(emitter.entityID).uuid.dispersedHash + sensor.hashCode()
+//						println("hash $hash, uuid ${uuidMapper.get(emitter.entity).uuid.dispersedHash}, sensor ${sensor.hashCode()}")
+						temp.rotate((hash % 360).toFloat())
 
-							if (detectionHit == null) {
-								detectionHit = DetectionHit(0.0, ArrayList<Int>(), ArrayList<Vector2L>())
-								distanceSteps[distanceStep] = detectionHit
-							}
 
-							detectionHit.signalStrength += signalStrength
-							detectionHit.entities.add(emitter.entityID)
-							detectionHit.hitPositions.add(emitterPosition)
-						}
+					} else {
+						temp.rotateRad(2 * FastMath.PI * random.nextDouble())
 					}
-				}
-
-			} else {
-
-				if (detectionComponent != null) {
-
-					val previousDetection = detectionComponent.detections[sensor]
 
-					if (previousDetection != null) {
-						@Suppress("UNCHECKED_CAST")
-						detections[sensor] = previousDetection as HashMap<Int, HashMap<Int, DetectionHit>>
-					}
+					hitX += temp.x
+					hitY += temp.y
 				}
-			}
-		}
+				
+				val hitPosition = tempHitPosition.set(hitX, hitY)
 
-		if (detections.isEmpty()) {
-
-			if (detectionComponent != null) {
-				detectionMapper.remove(entityID)
-			}
+				val arcWidth = 360.0 / sensor.part.arcSegments
+				val distanceInKM: Double = sensorPosition.dst(hitPosition) / 1000
+				val targetAngle = sensorPosition.angleTo(hitPosition)
 
-		} else {
+				val arcAngleStep = FastMath.floor((targetAngle - sensor.part.angleOffset) / arcWidth).toInt()
+				val distanceStep = FastMath.floor(distanceInKM / sensor.part.distanceResolution).toInt()
 
-			if (detectionComponent == null) {
-				detectionComponent = detectionMapper.create(entityID)
+				val detectionHit = sensorDetections.getOrAdd(arcAngleStep, distanceStep)
+				detectionHit.signalStrength += signalStrength
+				detectionHit.add(emitter.entityID, hitX, hitY)
 			}
-
-			detectionComponent.detections = detections
-			starSystem.changed(entityID, detectionMapper)
 		}
 	}
 
@@ -3,11 +3,13 @@ package se.exuvo.aurora.starsystems.systems
 import com.artemis.Aspect
 import com.artemis.ComponentMapper
 import com.artemis.EntitySubscription.SubscriptionListener
+import com.artemis.annotations.Wire
 import com.artemis.systems.IteratingSystem
 import com.artemis.utils.IntBag
 import org.apache.logging.log4j.LogManager
 import se.exuvo.aurora.galactic.Galaxy
 import se.exuvo.aurora.ai.goap.planner.ReGoapPlannerSettings
+import se.exuvo.aurora.starsystems.StarSystem
 import se.exuvo.aurora.starsystems.components.ShipComponent
 import se.exuvo.aurora.starsystems.components.ShipOrdersComponent
 import se.exuvo.aurora.starsystems.components.ShipWorldState
@@ -28,6 +30,8 @@ class ShipOrdersSystem : IteratingSystem(FAMILY) {
 	lateinit private var shipMapper: ComponentMapper<ShipComponent>
 	lateinit private var ordersMapper: ComponentMapper<ShipOrdersComponent<ShipWorldState>>
 
+	@Wire
+	lateinit private var starSystem: StarSystem
 	private val galaxy = GameServices[Galaxy::class]
 	val plannerSettings = ReGoapPlannerSettings()
 
@@ -82,9 +86,9 @@ class ShipOrdersSystem : IteratingSystem(FAMILY) {
 	
 	fun ShipOrdersComponent<ShipWorldState>.requestPlanning(forced: Boolean = false): Boolean {
 		if (needsPlanning) return false
-		if (!forced && galaxy.time - lastPlanning <= 10) return false
+		if (!forced && starSystem.time - lastPlanning <= 10) return false
 
-		lastPlanning = galaxy.time
+		lastPlanning = starSystem.time
 		abortOnNextActionTransition = false
 		needsPlanning = true
 		
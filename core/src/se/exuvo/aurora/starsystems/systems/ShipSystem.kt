@@ -12,6 +12,7 @@ import se.exuvo.aurora.galactic.Galaxy
 import se.exuvo.aurora.galactic.Shield
 import se.exuvo.aurora.galactic.ThrustingPart
 import se.exuvo.aurora.starsystems.PreSystem
+import se.exuvo.aurora.starsystems.ScheduledSystem
 import se.exuvo.aurora.starsystems.StarSystem
 import se.exuvo.aurora.starsystems.components.CargoComponent
 import se.exuvo.aurora.starsystems.components.ChargedPartState
@@ -27,7 +28,7 @@ import se.exuvo.aurora.starsystems.events.PowerEvent
 import se.exuvo.aurora.utils.GameServices
 import se.exuvo.aurora.utils.forEachFast
 
-class ShipSystem : IteratingSystem(FAMILY), PreSystem {
+class ShipSystem : IteratingSystem(FAMILY), PreSystem, ScheduledSystem {
 	companion object {
 		@JvmField val FAMILY = Aspect.all(ShipComponent::class.java)
 		@JvmField val log = LogManager.getLogger(ShipSystem::class.java)
@@ -48,6 +49,43 @@ class ShipSystem : IteratingSystem(FAMILY), PreSystem {
 	lateinit private var starSystem: StarSystem
 	private val galaxy = GameServices[Galaxy::class]
 
+	override fun getNextEventTime(): Long {
+		val now = starSystem.time
+		var nextEventTime = Long.MAX_VALUE
+		
+		subscription.getEntities().forEachFast { entityID ->
+			val ship = shipMapper.get(entityID)
+			val partStates = partStatesMapper.get(entityID)
+			val thrustComponent = thrustMapper.get(entityID)
+			
+			// Fueled thrusters out of fuel
+			if (thrustComponent != null && thrustComponent.thrusting) {
+				ship.hull.thrusters.forEachFast { thruster ->
+					val part = thruster.part
+					
+					if (part is FueledThruster && partStates.isPartEnabled(thruster)) {
+						val fueledState = partStates[thruster].fueled
+						
+						if (fueledState.totalFuelEnergyRemaining > 0) {
+							nextEventTime = minOf(nextEventTime, now + maxOf(1, fueledState.totalFuelEnergyRemaining / part.thrust))
+						}
+					}
+				}
+			}
+			
+			// Shields full
+			ship.hull.shields.forEachFast { shield ->
+				val expectedFullAt = partStates[shield].charged.expectedFullAt
+				
+				if (expectedFullAt > now) {
+					nextEventTime = minOf(nextEventTime, expectedFullAt)
+				}
+			}
+		}
+		
+		return nextEventTime
+	}
+
 	override fun preProcessSystem() {
 		subscription.getEntities().forEachFast { entityID ->
 			val ship = shipMapper.get(entityID)
@@ -61,7 +99,7 @@ class ShipSystem : IteratingSystem(FAMILY), PreSystem {
 				val part = thruster.part
 
 				if (part is ElectricalThruster && partStates.isPartEnabled(thruster)) {
-					val poweredState = partStates[thruster][PoweredPartState::class]
+					val poweredState = partStates[thruster].powered
 
 					if (thrustComponent != null && thrustComponent.thrusting) {
 						if (poweredState.requestedPower != part.powerConsumption) {
@@ -79,8 +117,8 @@ class ShipSystem : IteratingSystem(FAMILY), PreSystem {
 			
 			ship.hull.shields.forEachFast { shield ->
 				val part = shield.part as Shield
-				val poweredState = partStates[shield][PoweredPartState::class]
-				val chargedState = partStates[shield][ChargedPartState::class]
+				val poweredState = partStates[shield].powered
+				val chargedState = partStates[shield].charged
 				
 				val leftToCharge = part.capacitor - chargedState.charge
 				val requestedPower = maxOf(0, minOf((leftToCharge * 100) / part.efficiency, part.powerConsumption))
@@ -89,7 +127,7 @@ class ShipSystem : IteratingSystem(FAMILY), PreSystem {
 					poweredState.requestedPower = requestedPower
 					
 					if (requestedPower > 0) {
-						chargedState.expectedFullAt = galaxy.time + (leftToCharge + requestedPower - 1) / requestedPower
+						chargedState.expectedFullAt = starSystem.time + (leftToCharge + requestedPower - 1) / requestedPower
 					} else {
 						chargedState.expectedFullAt = 0
 					}
@@ -127,7 +165,7 @@ class ShipSystem : IteratingSystem(FAMILY), PreSystem {
 					val part = thruster.part
 
 					if (part is ElectricalThruster) {
-						val poweredState = partStates[thruster][PoweredPartState::class]
+						val poweredState = partStates[thruster].powered
 
 						maxThrust += part.thrust
 
@@ -136,7 +174,7 @@ class ShipSystem : IteratingSystem(FAMILY), PreSystem {
 						}
 
 					} else if (part is FueledThruster) {
-						val fueledState = partStates[thruster][FueledPartState::class]
+						val fueledState = partStates[thruster].fueled
 
 						val remainingFuel = cargo.getCargoAmount(part.fuel)
 						fueledState.totalFuelEnergyRemaining = fueledState.fuelEnergyRemaining + part.thrust * part.fuelTime * remainingFuel
@@ -184,7 +222,7 @@ class ShipSystem : IteratingSystem(FAMILY), PreSystem {
 		
 		for (i in 0 until ship.hull.shields.size) {
 			val shield = ship.hull.shields[i]
-			val poweredState = partStates[shield][PoweredPartState::class]
+			val poweredState = partStates[shield].powered
 			
 			if (poweredState.givenPower > 0) {
 				shieldsChanged = true
@@ -198,7 +236,7 @@ class ShipSystem : IteratingSystem(FAMILY), PreSystem {
 			
 			for (i in 0 until ship.hull.shields.size) {
 				val shield = ship.hull.shields[i]
-				val chargedState = partStates[shield][ChargedPartState::class]
+				val chargedState = partStates[shield].charged
 				shieldAmount += chargedState.charge
 			}
 			
@@ -16,8 +16,9 @@ import se.exuvo.aurora.utils.forEachFast
 import se.exuvo.aurora.utils.isNotEmpty
 import com.artemis.utils.Bag
 import se.exuvo.aurora.starsystems.StarSystem
+import se.exuvo.aurora.starsystems.ParallelSystem
 
-class SolarIrradianceSystem : GalaxyTimeIntervalIteratingSystem(FAMILY, 1 * 60) {
+class SolarIrradianceSystem : GalaxyTimeIntervalIteratingSystem(FAMILY, 1 * 60), ParallelSystem {
 	companion object {
 		@JvmField val FAMILY = Aspect.all(SolarIrradianceComponent::class.java, TimedMovementComponent::class.java)
 		@JvmField val SUNS_FAMILY = Aspect.all(SunComponent::class.java, TimedMovementComponent::class.java)
@@ -51,6 +52,9 @@ class SolarIrradianceSystem : GalaxyTimeIntervalIteratingSystem(FAMILY, 1 * 60)
 	}
 
 	var suns = Bag<Sun>()
+	
+	override fun getReadMappers() = arrayOf<ComponentMapper<*>>(movementMapper, sunIrradianceMapper)
+	override fun getWriteMappers() = arrayOf<ComponentMapper<*>>(irradianceMapper)
 
 	fun cacheSuns() {
 		val sunEntites = sunsSubscription.getEntities()
@@ -68,7 +72,7 @@ class SolarIrradianceSystem : GalaxyTimeIntervalIteratingSystem(FAMILY, 1 * 60)
 			sunEntites.forEachFast { entityID ->
 
 				var solarConstant = sunIrradianceMapper.get(entityID).solarConstant
-				var position = movementMapper.get(entityID).get(galaxy.time).value.position
+				var position = movementMapper.get(entityID).get(system.time).value.position
 
 				mutableSuns.add(Sun(position, solarConstant))
 			}
@@ -80,7 +84,7 @@ class SolarIrradianceSystem : GalaxyTimeIntervalIteratingSystem(FAMILY, 1 * 60)
 
 	override fun process(entityID: Int) {
 
-		val position = movementMapper.get(entityID).get(galaxy.time).value.position
+		val position = movementMapper.get(entityID).get(system.time).value.position
 
 		var totalIrradiance = 0.0
 
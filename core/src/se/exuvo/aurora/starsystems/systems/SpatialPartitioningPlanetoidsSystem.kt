@@ -3,12 +3,13 @@ package se.exuvo.aurora.starsystems.systems
 import com.artemis.Aspect
 import com.artemis.ComponentMapper
 import org.apache.logging.log4j.LogManager
+import se.exuvo.aurora.ui.ProfilerWindow
 import se.exuvo.aurora.galactic.Galaxy
 import se.exuvo.aurora.utils.GameServices
 import se.exuvo.aurora.starsystems.StarSystem
+import se.exuvo.aurora.starsystems.ScheduledSystem
 import com.artemis.annotations.Wire
 import com.artemis.BaseEntitySystem
-import java.util.PriorityQueue
 import se.exuvo.aurora.starsystems.components.TimedMovementComponent
 import com.artemis.World
 import com.artemis.utils.IntBag
@@ -16,20 +17,21 @@ import glm_.pow
 import net.mostlyoriginal.api.event.common.Subscribe
 import se.exuvo.aurora.starsystems.components.AsteroidComponent
 import se.exuvo.aurora.starsystems.components.CircleComponent
-import se.exuvo.aurora.starsystems.components.MovementValues
 import se.exuvo.aurora.starsystems.components.OrbitComponent
 import se.exuvo.aurora.starsystems.components.SpatialPartitioningPlanetoidsComponent
 import se.exuvo.aurora.starsystems.components.SunComponent
 import se.exuvo.aurora.starsystems.events.NonLinearMovementEvent
+import se.exuvo.aurora.utils.IntTimerHeap
 import se.exuvo.aurora.utils.Vector2L
 import se.exuvo.aurora.utils.quadtree.QuadtreeAABB
 import kotlin.math.roundToInt
 
-class SpatialPartitioningPlanetoidsSystem : BaseEntitySystem(ASPECT) {
+class SpatialPartitioningPlanetoidsSystem : BaseEntitySystem(ASPECT), ScheduledSystem {
 	companion object {
 		@JvmField val ASPECT = Aspect.all(TimedMovementComponent::class.java, CircleComponent::class.java).one(OrbitComponent::class.java, SunComponent::class.java, AsteroidComponent::class.java)
 		
 		@JvmField val log = LogManager.getLogger(SpatialPartitioningPlanetoidsSystem::class.java)
+		@JvmField val UPDATE_EVENT = ProfilerWindow.registerEvent("update")
 		
 		const val SCALE: Int = 2_000 // in m , min 1000
 		const val MAX: Int = Int.MAX_VALUE
@@ -38,6 +40,9 @@ class SpatialPartitioningPlanetoidsSystem : BaseEntitySystem(ASPECT) {
 		@JvmField val DEPTH: Int = RAW_DEPTH.roundToInt() // 5
 		@JvmField val MIN_SQUARE_SIZE = (SCALE * MAX.toLong()) / 2.pow(DEPTH)
 		const val MAX_ELEMENTS: Int = 4
+		
+		// Seconds between re-inserts of moving planetoids
+		const val UPDATE_INTERVAL = 10 * 60L
 		/*
 			square_size = SCALE * MAX / 2.pow(DEPTH)
 			2.pow(DEPTH) = SCALE * MAX / sq
@@ -66,6 +71,8 @@ class SpatialPartitioningPlanetoidsSystem : BaseEntitySystem(ASPECT) {
 
 	@Wire
 	lateinit private var system: StarSystem
+	
+	lateinit private var movementSystem: MovementSystem
 
 	lateinit private var movementMapper: ComponentMapper<TimedMovementComponent>
 	lateinit private var circleMapper: ComponentMapper<CircleComponent>
@@ -73,15 +80,7 @@ class SpatialPartitioningPlanetoidsSystem : BaseEntitySystem(ASPECT) {
 
 	val tree = QuadtreeAABB(MAX, MAX, MAX_ELEMENTS, DEPTH)
 	
-	private var updateQueue = PriorityQueue<Int>(Comparator<Int> { a, b ->
-		val partitioningA = spatialPartitioningMapper.get(a)
-		val partitioningB = spatialPartitioningMapper.get(b)
-		
-		val timeA = partitioningA.nextExpectedUpdate
-		val timeB = partitioningB.nextExpectedUpdate
-		
-		timeA.compareTo(timeB)
-	})
+	private val updateQueue = IntTimerHeap()
 	
 	override fun setWorld(world: World) {
 		super.setWorld(world)
@@ -95,15 +94,21 @@ class SpatialPartitioningPlanetoidsSystem : BaseEntitySystem(ASPECT) {
 	}
 	
 	fun update(entityID: Int) {
-		val movement = movementMapper.get(entityID).get(galaxy.time).value
-		val nextExpectedUpdate = updateNextExpectedUpdate(entityID, movement)
+		val movement = movementMapper.get(entityID).get(system.time).value
+		update(entityID, movement.position.x, movement.position.y, !movement.velocity.isZero)
+	}
+	
+	private fun update(entityID: Int, positionX: Long, positionY: Long, moving: Boolean) {
+		val nextExpectedUpdate = updateNextExpectedUpdate(entityID, moving)
 		
 		val partitioning = spatialPartitioningMapper.create(entityID)
 		partitioning.nextExpectedUpdate = nextExpectedUpdate
 		system.changed(entityID, spatialPartitioningMapper)
 		
 		if (nextExpectedUpdate != -1L) {
-			updateQueue.add(entityID)
+			updateQueue.schedule(entityID, nextExpectedUpdate)
+		} else {
+			updateQueue.remove(entityID)
 		}
 		
 		val radius: Long
@@ -117,21 +122,24 @@ class SpatialPartitioningPlanetoidsSystem : BaseEntitySystem(ASPECT) {
 		}
 		
 		// in Mm
-		val x = movement.position.x / SCALE + MAX/2
-		val y = movement.position.y / SCALE + MAX/2
+		val x = positionX / SCALE + MAX/2
+		val y = positionY / SCALE + MAX/2
 		
 //		println("insert at $x $y ${movement.getXinKM()} ${movement.getYinKM()}")
 		
 		val profilerEvents = system.workingShadow.profilerEvents
 		
+		val quadtreeLog = system.workingShadow.quadtreePlanetoidsLog
+		
 		if (partitioning.elementID != -1) {
 			profilerEvents.start("remove")
 			tree.remove(partitioning.elementID)
+			quadtreeLog.remove(partitioning.elementID)
 			profilerEvents.end()
 		}
 		profilerEvents.start("insert")
 		partitioning.elementID = tree.insert(entityID, (x - radius).toInt(), (y - radius).toInt(), (x + radius).toInt(), (y + radius).toInt())
-		system.workingShadow.quadtreePlanetoidsChanged = true
+		quadtreeLog.insert(entityID, (x - radius).toInt(), (y - radius).toInt(), (x + radius).toInt(), (y + radius).toInt())
 		profilerEvents.end()
 	}
 	
@@ -139,14 +147,15 @@ class SpatialPartitioningPlanetoidsSystem : BaseEntitySystem(ASPECT) {
 //		println("removed $entityID")
 		updateQueue.remove(entityID)
 		
-		tree.remove(entityID)
-		system.workingShadow.quadtreePlanetoidsChanged = true
+		val partitioning = spatialPartitioningMapper.get(entityID)
+		tree.remove(partitioning.elementID)
+		system.workingShadow.quadtreePlanetoidsLog.remove(partitioning.elementID)
 	}
 	
-	private fun updateNextExpectedUpdate(entityID: Int, movement: MovementValues): Long {
-		var nextExpectedUpdate = galaxy.time
+	private fun updateNextExpectedUpdate(entityID: Int, moving: Boolean): Long {
+		var nextExpectedUpdate = system.time
 		
-		if (!movement.velocity.isZero) {
+		if (moving) {
 		
 			//TODO val distance = distance from edge of smallest quadtree square
 			
@@ -166,7 +175,7 @@ class SpatialPartitioningPlanetoidsSystem : BaseEntitySystem(ASPECT) {
 //			println("entityID $entityID: t $t a $a b $b c $c")
 //
 //			nextExpectedUpdate += maxOf(1, t.toLong())
-			nextExpectedUpdate += 10 * 60
+			nextExpectedUpdate += UPDATE_INTERVAL
 
 		} else {
 			nextExpectedUpdate = -1
@@ -175,7 +184,7 @@ class SpatialPartitioningPlanetoidsSystem : BaseEntitySystem(ASPECT) {
 		if (nextExpectedUpdate == -1L) {
 //			println("entityID $entityID: nextExpectedUpdate $nextExpectedUpdate")
 		} else {
-//			println("entityID $entityID: nextExpectedUpdate +${nextExpectedUpdate - galaxy.time}")
+//			println("entityID $entityID: nextExpectedUpdate +${nextExpectedUpdate - system.time}")
 		}
 		
 		return nextExpectedUpdate
@@ -188,32 +197,31 @@ class SpatialPartitioningPlanetoidsSystem : BaseEntitySystem(ASPECT) {
 		}
 	}
 	
+	override fun getNextEventTime(): Long {
+		return updateQueue.getNextDeadline()
+	}
+	
 	override fun processSystem() {
 		
 		val profilerEvents = system.workingShadow.profilerEvents
+		val store = movementSystem.store
 		
 		while(true) {
 			val entityID = updateQueue.peek()
 			
-			if (entityID != null) {
+			if (entityID != -1 && system.time >= updateQueue.getNextDeadline()) {
 				
-				val partitioning = spatialPartitioningMapper.get(entityID)
+//				println("process $entityID ${updateQueue.getNextDeadline()}")
 				
-//				println("eval $entityID ${partitioning.nextExpectedUpdate}")
+				updateQueue.poll()
 				
-				if (galaxy.time >= partitioning.nextExpectedUpdate) {
-				
-//					println("process $entityID ${partitioning.nextExpectedUpdate}")
-					
-					updateQueue.poll()
-					
-					profilerEvents.start("update $entityID")
-					update(entityID)
-					profilerEvents.end()
-					
+				profilerEvents.start(UPDATE_EVENT, entityID)
+				if (store.isLinear(entityID)) {
+					update(entityID, store.positionX[entityID], store.positionY[entityID], store.isMoving(entityID))
 				} else {
-					break;
+					update(entityID)
 				}
+				profilerEvents.end()
 				
 			} else {
 				break
@@ -222,7 +230,7 @@ class SpatialPartitioningPlanetoidsSystem : BaseEntitySystem(ASPECT) {
 		
 		profilerEvents.start("cleanup")
 		if (tree.cleanupFull()) {
-			system.workingShadow.quadtreePlanetoidsChanged = true
+			system.workingShadow.quadtreePlanetoidsLog.cleanupFull()
 		}
 		profilerEvents.end()
 	}
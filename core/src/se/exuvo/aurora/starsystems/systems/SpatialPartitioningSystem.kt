@@ -3,12 +3,13 @@ package se.exuvo.aurora.starsystems.systems
 import com.artemis.Aspect
 import com.artemis.ComponentMapper
 import org.apache.logging.log4j.LogManager
+import se.exuvo.aurora.ui.ProfilerWindow
 import se.exuvo.aurora.galactic.Galaxy
 import se.exuvo.aurora.utils.GameServices
 import se.exuvo.aurora.starsystems.StarSystem
+import se.exuvo.aurora.starsystems.ScheduledSystem
 import com.artemis.annotations.Wire
 import com.artemis.BaseEntitySystem
-import java.util.PriorityQueue
 import com.artemis.EntitySubscription
 import se.exuvo.aurora.starsystems.components.TimedMovementComponent
 import com.artemis.World
@@ -20,12 +21,12 @@ import se.exuvo.aurora.galactic.SimpleMunitionHull
 import se.exuvo.aurora.starsystems.components.CircleComponent
 import se.exuvo.aurora.starsystems.components.LaserShotComponent
 import se.exuvo.aurora.starsystems.components.MissileComponent
-import se.exuvo.aurora.starsystems.components.MovementValues
 import se.exuvo.aurora.starsystems.components.RailgunShotComponent
 import se.exuvo.aurora.starsystems.components.ShipComponent
 import se.exuvo.aurora.starsystems.components.SpatialPartitioningComponent
 import se.exuvo.aurora.starsystems.events.NonLinearMovementEvent
 import se.exuvo.aurora.utils.Units
+import se.exuvo.aurora.utils.IntTimerHeap
 import se.exuvo.aurora.utils.Vector2L
 import se.exuvo.aurora.utils.forEachFast
 import se.exuvo.aurora.utils.quadtree.QuadtreeAABB
@@ -33,11 +34,12 @@ import se.exuvo.aurora.utils.quadtree.QuadtreeAABBStatic
 import se.exuvo.aurora.utils.quadtree.QuadtreePoint
 import kotlin.math.roundToInt
 
-class SpatialPartitioningSystem : BaseEntitySystem(ASPECT) {
+class SpatialPartitioningSystem : BaseEntitySystem(ASPECT), ScheduledSystem {
 	companion object {
 		@JvmField val ASPECT = Aspect.all(TimedMovementComponent::class.java).one(ShipComponent::class.java, RailgunShotComponent::class.java, LaserShotComponent::class.java, MissileComponent::class.java)
 		
 		@JvmField val log = LogManager.getLogger(SpatialPartitioningSystem::class.java)
+		@JvmField val UPDATE_EVENT = ProfilerWindow.registerEvent("update")
 		
 		const val SCALE: Int = 2_000 // in m , min 1000
 		const val MAX: Int = Int.MAX_VALUE
@@ -46,6 +48,10 @@ class SpatialPartitioningSystem : BaseEntitySystem(ASPECT) {
 		@JvmField val DEPTH: Int = RAW_DEPTH.roundToInt()
 		@JvmField val MIN_SQUARE_SIZE = (SCALE * MAX.toLong()) / 2.pow(DEPTH)
 		const val MAX_ELEMENTS: Int = 8
+		
+		// Seconds between re-inserts of moving entities and of still entities that can accelerate
+		const val MOVING_UPDATE_INTERVAL = 10L
+		const val ACCELERATING_UPDATE_INTERVAL = 60L
 		/*
 			square_size = SCALE * MAX / 2.pow(DEPTH)
 			2.pow(DEPTH) = SCALE * MAX / sq
@@ -69,21 +75,15 @@ class SpatialPartitioningSystem : BaseEntitySystem(ASPECT) {
 
 	@Wire
 	lateinit private var system: StarSystem
+	
+	lateinit private var movementSystem: MovementSystem
 
 	lateinit private var movementMapper: ComponentMapper<TimedMovementComponent>
 	lateinit private var spatialPartitioningMapper: ComponentMapper<SpatialPartitioningComponent>
 
 	val tree = QuadtreePoint(MAX, MAX, MAX_ELEMENTS, DEPTH)
 	
-	private var updateQueue = PriorityQueue<Int>(Comparator<Int> { a, b ->
-		val partitioningA = spatialPartitioningMapper.get(a)
-		val partitioningB = spatialPartitioningMapper.get(b)
-		
-		val timeA = partitioningA.nextExpectedUpdate
-		val timeB = partitioningB.nextExpectedUpdate
-		
-		timeA.compareTo(timeB)
-	})
+	private val updateQueue = IntTimerHeap()
 	
 	override fun setWorld(world: World) {
 		super.setWorld(world)
@@ -117,33 +117,42 @@ class SpatialPartitioningSystem : BaseEntitySystem(ASPECT) {
 	}
 	
 	fun update(entityID: Int) {
-		val movement = movementMapper.get(entityID).get(galaxy.time).value
-		val nextExpectedUpdate = updateNextExpectedUpdate(entityID, movement)
+		val movement = movementMapper.get(entityID).get(system.time).value
+		update(entityID, movement.position.x, movement.position.y, !movement.velocity.isZero)
+	}
+	
+	private fun update(entityID: Int, positionX: Long, positionY: Long, moving: Boolean) {
+		val nextExpectedUpdate = updateNextExpectedUpdate(entityID, moving)
 		
 		val partitioning = spatialPartitioningMapper.create(entityID)
 		partitioning.nextExpectedUpdate = nextExpectedUpdate
 		system.changed(entityID, spatialPartitioningMapper)
 		
 		if (nextExpectedUpdate != -1L) {
-			updateQueue.add(entityID)
+			updateQueue.schedule(entityID, nextExpectedUpdate)
+		} else {
+			updateQueue.remove(entityID)
 		}
 		
 		// in Mm
-		val x = movement.position.x / SCALE + MAX/2
-		val y = movement.position.y / SCALE + MAX/2
+		val x = positionX / SCALE + MAX/2
+		val y = positionY / SCALE + MAX/2
 		
 //		println("insert at $x $y ${movement.getXinKM()} ${movement.getYinKM()}")
 		
 		val profilerEvents = system.workingShadow.profilerEvents
 		
+		val quadtreeLog = system.workingShadow.quadtreeShipsLog
+		
 		if (partitioning.elementID != -1) {
 			profilerEvents.start("remove")
 			tree.remove(partitioning.elementID)
+			quadtreeLog.remove(partitioning.elementID)
 			profilerEvents.end()
 		}
 		profilerEvents.start("insert")
 		partitioning.elementID = tree.insert(entityID, x.toInt(), y.toInt())
-		system.workingShadow.quadtreeShipsChanged = true
+		quadtreeLog.insert(entityID, x.toInt(), y.toInt())
 		profilerEvents.end()
 	}
 	
@@ -153,13 +162,13 @@ class SpatialPartitioningSystem : BaseEntitySystem(ASPECT) {
 		
 		val partitioning = spatialPartitioningMapper.get(entityID)
 		tree.remove(partitioning.elementID)
-		system.workingShadow.quadtreeShipsChanged = true
+		system.workingShadow.quadtreeShipsLog.remove(partitioning.elementID)
 	}
 	
-	private fun updateNextExpectedUpdate(entityID: Int, movement: MovementValues): Long {
-		var nextExpectedUpdate = galaxy.time
+	private fun updateNextExpectedUpdate(entityID: Int, moving: Boolean): Long {
+		var nextExpectedUpdate = system.time
 		
-		if (!movement.velocity.isZero) {
+		if (moving) {
 		
 			//TODO val distance = distance from edge of smallest quadtree square
 			
@@ -179,10 +188,10 @@ class SpatialPartitioningSystem : BaseEntitySystem(ASPECT) {
 //			println("entityID $entityID: t $t a $a b $b c $c")
 //
 //			nextExpectedUpdate += maxOf(1, t.toLong())
-			nextExpectedUpdate += 10
+			nextExpectedUpdate += MOVING_UPDATE_INTERVAL
 
 		} else if(canAccelerateAspect.isInterested(entityID)) {
-			nextExpectedUpdate += 60
+			nextExpectedUpdate += ACCELERATING_UPDATE_INTERVAL
 
 		} else {
 			nextExpectedUpdate = -1
@@ -191,7 +200,7 @@ class SpatialPartitioningSystem : BaseEntitySystem(ASPECT) {
 		if (nextExpectedUpdate == -1L) {
 //			println("entityID $entityID: nextExpectedUpdate $nextExpectedUpdate")
 		} else {
-//			println("entityID $entityID: nextExpectedUpdate +${nextExpectedUpdate - galaxy.time}")
+//			println("entityID $entityID: nextExpectedUpdate +${nextExpectedUpdate - system.time}")
 		}
 		
 		return nextExpectedUpdate
@@ -204,32 +213,31 @@ class SpatialPartitioningSystem : BaseEntitySystem(ASPECT) {
 		}
 	}
 	
+	override fun getNextEventTime(): Long {
+		return updateQueue.getNextDeadline()
+	}
+	
 	override fun processSystem() {
 		
 		val profilerEvents = system.workingShadow.profilerEvents
+		val store = movementSystem.store
 		
 		while(true) {
 			val entityID = updateQueue.peek()
 			
-			if (entityID != null) {
+			if (entityID != -1 && system.time >= updateQueue.getNextDeadline()) {
 				
-				val partitioning = spatialPartitioningMapper.get(entityID)
+//				println("process $entityID ${updateQueue.getNextDeadline()}")
 				
-//				println("eval $entityID ${partitioning.nextExpectedUpdate}")
+				updateQueue.poll()
 				
-				if (galaxy.time >= partitioning.nextExpectedUpdate) {
-				
-//					println("process $entityID ${partitioning.nextExpectedUpdate}")
-					
-					updateQueue.poll()
-					
-					profilerEvents.start("update $entityID")
-					update(entityID)
-					profilerEvents.end()
-					
+				profilerEvents.start(UPDATE_EVENT, entityID)
+				if (store.isLinear(entityID)) {
+					update(entityID, store.positionX[entityID], store.positionY[entityID], store.isMoving(entityID))
 				} else {
-					break;
+					update(entityID)
 				}
+				profilerEvents.end()
 				
 			} else {
 				break
@@ -238,7 +246,7 @@ class SpatialPartitioningSystem : BaseEntitySystem(ASPECT) {
 		
 		profilerEvents.start("cleanup")
 		if (tree.cleanupFull()) {
-			system.workingShadow.quadtreeShipsChanged = true
+			system.workingShadow.quadtreeShipsLog.cleanupFull()
 		}
 		profilerEvents.end()
 	}
@@ -96,7 +96,7 @@ class TargetingSystem : IteratingSystem(FAMILY), PreSystem {
 							idleTCs.targetingComputers = ArrayList<PartRef<TargetingComputer>>(targetingComputers)
 
 							targetingComputers.forEachFast { tc ->
-								val poweredState = partStates[tc][PoweredPartState::class]
+								val poweredState = partStates[tc].powered
 								poweredState.requestedPower = 0
 							}
 						}
@@ -116,7 +116,7 @@ class TargetingSystem : IteratingSystem(FAMILY), PreSystem {
 
 			idleTCs.targetingComputers.forEachFast { tc ->
 				if (partStates.isPartEnabled(tc)) {
-					val poweredState = partStates[tc][PoweredPartState::class]
+					val poweredState = partStates[tc].powered
 					poweredState.requestedPower = 0
 				}
 			}
@@ -127,8 +127,8 @@ class TargetingSystem : IteratingSystem(FAMILY), PreSystem {
 		
 		println("Setting target for ${printEntity(entityID, world)}.$tc to ${printEntity(targetRef.entityID, world)}")
 		
-		val tcState = partStates[tc][TargetingComputerState::class]
-		tcState.lockCompletionAt = galaxy.time + tc.part.lockingTime
+		val tcState = partStates[tc].targetingComputer
+		tcState.lockCompletionAt = starSystem.time + tc.part.lockingTime
 		tcState.target = targetRef
 		
 		val idleTCs = idleTargetingComputersComponentMapper.get(entityID)
@@ -154,7 +154,7 @@ class TargetingSystem : IteratingSystem(FAMILY), PreSystem {
 		
 		println("Clearing target for ${printEntity(entityID, world)}.$tc")
 		
-		val tcState = partStates[tc][TargetingComputerState::class]
+		val tcState = partStates[tc].targetingComputer
 		tcState.lockCompletionAt = 0
 		tcState.target = null
 		
@@ -181,8 +181,8 @@ class TargetingSystem : IteratingSystem(FAMILY), PreSystem {
 			val part = weapon.part
 			
 			if (part is ChargedPart) {
-				val poweredState = partStates[weapon][PoweredPartState::class]
-				val chargedState = partStates[weapon][ChargedPartState::class]
+				val poweredState = partStates[weapon].powered
+				val chargedState = partStates[weapon].charged
 				
 				if (poweredState.requestedPower != 0L) {
 					poweredState.requestedPower = 0
@@ -213,7 +213,7 @@ class TargetingSystem : IteratingSystem(FAMILY), PreSystem {
 			var powerChanged = false
 			
 			tcs.forEachFast{ tc ->
-				val tcState = partStates[tc][TargetingComputerState::class]
+				val tcState = partStates[tc].targetingComputer
 
 				weaponSystem.reloadAmmoWeapons(entityID, partStates, tcState)
 				
@@ -262,13 +262,13 @@ class TargetingSystem : IteratingSystem(FAMILY), PreSystem {
 //		val ship = shipMapper.get(entityID)
 		val partStates: PartStatesComponent = partStatesMapper.get(entityID)
 		val weaponsComponent = idleTargetingComputersComponentMapper.get(entityID)
-		val shipMovement = movementMapper.get(entityID).get(galaxy.time)
+		val shipMovement = movementMapper.get(entityID).get(starSystem.time)
 		val ownerEmpire = ownerMapper.get(entityID).empire
 
 		val tcs = weaponsComponent.targetingComputers
 
 		tcs.forEachFast{ tc ->
-			val tcState = partStates[tc][TargetingComputerState::class]
+			val tcState = partStates[tc].targetingComputer
 
 			//TODO automatically target hostiles in range
 			
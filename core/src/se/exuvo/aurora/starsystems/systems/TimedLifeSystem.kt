@@ -8,14 +8,19 @@ import se.exuvo.aurora.galactic.Galaxy
 import se.exuvo.aurora.starsystems.components.TimedLifeComponent
 import se.exuvo.aurora.utils.GameServices
 import se.exuvo.aurora.starsystems.StarSystem
+import se.exuvo.aurora.starsystems.ScheduledSystem
 import com.artemis.annotations.Wire
 import com.artemis.BaseEntitySystem
-import java.util.PriorityQueue
 import se.unlogic.standardutils.reflection.ReflectionUtils
 import com.artemis.EntitySubscription
-import com.artemis.utils.BitVector
+import com.artemis.utils.IntBag
+import se.exuvo.aurora.utils.IntTimerHeap
+import se.exuvo.aurora.utils.IntTimerQueue
+import se.exuvo.aurora.utils.IntTimerWheel
+import se.exuvo.aurora.utils.forEachFast
+import se.exuvo.settings.Settings
 
-class TimedLifeSystem : BaseEntitySystem(ASPECT) {
+class TimedLifeSystem : BaseEntitySystem(ASPECT), ScheduledSystem {
 	companion object {
 		@JvmField val ASPECT = Aspect.all(TimedLifeComponent::class.java)
 		
@@ -31,60 +36,35 @@ class TimedLifeSystem : BaseEntitySystem(ASPECT) {
 	lateinit private var weaponSystem: WeaponSystem
 
 	
-	private var selfRemovedEntityIDs = BitVector()
-	
-	private var queue = PriorityQueue<Int>(Comparator<Int> { a, b ->
-		val timedLifeA = timedLifeMapper.get(a).endTime
-		val timedLifeB = timedLifeMapper.get(b).endTime
-		
-		timedLifeA.compareTo(timedLifeB)
-	})
+	// Munitions mostly expire a short time after launch which the timing wheel handles in constant time
+	private val queue: IntTimerQueue = if (Settings.getBol("Systems/TimedLife/timingWheel", true)) IntTimerWheel() else IntTimerHeap()
+	private val expired = IntBag()
 	
 	override fun inserted(entityID: Int): Unit {
 //		println("inserted $entityID")
-		queue.add(entityID)
-		
-		selfRemovedEntityIDs.ensureCapacity(entityID)
+		queue.schedule(entityID, timedLifeMapper.get(entityID).endTime)
 	}
 	
 	override fun removed(entityID: Int): Unit {
-		if (!selfRemovedEntityIDs.unsafeGet(entityID)) {
-//			println("removed $entityID")
-			queue.remove(entityID)
-			
-		} else {
-			selfRemovedEntityIDs.unsafeClear(entityID)
-		}
+		// No-op for our own deletions as those are already polled
+		queue.remove(entityID)
+	}
+
+	override fun getNextEventTime(): Long {
+		return queue.getNextDeadline()
 	}
 
 	override fun processSystem() {
 		
-		while(true) {
-			val entityID = queue.peek()
+		expired.setSize(0)
+		queue.pollExpired(starSystem.time, expired)
+		
+		expired.forEachFast { entityID ->
+//			println("destroying $entityID")
+			
+			weaponSystem.munitionExpired(entityID)
 			
-			if (entityID != null) {
-				
-				val timedLife = timedLifeMapper.get(entityID)
-				
-				if (galaxy.time >= timedLife.endTime) {
-					
-					queue.poll()
-//					println("destroying $entityID")
-					
-					weaponSystem.munitionExpired(entityID)
-					
-					starSystem.destroyEntity(entityID)
-					
-					// We don't want to get notified by our own deletions
-					selfRemovedEntityIDs.unsafeSet(entityID)
-					
-				} else {
-					break;
-				}
-				
-			} else {
-				break
-			}
+			starSystem.destroyEntity(entityID)
 		}
 	}
 }
@@ -4,8 +4,11 @@ package se.exuvo.aurora.starsystems.systems
 import com.artemis.Aspect
 import com.artemis.ComponentMapper
 import com.artemis.systems.IteratingSystem
+import com.artemis.utils.IntBag
 import net.mostlyoriginal.api.event.common.EventSystem
+import net.mostlyoriginal.api.event.common.Subscribe
 import org.apache.logging.log4j.LogManager
+import se.exuvo.aurora.ui.ProfilerWindow
 import se.exuvo.aurora.galactic.AmmunitionPart
 import se.exuvo.aurora.galactic.BeamWeapon
 import se.exuvo.aurora.galactic.ChargedPart
@@ -20,8 +23,11 @@ import se.exuvo.aurora.starsystems.components.PoweredPartState
 import se.exuvo.aurora.starsystems.components.ShipComponent
 import se.exuvo.aurora.starsystems.components.TargetingComputerState
 import se.exuvo.aurora.starsystems.components.UUIDComponent
+import se.exuvo.aurora.starsystems.events.NonLinearMovementEvent
 import se.exuvo.aurora.starsystems.events.PowerEvent
 import se.exuvo.aurora.utils.GameServices
+import se.exuvo.aurora.utils.InterceptResult
+import se.exuvo.aurora.utils.InterceptSolver
 import se.exuvo.aurora.utils.forEachFast
 import se.exuvo.aurora.utils.Vector2L
 import se.exuvo.aurora.utils.Vector2D
@@ -30,8 +36,6 @@ import se.exuvo.aurora.starsystems.StarSystem
 import com.artemis.annotations.Wire
 import se.exuvo.aurora.starsystems.components.MovementValues
 import se.exuvo.aurora.utils.Units
-import org.apache.commons.math3.analysis.solvers.LaguerreSolver
-import org.apache.commons.math3.exception.TooManyEvaluationsException
 import org.apache.commons.math3.util.FastMath
 import se.exuvo.aurora.starsystems.components.EmpireComponent
 import se.exuvo.aurora.starsystems.components.RenderComponent
@@ -49,6 +53,7 @@ import se.exuvo.aurora.empires.components.ActiveTargetingComputersComponent
 import se.exuvo.aurora.empires.components.IdleTargetingComputersComponent
 import se.exuvo.aurora.galactic.ElectricalThruster
 import se.exuvo.aurora.starsystems.PreSystem
+import se.exuvo.aurora.starsystems.ScheduledSystem
 import se.exuvo.aurora.starsystems.components.ArmorComponent
 import se.exuvo.aurora.starsystems.components.CargoComponent
 import se.exuvo.aurora.starsystems.components.HPComponent
@@ -57,10 +62,17 @@ import se.exuvo.aurora.starsystems.components.PartStatesComponent
 import se.exuvo.aurora.starsystems.components.ShieldComponent
 import java.lang.UnsupportedOperationException
 
-class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
+class WeaponSystem : IteratingSystem(FAMILY), PreSystem, ScheduledSystem {
 	companion object {
 		@JvmField val FAMILY = Aspect.all(ActiveTargetingComputersComponent::class.java)
 		
+		@JvmField val ENTITY_EVENT = ProfilerWindow.registerEvent("entity")
+		@JvmField val TC_EVENT = ProfilerWindow.registerEvent("tc")
+		@JvmField val WEAPON_EVENT = ProfilerWindow.registerEvent("weapon")
+		@JvmField val INTERCEPTION_EVENTS = IntArray(5, { i -> ProfilerWindow.registerEvent("getInterceptionPosition${i + 1}") })
+		@JvmField val INTERCEPT_CACHE_HITS_EVENT = ProfilerWindow.registerEvent("intercept cache hits")
+		@JvmField val INTERCEPT_CACHE_MISSES_EVENT = ProfilerWindow.registerEvent("intercept cache misses")
+		
 		// Quadric formula https://en.wikipedia.org/wiki/Quadratic_equation#Quadratic_formula_and_its_derivation
 		@JvmStatic
 		fun getPositiveRootOfQuadraticEquation(a: Double, b: Double, c: Double) = (-b + FastMath.sqrt(b * b - 4 * a * c)) / (2 * a)
@@ -78,7 +90,7 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 		
 		@JvmField val log = LogManager.getLogger(WeaponSystem::class.java)
 		
-		const val POLYNOMIAL_MAX_ITERATIONS: Int = 10000
+		const val MISSILE_RETARGET_RADIUS = 10_000L // in m
 	}
 
 	lateinit private var idleTargetingComputersComponentMapper: ComponentMapper<IdleTargetingComputersComponent>
@@ -104,20 +116,18 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 	@Wire
 	lateinit private var starSystem: StarSystem
 	lateinit private var events: EventSystem
+	lateinit private var movementSystem: MovementSystem
 	lateinit private var powerSystem: PowerSystem
 	lateinit private var targetingSystem: TargetingSystem
+	lateinit private var salvoSystem: SalvoSystem
+	lateinit private var proximitySystem: ProximitySystem
 	
 	private val galaxy = GameServices[Galaxy::class]
 	private val galaxyGroupSystem by lazy (LazyThreadSafetyMode.NONE) { GameServices[GroupSystem::class] }
 	
-	val polynomialSolver = LaguerreSolver()
-	
-	init {
-//		val relativeAccuracy = 1.0e-12
-//		val absoluteAccuracy = 1.0e-8
-//		val functionValueAccuracy = ?
-//		polynomialSolver = LaguerreSolver(relativeAccuracy, absoluteAccuracy)
-	}
+	private val interceptSolver = InterceptSolver()
+	private val interceptResult = InterceptResult()
+	private val interceptCache = InterceptCache()
 
 	//TODO do when tc is deactivated
 //	override fun inserted(entities: IntBag) {
@@ -127,7 +137,7 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 //
 //			activeTCs.targetingComputers.forEachFast { tc ->
 //				if (ship.isPartEnabled(tc)) {
-//					val poweredState = partStates[tc)[PoweredPartState::class]
+//					val poweredState = partStates[tc).powered
 //					poweredState.requestedPower = tc.part.powerConsumption
 //				}
 //			}
@@ -145,7 +155,7 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 				
 				val part = partRef.part as AmmunitionPart
 				val cargo = cargoMapper.get(entityID)
-				val ammoState = partStates[partRef][AmmunitionPartState::class]
+				val ammoState = partStates[partRef].ammunition
 				val ammoType = ammoState.type
 
 				if (ammoType != null) {
@@ -167,7 +177,7 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 
 							if (removedAmmo > 0) {
 
-								ammoState.reloadedAt = galaxy.time + part.reloadTime
+								ammoState.reloadedAt = starSystem.time + part.reloadTime
 								tcState.reloadingWeapons.add(partRef)
 								
 								starSystem.changed(entityID, cargoMapper)
@@ -179,7 +189,7 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 							}
 						}
 
-					} else if (galaxy.time >= ammoState.reloadedAt) {
+					} else if (starSystem.time >= ammoState.reloadedAt) {
 
 						tcState.reloadingWeapons.poll()
 						starSystem.changed(entityID, partStatesMapper)
@@ -190,7 +200,7 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 						if (ammoState.amount == 1) {
 							
 							if (part is Railgun) {
-								val chargedState = partStates[partRef][ChargedPartState::class]
+								val chargedState = partStates[partRef].charged
 								
 								if (chargedState.charge >= part.capacitor && !tcState.readyWeapons.contains(partRef)) { // have to do the contains check if the the capacitor was overflowed too much
 									tcState.readyWeapons.add(partRef)
@@ -209,7 +219,7 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 							val removedAmmo = cargo.retrieveCargo(ammoType, 1)
 
 							if (removedAmmo > 0) {
-								ammoState.reloadedAt = galaxy.time + part.reloadTime
+								ammoState.reloadedAt = starSystem.time + part.reloadTime
 								tcState.reloadingWeapons.add(partRef)
 								
 								starSystem.changed(entityID, cargoMapper)
@@ -244,8 +254,8 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 				val part = partRef.part
 				val poweredPart = part as PoweredPart
 				val chargedPart = part as ChargedPart
-				val poweredState = partStates[partRef][PoweredPartState::class]
-				val chargedState = partStates[partRef][ChargedPartState::class]
+				val poweredState = partStates[partRef].powered
+				val chargedState = partStates[partRef].charged
 				
 				if (chargedState.expectedFullAt == 0L) { // new
 					
@@ -260,17 +270,17 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 						powerChanged = true
 					}
 					
-					chargedState.expectedFullAt = galaxy.time + (part.capacitor - chargedState.charge + poweredState.requestedPower - 1) / poweredState.requestedPower
+					chargedState.expectedFullAt = starSystem.time + (part.capacitor - chargedState.charge + poweredState.requestedPower - 1) / poweredState.requestedPower
 					tcState.chargingWeapons.add(partRef)
 					
-				} else if (galaxy.time >= chargedState.expectedFullAt) {
+				} else if (starSystem.time >= chargedState.expectedFullAt) {
 					
 					tcState.chargingWeapons.poll()
 					starSystem.changed(entityID, partStatesMapper)
 					
 					if (chargedState.charge < part.capacitor) {
 						
-						chargedState.expectedFullAt = galaxy.time + (part.capacitor - chargedState.charge + poweredState.requestedPower - 1) / poweredState.requestedPower
+						chargedState.expectedFullAt = starSystem.time + (part.capacitor - chargedState.charge + poweredState.requestedPower - 1) / poweredState.requestedPower
 						tcState.chargingWeapons.add(partRef)
 						
 					} else {
@@ -286,7 +296,7 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 						chargedState.expectedFullAt = 0
 						
 						if (part is Railgun) {
-							val ammoState = partStates[partRef][AmmunitionPartState::class]
+							val ammoState = partStates[partRef].ammunition
 							
 							if (ammoState.amount > 0 && !tcState.readyWeapons.contains(partRef)) { // have to do the contains check if the the ammunition reloaded at the same tick
 								tcState.readyWeapons.add(partRef)
@@ -313,6 +323,44 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 		return powerChanged
 	}
 	
+	override fun getNextEventTime(): Long {
+		val now = starSystem.time
+		var nextEventTime = Long.MAX_VALUE
+		
+		subscription.getEntities().forEachFast { entityID ->
+			val partStates = partStatesMapper.get(entityID)
+			val tcs = activeTargetingComputersComponentMapper.get(entityID).targetingComputers
+			
+			tcs.forEachFast { tc ->
+				val tcState = partStates[tc].targetingComputer
+				
+				if (tcState.readyWeapons.size() > 0) {
+					if (now > tcState.lockCompletionAt) {
+						return now + 1
+					}
+					
+					nextEventTime = minOf(nextEventTime, tcState.lockCompletionAt + 1)
+				}
+				
+				val reloading = tcState.reloadingWeapons.peek()
+				
+				if (reloading != null) {
+					val reloadedAt = partStates[reloading].ammunition.reloadedAt
+					nextEventTime = minOf(nextEventTime, if (reloadedAt == 0L) now + 1 else reloadedAt)
+				}
+				
+				val charging = tcState.chargingWeapons.peek()
+				
+				if (charging != null) {
+					val expectedFullAt = partStates[charging].charged.expectedFullAt
+					nextEventTime = minOf(nextEventTime, if (expectedFullAt == 0L) now + 1 else expectedFullAt)
+				}
+			}
+		}
+		
+		return nextEventTime
+	}
+	
 	override fun preProcessSystem() {
 //		val tickSize = world.getDelta().toInt()
 		
@@ -324,7 +372,7 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 			var powerChanged = false
 			
 			tcs.forEachFast { tc ->
-				val tcState = partStates[tc][TargetingComputerState::class]
+				val tcState = partStates[tc].targetingComputer
 
 				reloadAmmoWeapons(entityID, partStates, tcState)
 				
@@ -341,20 +389,22 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 	override fun process(entityID: Int) {
 		
 		val profilerEvents = starSystem.workingShadow.profilerEvents
-		profilerEvents.start("$entityID")
+		profilerEvents.start(ENTITY_EVENT, entityID)
 		
 		val ship = shipMapper.get(entityID)
 		val partStates = partStatesMapper.get(entityID)
 		val activeTCsComponent = activeTargetingComputersComponentMapper.get(entityID)
-		val shipMovement = movementMapper.get(entityID).get(galaxy.time)
+		val shipMovement = movementMapper.get(entityID).get(starSystem.time)
 		val ownerEmpire = ownerMapper.get(entityID).empire
+		
+		interceptCache.begin(entityID, starSystem.time)
 
 		val tcs = activeTCsComponent.targetingComputers
 		var powerChanged = false
 
 		tcs.forEachFast{ tc ->
-			profilerEvents.start("tc $tc")
-			val tcState = partStates[tc][TargetingComputerState::class]
+			profilerEvents.start(TC_EVENT, tc.index)
+			val tcState = partStates[tc].targetingComputer
 
 			val target = tcState.target!!
 			
@@ -365,34 +415,33 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 				targetingSystem.clearTarget(entityID, tc, partStates)
 				log.warn("Target ${target} is no longer valid for ${tc}")
 				
-			} else if (galaxy.time > tcState.lockCompletionAt) {
+			} else if (starSystem.time > tcState.lockCompletionAt) {
 			
-				val targetMovement = movementMapper.get(target.entityID).get(galaxy.time)
+				val targetMovement = movementMapper.get(target.entityID).get(starSystem.time)
 
-				//TODO cache intercepts per ship and weapon type/ordnance
 				var i = 0
 				var size = tcState.readyWeapons.size()
 				
 				while (i < size) {
 					val weapon = tcState.readyWeapons[i++]
-					profilerEvents.start("wep $weapon")
+					profilerEvents.start(WEAPON_EVENT, weapon.index)
 					
 					when (val part = weapon.part) {
 						is BeamWeapon -> {
-							val chargedState = partStates[weapon][ChargedPartState::class]
+							val chargedState = partStates[weapon].charged
 
 							val projectileSpeed = Units.C * 1000
 							
-							profilerEvents.start("getInterceptionPosition1")
-							val result = getInterceptionPosition1(shipMovement.value, targetMovement.value, projectileSpeed)
+							val result = solveIntercept(target.entityID, 0, projectileSpeed) {
+								getInterceptionPosition1(shipMovement.value, targetMovement.value, projectileSpeed)
+							}
 //										val result = getInterceptionPosition(shipMovement.value, targetMovement.value, projectileSpeed, 0.0)
-							profilerEvents.end()
 							
 							if (result == null) {
 								
 								log.warn("Unable to find intercept for laser and target ${target.entityID}, projectileSpeed $projectileSpeed")
 
-								val poweredState = partStates[weapon][PoweredPartState::class]
+								val poweredState = partStates[weapon].powered
 								
 								if (poweredState.requestedPower != 0L) {
 									poweredState.requestedPower = 0
@@ -401,12 +450,14 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 								
 							} else {
 								
-								val (timeToIntercept, aimPosition, interceptPosition, interceptVelocity, relativeInterceptVelocity) = result
+								val timeToIntercept = result.timeToIntercept
+								val interceptPosition = result.interceptPosition
+								val interceptVelocity = result.interceptVelocity
 								val distance = tmpPosition.set(interceptPosition).sub(shipMovement.value.position).len().toLong()
 								val beamArea = part.getBeamArea(distance)
 								val damage: Long = part.getDeliveredEnergyTo1MSquareAtDistance(distance)
 								
-								val galacticTime = timeToIntercept + galaxy.time
+								val galacticTime = timeToIntercept + starSystem.time
 								val galacticDays = (galacticTime / (60 * 60 * 24)).toInt()
 								val days = (timeToIntercept / (60 * 60 * 24)).toInt()
 								
@@ -414,20 +465,7 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 
 //									println("laser projectileSpeed $projectileSpeed m/s, interceptSpeed ${interceptVelocity.len() / 100} m/s, aimPosition $aimPosition, interceptPosition $interceptPosition, timeToIntercept $timeToIntercept s, interceptAt ${Units.daysToDate(galacticDays)} ${Units.secondsToString(galacticTime)}")
 									
-									val munitionEntityID = starSystem.createEntity(ownerEmpire)
-									renderMapper.create(munitionEntityID)
-									nameMapper.create(munitionEntityID).set(name = part.name + " laser")
-									
-									laserShotMapper.create(munitionEntityID).set(target.entityID, damage, beamArea)
-									
-									val munitionMovement = movementMapper.create(munitionEntityID)
-									munitionMovement.set(shipMovement.value, galaxy.time)
-									munitionMovement.previous.value.velocity.set(interceptVelocity)
-									munitionMovement.previous.value.acceleration.set(0, 0)
-									munitionMovement.setPredictionCoast(MovementValues(interceptPosition, interceptVelocity, Vector2L()), aimPosition, galacticTime)
-									
-									timedLifeMapper.create(munitionEntityID).endTime = galacticTime
-									predictedMovementMapper.create(munitionEntityID)
+									salvoSystem.addLaser(ownerEmpire, part, target.entityID, damage, beamArea, shipMovement.value.position, interceptPosition, interceptVelocity, galacticTime)
 									
 									chargedState.charge -= part.capacitor
 									ship.heat += ((100 - part.efficiency) * chargedState.charge) / 100
@@ -443,7 +481,7 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 
 //									log.warn("Unable to find effective intercept for laser $part and target ${target.entityID}")
 
-									val poweredState = partStates[weapon][PoweredPartState::class]
+									val poweredState = partStates[weapon].powered
 
 									if (poweredState.requestedPower != 0L) {
 										poweredState.requestedPower = 0
@@ -453,24 +491,24 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 							}
 						}
 						is Railgun -> {
-							val ammoState = partStates[weapon][AmmunitionPartState::class]
-							val chargedState = partStates[weapon][ChargedPartState::class]
+							val ammoState = partStates[weapon].ammunition
+							val chargedState = partStates[weapon].charged
 
 							if (chargedState.charge >= part.capacitor && ammoState.amount > 0) {
 
 								val munitionHull = ammoState.type!! as SimpleMunitionHull
 								val projectileSpeed = (chargedState.charge * part.efficiency) / (100 * munitionHull.loadedMass)
 								
-								profilerEvents.start("getInterceptionPosition1")
-								val result = getInterceptionPosition1(shipMovement.value, targetMovement.value, projectileSpeed.toDouble())
+								val result = solveIntercept(target.entityID, 0, projectileSpeed.toDouble()) {
+									getInterceptionPosition1(shipMovement.value, targetMovement.value, projectileSpeed.toDouble())
+								}
 //										val result = getInterceptionPosition(shipMovement.value, targetMovement.value, projectileSpeed.toDouble(), 0.0)
-								profilerEvents.end()
 								
 								if (result == null) {
 									
 //											log.warn("Unable to find intercept for railgun $part and target ${target.entityID}, projectileSpeed ${projectileSpeed / 100}")
 									
-									val poweredState = partStates[weapon][PoweredPartState::class]
+									val poweredState = partStates[weapon].powered
 									
 									if (poweredState.requestedPower != 0L) {
 										poweredState.requestedPower = 0
@@ -479,8 +517,10 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 									
 								} else {
 									
-									val (timeToIntercept, aimPosition, interceptPosition, interceptVelocity, relativeInterceptVelocity) = result
-									val galacticTime = timeToIntercept + galaxy.time
+									val timeToIntercept = result.timeToIntercept
+									val interceptPosition = result.interceptPosition
+									val interceptVelocity = result.interceptVelocity
+									val galacticTime = timeToIntercept + starSystem.time
 									val galacticDays = (galacticTime / (60 * 60 * 24)).toInt()
 									val days = (timeToIntercept / (60 * 60 * 24)).toInt()
 									
@@ -488,23 +528,7 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 										
 //												println("railgun projectileSpeed ${projectileSpeed / 100} m/s, interceptSpeed ${interceptVelocity.len() / 100} m/s, aimPosition $aimPosition, interceptPosition $interceptPosition, timeToIntercept $timeToIntercept s, interceptAt ${Units.daysToDate(galacticDays)} ${Units.secondsToString(galacticTime)}")
 									
-										val munitionEntityID = starSystem.createEntity(ownerEmpire)
-										renderMapper.create(munitionEntityID)
-										nameMapper.create(munitionEntityID).set(name = munitionHull.name)
-										
-										railgunShotMapper.create(munitionEntityID).set(target.entityID, munitionHull)
-										hpMapper.create(munitionEntityID).set(1)
-										
-										val munitionMovement = movementMapper.create(munitionEntityID)
-										munitionMovement.set(shipMovement.value, galaxy.time)
-										munitionMovement.previous.value.velocity.set(interceptVelocity)
-										munitionMovement.previous.value.acceleration.set(0, 0)
-										munitionMovement.setPredictionCoast(MovementValues(interceptPosition, interceptVelocity, Vector2L()), aimPosition, galacticTime)
-										
-										timedLifeMapper.create(munitionEntityID).endTime = galacticTime
-										predictedMovementMapper.create(munitionEntityID)
-										
-//											galaxyGroupSystem.add(starSystem.getEntityReference(munitionEntityID), GroupSystem.SELECTED)
+										salvoSystem.addRailgun(ownerEmpire, munitionHull, target.entityID, shipMovement.value.position, interceptPosition, interceptVelocity, galacticTime)
 										
 										ship.heat += ((100 - part.efficiency) * chargedState.charge) / 100
 									
@@ -529,7 +553,7 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 										
 									} else {
 										
-										val poweredState = partStates[weapon][PoweredPartState::class]
+										val poweredState = partStates[weapon].powered
 										
 										if (poweredState.requestedPower != 0L) {
 											poweredState.requestedPower = 0
@@ -540,7 +564,7 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 							}
 						}
 						is MissileLauncher -> {
-							val ammoState = partStates[weapon][AmmunitionPartState::class]
+							val ammoState = partStates[weapon].ammunition
 
 							if (ammoState.amount > 0) {
 								
@@ -556,34 +580,34 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 								
 								var result: InterceptResult?
 								
+								val launchSpeed = missileLaunchSpeed.toDouble() / 100
+								val averageAcceleration = advMunitionHull.getAverageAcceleration().toDouble() / 100
+								val minAcceleration = advMunitionHull.getMinAcceleration().toDouble() / 100
+								val maxAcceleration = advMunitionHull.getMaxAcceleration().toDouble() / 100
+								val thrustTime = advMunitionHull.thrustTime.toDouble()
+								
 								if (electricalThrusters) {
-									profilerEvents.start("getInterceptionPosition2")
-									result = getInterceptionPosition2(shipMovement.value, targetMovement.value, missileLaunchSpeed.toDouble() / 100, advMunitionHull.getAverageAcceleration().toDouble() / 100)
-									profilerEvents.end()
+									result = solveIntercept(target.entityID, 1, launchSpeed, averageAcceleration) {
+										getInterceptionPosition2(shipMovement.value, targetMovement.value, launchSpeed, averageAcceleration)
+									}
 									
 								} else { // chemical
-									profilerEvents.start("getInterceptionPosition3")
-									result = getInterceptionPosition3(shipMovement.value, targetMovement.value, missileLaunchSpeed.toDouble() / 100, advMunitionHull.getMinAcceleration().toDouble() / 100, advMunitionHull.getMaxAcceleration().toDouble() / 100)
-									profilerEvents.end()
-								}
-								
-								if (result == null) {
-									log.warn("Unable to find intercept for missile $advMunitionHull and target ${target.entityID} within thrust time")
-									profilerEvents.end()
-									continue
+									result = solveIntercept(target.entityID, 2, launchSpeed, minAcceleration, maxAcceleration, thrustTime) {
+										getInterceptionPosition3(shipMovement.value, targetMovement.value, launchSpeed, minAcceleration, maxAcceleration, thrustTime)
+									}
 								}
 								
-								if (result.timeToIntercept > advMunitionHull.thrustTime) { // Runs out of fuel, try with coasting
+								if (result == null || result.timeToIntercept > advMunitionHull.thrustTime) { // Runs out of fuel, try with coasting
 									
 									if (electricalThrusters) {
-										profilerEvents.start("getInterceptionPosition4")
-										result = getInterceptionPosition4(shipMovement.value, targetMovement.value, missileLaunchSpeed.toDouble() / 100, advMunitionHull.getAverageAcceleration().toDouble() / 100, advMunitionHull.thrustTime.toDouble())
-										profilerEvents.end()
+										result = solveIntercept(target.entityID, 3, launchSpeed, averageAcceleration, thrustTime) {
+											getInterceptionPosition4(shipMovement.value, targetMovement.value, launchSpeed, averageAcceleration, thrustTime)
+										}
 										
 									} else { // chemical
-										profilerEvents.start("getInterceptionPosition5")
-										result = getInterceptionPosition5(shipMovement.value, targetMovement.value, missileLaunchSpeed.toDouble() / 100, advMunitionHull.getMinAcceleration().toDouble() / 100, advMunitionHull.getMaxAcceleration().toDouble() / 100, advMunitionHull.thrustTime.toDouble())
-										profilerEvents.end()
+										result = solveIntercept(target.entityID, 4, launchSpeed, minAcceleration, maxAcceleration, thrustTime) {
+											getInterceptionPosition5(shipMovement.value, targetMovement.value, launchSpeed, minAcceleration, maxAcceleration, thrustTime)
+										}
 									}
 
 									if (result == null) {
@@ -593,7 +617,10 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 									}
 								}
 								
-								val (timeToIntercept, aimPosition, interceptPosition, interceptVelocity, relativeInterceptVelocity) = result
+								val timeToIntercept = result.timeToIntercept
+								val aimPosition = result.aimPosition
+								val interceptPosition = result.interceptPosition
+								val interceptVelocity = result.interceptVelocity
 								
 								if (timeToIntercept <= advMunitionHull.thrustTime) {
 									
@@ -601,7 +628,7 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 									
 									val missileAcceleration = advMunitionHull.getAverageAcceleration().toDouble()
 									
-									val galacticTime = timeToIntercept + galaxy.time
+									val galacticTime = timeToIntercept + starSystem.time
 									val galacticDays = (galacticTime / (60 * 60 * 24)).toInt()
 									val relativeSpeed = targetMovement.value.velocity.cpy().sub(shipMovement.value.velocity).len() * FastMath.cos(targetMovement.value.velocity.angleRad(shipMovement.value.velocity))
 									val impactSpeed = relativeSpeed + missileLaunchSpeed + missileAcceleration * FastMath.min(timeToIntercept, advMunitionHull.thrustTime.toLong())
@@ -624,12 +651,12 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 									hpMapper.create(munitionEntityID).set(advMunitionHull)
 									
 									val munitionMovement = movementMapper.create(munitionEntityID)
-									munitionMovement.set(shipMovement.value, galaxy.time)
+									munitionMovement.set(shipMovement.value, starSystem.time)
 									munitionMovement.previous.value.velocity.set(initialVelocity)
 									munitionMovement.previous.value.acceleration.set(initialAcceleration)
-									munitionMovement.setPredictionBallistic(MovementValues(interceptPosition, interceptVelocity, interceptAcceleration), aimPosition, advMunitionHull.getMinAcceleration(), galacticTime)
+									munitionMovement.setPredictionBallistic(MovementValues(interceptPosition.cpy(), interceptVelocity.cpy(), interceptAcceleration), aimPosition.cpy(), advMunitionHull.getMinAcceleration(), galacticTime)
 									
-									timedLifeMapper.create(munitionEntityID).endTime = FastMath.min(galaxy.time + advMunitionHull.thrustTime, galacticTime)
+									timedLifeMapper.create(munitionEntityID).endTime = FastMath.min(starSystem.time + advMunitionHull.thrustTime, galacticTime)
 									predictedMovementMapper.create(munitionEntityID)
 									
 //												galaxyGroupSystem.add(starSystem.getEntityReference(munitionEntityID), GroupSystem.SELECTED)
@@ -675,18 +702,56 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 		profilerEvents.end()
 	}
 	
+	/**
+	 * Solves with solver unless the current shooter already solved for the same target and profile
+	 */
+	private inline fun solveIntercept(targetID: Int, solver: Int, p1: Double, p2: Double = 0.0, p3: Double = 0.0, p4: Double = 0.0, solve: () -> InterceptResult?): InterceptResult? {
+		val index = interceptCache.indexOf(targetID, solver, p1, p2, p3, p4)
+		
+		if (index != -1) {
+			return interceptCache.getResult(index)
+		}
+		
+		val profilerEvents = starSystem.workingShadow.profilerEvents
+		profilerEvents.start(INTERCEPTION_EVENTS[solver])
+		val result = solve()
+		profilerEvents.end()
+		
+		interceptCache.put(targetID, solver, p1, p2, p3, p4, result)
+		return result
+	}
+	
+	@Subscribe
+	fun nonLinearMovementEvent(event: NonLinearMovementEvent) {
+		interceptCache.invalidate(event.entityID)
+	}
+	
+	override fun end() {
+		if (interceptCache.hits > 0 || interceptCache.misses > 0) {
+			val profilerEvents = starSystem.workingShadow.profilerEvents
+			profilerEvents.start(INTERCEPT_CACHE_HITS_EVENT, interceptCache.hits)
+			profilerEvents.end()
+			profilerEvents.start(INTERCEPT_CACHE_MISSES_EVENT, interceptCache.misses)
+			profilerEvents.end()
+			interceptCache.resetStats()
+		}
+	}
+	
 	val tmpVelocity = Vector2L()
+	private val tmpTargetPosition = Vector2L()
+	private val tmpTargetVelocity = Vector2L()
+	private val nearbyEntities = IntBag()
 	
 	fun munitionExpired(entityID: Int) {
 
-		val movement = movementMapper.get(entityID).get(galaxy.time).value
-		var targetMovement: MovementValues? = null
+		val movement = movementMapper.get(entityID).get(starSystem.time).value
 		val laser: LaserShotComponent?
 		val railgun: RailgunShotComponent?
 		val missile: MissileComponent? = missileMapper.get(entityID)
 		
 		var targetID: Int
-		val damage: Long
+		var damage: Long = 0
+		var kineticMass: Long = 0
 		val damagePattern: DamagePattern
 		
 		if (missile != null) {
@@ -699,9 +764,7 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 				
 			} else {
 				damagePattern = DamagePattern.KINETIC
-				targetMovement = movementMapper.get(targetID).get(galaxy.time).value
-				val relativeVelocity = tmpVelocity.set(movement.velocity).sub(targetMovement.velocity).len() / 100
-				damage = ((missile.hull.emptyMass * relativeVelocity * relativeVelocity) / 2).toLong()
+				kineticMass = missile.hull.emptyMass.toLong()
 			}
 			
 		} else if (run { laser = laserShotMapper.get(entityID); true } && laser != null) {
@@ -720,9 +783,7 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 				
 			} else {
 				damagePattern = DamagePattern.KINETIC
-				targetMovement = movementMapper.get(targetID).get(galaxy.time).value
-				val relativeVelocity = tmpVelocity.set(movement.velocity).sub(targetMovement.velocity).len() / 100
-				damage = ((railgun.hull.loadedMass * relativeVelocity * relativeVelocity) / 2).toLong()
+				kineticMass = railgun.hull.loadedMass.toLong()
 			}
 		
 		} else {
@@ -731,26 +792,73 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 		
 		if (!world.getEntityManager().isActive(targetID)) {
 			
-			if (missile != null) {
-				//TODO retarget
+			if (missile == null) {
+				return
 			}
 			
-			return
+			targetID = getRetarget(entityID, movement.position)
+			
+			if (targetID == -1) {
+				return
+			}
+		}
+		
+		munitionImpact(targetID, movement.position, movement.velocity, damagePattern, damage, kineticMass)
+	}
+	
+	/**
+	 * Nearest ship of another empire within MISSILE_RETARGET_RADIUS of a munition whose target is gone, or -1
+	 */
+	private fun getRetarget(munitionID: Int, position: Vector2L): Int {
+		val empireID = uuidMapper.get(munitionID).uuid.empireID
+		
+		proximitySystem.getNearest(position.x, position.y, 8, nearbyEntities, MISSILE_RETARGET_RADIUS, munitionID)
+		
+		nearbyEntities.forEachFast { entityID ->
+			if (shipMapper.has(entityID) && ownerMapper.get(entityID).empire.id != empireID) {
+				return entityID
+			}
 		}
 		
+		return -1
+	}
+	
+	/**
+	 * Hit by a munition at position, target must be active.
+	 * Kinetic damage is calculated from kineticMass in kg and the velocity relative to the target.
+	 */
+	fun munitionImpact(targetID: Int, position: Vector2L, velocity: Vector2L, damagePattern: DamagePattern, damage: Long, kineticMass: Long) {
+		
 		//TODO if missile or railgun attempt CIWS defence
 		
-		if (targetMovement == null) {
-			targetMovement = movementMapper.get(targetID).get(galaxy.time).value
+		val store = movementSystem.store
+		val targetPosition: Vector2L
+		val targetVelocity: Vector2L
+		
+		if (store.isLinear(targetID)) {
+			targetPosition = store.getPosition(targetID, tmpTargetPosition)
+			targetVelocity = store.getVelocity(targetID, tmpTargetVelocity)
+			
+		} else {
+			val targetMovement = movementMapper.get(targetID).get(starSystem.time).value
+			targetPosition = targetMovement.position
+			targetVelocity = targetMovement.velocity
+		}
+		
+		var damageEnergy = damage
+		
+		if (damagePattern == DamagePattern.KINETIC) {
+			val relativeVelocity = tmpVelocity.set(velocity).sub(targetVelocity).len() / 100
+			damageEnergy = ((kineticMass * relativeVelocity * relativeVelocity) / 2).toLong()
 		}
 		
-		val distanceFromTarget = tmpPosition.set(movement.position).sub(targetMovement.position).len()
+		val distanceFromTarget = tmpPosition.set(position).sub(targetPosition).len()
 		
 		if (distanceFromTarget < 1000L) { //TODO < 1000 + target length
 			return
 		}
 		
-		applyDamage(targetID, damage, damagePattern)
+		applyDamage(targetID, damageEnergy, damagePattern)
 	}
 	
 	fun applyDamage(entityID: Int, damageEnergy: Long = 0, damagePattern: DamagePattern) {
@@ -849,7 +957,7 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 			for (i in 0 until shields.size) { //TODO spread damage evenly across all shield parts
 				val partRef = shields[i]
 				
-				val chargedState = partStates[partRef][ChargedPartState::class]
+				val chargedState = partStates[partRef].charged
 				
 				val partDamage = FastMath.min(chargedState.charge, blockedDamage)
 				blockedDamage -= partDamage
@@ -1029,415 +1137,77 @@ class WeaponSystem : IteratingSystem(FAMILY), PreSystem {
 		return damage * 1000
 	}
 	
-	data class InterceptResult(val timeToIntercept: Long,
-	                           val aimPosition: Vector2L,
-	                           val interceptPosition: Vector2L,
-	                           val interceptVelocity: Vector2L,
-	                           val relativeInterceptVelocity: Vector2L)
-	
 	/**
-	 * Calculates intercept with position, velocity, timed varying acceleration and then coasting
-	 * Assumes timeToIntercept will be longer than thrust time
+	 * Calculates intercept with position, velocity, timed varying acceleration and then coasting.
+	 * The returned result is reused by the next call
 	 */
 	fun getInterceptionPosition5(shooterMovement: MovementValues, // in m, cm/s, cm/s²
-															 targetMovement: MovementValues, // in m, cm/s, cm/s²
-															 missileLaunchSpeed: Double, // in m/s
-															 missileStartAcceleration: Double, // in m/s²
-															 missileEndAcceleration: Double, // in m/s²
-															 missileAccelTime: Double, // in s
+	                             targetMovement: MovementValues, // in m, cm/s, cm/s²
+	                             missileLaunchSpeed: Double, // in m/s
+	                             missileStartAcceleration: Double, // in m/s²
+	                             missileEndAcceleration: Double, // in m/s²
+	                             missileAccelTime: Double // in s
 	): InterceptResult? {
-		//TODO implement
-//		val targetAcceleration = Vector2D(targetMovement.acceleration.x.toDouble(), targetMovement.acceleration.y.toDouble()).div(100.0)
-//		val relativeVelocity = Vector2D((targetMovement.velocity.x - shooterMovement.velocity.x).toDouble(), (targetMovement.velocity.y - shooterMovement.velocity.y).toDouble()).div(100.0)
-//		val relativePosition = Vector2D((targetMovement.position.x - shooterMovement.position.x).toDouble(), (targetMovement.position.y - shooterMovement.position.y).toDouble())
-//
-//		// The math behind it is this:
-//		// (A+B+C)^2 = (A+B+C).(A+B+C) = A.A + B.B + C.C + 2*(A.B + A.C + B.C)
-//
-//		// interception possible, when
-//		// | (P + V*t + A/2 * t^2) | - (v*t + 1/2 * a * t^2) = 0
-//
-//		// (target/left side:)
-//		// -> P'(t) = P.P + V.V * t^2 + 1/4 * A.A * t^4 + 2 * P.V * t + 2/2 * P.A * t^2 + 2/2 * V.A * t^3
-//		// = P.P + 2 * P.V * t + (V.V + P.A) * t^2 + V.A * t^3 + 1/4 * A.A * t^4
-//
-//		// (interceptor/right)
-//		// -> v^2 * t^2 + 1/4 * a^2 * t^4 + v*a * t^3
-//
-//		// final polynomial:
-//		// (1/4 * A.A - 1/4 * a^2) * t^4
-//		// (V.A - v*a) * t^3
-//		// (V.V + P.A - v^2) * t^2
-//		// (2 * P.V) * t^1
-//		// (P.P) * t^0
-//
-//		val coefs = DoubleArray(5)
-//		coefs[4] = targetAcceleration.dot(targetAcceleration) / 4.0 - (missileAcceleration * missileAcceleration) / 4.0
-//		coefs[3] = relativeVelocity.dot(targetAcceleration) - missileLaunchSpeed * missileAcceleration
-//		coefs[2] = relativePosition.dot(targetAcceleration) + relativeVelocity.dot(relativeVelocity) - (missileLaunchSpeed * missileLaunchSpeed)
-//		coefs[1] = 2 * relativePosition.dot(relativeVelocity)
-//		coefs[0] = relativePosition.dot(relativePosition)
-//
-//		try {
-//			var initialGuess = getPositiveRootOfQuadraticEquation(missileEndAcceleration - missileStartAcceleration, missileLaunchSpeed, -relativePosition.len())
-//
-//			if (initialGuess.isNaN() || initialGuess <= 0) {
-//				log.warn("invalid initialGuess $initialGuess")
-//				initialGuess = 1.0
-//			}
-//
-//			val complexRoots = polynomialSolver.solveAllComplex(coefs, initialGuess, POLYNOMIAL_MAX_ITERATIONS)
-//
-//			var solvedTime: Double? = null
-//
-//			if (complexRoots != null) {
-//				for (root in complexRoots) {
-////					println("complex root $root")
-//					if (root.getImaginary() == 0.0 && root.getReal() > 0 && (solvedTime == null || root.getReal() < solvedTime)) {
-//						solvedTime = root.getReal()
-//					}
-//				}
-//			}
-//
-////			println("solvedTime $solvedTime")
-//
-//			if (solvedTime != null) {
-//
-//				// RPos + t * RVel + (t^2 * TAccel) / 2
-//				val relativeAimPosition = relativePosition.set(relativeVelocity).scl(solvedTime).add(targetAcceleration.scl(0.5 * solvedTime * solvedTime))
-//
-//				val aimPosition = targetMovement.position.cpy()
-//				aimPosition.add(relativeAimPosition.x.toLong(), relativeAimPosition.y.toLong())
-//
-//				val addedVelocity = relativePosition.set(missileLaunchSpeed + missileAcceleration * solvedTime, 0.0).rotateRad(shooterMovement.position.angleToRad(aimPosition)).scl(100.0)
-//				relativeVelocity.scl(100.0).add(addedVelocity)
-//				val interceptVelocity = shooterMovement.velocity.cpy().add(addedVelocity.x.toLong(), addedVelocity.y.toLong())
-//
-//				val interceptPosition = targetMovement.acceleration.cpy().scl(0.5 * solvedTime * solvedTime)
-//				interceptPosition.mulAdd(targetMovement.velocity, FastMath.round(solvedTime))
-//				interceptPosition.div(100).add(targetMovement.position)
-//
-//				return InterceptResult(FastMath.round(solvedTime), aimPosition, interceptPosition, interceptVelocity, Vector2L(relativeVelocity.x.toLong(), relativeVelocity.y.toLong()))
-//			}
-//
-//		} catch (e: TooManyEvaluationsException) {
-//			log.warn("Unable to solve intercept polynomial: " + e.message)
-//		}
-
-		return null
+		setInterceptMovement(shooterMovement, targetMovement)
+		return if (interceptSolver.solveBoostCoast(missileLaunchSpeed, missileStartAcceleration, missileEndAcceleration, missileAccelTime, interceptResult)) interceptResult else null
 	}
 	
 	/**
-	 * Calculates intercept with position, velocity, timed constant acceleration and then coasting
-	 * Assumes timeToIntercept will be longer than thrust time
+	 * Calculates intercept with position, velocity, timed constant acceleration and then coasting.
+	 * The returned result is reused by the next call
  	 */
 	fun getInterceptionPosition4(shooterMovement: MovementValues, // in m, cm/s, cm/s²
-															 targetMovement: MovementValues, // in m, cm/s, cm/s²
-															 missileLaunchSpeed: Double, // in m/s
-															 missileAcceleration: Double, // in m/s²
-															 missileAccelTime: Double, // in s
+	                             targetMovement: MovementValues, // in m, cm/s, cm/s²
+	                             missileLaunchSpeed: Double, // in m/s
+	                             missileAcceleration: Double, // in m/s²
+	                             missileAccelTime: Double // in s
 	): InterceptResult? {
-		//TODO implement
-//		val targetAcceleration = Vector2D(targetMovement.acceleration.x.toDouble(), targetMovement.acceleration.y.toDouble()).div(100.0)
-//		val relativeVelocity = Vector2D((targetMovement.velocity.x - shooterMovement.velocity.x).toDouble(), (targetMovement.velocity.y - shooterMovement.velocity.y).toDouble()).div(100.0)
-//		val relativePosition = Vector2D((targetMovement.position.x - shooterMovement.position.x).toDouble(), (targetMovement.position.y - shooterMovement.position.y).toDouble())
-//
-//		// The math behind it is this:
-//		// (A+B+C)^2 = (A+B+C).(A+B+C) = A.A + B.B + C.C + 2*(A.B + A.C + B.C)
-//
-//		// interception possible, when
-//		// | (P + V*t + A/2 * t^2) | - (v*t + 1/2 * a * t^2) = 0
-//
-//		// (target/left side:)
-//		// -> P'(t) = P.P + V.V * t^2 + 1/4 * A.A * t^4 + 2 * P.V * t + 2/2 * P.A * t^2 + 2/2 * V.A * t^3
-//		// = P.P + 2 * P.V * t + (V.V + P.A) * t^2 + V.A * t^3 + 1/4 * A.A * t^4
-//
-//		// (interceptor/right)
-//		// -> v^2 * t^2 + 1/4 * a^2 * t^4 + v*a * t^3
-//
-//		// final polynomial:
-//		// (1/4 * A.A - 1/4 * a^2) * t^4
-//		// (V.A - v*a) * t^3
-//		// (V.V + P.A - v^2) * t^2
-//		// (2 * P.V) * t^1
-//		// (P.P) * t^0
-//
-//		val coefs = DoubleArray(5)
-//		coefs[4] = targetAcceleration.dot(targetAcceleration) / 4.0 - (missileAcceleration * missileAcceleration) / 4.0
-//		coefs[3] = relativeVelocity.dot(targetAcceleration) - missileLaunchSpeed * missileAcceleration
-//		coefs[2] = relativePosition.dot(targetAcceleration) + relativeVelocity.dot(relativeVelocity) - (missileLaunchSpeed * missileLaunchSpeed)
-//		coefs[1] = 2 * relativePosition.dot(relativeVelocity)
-//		coefs[0] = relativePosition.dot(relativePosition)
-//
-//		try {
-//			var initialGuess = getPositiveRootOfQuadraticEquation(missileAcceleration, missileLaunchSpeed, -relativePosition.len())
-//
-//			if (initialGuess.isNaN() || initialGuess <= 0) {
-//				log.warn("invalid initialGuess $initialGuess")
-//				initialGuess = 1.0
-//			}
-//
-//			val complexRoots = polynomialSolver.solveAllComplex(coefs, initialGuess, POLYNOMIAL_MAX_ITERATIONS)
-//
-//			var solvedTime: Double? = null
-//
-//			if (complexRoots != null) {
-//				for (root in complexRoots) {
-////					println("complex root $root")
-//					if (root.getImaginary() == 0.0 && root.getReal() > 0 && (solvedTime == null || root.getReal() < solvedTime)) {
-//						solvedTime = root.getReal()
-//					}
-//				}
-//			}
-//
-////			println("solvedTime $solvedTime")
-//
-//			if (solvedTime != null) {
-//
-//				// RPos + t * RVel + (t^2 * TAccel) / 2
-//				val relativeAimPosition = relativePosition.set(relativeVelocity).scl(solvedTime).add(targetAcceleration.scl(0.5 * solvedTime * solvedTime))
-//
-//				val aimPosition = targetMovement.position.cpy()
-//				aimPosition.add(relativeAimPosition.x.toLong(), relativeAimPosition.y.toLong())
-//
-//				val addedVelocity = relativePosition.set(missileLaunchSpeed + missileAcceleration * solvedTime, 0.0).rotateRad(shooterMovement.position.angleToRad(aimPosition)).scl(100.0)
-//				relativeVelocity.scl(100.0).add(addedVelocity)
-//				val interceptVelocity = shooterMovement.velocity.cpy().add(addedVelocity.x.toLong(), addedVelocity.y.toLong())
-//
-//				val interceptPosition = targetMovement.acceleration.cpy().scl(0.5 * solvedTime * solvedTime)
-//				interceptPosition.mulAdd(targetMovement.velocity, FastMath.round(solvedTime))
-//				interceptPosition.div(100).add(targetMovement.position)
-//
-//				return InterceptResult(FastMath.round(solvedTime), aimPosition, interceptPosition, interceptVelocity, Vector2L(relativeVelocity.x.toLong(), relativeVelocity.y.toLong()))
-//			}
-//
-//		} catch (e: TooManyEvaluationsException) {
-//			log.warn("Unable to solve intercept polynomial: " + e.message)
-//		}
-		
-		return null
+		setInterceptMovement(shooterMovement, targetMovement)
+		return if (interceptSolver.solveBoostCoast(missileLaunchSpeed, missileAcceleration, missileAcceleration, missileAccelTime, interceptResult)) interceptResult else null
 	}
 	
 	/**
-	 * Calculates intercept with position, velocity and varying acceleration
+	 * Calculates intercept with position, velocity and acceleration varying during missileAccelTime, null if it is not reached within that time.
+	 * The returned result is reused by the next call
 	 */
 	fun getInterceptionPosition3(shooterMovement: MovementValues, // in m, cm/s, cm/s²
-															 targetMovement: MovementValues, // in m, cm/s, cm/s²
-															 missileLaunchSpeed: Double, // in m/s
-															 missileStartAcceleration: Double, // in m/s²
-															 missileEndAcceleration: Double, // in m/s²
+	                             targetMovement: MovementValues, // in m, cm/s, cm/s²
+	                             missileLaunchSpeed: Double, // in m/s
+	                             missileStartAcceleration: Double, // in m/s²
+	                             missileEndAcceleration: Double, // in m/s²
+	                             missileAccelTime: Double // in s
 	): InterceptResult? {
-		//TODO implement
-//		val targetAcceleration = Vector2D(targetMovement.acceleration.x.toDouble(), targetMovement.acceleration.y.toDouble()).div(100.0)
-//		val relativeVelocity = Vector2D((targetMovement.velocity.x - shooterMovement.velocity.x).toDouble(), (targetMovement.velocity.y - shooterMovement.velocity.y).toDouble()).div(100.0)
-//		val relativePosition = Vector2D((targetMovement.position.x - shooterMovement.position.x).toDouble(), (targetMovement.position.y - shooterMovement.position.y).toDouble())
-//
-//		// The math behind it is this:
-//		// (A+B+C)^2 = (A+B+C).(A+B+C) = A.A + B.B + C.C + 2*(A.B + A.C + B.C)
-//
-//		// interception possible, when
-//		// | (P + V*t + A/2 * t^2) | - (v*t + 1/2 * a * t^2) = 0
-//
-//		// (target/left side:)
-//		// -> P'(t) = P.P + V.V * t^2 + 1/4 * A.A * t^4 + 2 * P.V * t + 2/2 * P.A * t^2 + 2/2 * V.A * t^3
-//		// = P.P + 2 * P.V * t + (V.V + P.A) * t^2 + V.A * t^3 + 1/4 * A.A * t^4
-//
-//		// (interceptor/right)
-//		// -> v^2 * t^2 + 1/4 * a^2 * t^4 + v*a * t^3
-//
-//		// final polynomial:
-//		// (1/4 * A.A - 1/4 * a^2) * t^4
-//		// (V.A - v*a) * t^3
-//		// (V.V + P.A - v^2) * t^2
-//		// (2 * P.V) * t^1
-//		// (P.P) * t^0
-//
-//		val coefs = DoubleArray(5)
-//		coefs[4] = targetAcceleration.dot(targetAcceleration) / 4.0 - (missileAcceleration * missileAcceleration) / 4.0
-//		coefs[3] = relativeVelocity.dot(targetAcceleration) - missileLaunchSpeed * missileAcceleration
-//		coefs[2] = relativePosition.dot(targetAcceleration) + relativeVelocity.dot(relativeVelocity) - (missileLaunchSpeed * missileLaunchSpeed)
-//		coefs[1] = 2 * relativePosition.dot(relativeVelocity)
-//		coefs[0] = relativePosition.dot(relativePosition)
-//
-//		try {
-//			var initialGuess = getPositiveRootOfQuadraticEquation(missileEndAcceleration - missileStartAcceleration, missileLaunchSpeed, -relativePosition.len())
-//
-//			if (initialGuess.isNaN() || initialGuess <= 0) {
-//				log.warn("invalid initialGuess $initialGuess")
-//				initialGuess = 1.0
-//			}
-//
-//			val complexRoots = polynomialSolver.solveAllComplex(coefs, initialGuess, POLYNOMIAL_MAX_ITERATIONS)
-//
-//			var solvedTime: Double? = null
-//
-//			if (complexRoots != null) {
-//				for (root in complexRoots) {
-////					println("complex root $root")
-//					if (root.getImaginary() == 0.0 && root.getReal() > 0 && (solvedTime == null || root.getReal() < solvedTime)) {
-//						solvedTime = root.getReal()
-//					}
-//				}
-//			}
-//
-////			println("solvedTime $solvedTime")
-//
-//			if (solvedTime != null) {
-//
-//				// RPos + t * RVel + (t^2 * TAccel) / 2
-//				val relativeAimPosition = relativePosition.set(relativeVelocity).scl(solvedTime).add(targetAcceleration.scl(0.5 * solvedTime * solvedTime))
-//
-//				val aimPosition = targetMovement.position.cpy()
-//				aimPosition.add(relativeAimPosition.x.toLong(), relativeAimPosition.y.toLong())
-//
-//				val addedVelocity = relativePosition.set(missileLaunchSpeed + missileAcceleration * solvedTime, 0.0).rotateRad(shooterMovement.position.angleToRad(aimPosition)).scl(100.0)
-//				relativeVelocity.scl(100.0).add(addedVelocity)
-//				val interceptVelocity = shooterMovement.velocity.cpy().add(addedVelocity.x.toLong(), addedVelocity.y.toLong())
-//
-//				val interceptPosition = targetMovement.acceleration.cpy().scl(0.5 * solvedTime * solvedTime)
-//				interceptPosition.mulAdd(targetMovement.velocity, FastMath.round(solvedTime))
-//				interceptPosition.div(100).add(targetMovement.position)
-//
-//				return InterceptResult(FastMath.round(solvedTime), aimPosition, interceptPosition, interceptVelocity, Vector2L(relativeVelocity.x.toLong(), relativeVelocity.y.toLong()))
-//			}
-//
-//		} catch (e: TooManyEvaluationsException) {
-//			log.warn("Unable to solve intercept polynomial: " + e.message)
-//		}
-
-		return null
+		setInterceptMovement(shooterMovement, targetMovement)
+		return if (interceptSolver.solveBoost(missileLaunchSpeed, missileStartAcceleration, missileEndAcceleration, missileAccelTime, interceptResult)) interceptResult else null
 	}
 	
 	/**
-	 * Calculates intercept with position, velocity and constant acceleration
+	 * Calculates intercept with position, velocity and constant acceleration.
+	 * The returned result is reused by the next call
  	 */
 	fun getInterceptionPosition2(shooterMovement: MovementValues, // in m, cm/s, cm/s²
-															 targetMovement: MovementValues, // in m, cm/s, cm/s²
-															 missileLaunchSpeed: Double, // in m/s
-															 missileAcceleration: Double // in m/s²
+	                             targetMovement: MovementValues, // in m, cm/s, cm/s²
+	                             missileLaunchSpeed: Double, // in m/s
+	                             missileAcceleration: Double // in m/s²
 	): InterceptResult? {
-		
-		/**
-		https://www.gamedev.net/forums/topic/579481-advanced-intercept-equation
-		https://www.gamedev.net/forums/?topic_id=401165&page=2
-		https://www.gamedev.net/forums/topic/621460-need-help-with-interception-of-accelerated-target/
-		**/
-		
-		val targetAcceleration = Vector2D(targetMovement.acceleration.x.toDouble(), targetMovement.acceleration.y.toDouble()).div(100.0)
-		val relativeVelocity = Vector2D((targetMovement.velocity.x - shooterMovement.velocity.x).toDouble(), (targetMovement.velocity.y - shooterMovement.velocity.y).toDouble()).div(100.0)
-		val relativePosition = Vector2D((targetMovement.position.x - shooterMovement.position.x).toDouble(), (targetMovement.position.y - shooterMovement.position.y).toDouble())
-		
-		// The math behind it is this:
-		// (A+B+C)^2 = (A+B+C).(A+B+C) = A.A + B.B + C.C + 2*(A.B + A.C + B.C)
-		
-		// interception possible, when
-		// | (P + V*t + A/2 * t^2) | - (v*t + 1/2 * a * t^2) = 0
-		
-		// (target/left side:)
-		// -> P'(t) = P.P + V.V * t^2 + 1/4 * A.A * t^4 + 2 * P.V * t + 2/2 * P.A * t^2 + 2/2 * V.A * t^3
-		// = P.P + 2 * P.V * t + (V.V + P.A) * t^2 + V.A * t^3 + 1/4 * A.A * t^4
-		
-		// (interceptor/right)
-		// -> v^2 * t^2 + 1/4 * a^2 * t^4 + v*a * t^3
-		
-		// final polynomial:
-		// (1/4 * A.A - 1/4 * a^2) * t^4
-		// (V.A - v*a) * t^3
-		// (V.V + P.A - v^2) * t^2
-		// (2 * P.V) * t^1
-		// (P.P) * t^0
-		
-		val coefs = DoubleArray(5)
-		coefs[4] = targetAcceleration.dot(targetAcceleration) / 4.0 - (missileAcceleration * missileAcceleration) / 4.0
-		coefs[3] = relativeVelocity.dot(targetAcceleration) - missileLaunchSpeed * missileAcceleration
-		coefs[2] = relativePosition.dot(targetAcceleration) + relativeVelocity.dot(relativeVelocity) - (missileLaunchSpeed * missileLaunchSpeed)
-		coefs[1] = 2 * relativePosition.dot(relativeVelocity)
-		coefs[0] = relativePosition.dot(relativePosition)
-		
-		try {
-			var initialGuess = getPositiveRootOfQuadraticEquation(missileAcceleration, missileLaunchSpeed, -relativePosition.len())
-			
-			if (initialGuess.isNaN() || initialGuess <= 0) {
-				log.warn("invalid initialGuess $initialGuess")
-				initialGuess = 1.0
-			}
-			
-			val complexRoots = polynomialSolver.solveAllComplex(coefs, initialGuess, POLYNOMIAL_MAX_ITERATIONS)
-			
-			var solvedTime: Double? = null
-			
-			if (complexRoots != null) {
-				for (root in complexRoots) {
-//					println("complex root $root")
-					if (root.getImaginary() == 0.0 && root.getReal() > 0 && (solvedTime == null || root.getReal() < solvedTime)) {
-						solvedTime = root.getReal()
-					}
-				}
-			}
-			
-//			println("solvedTime $solvedTime, initialGuess $initialGuess")
-			
-			if (solvedTime != null) {
-				
-				// RPos + t * RVel + (t^2 * TAccel) / 2
-				val relativeAimPosition = relativePosition.set(relativeVelocity).scl(solvedTime).add(targetAcceleration.scl(0.5 * solvedTime * solvedTime))
-				
-				val aimPosition = targetMovement.position.cpy()
-				aimPosition.add(relativeAimPosition.x.toLong(), relativeAimPosition.y.toLong())
-				
-				val addedVelocity = relativePosition.set(missileLaunchSpeed + missileAcceleration * solvedTime, 0.0).rotateRad(shooterMovement.position.angleToRad(aimPosition)).scl(100.0)
-				relativeVelocity.scl(100.0).add(addedVelocity)
-				val interceptVelocity = shooterMovement.velocity.cpy().add(addedVelocity.x.toLong(), addedVelocity.y.toLong())
-				
-				val interceptPosition = targetMovement.acceleration.cpy().scl(0.5 * solvedTime * solvedTime)
-				interceptPosition.mulAdd(targetMovement.velocity, FastMath.round(solvedTime))
-				interceptPosition.div(100).add(targetMovement.position)
-				
-				return InterceptResult(FastMath.round(solvedTime), aimPosition, interceptPosition, interceptVelocity, Vector2L(relativeVelocity.x.toLong(), relativeVelocity.y.toLong()))
-			}
-			
-		} catch (e: TooManyEvaluationsException) {
-			log.warn("Unable to solve intercept polynomial: " + e.message)
-		}
-		
-		return null
+		setInterceptMovement(shooterMovement, targetMovement)
+		return if (interceptSolver.solveAccelerating(missileLaunchSpeed, missileAcceleration, interceptResult)) interceptResult else null
 	}
 	
 	/**
-	 * Calculates intercept with position and velocity https://www.gamedev.net/forums/?topic_id=401165
+	 * Calculates intercept with position and velocity.
+	 * The returned result is reused by the next call
  	 */
-	fun getInterceptionPosition1(shooterMovement: MovementValues,
-															 targetMovement: MovementValues,
-															 projectileSpeed: Double
+	fun getInterceptionPosition1(shooterMovement: MovementValues, // in m, cm/s, cm/s²
+	                             targetMovement: MovementValues, // in m, cm/s, cm/s²
+	                             projectileSpeed: Double // in m/s
 	): InterceptResult? {
-		
-		val relativeVelocity = Vector2D((targetMovement.velocity.x - shooterMovement.velocity.x).toDouble(), (targetMovement.velocity.y - shooterMovement.velocity.y).toDouble()).div(100.0)
-		val relativePosition = targetMovement.position.cpy().sub(shooterMovement.position)
-		
-		val a: Double = projectileSpeed * projectileSpeed - relativeVelocity.dot(relativeVelocity)
-		val b: Double = 2 * relativeVelocity.dot(relativePosition.x.toDouble(), relativePosition.y.toDouble())
-		val c: Double = relativePosition.dot(-relativePosition.x, -relativePosition.y).toDouble()
-		
-		val root = getPositiveRootOfQuadraticEquationSafe(a, b, c)
-		
-		if (root == null || root < 0) { // Intercept is not possible
-			return null
-		}
-		
-//		println("simple root $root")
-		
-		relativeVelocity.scl(root)
-		
-		val aimPosition = relativePosition.set(targetMovement.position)
-		aimPosition.add(relativeVelocity.x.toLong(), relativeVelocity.y.toLong())
-		
-		val interceptPosition = targetMovement.velocity.cpy().scl(FastMath.round(root))
-		interceptPosition.div(100).add(targetMovement.position)
-		
-		val projectileVelocity = Vector2D(projectileSpeed, 0.0).rotateRad(shooterMovement.position.angleToRad(aimPosition))
-		relativeVelocity.add(projectileVelocity).scl(100.0)
-		
-		return InterceptResult(FastMath.round(root), aimPosition, interceptPosition, Vector2L(projectileVelocity.x.toLong(), projectileVelocity.y.toLong()), Vector2L(relativeVelocity.x.toLong(), relativeVelocity.y.toLong()))
+		setInterceptMovement(shooterMovement, targetMovement)
+		return if (interceptSolver.solveCoast(projectileSpeed, interceptResult)) interceptResult else null
+	}
+	
+	private fun setInterceptMovement(shooterMovement: MovementValues, targetMovement: MovementValues) {
+		interceptSolver.set(shooterMovement.position, shooterMovement.velocity, targetMovement.position, targetMovement.velocity, targetMovement.acceleration)
 	}
 	
 }
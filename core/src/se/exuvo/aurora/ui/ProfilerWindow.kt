@@ -15,12 +15,11 @@ import imgui.MouseButton
 import imgui.WindowFlag
 import imgui.u32
 import se.exuvo.aurora.ui.UIScreen.UIWindow
-import net.mostlyoriginal.api.utils.pooling.ObjectPool
 import org.apache.commons.math3.util.FastMath
 import se.exuvo.aurora.starsystems.ProfilingSystemInvocationStrategy
-import se.exuvo.aurora.starsystems.CustomSystemInvocationStrategy
 import se.exuvo.aurora.utils.clamp
 import se.exuvo.aurora.utils.toLinearRGB
+import java.util.concurrent.ConcurrentHashMap
 
 // Inspiration https://bitbucket.org/wolfpld/tracy/src/master/
 class ProfilerWindow : UIWindow() {
@@ -28,6 +27,34 @@ class ProfilerWindow : UIWindow() {
 		const val BAG_SIZE = 1024
 		const val ZOOM_MIN = 0.001f
 		const val ZOOM_MAX = 0.05f
+		
+		const val NO_ARG = Int.MIN_VALUE
+		private const val END = -1L
+		
+		private val eventIDs = ConcurrentHashMap<String, Int>()
+		private val eventNames = Bag<String>()
+		
+		/**
+		 * Returns the ID of event name, registering it if new. Register hot events once and keep the ID.
+		 */
+		@JvmStatic
+		fun registerEvent(name: String): Int {
+			val eventID = eventIDs[name]
+			
+			if (eventID != null) {
+				return eventID
+			}
+			
+			synchronized(eventNames) {
+				return eventIDs.getOrPut(name) {
+					eventNames.add(name)
+					eventNames.size() - 1
+				}
+			}
+		}
+		
+		@JvmStatic
+		fun getEventName(eventID: Int): String = synchronized(eventNames) { eventNames[eventID] }
 	}
 	
 	var system: StarSystem? = null
@@ -49,7 +76,7 @@ class ProfilerWindow : UIWindow() {
 				val oldSystem = system
 				
 				if (oldSystem != null) {
-					oldSystem.nextInvocationStrategy = CustomSystemInvocationStrategy(oldSystem)
+					oldSystem.nextInvocationStrategy = oldSystem.createInvocationStrategy()
 				}
 				
 				val system = systemScreen.system
@@ -59,7 +86,7 @@ class ProfilerWindow : UIWindow() {
 					system.nextInvocationStrategy = ProfilingSystemInvocationStrategy(system)
 					
 				} else {
-					system.nextInvocationStrategy = CustomSystemInvocationStrategy(system)
+					system.nextInvocationStrategy = system.createInvocationStrategy()
 				}
 				
 				this.system = system
@@ -123,21 +150,20 @@ class ProfilerWindow : UIWindow() {
 						
 						fun drawEvents(i: Int, events: ProfilerBag): Int {
 							var j = i
-							val startEvent = events.data[j++]
+							val startEvent = j++
 							
-							var endEvent = events.data[j]
-							
-							while (endEvent.name != null) {
+							while (!events.isEnd(j)) {
 								y += 15
 								j = drawEvents(j, events)
 								y -= 15
-								endEvent = events.data[j]
 							}
 							
-							val name = startEvent.name ?: "null"
+							val startTime = events.getTime(startEvent)
+							val endTime = events.getTime(j)
+							val name = events.getName(startEvent)
 							
-							if (eventBar(startEvent.time - timeOffset, endEvent.time - timeOffset, name)) {
-								setTooltip("$name ${Units.nanoToMicroString(endEvent.time - startEvent.time)}")
+							if (eventBar(startTime - timeOffset, endTime - timeOffset, name)) {
+								setTooltip("$name ${Units.nanoToMicroString(endTime - startTime)}")
 							}
 							
 							return j + 1
@@ -225,7 +251,7 @@ class ProfilerWindow : UIWindow() {
 							val events = galaxy.renderProfilerEvents
 							
 							if (events.size() > 0) {
-								timeOffset = events.data[0].time
+								timeOffset = events.getTime(0)
 								scroll = renderScroll
 								
 								textUnformatted("Renderer ${events.size()} events")
@@ -252,7 +278,7 @@ class ProfilerWindow : UIWindow() {
 								}
 							}
 							
-							timeOffset = galaxy.shadow.profilerEvents.data[0].time
+							timeOffset = galaxy.shadow.profilerEvents.getTime(0)
 							scroll = systemsScroll
 							
 							run {
@@ -277,55 +303,59 @@ class ProfilerWindow : UIWindow() {
 		}
 	}
 	
-	class ProfilerBag : Bag<ProfilerEvent>(ProfilerEvent::class.java, BAG_SIZE) {
-		val eventPool = EventPool()
+	/**
+	 * Profiler events packed as pairs of longs, time and event ID shl 32 or argument.
+	 * The buffer is reused between updates so recording does not allocate once it has grown to size.
+	 */
+	class ProfilerBag(initialCapacity: Int = BAG_SIZE) {
+		private var data = LongArray(2 * initialCapacity)
+		private var size = 0
+		
+		fun size() = size
 		
-		fun start(time: Long, name: String) {
-			add(eventPool.obtain().start(time, name))
+		fun start(eventID: Int, arg: Int = NO_ARG, time: Long = System.nanoTime()) {
+			add(time, (eventID.toLong() shl 32) or (arg.toLong() and 0xFFFFFFFFL))
 		}
 		
 		fun start(name: String) {
-			add(eventPool.obtain().start(System.nanoTime(), name))
+			start(registerEvent(name))
 		}
 		
 		fun end(time: Long = System.nanoTime()) {
-			add(eventPool.obtain().end(time))
+			add(time, END)
 		}
 		
-		override fun clear() {
-			this.forEachFast { event ->
-				eventPool.free(event)
-			}
-			
-			super.clear()
+		fun clear() {
+			size = 0
 		}
-	}
-
-	class ProfilerEvent() {
 		
-		var time: Long = 0
-		var name: String? = null // Set to start event, null to end previous
+		fun getTime(index: Int) = data[2 * index]
 		
-		fun start(time: Long = System.nanoTime(), name: String): ProfilerEvent {
-			this.time = time
-			this.name = name
-			
-			return this
-		}
+		fun isEnd(index: Int) = data[2 * index + 1] == END
+		
+		fun getEventID(index: Int) = (data[2 * index + 1] ushr 32).toInt()
+		
+		fun getArgument(index: Int) = data[2 * index + 1].toInt()
 		
-		fun end(time: Long = System.nanoTime()): ProfilerEvent {
-			this.time = time
-			this.name = null
+		fun getName(index: Int): String {
+			if (isEnd(index)) {
+				return "end"
+			}
+			
+			val name = getEventName(getEventID(index))
+			val arg = getArgument(index)
 			
-			return this
+			return if (arg == NO_ARG) name else "$name $arg"
 		}
 		
-		override fun toString() = "$time $name"
-	}
-	
-	class EventPool : ObjectPool<ProfilerEvent>(ProfilerEvent::class.java) {
-		override fun instantiateObject(): ProfilerWindow.ProfilerEvent? {
-			return ProfilerEvent()
+		private fun add(time: Long, event: Long) {
+			if (2 * size == data.size) {
+				data = data.copyOf(2 * data.size)
+			}
+			
+			data[2 * size] = time
+			data[2 * size + 1] = event
+			size++
 		}
 	}
 }
@@ -179,44 +179,44 @@ class ShipDebugger : UIWindow() {
 											if (treeNode("${partRef.part::class.simpleName} ${partRef.part.name}")) {
 		
 												if (partRef.part is PoweringPart) {
-													val state = partStates[partRef][PoweringPartState::class]
+													val state = partStates[partRef].powering
 													textUnformatted("availablePower ${Units.powerToString(state.availiablePower)}")
 													textUnformatted("producedPower ${Units.powerToString(state.producedPower)}")
 												}
 		
 												if (partRef.part is PoweredPart) {
-													val state = partStates[partRef][PoweredPartState::class]
+													val state = partStates[partRef].powered
 													textUnformatted("requestedPower ${Units.powerToString(state.requestedPower)}")
 													textUnformatted("givenPower ${Units.powerToString(state.givenPower)}")
 												}
 		
 												if (partRef.part is ChargedPart) {
-													val state = partStates[partRef][ChargedPartState::class]
+													val state = partStates[partRef].charged
 													textUnformatted("charge ${Units.powerToString(state.charge)}")
 													textUnformatted("expectedFullAt ${Units.secondsToString(state.expectedFullAt)}")
 												}
 		
 												if (partRef.part is PassiveSensor) {
-													val state = partStates[partRef][PassiveSensorState::class]
+													val state = partStates[partRef].passiveSensor
 													textUnformatted("lastScan ${state.lastScan}")
 												}
 		
 												if (partRef.part is AmmunitionPart) {
-													val state = partStates[partRef][AmmunitionPartState::class]
+													val state = partStates[partRef].ammunition
 													textUnformatted("type ${state.type?.name}")
 													textUnformatted("amount ${state.amount}/${partRef.part.ammunitionAmount}")
 													textUnformatted("reloadedAt ${Units.secondsToString(state.reloadedAt)}")
 												}
 		
 												if (partRef.part is FueledPart) {
-													val state = partStates[partRef][FueledPartState::class]
+													val state = partStates[partRef].fueled
 													textUnformatted("fuelEnergyRemaining ${state.fuelEnergyRemaining}")
 													textUnformatted("totalFuelEnergyRemaining ${state.totalFuelEnergyRemaining}")
 												}
 		
 												if (partRef.part is TargetingComputer) {
 													
-													val state = partStates[partRef][TargetingComputerState::class]
+													val state = partStates[partRef].targetingComputer
 													textUnformatted("target ${state.target?.entityID}")
 													textUnformatted("lockCompletionAt ${state.lockCompletionAt}")
 													
@@ -274,7 +274,7 @@ class ShipDebugger : UIWindow() {
 													
 												} else if (partRef.part is Railgun) {
 													
-													val ammoState = partStates[partRef][AmmunitionPartState::class]
+													val ammoState = partStates[partRef].ammunition
 													
 													val munitionClass = ammoState.type as? SimpleMunitionHull
 													
@@ -292,7 +292,7 @@ class ShipDebugger : UIWindow() {
 													
 												} else if (partRef.part is MissileLauncher) {
 													
-													val ammoState = partStates[partRef][AmmunitionPartState::class]
+													val ammoState = partStates[partRef].ammunition
 													
 													val munitionClass = ammoState.type as? AdvancedMunitionHull
 													
@@ -333,7 +333,7 @@ class ShipDebugger : UIWindow() {
 												if (ShipUI.shieldBar(ship, shield)) {
 													tooltip {
 														ship.hull.shields.forEachFast { partRef ->
-															val charge = partStates[partRef][ChargedPartState::class].charge
+															val charge = partStates[partRef].charged.charge
 															val capacity = (partRef.part as Shield).capacitor
 															
 															val text = "${partRef.part.name} ${Units.capacityToString(charge)} / ${Units.capacityToString(capacity)}"
@@ -456,7 +456,7 @@ class ShipDebugger : UIWindow() {
 											if (treeNode("Producers")) {
 												powerComponent.poweringParts.forEach({
 													val partRef = it
-													val poweringState = partStates[partRef][PoweringPartState::class]
+													val poweringState = partStates[partRef].powering
 		
 													val power = if (poweringState.availiablePower == 0L) 0f else poweringState.producedPower / poweringState.availiablePower.toFloat()
 		
@@ -467,7 +467,7 @@ class ShipDebugger : UIWindow() {
 		
 													if (partRef is FueledPart && partRef is PoweringPart) {
 		
-														val fueledState = partStates[partRef][FueledPartState::class]
+														val fueledState = partStates[partRef].fueled
 														val fuelRemaining = Units.secondsToString(fueledState.fuelEnergyRemaining / partRef.power)
 														val totalFuelRemaining = Units.secondsToString(fueledState.totalFuelEnergyRemaining / partRef.power)
 		
@@ -476,7 +476,7 @@ class ShipDebugger : UIWindow() {
 		
 													if (partRef.part is Battery) {
 		
-														val chargedState = partStates[partRef][ChargedPartState::class]
+														val chargedState = partStates[partRef].charged
 														val charge = chargedState.charge
 														val maxCharge = partRef.part.capacitor
 														val charged = if (maxCharge == 0L) 0f else charge / maxCharge.toFloat()
@@ -497,7 +497,7 @@ class ShipDebugger : UIWindow() {
 											if (treeNode("Consumers")) {
 												powerComponent.poweredParts.forEach({
 													val part = it
-													val poweredState = partStates[part][PoweredPartState::class]
+													val poweredState = partStates[part].powered
 		
 													val power = if (poweredState.requestedPower == 0L) 0f else poweredState.givenPower / poweredState.requestedPower.toFloat()
 													progressBar(power, Vec2(), "${Units.powerToString(poweredState.givenPower)}/${Units.powerToString(poweredState.requestedPower)}")
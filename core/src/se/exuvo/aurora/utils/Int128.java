@@ -0,0 +1,229 @@
+package se.exuvo.aurora.utils;
+
+/**
+ * Allocation free exact arithmetic on signed 128-bit products of two longs, built on {@link Math#multiplyHigh(long, long)}.
+ * As java can not return both halves of a 128-bit value each operation is fused with the reduction its callers need,
+ * a double, a sign, a comparison, a quotient or a square root.
+ */
+public final class Int128 {
+	private static final double TWO_POW_64 = 0x1.0p64;
+	private static final long WORD = 1L << 32;
+	private static final long WORD_MASK = WORD - 1;
+
+	private Int128() {}
+
+	/**
+	 * a * b + c * d rounded to double
+	 */
+	public static double mulAddToDouble(long a, long b, long c, long d) {
+		long lo1 = a * b;
+		long lo = lo1 + c * d;
+		long hi = Math.multiplyHigh(a, b) + Math.multiplyHigh(c, d) + carry(lo, lo1);
+		return toDouble(hi, lo);
+	}
+
+	/**
+	 * a * b - c * d rounded to double
+	 */
+	public static double mulSubToDouble(long a, long b, long c, long d) {
+		long lo1 = a * b;
+		long lo2 = c * d;
+		long lo = lo1 - lo2;
+		long hi = Math.multiplyHigh(a, b) - Math.multiplyHigh(c, d) - borrow(lo1, lo2);
+		return toDouble(hi, lo);
+	}
+
+	/**
+	 * Sign of a * b + c * d
+	 */
+	public static int mulAddSignum(long a, long b, long c, long d) {
+		long lo1 = a * b;
+		long lo = lo1 + c * d;
+		long hi = Math.multiplyHigh(a, b) + Math.multiplyHigh(c, d) + carry(lo, lo1);
+		return signum(hi, lo);
+	}
+
+	/**
+	 * Sign of a * b - c * d
+	 */
+	public static int mulSubSignum(long a, long b, long c, long d) {
+		long lo1 = a * b;
+		long lo2 = c * d;
+		long lo = lo1 - lo2;
+		long hi = Math.multiplyHigh(a, b) - Math.multiplyHigh(c, d) - borrow(lo1, lo2);
+		return signum(hi, lo);
+	}
+
+	/**
+	 * (a * b + c * d) / divisor rounded towards zero like long division. The quotient must fit in a long.
+	 */
+	public static long mulAddDiv(long a, long b, long c, long d, long divisor) {
+		if (divisor == 0) {
+			throw new ArithmeticException("/ by zero");
+		}
+
+		long lo1 = a * b;
+		long lo = lo1 + c * d;
+		long hi = Math.multiplyHigh(a, b) + Math.multiplyHigh(c, d) + carry(lo, lo1);
+
+		boolean negative = (hi < 0) != (divisor < 0);
+
+		if (hi < 0) {
+			lo = -lo;
+			hi = ~hi + (lo == 0 ? 1 : 0);
+		}
+
+		long quotient = divideUnsigned(hi, lo, Math.abs(divisor));
+		return negative ? -quotient : quotient;
+	}
+
+	/**
+	 * Exact x * x + y * y rounded to double
+	 */
+	public static double lengthSquared(long x, long y) {
+		return mulAddToDouble(x, x, y, y);
+	}
+
+	/**
+	 * Compares x * x + y * y to r * r without overflow
+	 */
+	public static int compareLengthSquared(long x, long y, long r) {
+		long lo1 = x * x;
+		long lo2 = y * y;
+		long lo = lo1 + lo2;
+		long hi = Math.multiplyHigh(x, x) + Math.multiplyHigh(y, y) + carry(lo, lo1);
+
+		long rLo = r * r;
+		long rHi = Math.multiplyHigh(r, r);
+
+		int cmp = Long.compareUnsigned(hi, rHi);
+		return cmp != 0 ? cmp : Long.compareUnsigned(lo, rLo);
+	}
+
+	/**
+	 * Floor of the exact length of (x, y), components must be between -2^62 and 2^62
+	 */
+	public static long length(long x, long y) {
+		long lo1 = x * x;
+		long lo = lo1 + y * y;
+		long hi = Math.multiplyHigh(x, x) + Math.multiplyHigh(y, y) + carry(lo, lo1);
+		return sqrtUnsigned(hi, lo);
+	}
+
+	/**
+	 * Floor of the square root of the unsigned 128-bit value hi:lo, which must be below 2^126
+	 */
+	public static long sqrtUnsigned(long hi, long lo) {
+		long root = (long) Math.sqrt(toDoubleUnsigned(hi, lo));
+
+		// Above 2^64 the double estimate can be off by up to 2^11, one newton step brings it within one
+		if (hi != 0) {
+			long quotient = divideUnsigned(hi, lo, root);
+			root = (root >>> 1) + (quotient >>> 1) + (root & quotient & 1);
+		}
+
+		while (compareSquare(root, hi, lo) > 0) {
+			root--;
+		}
+
+		while (compareSquare(root + 1, hi, lo) <= 0) {
+			root++;
+		}
+
+		return root;
+	}
+
+	/**
+	 * Signed 128-bit value hi:lo rounded to double
+	 */
+	public static double toDouble(long hi, long lo) {
+		if (hi == (lo >> 63)) {
+			return lo; // Fits in a long
+		}
+
+		return hi * TWO_POW_64 + toDoubleUnsigned(0, lo);
+	}
+
+	public static int signum(long hi, long lo) {
+		if (hi < 0) {
+			return -1;
+		}
+
+		return (hi | lo) == 0 ? 0 : 1;
+	}
+
+	/**
+	 * Unsigned 128-bit dividend hi:lo divided by an unsigned divisor, hi must be less than divisor so that the quotient fits in 64 bits.
+	 * Knuth algorithm D with 32-bit digits, from Hacker's Delight divlu
+	 */
+	public static long divideUnsigned(long hi, long lo, long divisor) {
+		if (Long.compareUnsigned(hi, divisor) >= 0) {
+			throw new ArithmeticException("Quotient overflow");
+		}
+
+		if (hi == 0) {
+			return Long.divideUnsigned(lo, divisor);
+		}
+
+		int shift = Long.numberOfLeadingZeros(divisor);
+		divisor <<= shift;
+
+		long divisorHi = divisor >>> 32;
+		long divisorLo = divisor & WORD_MASK;
+
+		long dividend32 = shift == 0 ? hi : (hi << shift) | (lo >>> (64 - shift));
+		long dividend10 = lo << shift;
+		long dividend1 = dividend10 >>> 32;
+		long dividend0 = dividend10 & WORD_MASK;
+
+		long q1 = Long.divideUnsigned(dividend32, divisorHi);
+		long rhat = dividend32 - q1 * divisorHi;
+
+		while (Long.compareUnsigned(q1, WORD) >= 0 || Long.compareUnsigned(q1 * divisorLo, (rhat << 32) + dividend1) > 0) {
+			q1--;
+			rhat += divisorHi;
+
+			if (Long.compareUnsigned(rhat, WORD) >= 0) {
+				break;
+			}
+		}
+
+		long dividend21 = (dividend32 << 32) + dividend1 - q1 * divisor;
+
+		long q0 = Long.divideUnsigned(dividend21, divisorHi);
+		rhat = dividend21 - q0 * divisorHi;
+
+		while (Long.compareUnsigned(q0, WORD) >= 0 || Long.compareUnsigned(q0 * divisorLo, (rhat << 32) + dividend0) > 0) {
+			q0--;
+			rhat += divisorHi;
+
+			if (Long.compareUnsigned(rhat, WORD) >= 0) {
+				break;
+			}
+		}
+
+		return (q1 << 32) + q0;
+	}
+
+	private static double toDoubleUnsigned(long hi, long lo) {
+		double low = (double) (lo >>> 1) * 2.0 + (lo & 1);
+		return hi * TWO_POW_64 + low;
+	}
+
+	// Compares root * root to unsigned hi:lo, root is non negative
+	private static int compareSquare(long root, long hi, long lo) {
+		long squareHi = Math.multiplyHigh(root, root);
+		long squareLo = root * root;
+
+		int cmp = Long.compareUnsigned(squareHi, hi);
+		return cmp != 0 ? cmp : Long.compareUnsigned(squareLo, lo);
+	}
+
+	private static long carry(long sum, long addend) {
+		return Long.compareUnsigned(sum, addend) < 0 ? 1 : 0;
+	}
+
+	private static long borrow(long minuend, long subtrahend) {
+		return Long.compareUnsigned(minuend, subtrahend) < 0 ? 1 : 0;
+	}
+}
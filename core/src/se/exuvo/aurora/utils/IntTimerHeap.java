@@ -0,0 +1,199 @@
+package se.exuvo.aurora.utils;
+
+import java.util.Arrays;
+
+import com.artemis.utils.IntBag;
+
+/**
+ * Indexed binary min-heap of ids ordered by a deadline stored in the heap.
+ * An id to heap slot index gives O(log n) reschedule and removal.
+ */
+public class IntTimerHeap implements IntTimerQueue {
+
+	private int[] ids;
+	private long[] deadlines;
+	private int[] slots; // id -> heap slot, -1 if absent
+	private int size;
+
+	public IntTimerHeap() {
+		this(64);
+	}
+
+	public IntTimerHeap(int initialCapacity) {
+		ids = new int[initialCapacity];
+		deadlines = new long[initialCapacity];
+		slots = new int[initialCapacity];
+		Arrays.fill(slots, -1);
+	}
+
+	@Override
+	public void schedule(int id, long deadline) {
+		if (id >= slots.length) {
+			int oldLength = slots.length;
+			slots = Arrays.copyOf(slots, Math.max(2 * oldLength, id + 1));
+			Arrays.fill(slots, oldLength, slots.length, -1);
+		}
+
+		int slot = slots[id];
+
+		if (slot == -1) {
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, 2 * size);
+				deadlines = Arrays.copyOf(deadlines, 2 * size);
+			}
+
+			siftUp(size++, id, deadline);
+
+		} else if (deadline < deadlines[slot]) {
+			siftUp(slot, id, deadline);
+
+		} else {
+			siftDown(slot, id, deadline);
+		}
+	}
+
+	@Override
+	public boolean remove(int id) {
+		if (id >= slots.length || slots[id] == -1) {
+			return false;
+		}
+
+		removeAt(slots[id]);
+		return true;
+	}
+
+	@Override
+	public boolean contains(int id) {
+		return id < slots.length && slots[id] != -1;
+	}
+
+	/**
+	 * @return the deadline of id or Long.MAX_VALUE if not scheduled
+	 */
+	public long getDeadline(int id) {
+		if (id >= slots.length || slots[id] == -1) {
+			return Long.MAX_VALUE;
+		}
+
+		return deadlines[slots[id]];
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return the id with the earliest deadline or -1 if empty
+	 */
+	public int peek() {
+		return size == 0 ? -1 : ids[0];
+	}
+
+	/**
+	 * Removes and returns the id with the earliest deadline or -1 if empty
+	 */
+	public int poll() {
+		if (size == 0) {
+			return -1;
+		}
+
+		int id = ids[0];
+		removeAt(0);
+		return id;
+	}
+
+	@Override
+	public long getNextDeadline() {
+		return size == 0 ? Long.MAX_VALUE : deadlines[0];
+	}
+
+	@Override
+	public void pollExpired(long time, IntBag expired) {
+		while (size > 0 && deadlines[0] <= time) {
+			expired.add(ids[0]);
+			removeAt(0);
+		}
+	}
+
+	@Override
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			slots[ids[i]] = -1;
+		}
+
+		size = 0;
+	}
+
+	private void removeAt(int slot) {
+		slots[ids[slot]] = -1;
+		size--;
+
+		if (slot == size) {
+			return;
+		}
+
+		int id = ids[size];
+		long deadline = deadlines[size];
+
+		if (slot > 0 && deadline < deadlines[(slot - 1) >>> 1]) {
+			siftUp(slot, id, deadline);
+		} else {
+			siftDown(slot, id, deadline);
+		}
+	}
+
+	private void siftUp(int slot, int id, long deadline) {
+		while (slot > 0) {
+			int parent = (slot - 1) >>> 1;
+
+			if (deadlines[parent] <= deadline) {
+				break;
+			}
+
+			move(parent, slot);
+			slot = parent;
+		}
+
+		set(slot, id, deadline);
+	}
+
+	private void siftDown(int slot, int id, long deadline) {
+		int half = size >>> 1;
+
+		while (slot < half) {
+			int child = 2 * slot + 1;
+			int right = child + 1;
+
+			if (right < size && deadlines[right] < deadlines[child]) {
+				child = right;
+			}
+
+			if (deadline <= deadlines[child]) {
+				break;
+			}
+
+			move(child, slot);
+			slot = child;
+		}
+
+		set(slot, id, deadline);
+	}
+
+	private void move(int from, int to) {
+		int id = ids[from];
+		ids[to] = id;
+		deadlines[to] = deadlines[from];
+		slots[id] = to;
+	}
+
+	private void set(int slot, int id, long deadline) {
+		ids[slot] = id;
+		deadlines[slot] = deadline;
+		slots[id] = slot;
+	}
+}
@@ -0,0 +1,37 @@
+package se.exuvo.aurora.utils;
+
+import com.artemis.utils.IntBag;
+
+/**
+ * Deadlines for non negative int ids such as entity ids, at most one deadline per id.
+ * Not thread safe.
+ */
+public interface IntTimerQueue {
+
+	/**
+	 * Schedules id at deadline, replacing any previous deadline of id
+	 */
+	void schedule(int id, long deadline);
+
+	/**
+	 * @return true if id was scheduled
+	 */
+	boolean remove(int id);
+
+	boolean contains(int id);
+
+	int size();
+
+	/**
+	 * @return a time at or before the earliest deadline, or Long.MAX_VALUE if empty
+	 */
+	long getNextDeadline();
+
+	/**
+	 * Removes all ids with a deadline at or before time and appends them to expired in deadline order.
+	 * Time must not be earlier than in a previous call.
+	 */
+	void pollExpired(long time, IntBag expired);
+
+	void clear();
+}
@@ -0,0 +1,233 @@
+package se.exuvo.aurora.utils;
+
+import java.util.Arrays;
+
+import com.artemis.utils.IntBag;
+
+/**
+ * Hierarchical timing wheel with 64 slots per level and O(1) schedule and removal.
+ * An id is placed on the level of the highest 6-bit group where its deadline differs from the current wheel time,
+ * and is moved to lower levels when the wheel time reaches its slot, until it expires from level 0.
+ * Suits many ids scheduled a short time from now. {@link #getNextDeadline()} is exact only when the earliest id is on level 0,
+ * otherwise it is the start of the earliest occupied slot.
+ */
+public class IntTimerWheel implements IntTimerQueue {
+	private static final int BITS = 6;
+	private static final int SLOTS = 1 << BITS;
+	private static final int LEVELS = (64 + BITS - 1) / BITS;
+
+	private final int[] heads = new int[LEVELS * SLOTS];
+	private final long[] occupied = new long[LEVELS];
+
+	// Per id, doubly linked within its bucket
+	private int[] buckets; // -1 if not scheduled
+	private int[] nexts;
+	private int[] prevs;
+	private long[] deadlines;
+
+	private long now;
+	private int size;
+
+	public IntTimerWheel() {
+		this(0, 64);
+	}
+
+	public IntTimerWheel(long startTime, int initialCapacity) {
+		now = startTime;
+		buckets = new int[initialCapacity];
+		nexts = new int[initialCapacity];
+		prevs = new int[initialCapacity];
+		deadlines = new long[initialCapacity];
+		Arrays.fill(buckets, -1);
+		Arrays.fill(heads, -1);
+	}
+
+	@Override
+	public void schedule(int id, long deadline) {
+		if (id >= buckets.length) {
+			int oldLength = buckets.length;
+			int length = Math.max(2 * oldLength, id + 1);
+			buckets = Arrays.copyOf(buckets, length);
+			nexts = Arrays.copyOf(nexts, length);
+			prevs = Arrays.copyOf(prevs, length);
+			deadlines = Arrays.copyOf(deadlines, length);
+			Arrays.fill(buckets, oldLength, length, -1);
+		}
+
+		if (buckets[id] != -1) {
+			unlink(id);
+		} else {
+			size++;
+		}
+
+		deadlines[id] = deadline;
+		link(id);
+	}
+
+	@Override
+	public boolean remove(int id) {
+		if (id >= buckets.length || buckets[id] == -1) {
+			return false;
+		}
+
+		unlink(id);
+		buckets[id] = -1;
+		size--;
+		return true;
+	}
+
+	@Override
+	public boolean contains(int id) {
+		return id < buckets.length && buckets[id] != -1;
+	}
+
+	/**
+	 * @return the deadline of id or Long.MAX_VALUE if not scheduled
+	 */
+	public long getDeadline(int id) {
+		if (id >= buckets.length || buckets[id] == -1) {
+			return Long.MAX_VALUE;
+		}
+
+		return deadlines[id];
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public long getNextDeadline() {
+		int bucket = getNextBucket();
+
+		if (bucket == -1) {
+			return Long.MAX_VALUE;
+		}
+
+		return getBucketStart(bucket);
+	}
+
+	@Override
+	public void pollExpired(long time, IntBag expired) {
+		if (time < now) {
+			return;
+		}
+
+		while (true) {
+			int bucket = getNextBucket();
+
+			if (bucket == -1) {
+				now = time;
+				return;
+			}
+
+			long bucketStart = getBucketStart(bucket);
+
+			if (bucketStart > time) {
+				now = time;
+				return;
+			}
+
+			now = bucketStart;
+
+			int id = heads[bucket];
+			heads[bucket] = -1;
+			occupied[bucket / SLOTS] &= ~(1L << (bucket % SLOTS));
+
+			while (id != -1) {
+				int next = nexts[id];
+
+				if (bucket < SLOTS) {
+					buckets[id] = -1;
+					size--;
+					expired.add(id);
+
+				} else {
+					link(id); // Cascade to a lower level
+				}
+
+				id = next;
+			}
+		}
+	}
+
+	@Override
+	public void clear() {
+		for (int bucket = 0; bucket < heads.length; bucket++) {
+			int id = heads[bucket];
+
+			while (id != -1) {
+				buckets[id] = -1;
+				id = nexts[id];
+			}
+
+			heads[bucket] = -1;
+		}
+
+		Arrays.fill(occupied, 0);
+		size = 0;
+	}
+
+	// Earliest occupied bucket, all occupied slots on a level are at or after the slot of the current time
+	private int getNextBucket() {
+		for (int level = 0; level < LEVELS; level++) {
+			long bits = occupied[level];
+
+			if (bits != 0) {
+				return level * SLOTS + Long.numberOfTrailingZeros(bits);
+			}
+		}
+
+		return -1;
+	}
+
+	private long getBucketStart(int bucket) {
+		int level = bucket / SLOTS;
+		int slot = bucket % SLOTS;
+		int shift = BITS * (level + 1);
+
+		long high = shift >= 64 ? 0 : (now >>> shift) << shift;
+		return high | ((long) slot << (BITS * level));
+	}
+
+	private void link(int id) {
+		long deadline = Math.max(deadlines[id], now);
+		long difference = deadline ^ now;
+		int level = difference == 0 ? 0 : (63 - Long.numberOfLeadingZeros(difference)) / BITS;
+		int slot = (int) (deadline >>> (BITS * level)) & (SLOTS - 1);
+		int bucket = level * SLOTS + slot;
+
+		int head = heads[bucket];
+		nexts[id] = head;
+		prevs[id] = -1;
+
+		if (head != -1) {
+			prevs[head] = id;
+		}
+
+		heads[bucket] = id;
+		buckets[id] = bucket;
+		occupied[level] |= 1L << slot;
+	}
+
+	private void unlink(int id) {
+		int bucket = buckets[id];
+		int next = nexts[id];
+		int prev = prevs[id];
+
+		if (prev == -1) {
+			heads[bucket] = next;
+
+			if (next == -1) {
+				occupied[bucket / SLOTS] &= ~(1L << (bucket % SLOTS));
+			}
+		} else {
+			nexts[prev] = next;
+		}
+
+		if (next != -1) {
+			prevs[next] = prev;
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package se.exuvo.aurora.utils;
+
+/**
+ * Reusable output of {@link InterceptSolver}
+ */
+public class InterceptResult {
+	public long timeToIntercept; // in s
+	public final Vector2L aimPosition = new Vector2L(); // in m, where the target would be in the frame of the shooter
+	public final Vector2L interceptPosition = new Vector2L(); // in m, where the target will be
+	public final Vector2L interceptVelocity = new Vector2L(); // in cm/s, of the projectile at impact
+	public final Vector2L relativeInterceptVelocity = new Vector2L(); // in cm/s, of the projectile relative to the target at impact
+
+	public InterceptResult set(InterceptResult other) {
+		timeToIntercept = other.timeToIntercept;
+		aimPosition.set(other.aimPosition);
+		interceptPosition.set(other.interceptPosition);
+		interceptVelocity.set(other.interceptVelocity);
+		relativeInterceptVelocity.set(other.relativeInterceptVelocity);
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		return "InterceptResult(timeToIntercept=" + timeToIntercept + ", aimPosition=" + aimPosition + ", interceptPosition=" + interceptPosition
+				+ ", interceptVelocity=" + interceptVelocity + ", relativeInterceptVelocity=" + relativeInterceptVelocity + ")";
+	}
+}
@@ -0,0 +1,585 @@
+package se.exuvo.aurora.utils;
+
+/**
+ * Allocation free intercept solver for projectiles launched from a shooter at a target moving with constant acceleration.
+ * The projectile keeps the velocity of the shooter and gains launch speed plus acceleration along a fixed direction.
+ * Acceleration may change linearly during a boost phase after which the projectile coasts.
+ * <p>
+ * The intercept is the earliest time t where |P + V*t + A*t^2/2| equals the distance flown s(t), P V A being target position, velocity and acceleration relative to the shooter.
+ * While s(t) is at most quadratic that is a quartic which is solved in closed form, the roots are then verified and polished on the distance equation.
+ * Linearly changing acceleration makes s(t) cubic, that phase and any phase where verification fails is searched for a sign change on a geometric grid
+ * and refined with a safeguarded Newton method, both with a fixed bound on evaluations.
+ * <p>
+ * Call {@link #set} with the current movement before solving. Not thread safe.
+ */
+public class InterceptSolver {
+	public static final double MAX_TIME = 100 * 24 * 60 * 60; // in s
+	public static final int MAX_ITERATIONS = 32;
+
+	private static final int POLISH_ITERATIONS = 3;
+	private static final int SAMPLES = 64;
+	private static final double[] SAMPLE_SCALES = new double[SAMPLES]; // Geometric from 1e-12 to 1 of the phase length
+
+	private static final double NONE = -1;
+	private static final double FAILED = -2;
+
+	static {
+		for (int i = 0; i < SAMPLES; i++) {
+			SAMPLE_SCALES[i] = Math.pow(10, -12.0 * (SAMPLES - 1 - i) / (SAMPLES - 1));
+		}
+	}
+
+	private final double[] roots = new double[8];
+	private final double[] reciprocalRoots = new double[4];
+
+	// Target relative to shooter in m, m/s, m/s^2
+	private double px, py, vx, vy, ax, ay;
+
+	// Absolute in m, cm/s, cm/s^2
+	private long targetX, targetY, targetVX, targetVY, targetAX, targetAY;
+	private long shooterVX, shooterVY;
+
+	// Projectile in m/s, m/s^2, m/s^3, s, m
+	private double launchSpeed;
+	private double startAcceleration;
+	private double jerk;
+	private double thrustEnd;
+	private double coastOffset; // Distance at thrustEnd - coastSpeed * thrustEnd
+	private double coastSpeed;
+
+	// Last evaluation
+	private double rx, ry, rLength, distance, speed, g, dg;
+	private int evaluations;
+
+	public InterceptSolver set(Vector2L shooterPosition, Vector2L shooterVelocity, Vector2L targetPosition, Vector2L targetVelocity, Vector2L targetAcceleration) {
+		px = targetPosition.x - shooterPosition.x;
+		py = targetPosition.y - shooterPosition.y;
+		vx = (targetVelocity.x - shooterVelocity.x) / 100.0;
+		vy = (targetVelocity.y - shooterVelocity.y) / 100.0;
+		ax = targetAcceleration.x / 100.0;
+		ay = targetAcceleration.y / 100.0;
+
+		targetX = targetPosition.x;
+		targetY = targetPosition.y;
+		targetVX = targetVelocity.x;
+		targetVY = targetVelocity.y;
+		targetAX = targetAcceleration.x;
+		targetAY = targetAcceleration.y;
+		shooterVX = shooterVelocity.x;
+		shooterVY = shooterVelocity.y;
+		return this;
+	}
+
+	/**
+	 * Projectile with constant speed in m/s
+	 */
+	public boolean solveCoast(double projectileSpeed, InterceptResult result) {
+		setProjectile(projectileSpeed, 0, 0, Double.POSITIVE_INFINITY);
+		return solve(MAX_TIME, false, result);
+	}
+
+	/**
+	 * Projectile with launch speed in m/s and constant acceleration in m/s^2 that never runs out
+	 */
+	public boolean solveAccelerating(double launchSpeed, double acceleration, InterceptResult result) {
+		setProjectile(launchSpeed, acceleration, 0, Double.POSITIVE_INFINITY);
+		return solve(MAX_TIME, false, result);
+	}
+
+	/**
+	 * Projectile with launch speed in m/s and acceleration in m/s^2 changing linearly from start to end during accelerationTime in s.
+	 * Only intercepts during the boost are found
+	 */
+	public boolean solveBoost(double launchSpeed, double startAcceleration, double endAcceleration, double accelerationTime, InterceptResult result) {
+		setProjectile(launchSpeed, startAcceleration, endAcceleration, accelerationTime);
+		return solve(Math.min(accelerationTime, MAX_TIME), false, result);
+	}
+
+	/**
+	 * As {@link #solveBoost} followed by coasting
+	 */
+	public boolean solveBoostCoast(double launchSpeed, double startAcceleration, double endAcceleration, double accelerationTime, InterceptResult result) {
+		setProjectile(launchSpeed, startAcceleration, endAcceleration, accelerationTime);
+		return solve(MAX_TIME, true, result);
+	}
+
+	/**
+	 * Number of distance equation evaluations since the last call
+	 */
+	public int getAndResetEvaluations() {
+		int evaluations = this.evaluations;
+		this.evaluations = 0;
+		return evaluations;
+	}
+
+	private void setProjectile(double launchSpeed, double startAcceleration, double endAcceleration, double accelerationTime) {
+		this.launchSpeed = launchSpeed;
+		this.startAcceleration = startAcceleration;
+
+		if (accelerationTime <= 0) {
+			this.startAcceleration = 0;
+			jerk = 0;
+			thrustEnd = 0;
+
+		} else if (accelerationTime == Double.POSITIVE_INFINITY) {
+			jerk = 0;
+			thrustEnd = accelerationTime;
+
+		} else {
+			jerk = (endAcceleration - startAcceleration) / accelerationTime;
+			thrustEnd = accelerationTime;
+		}
+
+		if (thrustEnd < Double.POSITIVE_INFINITY) {
+			double t = thrustEnd;
+			coastSpeed = launchSpeed + (this.startAcceleration + 0.5 * jerk * t) * t;
+			coastOffset = (launchSpeed + (0.5 * this.startAcceleration + jerk * t / 6) * t) * t - coastSpeed * t;
+
+		} else {
+			coastSpeed = 0;
+			coastOffset = 0;
+		}
+	}
+
+	private boolean solve(double maxTime, boolean coast, InterceptResult result) {
+		double boostEnd = Math.min(thrustEnd, maxTime);
+		double time = NONE;
+
+		if (boostEnd > 0) {
+			time = solvePhase(0, boostEnd);
+		}
+
+		if (time < 0 && coast && boostEnd < maxTime) {
+			time = solvePhase(boostEnd, maxTime);
+		}
+
+		if (time < 0) {
+			return false;
+		}
+
+		fill(time, result);
+		return true;
+	}
+
+	private double solvePhase(double lo, double hi) {
+		if (lo >= thrustEnd) {
+			double time = solvePolynomial(coastOffset, coastSpeed, 0, lo, hi);
+
+			if (time != FAILED) {
+				return time;
+			}
+
+		} else if (jerk == 0) {
+			double time = solvePolynomial(0, launchSpeed, 0.5 * startAcceleration, lo, hi);
+
+			if (time != FAILED) {
+				return time;
+			}
+		}
+
+		return search(lo, hi);
+	}
+
+	/**
+	 * Earliest root in [lo, hi] of |R(t)|^2 - (c0 + c1*t + c2*t^2)^2, NONE if there is none or FAILED if a root could not be verified
+	 */
+	private double solvePolynomial(double c0, double c1, double c2, double lo, double hi) {
+		double pp = px * px + py * py;
+		double pv = px * vx + py * vy;
+		double pa = px * ax + py * ay;
+		double vv = vx * vx + vy * vy;
+		double va = vx * ax + vy * ay;
+		double aa = ax * ax + ay * ay;
+
+		// |R|^2 = P.P + 2*P.V*t + (V.V + P.A)*t^2 + V.A*t^3 + A.A/4*t^4
+		double e4 = aa / 4 - c2 * c2;
+		double e3 = va - 2 * c1 * c2;
+		double e2 = vv + pa - c1 * c1 - 2 * c0 * c2;
+		double e1 = 2 * pv - 2 * c0 * c1;
+		double e0 = pp - c0 * c0;
+
+		int count = solveRoots(e4, e3, e2, e1, e0);
+
+		double best = NONE;
+		double earliestFailed = Double.POSITIVE_INFINITY;
+
+		for (int i = 0; i < count; i++) {
+			double time = roots[i];
+			double slack = 1e-6 * (1 + Math.abs(time));
+
+			if (!(time >= lo - slack && time <= hi + slack)) {
+				continue;
+			}
+
+			time = polish(clamp(time, lo, hi), lo, hi);
+
+			if (Math.abs(g) <= tolerance()) {
+				if (best == NONE || time < best) {
+					best = time;
+				}
+
+			} else {
+				earliestFailed = Math.min(earliestFailed, time);
+			}
+		}
+
+		if (earliestFailed < Double.POSITIVE_INFINITY && (best == NONE || earliestFailed < best)) {
+			return FAILED;
+		}
+
+		return best;
+	}
+
+	// Ferrari's method loses the smaller roots when they are far apart so those are taken from the reciprocal polynomial, which has them as its largest
+	private int solveRoots(double e4, double e3, double e2, double e1, double e0) {
+		int count = solveQuartic(e4, e3, e2, e1, e0, roots);
+		int reciprocalCount = solveQuartic(e0, e1, e2, e3, e4, reciprocalRoots);
+
+		for (int i = 0; i < reciprocalCount; i++) {
+			if (reciprocalRoots[i] != 0) {
+				roots[count++] = 1 / reciprocalRoots[i];
+			}
+		}
+
+		return count;
+	}
+
+	private double polish(double time, double lo, double hi) {
+		evaluate(time);
+
+		for (int i = 0; i < POLISH_ITERATIONS && Math.abs(g) > tolerance() && dg != 0; i++) {
+			time = clamp(time - g / dg, lo, hi);
+			evaluate(time);
+		}
+
+		return time;
+	}
+
+	private double search(double lo, double hi) {
+		evaluate(lo);
+
+		if (g <= tolerance()) {
+			return lo;
+		}
+
+		double previousTime = lo;
+		double previousG = g;
+		double previousDg = dg;
+		double length = hi - lo;
+
+		for (int i = 0; i < SAMPLES; i++) {
+			double time = lo + length * SAMPLE_SCALES[i];
+			evaluate(time);
+
+			if (g <= 0) {
+				return refine(previousTime, previousG, time, g);
+			}
+
+			if (previousDg < 0 && dg > 0) { // Passes closest between samples, check that it does not dip through
+				double sampleG = g;
+				double sampleDg = dg;
+				double dip = searchDip(previousTime, time);
+
+				if (dip != NONE) {
+					return refine(previousTime, previousG, dip, g);
+				}
+
+				g = sampleG;
+				dg = sampleDg;
+			}
+
+			previousTime = time;
+			previousG = g;
+			previousDg = dg;
+		}
+
+		return NONE;
+	}
+
+	// Bisects on the sign of the derivative towards the minimum between lo and hi, returns the first time found with g <= 0 or NONE
+	private double searchDip(double lo, double hi) {
+		for (int i = 0; i < MAX_ITERATIONS / 2; i++) {
+			double time = 0.5 * (lo + hi);
+			evaluate(time);
+
+			if (g <= 0) {
+				return time;
+			}
+
+			if (dg < 0) {
+				lo = time;
+			} else {
+				hi = time;
+			}
+		}
+
+		return NONE;
+	}
+
+	// Safeguarded Newton within a bracket where g(lo) > 0 >= g(hi)
+	private double refine(double lo, double gLo, double hi, double gHi) {
+		double time = lo + (hi - lo) * gLo / (gLo - gHi);
+
+		for (int i = 0; i < MAX_ITERATIONS; i++) {
+			evaluate(time);
+
+			if (Math.abs(g) <= tolerance()) {
+				return time;
+			}
+
+			if (g > 0) {
+				lo = time;
+			} else {
+				hi = time;
+			}
+
+			if (hi - lo <= 1e-9 * (1 + hi)) {
+				return hi;
+			}
+
+			double next = time - g / dg;
+
+			if (!(next > lo && next < hi)) {
+				next = 0.5 * (lo + hi);
+			}
+
+			time = next;
+		}
+
+		return hi;
+	}
+
+	private void evaluate(double t) {
+		rx = px + (vx + 0.5 * ax * t) * t;
+		ry = py + (vy + 0.5 * ay * t) * t;
+		double rvx = vx + ax * t;
+		double rvy = vy + ay * t;
+		rLength = Math.sqrt(rx * rx + ry * ry);
+
+		if (t <= thrustEnd) {
+			distance = (launchSpeed + (0.5 * startAcceleration + jerk * t / 6) * t) * t;
+			speed = launchSpeed + (startAcceleration + 0.5 * jerk * t) * t;
+
+		} else {
+			distance = coastOffset + coastSpeed * t;
+			speed = coastSpeed;
+		}
+
+		g = rLength - distance;
+		dg = (rLength > 0 ? (rx * rvx + ry * rvy) / rLength : 0) - speed;
+		evaluations++;
+	}
+
+	private double tolerance() {
+		return 1e-9 * (rLength + distance) + 1e-3;
+	}
+
+	private void fill(double time, InterceptResult result) {
+		evaluate(time);
+
+		long rounded = Math.round(time);
+		result.timeToIntercept = rounded;
+		result.aimPosition.set(targetX + (long) (rx - px), targetY + (long) (ry - py));
+
+		double directionX = 1;
+		double directionY = 0;
+
+		if (rLength > 0) {
+			directionX = rx / rLength;
+			directionY = ry / rLength;
+
+		} else if (px != 0 || py != 0) {
+			double length = Math.sqrt(px * px + py * py);
+			directionX = px / length;
+			directionY = py / length;
+		}
+
+		double interceptTime = rounded;
+		result.interceptPosition.set(targetX + (long) ((targetVX + 0.5 * targetAX * interceptTime) * interceptTime / 100),
+		                             targetY + (long) ((targetVY + 0.5 * targetAY * interceptTime) * interceptTime / 100));
+
+		result.interceptVelocity.set(shooterVX + (long) (100 * speed * directionX), shooterVY + (long) (100 * speed * directionY));
+		result.relativeInterceptVelocity.set(result.interceptVelocity.x - targetVX - (long) (targetAX * time),
+		                                     result.interceptVelocity.y - targetVY - (long) (targetAY * time));
+	}
+
+	private static double clamp(double value, double min, double max) {
+		return value < min ? min : value > max ? max : value;
+	}
+
+	/**
+	 * Real roots of a*x^2 + b*x + c written to roots from offset
+	 * @return number of roots
+	 */
+	public static int solveQuadratic(double a, double b, double c, double[] roots, int offset) {
+		if (a == 0) {
+			if (b == 0) {
+				return 0;
+			}
+
+			roots[offset] = -c / b;
+			return 1;
+		}
+
+		double discriminant = b * b - 4 * a * c;
+
+		if (discriminant < 0) {
+			if (discriminant < -1e-12 * b * b) {
+				return 0;
+			}
+
+			discriminant = 0; // Rounding of a double root
+		}
+
+		double q = -0.5 * (b + Math.copySign(Math.sqrt(discriminant), b));
+
+		if (q == 0) {
+			roots[offset] = 0;
+			return 1;
+		}
+
+		roots[offset] = q / a;
+		roots[offset + 1] = c / q;
+		return 2;
+	}
+
+	/**
+	 * Real roots of a*x^3 + b*x^2 + c*x + d, a double root is only returned once
+	 * @return number of roots
+	 */
+	public static int solveCubic(double a, double b, double c, double d, double[] roots) {
+		if (a == 0) {
+			return solveQuadratic(b, c, d, roots, 0);
+		}
+
+		b /= a;
+		c /= a;
+		d /= a;
+
+		double q = (b * b - 3 * c) / 9;
+		double r = (2 * b * b * b - 9 * b * c + 27 * d) / 54;
+		double q3 = q * q * q;
+		double shift = b / 3;
+
+		if (r * r < q3) {
+			double theta = Math.acos(r / Math.sqrt(q3));
+			double m = -2 * Math.sqrt(q);
+			roots[0] = m * Math.cos(theta / 3) - shift;
+			roots[1] = m * Math.cos((theta + 2 * Math.PI) / 3) - shift;
+			roots[2] = m * Math.cos((theta - 2 * Math.PI) / 3) - shift;
+			return 3;
+		}
+
+		double u = -Math.copySign(Math.cbrt(Math.abs(r) + Math.sqrt(r * r - q3)), r);
+		double v = u == 0 ? 0 : q / u;
+		roots[0] = u + v - shift;
+		return 1;
+	}
+
+	/**
+	 * Real roots of a*x^4 + b*x^3 + c*x^2 + d*x + e by Ferrari's method, roots must have room for 4
+	 * @return number of roots
+	 */
+	public static int solveQuartic(double a, double b, double c, double d, double e, double[] roots) {
+		if (a == 0) {
+			return solveCubic(b, c, d, e, roots);
+		}
+
+		b /= a;
+		c /= a;
+		d /= a;
+		e /= a;
+
+		// Depressed y^4 + p*y^2 + q*y + r with x = y - b/4
+		double bb = b * b;
+		double p = c - 3 * bb / 8;
+		double q = d - b * c / 2 + bb * b / 8;
+		double r = e - b * d / 4 + bb * c / 16 - 3 * bb * bb / 256;
+
+		double m = largestCubicRoot(p, p * p / 4 - r, -q * q / 8);
+		int count;
+
+		if (!(m > 0)) { // Biquadratic
+			int n = solveQuadratic(1, p, r, roots, 0);
+			double z1 = roots[0];
+			double z2 = roots[1];
+			count = 0;
+
+			if (n > 0 && z1 >= 0) {
+				roots[count++] = Math.sqrt(z1);
+				roots[count++] = -Math.sqrt(z1);
+			}
+
+			if (n > 1 && z2 >= 0) {
+				roots[count++] = Math.sqrt(z2);
+				roots[count++] = -Math.sqrt(z2);
+			}
+
+		} else {
+			double s = Math.sqrt(2 * m);
+			double t = q / (2 * s);
+			count = solveQuadratic(1, -s, p / 2 + m + t, roots, 0);
+			count += solveQuadratic(1, s, p / 2 + m - t, roots, count);
+		}
+
+		double shift = b / 4;
+
+		for (int i = 0; i < count; i++) {
+			double x = roots[i] - shift;
+			double f = (((x + b) * x + c) * x + d) * x + e;
+
+			for (int j = 0; j < 2 && f != 0; j++) {
+				double df = ((4 * x + 3 * b) * x + 2 * c) * x + d;
+
+				if (df == 0) {
+					break;
+				}
+
+				double next = x - f / df;
+				double nextF = (((next + b) * next + c) * next + d) * next + e;
+
+				if (Math.abs(nextF) >= Math.abs(f)) {
+					break;
+				}
+
+				x = next;
+				f = nextF;
+			}
+
+			roots[i] = x;
+		}
+
+		return count;
+	}
+
+	// Largest real root of x^3 + b*x^2 + c*x + d
+	private static double largestCubicRoot(double b, double c, double d) {
+		double q = (b * b - 3 * c) / 9;
+		double r = (2 * b * b * b - 9 * b * c + 27 * d) / 54;
+		double q3 = q * q * q;
+		double x;
+
+		if (r * r < q3) {
+			double theta = Math.acos(r / Math.sqrt(q3));
+			x = -2 * Math.sqrt(q) * Math.cos((theta + 2 * Math.PI) / 3) - b / 3;
+
+		} else {
+			double u = -Math.copySign(Math.cbrt(Math.abs(r) + Math.sqrt(r * r - q3)), r);
+			double v = u == 0 ? 0 : q / u;
+			x = u + v - b / 3;
+		}
+
+		for (int i = 0; i < 2; i++) {
+			double f = ((x + b) * x + c) * x + d;
+			double df = (3 * x + 2 * b) * x + c;
+
+			if (df == 0) {
+				break;
+			}
+
+			x -= f / df;
+		}
+
+		return x;
+	}
+}
@@ -0,0 +1,218 @@
+package se.exuvo.aurora.utils;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from long keys to int values without boxing.
+ * Open addressing with linear probing, removals shift following entries back instead of leaving tombstones.
+ * Not thread safe.
+ */
+public class LongIntMap {
+	private static final long EMPTY = 0;
+	private static final float LOAD_FACTOR = 0.5f;
+
+	private long[] keys;
+	private int[] values;
+	private int mask;
+	private int size;
+	private int threshold;
+
+	// The empty key can not be stored in the table
+	private boolean hasEmptyKey;
+	private int emptyKeyValue;
+
+	public LongIntMap() {
+		this(64);
+	}
+
+	public LongIntMap(int initialCapacity) {
+		int capacity = Integer.highestOneBit(Math.max(4, (int) (initialCapacity / LOAD_FACTOR)) - 1) << 1;
+		keys = new long[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+		threshold = (int) (capacity * LOAD_FACTOR);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the value for key or missingValue if there is none.
+	 */
+	public int get(long key, int missingValue) {
+		if (key == EMPTY) {
+			return hasEmptyKey ? emptyKeyValue : missingValue;
+		}
+
+		final long[] keys = this.keys;
+		int index = hash(key) & mask;
+
+		while (true) {
+			long k = keys[index];
+
+			if (k == key) {
+				return values[index];
+			}
+
+			if (k == EMPTY) {
+				return missingValue;
+			}
+
+			index = (index + 1) & mask;
+		}
+	}
+
+	public boolean containsKey(long key) {
+		if (key == EMPTY) {
+			return hasEmptyKey;
+		}
+
+		int index = hash(key) & mask;
+
+		while (true) {
+			long k = keys[index];
+
+			if (k == key) {
+				return true;
+			}
+
+			if (k == EMPTY) {
+				return false;
+			}
+
+			index = (index + 1) & mask;
+		}
+	}
+
+	public void put(long key, int value) {
+		if (key == EMPTY) {
+			if (!hasEmptyKey) {
+				hasEmptyKey = true;
+				size++;
+			}
+
+			emptyKeyValue = value;
+			return;
+		}
+
+		int index = hash(key) & mask;
+
+		while (true) {
+			long k = keys[index];
+
+			if (k == key) {
+				values[index] = value;
+				return;
+			}
+
+			if (k == EMPTY) {
+				keys[index] = key;
+				values[index] = value;
+
+				if (++size > threshold) {
+					resize(keys.length << 1);
+				}
+				return;
+			}
+
+			index = (index + 1) & mask;
+		}
+	}
+
+	/**
+	 * Returns the removed value or missingValue if key was not present.
+	 */
+	public int remove(long key, int missingValue) {
+		if (key == EMPTY) {
+			if (!hasEmptyKey) {
+				return missingValue;
+			}
+
+			hasEmptyKey = false;
+			size--;
+			return emptyKeyValue;
+		}
+
+		final long[] keys = this.keys;
+		int index = hash(key) & mask;
+
+		while (true) {
+			long k = keys[index];
+
+			if (k == EMPTY) {
+				return missingValue;
+			}
+
+			if (k == key) {
+				break;
+			}
+
+			index = (index + 1) & mask;
+		}
+
+		int oldValue = values[index];
+		size--;
+
+		// Move back entries whose probe sequence passes the freed slot
+		int free = index;
+		index = (index + 1) & mask;
+
+		while (true) {
+			long k = keys[index];
+
+			if (k == EMPTY) {
+				break;
+			}
+
+			int home = hash(k) & mask;
+
+			if (((index - home) & mask) >= ((index - free) & mask)) {
+				keys[free] = k;
+				values[free] = values[index];
+				free = index;
+			}
+
+			index = (index + 1) & mask;
+		}
+
+		keys[free] = EMPTY;
+		return oldValue;
+	}
+
+	public void clear() {
+		Arrays.fill(keys, EMPTY);
+		hasEmptyKey = false;
+		size = 0;
+	}
+
+	private void resize(int capacity) {
+		final long[] oldKeys = keys;
+		final int[] oldValues = values;
+
+		keys = new long[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+		threshold = (int) (capacity * LOAD_FACTOR);
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			long k = oldKeys[i];
+
+			if (k != EMPTY) {
+				int index = hash(k) & mask;
+
+				while (keys[index] != EMPTY) {
+					index = (index + 1) & mask;
+				}
+
+				keys[index] = k;
+				values[index] = oldValues[i];
+			}
+		}
+	}
+
+	private static int hash(long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return (int) (key ^ (key >>> 32));
+	}
+}
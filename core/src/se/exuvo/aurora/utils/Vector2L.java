@@ -16,30 +16,6 @@ public class Vector2L implements Serializable {
 	public static final Vector2L Y = new Vector2L(0, 1);
 	public static final Vector2L Zero = new Vector2L(0, 0);
 	
-	private static final ThreadLocal<BigInt> tmpBigIntX = new ThreadLocal<BigInt>() {
-		@Override protected BigInt initialValue() {
-			return new BigInt(0L);
-		}
-	};
-	
-	private static final ThreadLocal<BigInt> tmpBigIntY = new ThreadLocal<BigInt>() {
-		@Override protected BigInt initialValue() {
-			return new BigInt(0L);
-		}
-	};
-	
-	private static final ThreadLocal<BigInt> tmpBigIntX2 = new ThreadLocal<BigInt>() {
-		@Override protected BigInt initialValue() {
-			return new BigInt(0L);
-		}
-	};
-	
-	private static final ThreadLocal<BigInt> tmpBigIntY2 = new ThreadLocal<BigInt>() {
-		@Override protected BigInt initialValue() {
-			return new BigInt(0L);
-		}
-	};
-
 	/** the x-component of this vector **/
 	public long x;
 	/** the y-component of this vector **/
@@ -73,11 +49,23 @@ public class Vector2L implements Serializable {
 	}
 
 	public static double len(long x, long y) {
-		return FastMath.hypot(x, y);
+		final double xd = x;
+		final double yd = y;
+		return Math.sqrt(xd * xd + yd * yd);
 	}
 
 	public double len() {
-		return FastMath.hypot(x, y);
+		return len(x, y);
+	}
+
+	/** @return the exact squared length rounded to double */
+	public double len2() {
+		return Int128.lengthSquared(x, y);
+	}
+
+	/** @return the exact length rounded down, components must be between -2^62 and 2^62 */
+	public long lenL() {
+		return Int128.length(x, y);
 	}
 
 	public Vector2L set(Vector2L v) {
@@ -161,26 +149,28 @@ public class Vector2L implements Serializable {
 		return this;
 	}
 
-	public static BigInt dot(long x1, long y1, long x2, long y2) {
-	// return x1 * x2 + y1 * y2;
-		BigInt X = tmpBigIntX2.get();
-		BigInt Y = tmpBigIntY2.get();
-		X.assign(x1);
-		Y.assign(y1);
-		X.mul(x2);
-		Y.mul(y2);
-		X.add(Y);
-		return X;
+	/** @return the exact dot product rounded to double */
+	public static double dot(long x1, long y1, long x2, long y2) {
+		return Int128.mulAddToDouble(x1, x2, y1, y2);
 	}
 
-	public BigInt dot(Vector2L v) {
+	public double dot(Vector2L v) {
 		return dot(v.x, v.y);
 	}
 
-	public BigInt dot(long ox, long oy) {
+	public double dot(long ox, long oy) {
 		return dot(x, y, ox, oy);
 	}
 
+	/** @return the sign of the exact dot product */
+	public static int dotSignum(long x1, long y1, long x2, long y2) {
+		return Int128.mulAddSignum(x1, x2, y1, y2);
+	}
+
+	public int dotSignum(Vector2L v) {
+		return dotSignum(x, y, v.x, v.y);
+	}
+
 	public Vector2L scl(long scalar) {
 		x *= scalar;
 		y *= scalar;
@@ -234,15 +224,16 @@ public class Vector2L implements Serializable {
 	}
 
 	public static double dst(long x1, long y1, long x2, long y2) {
-		final long x_d = x2 - x1;
-		final long y_d = y2 - y1;
-		return FastMath.hypot(x_d, y_d);
+		return len(x2 - x1, y2 - y1);
 	}
 
 	public double dst(Vector2L v) {
-		final long x_d = v.x - x;
-		final long y_d = v.y - y;
-		return FastMath.hypot(x_d, y_d);
+		return len(v.x - x, v.y - y);
+	}
+
+	/** @return the exact distance rounded down, components of the difference must be between -2^62 and 2^62 */
+	public long dstL(Vector2L v) {
+		return Int128.length(v.x - x, v.y - y);
 	}
 
 	/**
@@ -251,9 +242,7 @@ public class Vector2L implements Serializable {
 	 * @return the distance between this and the other vector
 	 */
 	public double dst(long x, long y) {
-		final long x_d = x - this.x;
-		final long y_d = y - this.y;
-		return FastMath.hypot(x_d, y_d);
+		return len(x - this.x, y - this.y);
 	}
 	
 	/**
@@ -341,7 +330,7 @@ public class Vector2L implements Serializable {
 	 * @param v the other vector
 	 * @return the cross product
 	 */
-	public BigInt crs(Vector2L v) {
+	public double crs(Vector2L v) {
 		return crs(v.x, v.y);
 	}
 
@@ -350,18 +339,15 @@ public class Vector2L implements Serializable {
 	 * 
 	 * @param x the x-coordinate of the other vector
 	 * @param y the y-coordinate of the other vector
-	 * @return the cross product
+	 * @return the exact cross product rounded to double
 	 */
-	public BigInt crs(long x, long y) {
-		// return this.x * y - this.y * x;
-		BigInt X = tmpBigIntX.get();
-		BigInt Y = tmpBigIntY.get();
-		X.assign(this.x);
-		Y.assign(this.y);
-		X.mul(y);
-		Y.mul(x);
-		X.sub(Y);
-		return X;
+	public double crs(long x, long y) {
+		return Int128.mulSubToDouble(this.x, y, this.y, x);
+	}
+
+	/** @return the sign of the exact cross product */
+	public int crsSignum(Vector2L v) {
+		return Int128.mulSubSignum(x, v.y, y, v.x);
 	}
 	
 	public double angleTo(Vector2L other){
@@ -405,7 +391,7 @@ public class Vector2L implements Serializable {
 	 *         counter-clockwise.)
 	 */
 	public double angleRad(Vector2L reference) {
-		return FastMath.atan2(crs(reference).doubleValue(), dot(reference).doubleValue());
+		return FastMath.atan2(crs(reference), dot(reference));
 	}
 
 	/**
@@ -504,30 +490,8 @@ public class Vector2L implements Serializable {
 	
 	public Vector2L lerp(Vector2L target, long current, long max) {
 		final long invAlpha = max - current;
-		
-		BigInt X1 = tmpBigIntX.get();
-		BigInt Y1 = tmpBigIntY.get();
-		X1.assign(x);
-		Y1.assign(y);
-		X1.mul(invAlpha);
-		Y1.mul(invAlpha);
-		
-		BigInt X2 = tmpBigIntX2.get();
-		BigInt Y2 = tmpBigIntY2.get();
-		X2.assign(target.x);
-		Y2.assign(target.y);
-		X2.mul(current);
-		Y2.mul(current);
-		
-		X1.add(X2);
-		Y1.add(Y2);
-		
-		X1.div(max);
-		Y1.div(max);
-		
-		x = X1.longValue();
-		y = Y1.longValue();
-		
+		x = Int128.mulAddDiv(x, invAlpha, target.x, current, max);
+		y = Int128.mulAddDiv(y, invAlpha, target.y, current, max);
 		return this;
 	}
 	
@@ -560,31 +524,31 @@ public class Vector2L implements Serializable {
 	}
 
 	public boolean isOnLine(Vector2L other) {
-		return MathUtils.isZero(x * other.y - y * other.x);
+		return crsSignum(other) == 0;
 	}
 
 	public boolean isOnLine(Vector2L other, float epsilon) {
-		return MathUtils.isZero(x * other.y - y * other.x, epsilon);
+		return MathUtils.isZero((float) crs(other), epsilon);
 	}
 
 	public boolean isCollinear(Vector2L other, float epsilon) {
-		return isOnLine(other, epsilon) && dot(other).compareTo(BigInt.ZERO) == 1;
+		return isOnLine(other, epsilon) && dotSignum(other) == 1;
 	}
 
 	public boolean isCollinear(Vector2L other) {
-		return isOnLine(other) && dot(other).compareTo(BigInt.ZERO) == 1;
+		return isOnLine(other) && dotSignum(other) == 1;
 	}
 
 	public boolean isCollinearOpposite(Vector2L other, float epsilon) {
-		return isOnLine(other, epsilon) && dot(other).compareTo(BigInt.ZERO) == -1;
+		return isOnLine(other, epsilon) && dotSignum(other) == -1;
 	}
 
 	public boolean isCollinearOpposite(Vector2L other) {
-		return isOnLine(other) && dot(other).compareTo(BigInt.ZERO) == -1;
+		return isOnLine(other) && dotSignum(other) == -1;
 	}
 
 	public boolean isPerpendicular(Vector2L vector) {
-		return dot(vector).isZero();
+		return dotSignum(vector) == 0;
 	}
 
 //	public boolean isPerpendicular(Vector2L vector, float epsilon) {
@@ -592,11 +556,11 @@ public class Vector2L implements Serializable {
 //	}
 
 	public boolean hasSameDirection(Vector2L vector) {
-		return dot(vector).compareTo(BigInt.ZERO) == 1;
+		return dotSignum(vector) == 1;
 	}
 
 	public boolean hasOppositeDirection(Vector2L vector) {
-		return dot(vector).compareTo(BigInt.ZERO) == -1;
+		return dotSignum(vector) == -1;
 	}
 
 	public Vector2L setZero() {
@@ -0,0 +1,142 @@
+package se.exuvo.aurora.utils.quadtree;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Records modifications made to a quadtree so that an identical copy can be kept up to date by replaying them.
+ * Replaying requires the copy to have been identical to the original when recording started.
+ * @author exuvo
+ */
+public class QuadtreeLog {
+	private static final int OP_INSERT = 0, OP_REMOVE = 1, OP_CLEANUP = 2;
+
+	private final int maxSize;
+	private int[] data = new int[64];
+	private int size = 0;
+	private boolean overflow = false;
+
+	/**
+	 * @param maxSize max number of recorded ints after which a full copy is cheaper than replaying
+	 */
+	public QuadtreeLog(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Returns true if anything was modified since last clear
+	 */
+	public boolean isChanged() {
+		return size > 0 || overflow;
+	}
+
+	/**
+	 * Returns true if too many modifications were made to be replayed and a full copy is required
+	 */
+	public boolean isOverflow() {
+		return overflow;
+	}
+
+	public void clear() {
+		size = 0;
+		overflow = false;
+	}
+
+	public void insert(int id, int x, int y) {
+		if (reserve(4)) {
+			data[size++] = OP_INSERT;
+			data[size++] = id;
+			data[size++] = x;
+			data[size++] = y;
+		}
+	}
+
+	public void insert(int id, int x1, int y1, int x2, int y2) {
+		if (reserve(6)) {
+			data[size++] = OP_INSERT;
+			data[size++] = id;
+			data[size++] = x1;
+			data[size++] = y1;
+			data[size++] = x2;
+			data[size++] = y2;
+		}
+	}
+
+	public void remove(int elementIdx) {
+		if (reserve(2)) {
+			data[size++] = OP_REMOVE;
+			data[size++] = elementIdx;
+		}
+	}
+
+	public void cleanupFull() {
+		if (reserve(1)) {
+			data[size++] = OP_CLEANUP;
+		}
+	}
+
+	private boolean reserve(int amount) {
+		if (overflow) {
+			return false;
+		}
+
+		if (size + amount > maxSize) {
+			overflow = true;
+			size = 0;
+			return false;
+		}
+
+		if (size + amount > data.length) {
+			int[] newData = new int[Math.min(maxSize, data.length * 2 + amount)];
+			System.arraycopy(data, 0, newData, 0, size);
+			data = newData;
+		}
+
+		return true;
+	}
+
+	public void replay(@NotNull QuadtreePoint tree) {
+		int i = 0;
+
+		while (i < size) {
+			switch (data[i]) {
+				case OP_INSERT:
+					tree.insert(data[i + 1], data[i + 2], data[i + 3]);
+					i += 4;
+					break;
+				case OP_REMOVE:
+					tree.remove(data[i + 1]);
+					i += 2;
+					break;
+				case OP_CLEANUP:
+					tree.cleanupFull();
+					i += 1;
+					break;
+				default:
+					throw new IllegalStateException("Unknown operation " + data[i] + " at " + i);
+			}
+		}
+	}
+
+	public void replay(@NotNull QuadtreeAABB tree) {
+		int i = 0;
+
+		while (i < size) {
+			switch (data[i]) {
+				case OP_INSERT:
+					tree.insert(data[i + 1], data[i + 2], data[i + 3], data[i + 4], data[i + 5]);
+					i += 6;
+					break;
+				case OP_REMOVE:
+					tree.remove(data[i + 1]);
+					i += 2;
+					break;
+				case OP_CLEANUP:
+					tree.cleanupFull();
+					i += 1;
+					break;
+				default:
+					throw new IllegalStateException("Unknown operation " + data[i] + " at " + i);
+			}
+		}
+	}
+}